@@ -0,0 +1,67 @@
+package main.benchmark;
+
+import main.classifier.Classifiers;
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.apache.commons.collections4.keyvalue.DefaultKeyValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scoring predicted labels against the actual labels, per image, both of labeled images in the same order and of
+ * label ids
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AccuracyBenchmark {
+
+    private List<KeyValue<String, ClassifierImage>> actualImages;
+    private List<KeyValue<String, ClassifierImage>> predictedImages;
+    private int[] actualLabelIds;
+    private int[] predictedLabelIds;
+
+    @Setup
+    public void setUp(SyntheticDataState data) {
+        // predict every image's label right except every third image, which is predicted as the next image's label
+        actualImages = data.labeledTestImages;
+        predictedImages = new ArrayList<>();
+        actualLabelIds = new int[actualImages.size()];
+        predictedLabelIds = new int[actualImages.size()];
+        for (int i = 0; i < actualImages.size(); i++) {
+            int predicted = i % 3 == 0 ? (i + 1) % actualImages.size() : i;
+            predictedImages.add(new DefaultKeyValue<>(
+                    actualImages.get(predicted).getKey(), actualImages.get(i).getValue()));
+            actualLabelIds[i] = actualImages.get(i).getKey().hashCode();
+            predictedLabelIds[i] = actualImages.get(predicted).getKey().hashCode();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticDataState.IMAGES_PER_BATCH)
+    public double calculateAccuracyOfImages() {
+        return Classifiers.calculateAccuracy(actualImages, predictedImages);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticDataState.IMAGES_PER_BATCH)
+    public double calculateAccuracyOfLabelIds() {
+        return Classifiers.calculateAccuracy(actualLabelIds, predictedLabelIds);
+    }
+}
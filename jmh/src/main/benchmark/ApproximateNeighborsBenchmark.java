@@ -0,0 +1,175 @@
+package main.benchmark;
+
+import main.cifar10.Cifar10BinaryReader;
+import main.classifier.DistanceKernel;
+import main.classifier.DistanceKernels;
+import main.classifier.KNNClassifier;
+import main.classifier.LinearScanIndex;
+import main.classifier.NeighborCache;
+import main.classifier.NeighborIndex;
+import main.classifier.PrincipalComponentsTransform;
+import main.classifier.QuantizedIndex;
+import main.classifier.RandomProjectionForest;
+import main.classifier.RandomProjectionTransform;
+import main.classifier.ReducedFeatureIndex;
+import main.config.Config;
+import main.data.ClassifierImage;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searching approximate neighbor indexes for the closest training images to a batch of test images, per image,
+ * against the exact linear scan: random projection forests for a range of forest sizes and search budgets, scans of
+ * images reduced to a range of feature sizes by principal components and random projections, and quantized scans
+ * for a range of code sizes and rerank candidates
+ *
+ * The exact closest training images the index also finds, and the exact closest training images looked for, are
+ * reported alongside, so their ratio is the recall@k. Quantized scans compare their candidates exactly, so their
+ * recall@k is the recall of the candidate scan. Indexes are built before measuring.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ApproximateNeighborsBenchmark {
+
+    /** Number of test images searched for per invocation */
+    private static final int SEARCH_BATCH_SIZE = 200;
+    private static final int K = 10;
+
+    /**
+     * "linear scan", "forest" with number of trees, leaf size and search candidates, "pca" or "random projection"
+     * with number of features, or "quantized" with bits per pixel code and rerank candidates
+     */
+    @Param({
+            "linear scan",
+            "forest 1 32 500", "forest 4 32 1000", "forest 8 32 2000", "forest 8 32 5000", "forest 16 32 5000",
+            "pca 64", "pca 128", "pca 256",
+            "random projection 64", "random projection 128", "random projection 256",
+            "quantized 4 50", "quantized 4 200", "quantized 2 200", "quantized 2 1000"})
+    public String index;
+
+    private String previousNeighborCacheDirectory;
+    private KNNClassifier classifier;
+    private List<ClassifierImage> queryImages;
+    private long exactNeighborsFoundPerInvocation;
+    private long exactNeighborsPerInvocation;
+
+    /**
+     * Exact closest training images found by the index and exact closest training images looked for, summed over
+     * the invocations of an iteration
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Recall {
+        public long exactNeighborsFound;
+        public long exactNeighbors;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            exactNeighborsFound = 0;
+            exactNeighbors = 0;
+        }
+    }
+
+    @Setup
+    public void setUp(SyntheticDataState data) throws IOException {
+        previousNeighborCacheDirectory = Config.NEIGHBOR_CACHE_DIRECTORY;
+        // every invocation must search the index, even if runs are configured to reuse saved neighbors
+        Config.NEIGHBOR_CACHE_DIRECTORY = null;
+        queryImages = data.getQueryImages(SEARCH_BATCH_SIZE);
+        DistanceKernel kernel = DistanceKernels.getBestKernel();
+
+        NeighborCache exactNeighbors;
+        try (KNNClassifier exactClassifier
+                     = new KNNClassifier(Config.NUM_PREDICTION_THREADS, kernel, new LinearScanIndex())) {
+            exactClassifier.train(Cifar10BinaryReader.streamTrainingData());
+            exactNeighbors = exactClassifier.getNeighborCache(queryImages, K, "benchmark");
+        }
+
+        classifier = new KNNClassifier(Config.NUM_PREDICTION_THREADS, kernel, createIndex(index));
+        classifier.train(Cifar10BinaryReader.streamTrainingData());
+        // the index is built by the first search
+        NeighborCache neighbors = classifier.getNeighborCache(queryImages, K, "benchmark");
+        for (int query = 0; query < exactNeighbors.getNumQueries(); query++) {
+            exactNeighborsFoundPerInvocation += countFound(exactNeighbors, neighbors, query);
+            exactNeighborsPerInvocation += exactNeighbors.getNeighborCount(query);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        classifier.close();
+        Config.NEIGHBOR_CACHE_DIRECTORY = previousNeighborCacheDirectory;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEARCH_BATCH_SIZE)
+    public NeighborCache findNeighbors(Recall recall) {
+        recall.exactNeighborsFound += exactNeighborsFoundPerInvocation;
+        recall.exactNeighbors += exactNeighborsPerInvocation;
+        return classifier.getNeighborCache(queryImages, K, "benchmark");
+    }
+
+    /**
+     * @param index description of the index in the format of {@link #index}
+     */
+    private static NeighborIndex createIndex(String index) {
+        String[] words = index.split(" ");
+        switch (words[0]) {
+            case "linear":
+                return new LinearScanIndex();
+            case "forest":
+                return new RandomProjectionForest(Integer.parseInt(words[1]), Integer.parseInt(words[2]),
+                        Integer.parseInt(words[3]), Config.RANDOM_PROJECTION_SEED);
+            case "pca":
+                return new ReducedFeatureIndex(new PrincipalComponentsTransform(
+                        Integer.parseInt(words[1]), Config.PCA_SAMPLE_SIZE, Config.FEATURE_TRANSFORM_SEED));
+            case "random":
+                return new ReducedFeatureIndex(new RandomProjectionTransform(
+                        Integer.parseInt(words[2]), Config.FEATURE_TRANSFORM_SEED));
+            case "quantized":
+                return new QuantizedIndex(Integer.parseInt(words[1]), Integer.parseInt(words[2]));
+            default:
+                throw new IllegalArgumentException("unknown index " + index);
+        }
+    }
+
+    /**
+     * @return number of the exact closest training images to a query image that were also found
+     */
+    private static int countFound(NeighborCache exactNeighbors, NeighborCache approximateNeighbors, int query) {
+        Set<Integer> found = new HashSet<>();
+        for (int j = 0; j < approximateNeighbors.getNeighborCount(query); j++) {
+            found.add(approximateNeighbors.getIndex(query, j));
+        }
+        int hits = 0;
+        for (int j = 0; j < exactNeighbors.getNeighborCount(query); j++) {
+            if (found.contains(exactNeighbors.getIndex(query, j))) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,76 @@
+package main.benchmark;
+
+import main.classifier.DistanceKernel;
+import main.classifier.DistanceKernels;
+import main.classifier.ScalarL1DistanceKernel;
+import main.classifier.ScalarL2DistanceKernel;
+import main.config.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Calculating the full distance between a query image and a training image, per distance, for every metric with
+ * both the scalar kernel and the fastest kernel supported by the running JVM
+ *
+ * The classifier's private calculateImageDistance only delegates to its distance kernel, so the kernels are called
+ * directly.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DistanceBenchmark {
+
+    /** Number of training images each query image is compared to per invocation */
+    private static final int DISTANCES_PER_INVOCATION = 64;
+
+    @Param({"L1", "L2"})
+    public String metric;
+
+    @Param({"scalar", "best"})
+    public String kernelType;
+
+    private DistanceKernel kernel;
+    private byte[] trainingPixels;
+    private byte[] queryImage;
+
+    @Setup
+    public void setUp(SyntheticDataState data) {
+        if ("scalar".equals(kernelType)) {
+            kernel = "L1".equals(metric) ? new ScalarL1DistanceKernel() : new ScalarL2DistanceKernel();
+        } else {
+            kernel = DistanceKernels.getBestKernel(metric);
+        }
+        trainingPixels = new byte[DISTANCES_PER_INVOCATION * Config.RGB_FLAT_IMAGE_SIZE];
+        for (int i = 0; i < DISTANCES_PER_INVOCATION; i++) {
+            System.arraycopy(data.labeledTrainingImages.get(i).getValue().toFlatImage(), 0,
+                    trainingPixels, i * Config.RGB_FLAT_IMAGE_SIZE, Config.RGB_FLAT_IMAGE_SIZE);
+        }
+        queryImage = data.labeledTestImages.get(0).getValue().toFlatImage();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(DISTANCES_PER_INVOCATION)
+    public long distance() {
+        long sum = 0;
+        for (int i = 0; i < DISTANCES_PER_INVOCATION; i++) {
+            sum += kernel.distance(queryImage, 0, trainingPixels, i * Config.RGB_FLAT_IMAGE_SIZE,
+                    Config.RGB_FLAT_IMAGE_SIZE, Integer.MAX_VALUE);
+        }
+        return sum;
+    }
+}
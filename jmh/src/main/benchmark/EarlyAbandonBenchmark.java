@@ -0,0 +1,179 @@
+package main.benchmark;
+
+import main.cifar10.Cifar10BinaryReader;
+import main.classifier.DistanceKernel;
+import main.classifier.DistanceKernels;
+import main.classifier.KNNClassifier;
+import main.classifier.LinearScanIndex;
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Predicting a batch of test images on one thread through a linear scan, per image, abandoning distance calculations
+ * early and calculating every distance in full, for a range of k-values. The bytes the kernel compared and the bytes
+ * it was offered are reported alongside, so the fraction early abandoning skips can be compared between runs. That it
+ * predicts exactly the same labels as full distances is checked by <code>LinearScanIndexTest</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EarlyAbandonBenchmark {
+
+    /** Number of test images predicted per invocation */
+    private static final int PREDICT_BATCH_SIZE = 100;
+
+    @Param({"1", "5", "25"})
+    public int k;
+
+    @Param({"true", "false"})
+    public boolean earlyAbandon;
+
+    private KNNClassifier classifier;
+    private List<ClassifierImage> queryImages;
+    private long bytesComparedPerInvocation;
+    private long bytesOfferedPerInvocation;
+
+    /**
+     * Bytes compared by the kernel and bytes of training images it was offered, summed over the invocations of an
+     * iteration
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class BytesCompared {
+        public long bytesCompared;
+        public long bytesOffered;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytesCompared = 0;
+            bytesOffered = 0;
+        }
+    }
+
+    @Setup
+    public void setUp(SyntheticDataState data) throws IOException {
+        queryImages = data.getQueryImages(PREDICT_BATCH_SIZE);
+        DistanceKernel kernel = DistanceKernels.getBestKernel();
+        classifier = new KNNClassifier(1, earlyAbandon ? kernel : new FullDistanceKernel(kernel),
+                new LinearScanIndex());
+        classifier.train(Cifar10BinaryReader.streamTrainingData());
+
+        // counted once up front, so counting isn't measured
+        CountingDistanceKernel countingKernel = new CountingDistanceKernel(kernel);
+        try (KNNClassifier countingClassifier = new KNNClassifier(1,
+                earlyAbandon ? countingKernel : new FullDistanceKernel(countingKernel), new LinearScanIndex())) {
+            countingClassifier.train(Cifar10BinaryReader.streamTrainingData());
+            countingClassifier.predict(queryImages, k);
+            bytesComparedPerInvocation = countingKernel.getBytesCompared();
+            bytesOfferedPerInvocation = (long) PREDICT_BATCH_SIZE * countingClassifier.size()
+                    * queryImages.get(0).getFlatImageSize();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        classifier.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PREDICT_BATCH_SIZE)
+    public List<KeyValue<String, ClassifierImage>> predict(BytesCompared bytesCompared) {
+        bytesCompared.bytesCompared += bytesComparedPerInvocation;
+        bytesCompared.bytesOffered += bytesOfferedPerInvocation;
+        return classifier.predict(queryImages, k);
+    }
+
+    /**
+     * Ignores the early abandon threshold and always calculates the full distance
+     */
+    private static class FullDistanceKernel implements DistanceKernel {
+        private final DistanceKernel kernel;
+
+        FullDistanceKernel(DistanceKernel kernel) {
+            this.kernel = kernel;
+        }
+
+        @Override
+        public int distance(byte[] imageA, int offsetA, byte[] imageB, int offsetB, int length) {
+            return kernel.distance(imageA, offsetA, imageB, offsetB, length);
+        }
+
+        @Override
+        public int distance(byte[] imageA, int offsetA, byte[] imageB, int offsetB, int length, int threshold) {
+            return kernel.distance(imageA, offsetA, imageB, offsetB, length);
+        }
+
+        @Override
+        public int distance(byte[] imageA, int offsetA, ByteBuffer imageB, int offsetB, int length) {
+            return kernel.distance(imageA, offsetA, imageB, offsetB, length);
+        }
+
+        @Override
+        public int distance(byte[] imageA, int offsetA, ByteBuffer imageB, int offsetB, int length, int threshold) {
+            return kernel.distance(imageA, offsetA, imageB, offsetB, length);
+        }
+
+        @Override
+        public String getMetricName() {
+            return kernel.getMetricName();
+        }
+    }
+
+    /**
+     * Counts the bytes compared by the wrapped kernel. Early abandoning calculates distances block by block,
+     * so only the blocks actually compared are counted.
+     */
+    private static class CountingDistanceKernel implements DistanceKernel {
+        private final DistanceKernel kernel;
+        private final LongAdder bytesCompared = new LongAdder();
+
+        CountingDistanceKernel(DistanceKernel kernel) {
+            this.kernel = kernel;
+        }
+
+        @Override
+        public int distance(byte[] imageA, int offsetA, byte[] imageB, int offsetB, int length) {
+            bytesCompared.add(length);
+            return kernel.distance(imageA, offsetA, imageB, offsetB, length);
+        }
+
+        @Override
+        public int distance(byte[] imageA, int offsetA, ByteBuffer imageB, int offsetB, int length) {
+            bytesCompared.add(length);
+            return kernel.distance(imageA, offsetA, imageB, offsetB, length);
+        }
+
+        @Override
+        public String getMetricName() {
+            return kernel.getMetricName();
+        }
+
+        long getBytesCompared() {
+            return bytesCompared.sum();
+        }
+    }
+}
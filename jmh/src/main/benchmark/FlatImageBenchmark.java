@@ -0,0 +1,35 @@
+package main.benchmark;
+
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copying an image into a flat array, per image
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlatImageBenchmark {
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticDataState.IMAGES_PER_BATCH)
+    public long toFlatImage(SyntheticDataState data) {
+        long sum = 0;
+        for (KeyValue<String, ClassifierImage> labeledImage : data.labeledTestImages) {
+            sum += labeledImage.getValue().toFlatImage()[0];
+        }
+        return sum;
+    }
+}
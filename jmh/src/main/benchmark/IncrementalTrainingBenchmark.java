@@ -0,0 +1,117 @@
+package main.benchmark;
+
+import main.classifier.IncrementalKNNClassifier;
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicting a batch of test images with an incremental classifier, per image, with and without training images being
+ * added and evicted concurrently. That it predicts the same labels as a classifier trained from scratch, and the
+ * labels of some published training set while images are added and evicted, is checked by
+ * <code>IncrementalKNNClassifierTest</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IncrementalTrainingBenchmark {
+
+    /** Number of test images predicted per invocation */
+    private static final int PREDICT_BATCH_SIZE = 200;
+    private static final int K = 5;
+
+    /** Training images added, and as many of the oldest evicted, per second while ingesting */
+    private static final int INGEST_RATE = 2000;
+    private static final int INGEST_BATCH_SIZE = 20;
+
+    @Param({"false", "true"})
+    public boolean ingest;
+
+    private IncrementalKNNClassifier classifier;
+    private List<KeyValue<String, ClassifierImage>> labeledTrainingImages;
+    private List<ClassifierImage> queryImages;
+    private Thread ingestThread;
+
+    @Setup
+    public void setUp(SyntheticDataState data) {
+        labeledTrainingImages = data.labeledTrainingImages;
+        queryImages = data.getQueryImages(PREDICT_BATCH_SIZE);
+        classifier = new IncrementalKNNClassifier();
+        classifier.addAll(labeledTrainingImages);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        classifier.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void startIngest() {
+        if (ingest) {
+            ingestThread = new Thread(this::ingest);
+            ingestThread.start();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void stopIngest() throws InterruptedException {
+        if (ingestThread != null) {
+            ingestThread.interrupt();
+            ingestThread.join();
+            ingestThread = null;
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PREDICT_BATCH_SIZE)
+    public List<KeyValue<String, ClassifierImage>> predict() {
+        return classifier.predict(queryImages, K);
+    }
+
+    /**
+     * Adds training images in small batches at <code>INGEST_RATE</code> images per second until interrupted,
+     * evicting as many of the oldest images each time so the training set stays the same size
+     */
+    private void ingest() {
+        long start = System.nanoTime();
+        long ingested = 0;
+        int next = 0;
+        while (!Thread.currentThread().isInterrupted()) {
+            int to = Math.min(next + INGEST_BATCH_SIZE, labeledTrainingImages.size());
+            classifier.addAll(labeledTrainingImages.subList(next, to));
+            classifier.evictOldest(to - next);
+            ingested += to - next;
+            next = to == labeledTrainingImages.size() ? 0 : to;
+
+            long dueNanos = start + ingested * 1_000_000_000L / INGEST_RATE;
+            long sleepNanos = dueNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1_000_000, (int) (sleepNanos % 1_000_000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package main.benchmark;
+
+import main.cifar10.Cifar10BinaryReader;
+import main.classifier.DistanceKernels;
+import main.classifier.KNNClassifier;
+import main.classifier.LinearScanIndex;
+import main.classifier.MatrixMultiplyIndex;
+import main.classifier.NeighborCache;
+import main.config.Config;
+import main.data.ClassifierImage;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the nearest neighbors of a batch of test images, per image, calculating L2 distances as a matrix multiply
+ * and scanning the training set pixel by pixel, with an L1 linear scan for reference. That the matrix multiply finds
+ * exactly the same neighbors at exactly the same distances is checked by <code>MatrixMultiplyIndexTest</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MatrixMultiplyBenchmark {
+
+    /** Number of test images searched per invocation */
+    private static final int SEARCH_BATCH_SIZE = 256;
+    private static final int NUM_NEIGHBORS = 10;
+
+    @Param({"L1 linear scan", "L2 linear scan", "L2 matrix multiply"})
+    public String search;
+
+    private String previousNeighborCacheDirectory;
+    private KNNClassifier classifier;
+    private List<ClassifierImage> queryImages;
+
+    @Setup
+    public void setUp(SyntheticDataState data) throws IOException {
+        previousNeighborCacheDirectory = Config.NEIGHBOR_CACHE_DIRECTORY;
+        // every invocation must search the training set, even if runs are configured to reuse saved neighbors
+        Config.NEIGHBOR_CACHE_DIRECTORY = null;
+        queryImages = data.getQueryImages(SEARCH_BATCH_SIZE);
+        switch (search) {
+            case "L1 linear scan":
+                classifier = new KNNClassifier(Config.NUM_PREDICTION_THREADS, DistanceKernels.getBestKernel("L1"),
+                        new LinearScanIndex());
+                break;
+            case "L2 linear scan":
+                classifier = new KNNClassifier(Config.NUM_PREDICTION_THREADS, DistanceKernels.getBestKernel("L2"),
+                        new LinearScanIndex());
+                break;
+            case "L2 matrix multiply":
+                classifier = new KNNClassifier(Config.NUM_PREDICTION_THREADS, DistanceKernels.getBestKernel("L2"),
+                        new MatrixMultiplyIndex());
+                break;
+            default:
+                throw new IllegalArgumentException("unknown search " + search);
+        }
+        classifier.train(Cifar10BinaryReader.streamTrainingData());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        classifier.close();
+        Config.NEIGHBOR_CACHE_DIRECTORY = previousNeighborCacheDirectory;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SEARCH_BATCH_SIZE)
+    public NeighborCache findNeighbors() {
+        return classifier.getNeighborCache(queryImages, NUM_NEIGHBORS, "benchmark");
+    }
+}
@@ -0,0 +1,65 @@
+package main.benchmark;
+
+import main.cifar10.Cifar10BinaryReader;
+import main.classifier.DistanceKernels;
+import main.classifier.KNNClassifier;
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicting a batch of test images with one and with several prediction threads, per batch, both a batch large
+ * enough to split between threads and one smaller than the number of threads, which splits the training set between
+ * them instead. That every thread count predicts exactly the same labels is checked by <code>KNNClassifierTest</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ParallelPredictBenchmark {
+
+    private static final int K = 5;
+
+    @Param({"1", "2", "4"})
+    public int numThreads;
+
+    @Param({"2", "200"})
+    public int numQueryImages;
+
+    private KNNClassifier classifier;
+    private List<ClassifierImage> queryImages;
+
+    @Setup
+    public void setUp(SyntheticDataState data) throws IOException {
+        queryImages = data.getQueryImages(numQueryImages);
+        classifier = new KNNClassifier(numThreads, DistanceKernels.getBestKernel());
+        classifier.train(Cifar10BinaryReader.streamTrainingData());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        classifier.close();
+    }
+
+    @Benchmark
+    public List<KeyValue<String, ClassifierImage>> predict() {
+        return classifier.predict(queryImages, K);
+    }
+}
@@ -0,0 +1,73 @@
+package main.benchmark;
+
+import main.cifar10.Cifar10Batch;
+import main.cifar10.Cifar10BinaryReader;
+import main.classifier.DistanceKernels;
+import main.classifier.KNNClassifier;
+import main.config.Config;
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicting a fixed batch of test images with a classifier trained on every training image, per image, for every
+ * metric
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PredictBenchmark {
+
+    /** Number of test images predicted per invocation */
+    private static final int PREDICT_BATCH_SIZE = 100;
+    private static final int K = 5;
+
+    @Param({"L1", "L2"})
+    public String metric;
+
+    private KNNClassifier classifier;
+    private List<ClassifierImage> queryImages;
+
+    @Setup
+    public void setUp(SyntheticDataState data) throws IOException {
+        queryImages = new ArrayList<>();
+        for (KeyValue<String, ClassifierImage> labeledImage : data.labeledTestImages.subList(0, PREDICT_BATCH_SIZE)) {
+            queryImages.add(labeledImage.getValue());
+        }
+        classifier = new KNNClassifier(Config.NUM_PREDICTION_THREADS, DistanceKernels.getBestKernel(metric));
+        for (Cifar10Batch trainingBatch : Cifar10BinaryReader.mapTrainingData()) {
+            classifier.train(trainingBatch);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        classifier.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PREDICT_BATCH_SIZE)
+    public List<KeyValue<String, ClassifierImage>> predict() {
+        return classifier.predict(queryImages, K);
+    }
+}
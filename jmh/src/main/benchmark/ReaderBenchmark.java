@@ -0,0 +1,52 @@
+package main.benchmark;
+
+import main.cifar10.Cifar10Batch;
+import main.cifar10.Cifar10BinaryReader;
+import main.classifier.KNNClassifier;
+import main.config.Config;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding CIFAR-10 batch files into labeled images, and training a classifier straight from the mapped files, per
+ * image
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReaderBenchmark {
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticDataState.IMAGES_PER_BATCH)
+    public int readCifar10Dataset(SyntheticDataState data) throws IOException {
+        return Cifar10BinaryReader.readCifar10Dataset(Config.TRAINING_IMAGES_PATHS.get(0)).size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticDataState.NUM_TRAINING_BATCHES * SyntheticDataState.IMAGES_PER_BATCH)
+    public int loadTrainingData(SyntheticDataState data) throws IOException {
+        return Cifar10BinaryReader.loadTrainingData().size();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(SyntheticDataState.NUM_TRAINING_BATCHES * SyntheticDataState.IMAGES_PER_BATCH)
+    public KNNClassifier trainFromMappedBatches(SyntheticDataState data) throws IOException {
+        try (KNNClassifier classifier = new KNNClassifier(1)) {
+            for (Cifar10Batch trainingBatch : Cifar10BinaryReader.mapTrainingData()) {
+                classifier.train(trainingBatch);
+            }
+            return classifier;
+        }
+    }
+}
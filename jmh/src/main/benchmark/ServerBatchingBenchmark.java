@@ -0,0 +1,124 @@
+package main.benchmark;
+
+import main.cifar10.Cifar10Batch;
+import main.cifar10.Cifar10BinaryReader;
+import main.classifier.KNNClassifier;
+import main.config.Config;
+import main.server.BatchingClassifier;
+import main.server.ClassificationServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Classifying one test image at a time over each of many concurrent connections to the classification server, with
+ * and without batching the images of every connection together. Throughput and the percentiles of round-trip times
+ * are both reported. That the server predicts exactly the same labels as the classifier is checked by
+ * <code>ClassificationServerTest</code>.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(32)
+@State(Scope.Benchmark)
+public class ServerBatchingBenchmark {
+
+    private static final int K = 5;
+    /** Number of test images the connections take turns sending */
+    private static final int NUM_TEST_IMAGES = 640;
+
+    /** Maximum batch size and wait in milliseconds, separated by "x" */
+    @Param({"1x0", "16x1", "64x2"})
+    public String batching;
+
+    private KNNClassifier classifier;
+    private ClassificationServer server;
+    private byte[][] testImages;
+    private final AtomicInteger nextConnection = new AtomicInteger();
+
+    @Setup
+    public void setUp(SyntheticDataState data) throws IOException {
+        String[] settings = batching.split("x");
+        classifier = new KNNClassifier();
+        classifier.train(Cifar10BinaryReader.streamTrainingData());
+        BatchingClassifier batchingClassifier = new BatchingClassifier(classifier, K,
+                Integer.parseInt(settings[0]), TimeUnit.MILLISECONDS.toNanos(Integer.parseInt(settings[1])));
+        // the benchmark reports its own latencies, rather than the server's periodic report
+        server = new ClassificationServer(batchingClassifier, 0, 3600);
+
+        Cifar10Batch testBatch = Cifar10BinaryReader.mapTestData();
+        testImages = new byte[Math.min(NUM_TEST_IMAGES, testBatch.size())][Config.RGB_FLAT_IMAGE_SIZE];
+        for (int i = 0; i < testImages.length; i++) {
+            testBatch.getImageView(i).get(testImages[i]);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        // closing the server closes the batching classifier
+        try {
+            server.close();
+        } finally {
+            classifier.close();
+        }
+    }
+
+    /**
+     * A client's connection to the server, and the next test image it sends
+     */
+    @State(Scope.Thread)
+    public static class Connection {
+        private Socket socket;
+        private OutputStream out;
+        private BufferedReader in;
+        private int nextImage;
+
+        @Setup
+        public void connect(ServerBatchingBenchmark benchmark) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), benchmark.server.getPort());
+            socket.setTcpNoDelay(true);
+            out = socket.getOutputStream();
+            in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            // connections start at different images, so batches hold different images
+            nextImage = benchmark.nextConnection.getAndIncrement() % benchmark.testImages.length;
+        }
+
+        @TearDown
+        public void disconnect() throws IOException {
+            socket.close();
+        }
+    }
+
+    /**
+     * Sends a test image and waits for its label
+     */
+    @Benchmark
+    public String classify(Connection connection) throws IOException {
+        connection.out.write(testImages[connection.nextImage]);
+        connection.out.flush();
+        connection.nextImage = (connection.nextImage + 1) % testImages.length;
+        return connection.in.readLine();
+    }
+}
@@ -0,0 +1,166 @@
+package main.benchmark;
+
+import main.cifar10.Cifar10BinaryReader;
+import main.classifier.DistanceKernels;
+import main.classifier.KNNClassifier;
+import main.classifier.LinearScanIndex;
+import main.classifier.LocalNeighborShard;
+import main.classifier.NeighborIndex;
+import main.classifier.NeighborShard;
+import main.classifier.RemoteNeighborShard;
+import main.classifier.ShardedNeighborIndex;
+import main.config.Config;
+import main.data.ClassifierImage;
+import main.server.RunShardWorker;
+import org.apache.commons.collections4.KeyValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicting a batch of test images, per image, scanning the training images split into shards, in this process and
+ * in worker processes, against an unsharded linear scan. That every sharding finds exactly the neighbors of an
+ * unsharded scan is checked by <code>ShardedNeighborIndexTest</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ShardedScanBenchmark {
+
+    /** Number of test images predicted per invocation */
+    private static final int PREDICT_BATCH_SIZE = 200;
+    private static final int K = 5;
+
+    private static final long WORKER_START_TIMEOUT_MILLIS = 30_000;
+
+    /**
+     * "unsharded", "local" with number of shards in this process, optionally "by label", or "workers" with number of
+     * worker processes
+     */
+    @Param({
+            "unsharded",
+            "local 2", "local 2 by label", "local 4", "local 4 by label", "local 8", "local 8 by label",
+            "workers 2"})
+    public String sharding;
+
+    private final List<Process> workers = new ArrayList<>();
+    private KNNClassifier classifier;
+    private List<ClassifierImage> queryImages;
+
+    @Setup
+    public void setUp(SyntheticDataState data) throws IOException, InterruptedException {
+        queryImages = data.getQueryImages(PREDICT_BATCH_SIZE);
+        classifier = new KNNClassifier(Config.NUM_PREDICTION_THREADS, DistanceKernels.getBestKernel(),
+                createIndex());
+        classifier.train(Cifar10BinaryReader.streamTrainingData());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        // closing the classifier closes the index, and with it any connections to workers
+        try {
+            classifier.close();
+        } finally {
+            for (Process worker : workers) {
+                worker.destroy();
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PREDICT_BATCH_SIZE)
+    public List<KeyValue<String, ClassifierImage>> predict() {
+        return classifier.predict(queryImages, K);
+    }
+
+    private NeighborIndex createIndex() throws IOException, InterruptedException {
+        String[] words = sharding.split(" ");
+        switch (words[0]) {
+            case "unsharded":
+                return new LinearScanIndex();
+            case "local": {
+                NeighborShard[] shards = new NeighborShard[Integer.parseInt(words[1])];
+                for (int s = 0; s < shards.length; s++) {
+                    shards[s] = new LocalNeighborShard();
+                }
+                return new ShardedNeighborIndex(shards, sharding.endsWith("by label"));
+            }
+            case "workers": {
+                NeighborShard[] shards = new NeighborShard[Integer.parseInt(words[1])];
+                for (int s = 0; s < shards.length; s++) {
+                    int port = findFreePort();
+                    workers.add(startWorker(port));
+                    awaitWorker(workers.get(s), port);
+                    shards[s] = new RemoteNeighborShard(port);
+                }
+                return new ShardedNeighborIndex(shards, false);
+            }
+            default:
+                throw new IllegalArgumentException("unknown sharding " + sharding);
+        }
+    }
+
+    private static int findFreePort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0, 0, InetAddress.getLoopbackAddress())) {
+            return socket.getLocalPort();
+        }
+    }
+
+    /**
+     * Starts a shard worker in a new JVM with the same classpath and JVM options as this one
+     */
+    private static Process startWorker(int port) throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(RunShardWorker.class.getName());
+        command.add(Integer.toString(port));
+        return new ProcessBuilder(command).inheritIO().start();
+    }
+
+    /**
+     * Waits until a worker accepts connections
+     *
+     * @throws IOException if the worker exits or doesn't start in time
+     */
+    private static void awaitWorker(Process worker, int port) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + WORKER_START_TIMEOUT_MILLIS;
+        while (true) {
+            try {
+                // the worker is up once it accepts a connection, which is closed straight away
+                new Socket(InetAddress.getLoopbackAddress(), port).close();
+                return;
+            } catch (IOException e) {
+                if (!worker.isAlive() || System.currentTimeMillis() > deadline) {
+                    throw new IOException("shard worker on port " + port + " didn't start", e);
+                }
+                Thread.sleep(50);
+            }
+        }
+    }
+}
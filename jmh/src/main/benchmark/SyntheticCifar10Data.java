@@ -0,0 +1,104 @@
+package main.benchmark;
+
+import main.config.Config;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes batches of made-up images in the CIFAR-10 binary format, so benchmarks can run without the real dataset
+ *
+ * Each class has a smooth color pattern of its own, and each image is a randomly shifted and scaled copy of its
+ * class's pattern plus noise, so images of a class are closer to each other than to other classes' images much like
+ * real photos. The same seed always writes exactly the same files.
+ */
+public class SyntheticCifar10Data {
+
+    private static final int NUM_CLASSES = 10;
+
+    private static final String[] CLASS_NAMES = {
+            "airplane", "automobile", "bird", "cat", "deer", "dog", "frog", "horse", "ship", "truck"};
+
+    /**
+     * Writes training batches, a test batch and a class names file to a directory, and points <code>Config</code>
+     * at them
+     *
+     * @param directory directory the files are written to, created if it doesn't exist
+     * @param numTrainingBatches number of training batch files
+     * @param imagesPerBatch number of images in each batch file, including the test batch
+     * @param seed seed of the random images
+     * @throws IOException
+     */
+    public static void writeAndConfigure(Path directory, int numTrainingBatches, int imagesPerBatch, long seed)
+            throws IOException {
+        Files.createDirectories(directory);
+        Random random = new Random(seed);
+        byte[][] patterns = createClassPatterns(random);
+
+        List<String> trainingImagesPaths = new ArrayList<>();
+        for (int batch = 1; batch <= numTrainingBatches; batch++) {
+            Path path = directory.resolve("data_batch_" + batch + ".bin");
+            writeBatch(path, imagesPerBatch, patterns, random);
+            trainingImagesPaths.add(path.toString());
+        }
+        Path testPath = directory.resolve("test_batch.bin");
+        writeBatch(testPath, imagesPerBatch, patterns, random);
+        Path classNamesPath = directory.resolve("batches.meta.txt");
+        Files.write(classNamesPath, (String.join("\n", CLASS_NAMES) + "\n").getBytes(StandardCharsets.US_ASCII));
+
+        Config.TRAINING_IMAGES_PATHS = trainingImagesPaths;
+        Config.TEST_IMAGES_PATH = testPath.toString();
+        Config.CLASS_NAMES_PATH = classNamesPath.toString();
+    }
+
+    /**
+     * @return a pattern of pixel values per class, in the flat layout of a CIFAR-10 image
+     */
+    private static byte[][] createClassPatterns(Random random) {
+        byte[][] patterns = new byte[NUM_CLASSES][Config.RGB_FLAT_IMAGE_SIZE];
+        for (byte[] pattern : patterns) {
+            for (int color = 0; color < 3; color++) {
+                double base = 60 + 120 * random.nextDouble();
+                double frequencyX = random.nextDouble() * 0.3;
+                double frequencyY = random.nextDouble() * 0.3;
+                double phase = random.nextDouble() * 2 * Math.PI;
+                for (int pixel = 0; pixel < Config.PER_COLOR_FLAT_IMAGE_SIZE; pixel++) {
+                    int x = pixel % Config.IMAGE_WIDTH;
+                    int y = pixel / Config.IMAGE_WIDTH;
+                    double value = base + 60 * Math.sin(frequencyX * x + frequencyY * y + phase);
+                    pattern[color * Config.PER_COLOR_FLAT_IMAGE_SIZE + pixel] = (byte) clamp(value);
+                }
+            }
+        }
+        return patterns;
+    }
+
+    private static void writeBatch(Path path, int numImages, byte[][] patterns, Random random) throws IOException {
+        byte[] record = new byte[1 + Config.RGB_FLAT_IMAGE_SIZE];
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(path))) {
+            for (int i = 0; i < numImages; i++) {
+                int label = random.nextInt(NUM_CLASSES);
+                byte[] pattern = patterns[label];
+                double scale = 0.6 + 0.8 * random.nextDouble();
+                int shift = random.nextInt(61) - 30;
+                record[0] = (byte) label;
+                for (int j = 0; j < Config.RGB_FLAT_IMAGE_SIZE; j++) {
+                    double value = (pattern[j] & 0xFF) * scale + shift + random.nextGaussian() * 20;
+                    record[1 + j] = (byte) clamp(value);
+                }
+                out.write(record);
+            }
+        }
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(0, Math.min(255, Math.round(value)));
+    }
+}
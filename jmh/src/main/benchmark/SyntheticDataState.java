@@ -0,0 +1,49 @@
+package main.benchmark;
+
+import main.cifar10.Cifar10BinaryReader;
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Synthetic CIFAR-10 batches shared by the benchmarks, written by {@link SyntheticCifar10Data} from a fixed seed
+ * before each trial, so every run measures the same images without the real dataset
+ */
+@State(Scope.Benchmark)
+public class SyntheticDataState {
+
+    static final int NUM_TRAINING_BATCHES = 5;
+    static final int IMAGES_PER_BATCH = 2000;
+    static final long SEED = 1;
+
+    private static final Path FIXTURES_DIRECTORY = Paths.get("cache", "benchmark-fixtures");
+
+    List<KeyValue<String, ClassifierImage>> labeledTrainingImages;
+    List<KeyValue<String, ClassifierImage>> labeledTestImages;
+
+    @Setup
+    public void writeFixtures() throws IOException {
+        SyntheticCifar10Data.writeAndConfigure(FIXTURES_DIRECTORY, NUM_TRAINING_BATCHES, IMAGES_PER_BATCH, SEED);
+        labeledTrainingImages = Cifar10BinaryReader.loadTrainingData();
+        labeledTestImages = Cifar10BinaryReader.loadTestData();
+    }
+
+    /**
+     * @return the first test images, without their labels
+     */
+    List<ClassifierImage> getQueryImages(int numImages) {
+        List<ClassifierImage> queryImages = new ArrayList<>();
+        for (KeyValue<String, ClassifierImage> labeledImage : labeledTestImages.subList(0, numImages)) {
+            queryImages.add(labeledImage.getValue());
+        }
+        return queryImages;
+    }
+}
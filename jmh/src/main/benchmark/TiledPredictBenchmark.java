@@ -0,0 +1,76 @@
+package main.benchmark;
+
+import main.cifar10.Cifar10BinaryReader;
+import main.classifier.DistanceKernels;
+import main.classifier.KNNClassifier;
+import main.classifier.LinearScanIndex;
+import main.config.Config;
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicting a batch of test images tile by tile, per image, for a range of query and training tile sizes. A query
+ * tile of one image predicts one image at a time, reading the training set once per image. That every tiling
+ * predicts exactly the same labels is checked by <code>KNNClassifierTest</code> and <code>LinearScanIndexTest</code>.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TiledPredictBenchmark {
+
+    /** Number of test images predicted per invocation */
+    private static final int PREDICT_BATCH_SIZE = 256;
+    private static final int K = 5;
+
+    @Param({"1", "8", "32", "64", "128"})
+    public int queryTileSize;
+
+    @Param({"32", "64", "256"})
+    public int trainingTileSize;
+
+    private int previousQueryTileSize;
+    private KNNClassifier classifier;
+    private List<ClassifierImage> queryImages;
+
+    @Setup
+    public void setUp(SyntheticDataState data) throws IOException {
+        previousQueryTileSize = Config.PREDICTION_QUERY_TILE_SIZE;
+        Config.PREDICTION_QUERY_TILE_SIZE = queryTileSize;
+        queryImages = data.getQueryImages(PREDICT_BATCH_SIZE);
+        classifier = new KNNClassifier(Config.NUM_PREDICTION_THREADS, DistanceKernels.getBestKernel(),
+                new LinearScanIndex(trainingTileSize));
+        classifier.train(Cifar10BinaryReader.streamTrainingData());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        classifier.close();
+        Config.PREDICTION_QUERY_TILE_SIZE = previousQueryTileSize;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(PREDICT_BATCH_SIZE)
+    public List<KeyValue<String, ClassifierImage>> predict() {
+        return classifier.predict(queryImages, K);
+    }
+}
@@ -0,0 +1,65 @@
+package main.benchmark;
+
+import main.classifier.NearestNeighbors;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeping the k smallest of a stream of candidate distances and voting on their labels, per candidate
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TopKBenchmark {
+
+    /** Number of candidate distances offered per invocation */
+    private static final int CANDIDATES_PER_INVOCATION = 10000;
+
+    @Param({"1", "10", "100"})
+    public int k;
+
+    private int[] distances;
+    private int[] labelIds;
+    private NearestNeighbors neighbors;
+
+    @Setup
+    public void setUp() {
+        // distances of a linear scan, which mostly but not always grow less likely to be among the closest
+        Random random = new Random(SyntheticDataState.SEED);
+        distances = new int[CANDIDATES_PER_INVOCATION];
+        labelIds = new int[CANDIDATES_PER_INVOCATION];
+        for (int i = 0; i < CANDIDATES_PER_INVOCATION; i++) {
+            distances[i] = 200_000 + (int) (random.nextGaussian() * 30_000);
+            labelIds[i] = random.nextInt(10);
+        }
+        neighbors = new NearestNeighbors(k);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CANDIDATES_PER_INVOCATION)
+    public int topK() {
+        neighbors.clear();
+        for (int i = 0; i < CANDIDATES_PER_INVOCATION; i++) {
+            if (distances[i] < neighbors.getThreshold()) {
+                neighbors.offer(distances[i], i, labelIds[i]);
+            }
+        }
+        return neighbors.vote(k);
+    }
+}
@@ -1,71 +1,188 @@
 package main;
 
+import main.cifar10.Cifar10Batch;
 import main.cifar10.Cifar10BinaryReader;
 import main.classifier.Classifiers;
+import main.classifier.CrossValidationResult;
+import main.classifier.Evaluation;
 import main.classifier.KNNClassifier;
+import main.classifier.ModelSnapshot;
+import main.classifier.NeighborCache;
+import main.config.Config;
 import main.data.ClassifierImage;
+import main.metrics.Metrics;
+import main.metrics.MetricsReporter;
+import main.metrics.PrometheusEndpoint;
 import org.apache.commons.collections4.KeyValue;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
 
 public class RunClassifier {
 
     public static void main(String[] args) throws IOException {
-        runKNNClassifier();
+        if (!Config.METRICS_ENABLED) {
+            runKNNClassifier();
+            return;
+        }
+
+        // dump metrics while the run is in progress, and once more when it ends
+        MetricsReporter metricsReporter = new MetricsReporter(Config.METRICS_REPORT_INTERVAL_SECONDS,
+                Config.METRICS_CSV_PATH == null ? null : Paths.get(Config.METRICS_CSV_PATH));
+        PrometheusEndpoint prometheusEndpoint = null;
+        try {
+            if (Config.METRICS_PROMETHEUS_PORT > 0) {
+                prometheusEndpoint = new PrometheusEndpoint(Config.METRICS_PROMETHEUS_PORT);
+                Logger.log("Serving metrics at http://localhost:" + prometheusEndpoint.getPort() + "/metrics");
+            }
+            runKNNClassifier();
+        } finally {
+            if (prometheusEndpoint != null) {
+                prometheusEndpoint.close();
+            }
+            metricsReporter.close();
+        }
     }
 
     /**
      * Trains the K nearest neighbor classifier on the training image set, labels the test images,
      * and finds how accurately the classifier labelled the test images compared to the known correct labels.
      *
+     * If <code>Config.MODEL_SNAPSHOT_PATH</code> is set, a classifier saved there by an earlier run on the same data
+     * is loaded instead of being trained and tuned again.
+     *
      * @throws IOException
      */
+    @SuppressWarnings("try") // metrics phases are only opened to time their try blocks
     private static void runKNNClassifier() throws IOException {
         Logger.setToConsoleLogger();
 
-        // load CIFAR-10 training and test images
-        Logger.log("Loading training images...");
-        List<KeyValue<String, ClassifierImage>> labeledTrainingImages = Cifar10BinaryReader.loadTrainingData();
-        Logger.log("Loaded " + labeledTrainingImages.size() + " training images");
-
-        Logger.log("Loading test images");
-        List<KeyValue<String, ClassifierImage>> labeledTestImages = Cifar10BinaryReader.loadTestData();
-        Logger.log("Loaded " + labeledTestImages.size() + " test images");
-
-
-        // set aside part of the training set for validation
-        // 1 out of every numFolds images will be used for validation
-        List<KeyValue<String, ClassifierImage>> labeledValidationImages
-                = Classifiers.extractValidationSet(labeledTrainingImages, 50);
-
-
-        // train the k-nearest neighbor classifier on the training images
-        KNNClassifier knnClassifier = new KNNClassifier();
-        knnClassifier.train(labeledTrainingImages);
-
-
-        // find k-value for k nearest neighbor with highest accuracy on validation set
-        Logger.log("Tuning k-value:");
-        int maxAccuracyKValue = KNNClassifier.findMaxAccuracyKValue(labeledValidationImages, knnClassifier);
-        Logger.log("Using " + maxAccuracyKValue + " nearest neighbor");
-
-
-        // evaluation
-        Logger.log("\nPredicting...");
-        List<ClassifierImage> testImages = new ArrayList<>();
-        for(KeyValue<String,ClassifierImage> kv : labeledTestImages) {
-            testImages.add(kv.getValue());
+        // identifies the data neighbors are cached for, so they are only reused while it stays the same
+        String trainingFingerprint = Cifar10BinaryReader.fingerprintTrainingData();
+        String testFingerprint = Cifar10BinaryReader.fingerprintTestData();
+        int neighborCacheSize = Math.max(
+                Config.NEIGHBOR_CACHE_SIZE, Arrays.stream(Config.K_VALUE_CANDIDATES).max().orElse(1));
+
+        String dataFingerprint = Config.CROSS_VALIDATION_FOLDS > 1
+                ? trainingFingerprint
+                : trainingFingerprint + "; holdout 1/50";
+        String modelFingerprint = dataFingerprint + "; k-value tuned by "
+                + (Config.CROSS_VALIDATION_FOLDS > 1
+                        ? Config.CROSS_VALIDATION_FOLDS + "-fold cross-validation"
+                        : "validation")
+                + " from " + Arrays.toString(Config.K_VALUE_CANDIDATES);
+
+
+        ModelSnapshot snapshot = KNNClassifier.loadSnapshotIfCurrent(modelFingerprint);
+        try (KNNClassifier knnClassifier = snapshot != null ? snapshot.getClassifier() : new KNNClassifier()) {
+            int maxAccuracyKValue;
+            if (snapshot != null) {
+                maxAccuracyKValue = snapshot.getKValue();
+            } else {
+                Logger.log("Loading training images...");
+                if (Config.CROSS_VALIDATION_FOLDS > 1) {
+                    // train the k-nearest neighbor classifier on all the training images, streamed straight from the
+                    // batch files, each mapped once the stream reaches it
+                    try (Metrics.Phase phase = Metrics.startPhase("train")) {
+                        knnClassifier.train(Cifar10BinaryReader.streamTrainingData());
+                    }
+                    Logger.log("Loaded " + knnClassifier.size() + " training images");
+
+                    // find k-value for k nearest neighbor with highest mean accuracy across folds of the training set
+                    Logger.log("Tuning k-value with " + Config.CROSS_VALIDATION_FOLDS + "-fold cross-validation:");
+                    try (Metrics.Phase phase = Metrics.startPhase("tune")) {
+                        NeighborCache trainingNeighbors
+                                = knnClassifier.getTrainingNeighborCache(neighborCacheSize, trainingFingerprint);
+                        maxAccuracyKValue
+                                = crossValidateKValue(knnClassifier, Config.CROSS_VALIDATION_FOLDS, trainingNeighbors);
+                    }
+                } else {
+                    // map CIFAR-10 training images, which are copied straight from the mapped files into the classifier
+                    List<Cifar10Batch> trainingBatches;
+                    try (Metrics.Phase phase = Metrics.startPhase("load_training")) {
+                        trainingBatches = Cifar10BinaryReader.mapTrainingData();
+                    }
+                    Logger.log("Loaded " + Cifar10Batch.countImages(trainingBatches) + " training images");
+
+                    // set aside part of the training set for validation
+                    // 1 out of every numFolds images will be used for validation
+                    List<KeyValue<String, ClassifierImage>> labeledValidationImages
+                            = Classifiers.getValidationSet(trainingBatches, 50);
+
+
+                    // train the k-nearest neighbor classifier on the other training images
+                    try (Metrics.Phase phase = Metrics.startPhase("train")) {
+                        knnClassifier.trainOutsideValidationSet(trainingBatches, 50);
+                    }
+
+                    // find k-value for k nearest neighbor with highest accuracy on validation set
+                    Logger.log("Tuning k-value:");
+                    try (Metrics.Phase phase = Metrics.startPhase("tune")) {
+                        NeighborCache validationNeighbors = knnClassifier.getNeighborCache(
+                                Classifiers.getImages(labeledValidationImages), neighborCacheSize,
+                                dataFingerprint + "; validation");
+                        maxAccuracyKValue = KNNClassifier.findMaxAccuracyKValue(
+                                labeledValidationImages, knnClassifier, Config.K_VALUE_CANDIDATES, validationNeighbors);
+                    }
+                }
+                knnClassifier.saveSnapshotIfConfigured(maxAccuracyKValue, modelFingerprint);
+            }
+            Logger.log("Using " + knnClassifier.getDistanceKernel() + " distance kernel");
+            Logger.log("Using " + maxAccuracyKValue + " nearest neighbor");
+            if (!knnClassifier.getNeighborIndex().isExact()) {
+                Logger.log("Searching a " + knnClassifier.getNeighborIndex() + " for approximate nearest neighbors");
+            }
+
+
+            // load CIFAR-10 test images
+            Logger.log("Loading test images");
+            List<KeyValue<String, ClassifierImage>> labeledTestImages;
+            try (Metrics.Phase phase = Metrics.startPhase("load_test")) {
+                labeledTestImages = Cifar10BinaryReader.loadTestData();
+            }
+            Logger.log("Loaded " + labeledTestImages.size() + " test images");
+
+
+            // evaluation
+            Logger.log("\nPredicting...");
+
+            // classify images in test set using k nearest neighbor classifier and compare against the known labels
+            Evaluation evaluation;
+            try (Metrics.Phase phase = Metrics.startPhase("predict")) {
+                NeighborCache testNeighbors = knnClassifier.getNeighborCache(Classifiers.getImages(labeledTestImages),
+                        neighborCacheSize, dataFingerprint + "; test " + testFingerprint);
+                evaluation = knnClassifier.evaluate(labeledTestImages, maxAccuracyKValue, null, testNeighbors);
+            }
+
+            // display accuracy of classifier-attributed labels
+            double accuracyPercentage = evaluation.getAccuracy()*100;
+            Logger.log("Accuracy: " + accuracyPercentage + "%");
+            Logger.log(evaluation.toReport());
         }
+    }
 
-        // classify images in test set using k nearest neighbor classifier
-        List<KeyValue<String, ClassifierImage>> predictedLabeledImages = knnClassifier.predict(testImages, maxAccuracyKValue);
-
-        // display accuracy of classifier-attributed labels
-        double accuracyPercentage = Classifiers.calculateAccuracy(labeledTestImages, predictedLabeledImages)*100;
-        Logger.log("Accuracy: " + accuracyPercentage + "%");
+    /**
+     * Cross-validates the k-value candidates in <code>Config.K_VALUE_CANDIDATES</code> on the images the
+     * classifier was trained on, and logs the accuracy of each
+     *
+     * @param trainingNeighbors cached neighbors of the training images to cross-validate from
+     * @return k-value with the highest mean accuracy across folds
+     */
+    private static int crossValidateKValue(KNNClassifier knnClassifier, int numFolds,
+                                           NeighborCache trainingNeighbors) {
+        CrossValidationResult result
+                = knnClassifier.crossValidate(numFolds, Config.K_VALUE_CANDIDATES, trainingNeighbors);
+        int[] kValueCandidates = result.getKValueCandidates();
+        for (int i = 0; i < kValueCandidates.length; i++) {
+            Logger.log(String.format("k-value %d: %.2f%% +/- %.2f%%",
+                    kValueCandidates[i],
+                    result.getMeanAccuracy(i)*100,
+                    result.getAccuracyStandardDeviation(i)*100));
+        }
+        return result.getMaxAccuracyKValue();
     }
 
 }
@@ -0,0 +1,197 @@
+package main.cifar10;
+
+import main.config.Config;
+import main.data.ClassifierImage;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A batch of binary CIFAR-10 images memory-mapped from its file
+ *
+ * Records are read in place from the mapped file instead of being copied onto the heap.
+ * Each record is 1 byte label, 1024 bytes red pixels, 1024 bytes green pixels, 1024 bytes blue pixels,
+ * with pixels in row-major order.
+ */
+public class Cifar10Batch {
+
+    private static final int LABEL_SIZE = 1;
+    private static final int RECORD_SIZE = LABEL_SIZE + Config.RGB_FLAT_IMAGE_SIZE;
+
+    private final String path;
+    private final ByteBuffer records;
+    private final int size;
+    private final Map<Integer,String> classNames;
+
+    private Cifar10Batch(String path, ByteBuffer records, Map<Integer,String> classNames) {
+        this.path = path;
+        this.records = records;
+        this.size = records.capacity() / RECORD_SIZE;
+        this.classNames = classNames;
+    }
+
+    /**
+     * Memory-maps a batch of binary CIFAR-10 images
+     *
+     * @param path filepath to a batch of CIFAR-10 images
+     * @param classNames map from CIFAR-10 binary class value to class name
+     * @throws IOException if the file can't be mapped or doesn't hold a whole number of images
+     */
+    static Cifar10Batch map(String path, Map<Integer,String> classNames) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            checkFileSize(path, fileSize);
+            MappedByteBuffer records = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+            return new Cifar10Batch(path, records, classNames);
+        }
+    }
+
+    /**
+     * Counts the images in a batch of binary CIFAR-10 images from its file size, without mapping it
+     *
+     * @param path filepath to a batch of CIFAR-10 images
+     * @throws IOException if the file can't be read or doesn't hold a whole number of images
+     */
+    static int countRecords(String path) throws IOException {
+        long fileSize = Files.size(Paths.get(path));
+        checkFileSize(path, fileSize);
+        return Math.toIntExact(fileSize / RECORD_SIZE);
+    }
+
+    private static void checkFileSize(String path, long fileSize) throws IOException {
+        if (fileSize <= 0) {
+            throw new IOException("binary data file " + path + " is empty");
+        }
+        if (fileSize % RECORD_SIZE != 0) {
+            throw new IOException("expected " + path + " to contain whole images of "
+                    + RECORD_SIZE + " bytes, actual size " + fileSize);
+        }
+    }
+
+    /**
+     * @return number of images in the batch
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return total number of images in the batches
+     */
+    public static int countImages(List<Cifar10Batch> batches) {
+        int totalImages = 0;
+        for (Cifar10Batch batch : batches) {
+            totalImages = Math.addExact(totalImages, batch.size());
+        }
+        return totalImages;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return view of the image at <code>index</code>
+     */
+    public Cifar10Record getRecord(int index) {
+        getRecordOffset(index);
+        return new Cifar10Record(this, index);
+    }
+
+    /**
+     * @return CIFAR-10 binary class value of the image at <code>index</code>
+     */
+    public int getLabel(int index) {
+        return records.get(getRecordOffset(index)) & 0xFF;
+    }
+
+    /**
+     * @return class name of the image at <code>index</code>
+     */
+    public String getClassName(int index) {
+        return classNames.get(getLabel(index));
+    }
+
+    /**
+     * @return read-only view of the pixels of the image at <code>index</code>, in CIFAR-10 binary layout
+     */
+    public ByteBuffer getImageView(int index) {
+        ByteBuffer view = records.duplicate();
+        int start = getRecordOffset(index) + LABEL_SIZE;
+        view.position(start).limit(start + Config.RGB_FLAT_IMAGE_SIZE);
+        return view.slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Copies the image at <code>index</code> into an array in the layout of {@link ClassifierImage#toFlatImage()},
+     * without creating intermediate arrays
+     *
+     * @param index index of the image in the batch
+     * @param flatImages array to copy into
+     * @param offset offset in <code>flatImages</code> to copy the first byte to
+     */
+    public void copyFlatImageTo(int index, byte[] flatImages, int offset) {
+        copyFlatImage(records, getRecordOffset(index) + LABEL_SIZE, flatImages, offset);
+    }
+
+    /**
+     * Copies an image in CIFAR-10 binary layout, without its label, into an array in the layout of
+     * {@link ClassifierImage#toFlatImage()}
+     *
+     * @param records buffer holding the image
+     * @param pixelsStart index in <code>records</code> of the image's first red pixel
+     * @param flatImages array to copy into
+     * @param offset offset in <code>flatImages</code> to copy the first byte to
+     */
+    public static void copyFlatImage(ByteBuffer records, int pixelsStart, byte[] flatImages, int offset) {
+        int i = 0;
+        for (int y = 0; y < Config.IMAGE_WIDTH; y++) {
+            for (int x = 0; x < Config.IMAGE_WIDTH; x++) {
+                int flatPixel = offset + (x * Config.IMAGE_WIDTH + y) * 3;
+                flatImages[flatPixel] = records.get(pixelsStart + i);
+                flatImages[flatPixel + 1] = records.get(pixelsStart + Config.PER_COLOR_FLAT_IMAGE_SIZE + i);
+                flatImages[flatPixel + 2] = records.get(pixelsStart + 2 * Config.PER_COLOR_FLAT_IMAGE_SIZE + i);
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Copies the image at <code>index</code> onto the heap as a {@link ClassifierImage}
+     */
+    public ClassifierImage getClassifierImage(int index) {
+        byte[] flatImage = new byte[Config.RGB_FLAT_IMAGE_SIZE];
+        copyFlatImageTo(index, flatImage, 0);
+        return new ClassifierImage(flatImage, 0, Config.IMAGE_WIDTH, Config.IMAGE_WIDTH, 3);
+    }
+
+    /**
+     * Copies every image in the batch onto the heap as {@link ClassifierImage}s
+     * backed by slices of one shared array
+     */
+    public List<ClassifierImage> getClassifierImages() {
+        byte[] flatImages = new byte[Math.multiplyExact(size, Config.RGB_FLAT_IMAGE_SIZE)];
+        List<ClassifierImage> images = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int offset = i * Config.RGB_FLAT_IMAGE_SIZE;
+            copyFlatImageTo(i, flatImages, offset);
+            images.add(new ClassifierImage(flatImages, offset, Config.IMAGE_WIDTH, Config.IMAGE_WIDTH, 3));
+        }
+        return images;
+    }
+
+    private int getRecordOffset(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("image index " + index + " out of bounds for batch of " + size);
+        }
+        return index * RECORD_SIZE;
+    }
+}
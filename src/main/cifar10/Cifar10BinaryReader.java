@@ -4,11 +4,20 @@ import main.data.ClassifierImage;
 import org.apache.commons.collections4.KeyValue;
 import org.apache.commons.collections4.keyvalue.DefaultKeyValue;
 import main.config.Config;
+import main.metrics.Metrics;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import java.util.zip.CRC32;
 
 /**
  * Reads in CIFAR-10 dataset images from binary format
@@ -17,6 +26,8 @@ import java.util.List;
  * 1 byte label, 1024 bytes red pixels, 1024 bytes green pixels, 1024 bytes blue pixels
  *
  * Subsequent images have no delimiters between them
+ *
+ * Batch files are memory-mapped, so images are decoded straight from the mapped file
  */
 public class Cifar10BinaryReader {
 
@@ -59,62 +70,167 @@ public class Cifar10BinaryReader {
      * @throws IOException
      */
     private static List<KeyValue<String,ClassifierImage>> readClassifiedImages(String path, Map<Integer,String> classNames) throws IOException {
+        Cifar10Batch batch = Cifar10Batch.map(path, classNames);
 
-        List<KeyValue<String,ClassifierImage>> classifiedImages = new ArrayList<>();
-        FileInputStream binaryDataStream = new FileInputStream(path);
+        List<KeyValue<String,ClassifierImage>> classifiedImages = new ArrayList<>(Collections.nCopies(batch.size(), null));
+        decodeClassifiedImages(batch, classifiedImages, 0);
+        return classifiedImages;
+    }
 
-        int labelSize = 1;
-        int imageSize = Config.RGB_FLAT_IMAGE_SIZE;
-        byte[] imageBuffer = new byte[imageSize];
+    /**
+     *  Decodes every image of a mapped batch into a slice of a pre-sized list of labeled images
+     *
+     * @param batch mapped batch of CIFAR-10 images
+     * @param classifiedImages list to set the labeled images in
+     * @param offset index in <code>classifiedImages</code> of the batch's first image
+     */
+    private static void decodeClassifiedImages(Cifar10Batch batch,
+                                               List<KeyValue<String,ClassifierImage>> classifiedImages,
+                                               int offset) {
+        long startNanos = Metrics.LOAD_BATCH.start();
+        List<ClassifierImage> images = batch.getClassifierImages();
+        for (int i = 0; i < batch.size(); i++) {
+            classifiedImages.set(offset + i, new DefaultKeyValue<>(batch.getClassName(i), images.get(i)));
+        }
+        Metrics.LOAD_BATCH.recordSince(startNanos);
+    }
+
+    /**
+     *  Memory-maps a batch of binary CIFAR-10 images, so its images can be read without copying them onto the heap
+     *
+     * @param imagesPath filepath to a batch of binary images in the CIFAR-10 dataset
+     * @return mapped batch of CIFAR-10 images
+     * @throws IOException
+     */
+    public static Cifar10Batch mapCifar10Dataset(String imagesPath) throws IOException {
+        return Cifar10Batch.map(imagesPath, readClassNames(Config.CLASS_NAMES_PATH));
+    }
 
-        if(binaryDataStream.available() <= 0) {
-            throw new IOException("binary data stream not available");
+    /**
+     * Memory-maps all the batches of training images from the CIFAR-10 dataset
+     *
+     * @return mapped batches, in the order of <code>Config.TRAINING_IMAGES_PATHS</code>
+     * @throws IOException
+     */
+    public static List<Cifar10Batch> mapTrainingData() throws IOException {
+        Map<Integer,String> classNames = readClassNames(Config.CLASS_NAMES_PATH);
+        List<Cifar10Batch> trainingBatches = new ArrayList<>();
+        for(String trainingImagesPath : Config.TRAINING_IMAGES_PATHS) {
+            trainingBatches.add(Cifar10Batch.map(trainingImagesPath, classNames));
         }
+        return trainingBatches;
+    }
 
-        // read each binary image in the file
-        while (binaryDataStream.available() >= labelSize + imageSize) {
-            int label = binaryDataStream.read();
+    /**
+     * Memory-maps the batch of test images from the CIFAR-10 dataset
+     *
+     * @return mapped batch of test images
+     * @throws IOException
+     */
+    public static Cifar10Batch mapTestData() throws IOException {
+        return mapCifar10Dataset(Config.TEST_IMAGES_PATH);
+    }
 
-            int imageBytesRead = binaryDataStream.read(imageBuffer);
-            if (imageBytesRead != imageSize) {
-                throw new IOException("expected image to contain " + imageSize + "bytes, "
-                        + "actually read " + imageBytesRead);
-            }
+    /**
+     * Streams the records of batches of binary CIFAR-10 images, decoding them lazily as the stream reaches them.
+     * The stream is sized and splits evenly, so it can be processed in parallel.
+     *
+     * @param imagesPaths filepaths to batches of binary images in the CIFAR-10 dataset
+     * @return records of every batch, in order
+     * @throws IOException if a batch file can't be read or doesn't hold a whole number of images.
+     *          Batches that can't be mapped once streaming has started throw an UncheckedIOException.
+     */
+    public static Stream<Cifar10Record> streamCifar10Dataset(List<String> imagesPaths) throws IOException {
+        Map<Integer,String> classNames = readClassNames(Config.CLASS_NAMES_PATH);
+        return StreamSupport.stream(new Cifar10RecordSpliterator(imagesPaths, classNames), false);
+    }
+
+    /**
+     * Streams the labeled training images from the CIFAR-10 dataset
+     *
+     * @see #streamCifar10Dataset(List)
+     */
+    public static Stream<Cifar10Record> streamTrainingData() throws IOException {
+        return streamCifar10Dataset(Config.TRAINING_IMAGES_PATHS);
+    }
 
-            byte[] reds = Arrays.copyOfRange(imageBuffer, 0, Config.PER_COLOR_FLAT_IMAGE_SIZE);
-            byte[] greens = Arrays.copyOfRange(imageBuffer, Config.PER_COLOR_FLAT_IMAGE_SIZE, 2*Config.PER_COLOR_FLAT_IMAGE_SIZE);
-            byte[] blues = Arrays.copyOfRange(imageBuffer, 2*Config.PER_COLOR_FLAT_IMAGE_SIZE, 3*Config.PER_COLOR_FLAT_IMAGE_SIZE);
-
-            assert imageBuffer[Config.RGB_FLAT_IMAGE_SIZE - 1] != 0;
-
-            int i = 0;
-            byte[][][] rawImage = new byte[Config.IMAGE_WIDTH][Config.IMAGE_WIDTH][3];
-            for(int y = 0; y < Config.IMAGE_WIDTH; y++) {
-                for (int x = 0; x < Config.IMAGE_WIDTH; x++) {
-                    rawImage[x][y][0] = reds[i];
-                    rawImage[x][y][1] = greens[i];
-                    rawImage[x][y][2] = blues[i];
-                    i++;
-                }
+    /**
+     * Streams the labeled test images from the CIFAR-10 dataset
+     *
+     * @see #streamCifar10Dataset(List)
+     */
+    public static Stream<Cifar10Record> streamTestData() throws IOException {
+        return streamCifar10Dataset(Collections.singletonList(Config.TEST_IMAGES_PATH));
+    }
+
+    /**
+     * Fingerprints batch files by their names, sizes and checksums of their contents, so that results calculated
+     * from the files can be recognised as out of date once any of them changes
+     *
+     * @param imagesPaths filepaths to batches of binary images in the CIFAR-10 dataset
+     * @return fingerprint of every batch, in order
+     * @throws IOException
+     */
+    public static String fingerprint(List<String> imagesPaths) throws IOException {
+        StringBuilder fingerprint = new StringBuilder();
+        for(String imagesPath : imagesPaths) {
+            Path path = Paths.get(imagesPath);
+            CRC32 checksum = new CRC32();
+            long fileSize;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                fileSize = channel.size();
+                checksum.update(channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize));
             }
-            ClassifierImage image = new ClassifierImage(rawImage);
-            classifiedImages.add(new DefaultKeyValue<>(classNames.get(label), image));
+            if (fingerprint.length() > 0) {
+                fingerprint.append(", ");
+            }
+            fingerprint.append(String.format("%s:%d:%08x", path.getFileName(), fileSize, checksum.getValue()));
         }
+        return fingerprint.toString();
+    }
 
-        return classifiedImages;
+    /**
+     * Fingerprints the training batches of the CIFAR-10 dataset
+     *
+     * @see #fingerprint(List)
+     */
+    public static String fingerprintTrainingData() throws IOException {
+        return fingerprint(Config.TRAINING_IMAGES_PATHS);
+    }
+
+    /**
+     * Fingerprints the test batch of the CIFAR-10 dataset
+     *
+     * @see #fingerprint(List)
+     */
+    public static String fingerprintTestData() throws IOException {
+        return fingerprint(Collections.singletonList(Config.TEST_IMAGES_PATH));
     }
 
     /**
      * Load in and aggregate all the labeled training images from the CIFAR-10 dataset
      *
+     * Batches are decoded concurrently, each into its own slice of the output,
+     * so images are in the same order as if the batches were read one after another.
+     * Every image is copied onto the heap, so classifiers are trained from {@link #mapTrainingData()} instead.
+     *
      * @return
      * @throws IOException
      */
     public static List<KeyValue<String,ClassifierImage>> loadTrainingData() throws IOException {
-        List<KeyValue<String,ClassifierImage>> trainingImages = new ArrayList<>();
-        for(String trainingImagesPath : Config.TRAINING_IMAGES_PATHS) {
-            trainingImages.addAll(readCifar10Dataset(trainingImagesPath));
+        List<Cifar10Batch> trainingBatches = mapTrainingData();
+
+        int[] batchOffsets = new int[trainingBatches.size()];
+        int totalImages = 0;
+        for(int i = 0; i < trainingBatches.size(); i++) {
+            batchOffsets[i] = totalImages;
+            totalImages += trainingBatches.get(i).size();
         }
+
+        List<KeyValue<String,ClassifierImage>> trainingImages = new ArrayList<>(Collections.nCopies(totalImages, null));
+        IntStream.range(0, trainingBatches.size())
+                .parallel()
+                .forEach(i -> decodeClassifiedImages(trainingBatches.get(i), trainingImages, batchOffsets[i]));
         return trainingImages;
     }
 
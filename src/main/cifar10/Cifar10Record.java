@@ -0,0 +1,50 @@
+package main.cifar10;
+
+import main.data.ClassifierImage;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A single labeled image within a memory-mapped CIFAR-10 batch
+ *
+ * Records are views, so pixels are only decoded when they are asked for.
+ */
+public class Cifar10Record {
+
+    private final Cifar10Batch batch;
+    private final int index;
+
+    Cifar10Record(Cifar10Batch batch, int index) {
+        this.batch = batch;
+        this.index = index;
+    }
+
+    /**
+     * @return CIFAR-10 binary class value of the image
+     */
+    public int getLabel() {
+        return batch.getLabel(index);
+    }
+
+    public String getClassName() {
+        return batch.getClassName(index);
+    }
+
+    /**
+     * @return read-only view of the pixels of the image, in CIFAR-10 binary layout
+     */
+    public ByteBuffer getImageView() {
+        return batch.getImageView(index);
+    }
+
+    /**
+     * @see Cifar10Batch#copyFlatImageTo(int, byte[], int)
+     */
+    public void copyFlatImageTo(byte[] flatImages, int offset) {
+        batch.copyFlatImageTo(index, flatImages, offset);
+    }
+
+    public ClassifierImage getClassifierImage() {
+        return batch.getClassifierImage(index);
+    }
+}
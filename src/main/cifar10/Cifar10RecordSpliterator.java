@@ -0,0 +1,132 @@
+package main.cifar10;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Splittable, sized iterator over the records of one or more CIFAR-10 batch files
+ *
+ * Record counts come from the file sizes, so the total size is known before any batch is mapped.
+ * Each batch file is only mapped once a record from it is reached, and records are views over the mapped file,
+ * so heap use doesn't grow with the number of batches. Splits divide the remaining records evenly,
+ * regardless of batch boundaries.
+ */
+class Cifar10RecordSpliterator implements Spliterator<Cifar10Record> {
+
+    private final Batches batches;
+    private int index;
+    private final int end;
+
+    /**
+     * @param paths filepaths to batches of CIFAR-10 images
+     * @param classNames map from CIFAR-10 binary class value to class name
+     */
+    Cifar10RecordSpliterator(List<String> paths, Map<Integer,String> classNames) throws IOException {
+        this.batches = new Batches(paths, classNames);
+        this.index = 0;
+        this.end = batches.totalRecords;
+    }
+
+    private Cifar10RecordSpliterator(Batches batches, int index, int end) {
+        this.batches = batches;
+        this.index = index;
+        this.end = end;
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super Cifar10Record> action) {
+        if (index >= end) {
+            return false;
+        }
+        action.accept(batches.getRecord(index++));
+        return true;
+    }
+
+    @Override
+    public void forEachRemaining(Consumer<? super Cifar10Record> action) {
+        while (index < end) {
+            int batchIndex = batches.getBatchIndex(index);
+            Cifar10Batch batch = batches.getBatch(batchIndex);
+            int batchEnd = Math.min(end, batches.batchOffsets[batchIndex] + batch.size());
+            for (; index < batchEnd; index++) {
+                action.accept(new Cifar10Record(batch, index - batches.batchOffsets[batchIndex]));
+            }
+        }
+    }
+
+    @Override
+    public Spliterator<Cifar10Record> trySplit() {
+        int mid = (index + end) >>> 1;
+        if (mid <= index) {
+            return null;
+        }
+        Cifar10RecordSpliterator prefix = new Cifar10RecordSpliterator(batches, index, mid);
+        index = mid;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return end - index;
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | SIZED | SUBSIZED | IMMUTABLE | NONNULL;
+    }
+
+    /**
+     * Batch files shared between a spliterator and its splits, mapped on first use
+     */
+    private static class Batches {
+        private final List<String> paths;
+        private final Map<Integer,String> classNames;
+        private final Cifar10Batch[] mappedBatches;
+
+        /** Index of the first record of each batch among the records of all the batches */
+        private final int[] batchOffsets;
+        private final int totalRecords;
+
+        Batches(List<String> paths, Map<Integer,String> classNames) throws IOException {
+            this.paths = paths;
+            this.classNames = classNames;
+            this.mappedBatches = new Cifar10Batch[paths.size()];
+            this.batchOffsets = new int[paths.size()];
+
+            int records = 0;
+            for (int i = 0; i < paths.size(); i++) {
+                batchOffsets[i] = records;
+                records = Math.addExact(records, Cifar10Batch.countRecords(paths.get(i)));
+            }
+            this.totalRecords = records;
+        }
+
+        Cifar10Record getRecord(int index) {
+            int batchIndex = getBatchIndex(index);
+            return new Cifar10Record(getBatch(batchIndex), index - batchOffsets[batchIndex]);
+        }
+
+        int getBatchIndex(int index) {
+            int batchIndex = 0;
+            while (batchIndex + 1 < batchOffsets.length && batchOffsets[batchIndex + 1] <= index) {
+                batchIndex++;
+            }
+            return batchIndex;
+        }
+
+        synchronized Cifar10Batch getBatch(int batchIndex) {
+            if (mappedBatches[batchIndex] == null) {
+                try {
+                    mappedBatches[batchIndex] = Cifar10Batch.map(paths.get(batchIndex), classNames);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+            return mappedBatches[batchIndex];
+        }
+    }
+}
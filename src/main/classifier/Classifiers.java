@@ -1,23 +1,42 @@
 package main.classifier;
 
+import main.cifar10.Cifar10Batch;
 import main.data.ClassifierImage;
 import org.apache.commons.collections4.KeyValue;
+import org.apache.commons.collections4.keyvalue.DefaultKeyValue;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 
 public class Classifiers {
 
     /**
      * Calculates the accuracy of the predicted classes on the test data by comparing against the actual test data classes
+     *
+     * Predictions are usually in the same order as the test data, so each prediction is scored against the actual
+     * classification at the same index. Otherwise predictions are looked up among the actual classifications by hash.
      */
     public static double calculateAccuracy(List<KeyValue<String,ClassifierImage>> actualClassifications,
                                            List<KeyValue<String,ClassifierImage>> predictedClassifications) {
+        if(isIndexAligned(actualClassifications, predictedClassifications)) {
+            int successes = 0;
+            for(int i = 0; i < predictedClassifications.size(); i++) {
+                if(predictedClassifications.get(i).getKey().equals(actualClassifications.get(i).getKey())) {
+                    successes++;
+                }
+            }
+            return successes/(double)predictedClassifications.size();
+        }
+
+        Set<KeyValue<String,ClassifierImage>> actualClassificationSet = new HashSet<>(actualClassifications);
         int totalImages = 0;
         int successes = 0;
 
         for(KeyValue<String,ClassifierImage> predictedClassification : predictedClassifications) {
-            if(actualClassifications.contains(predictedClassification)) {
+            if(actualClassificationSet.contains(predictedClassification)) {
                 successes++;
             }
             totalImages++;
@@ -27,9 +46,53 @@ public class Classifiers {
         return successes/(double)totalImages;
     }
 
+    /**
+     * Calculates the accuracy of predicted label ids against the actual label ids at the same indices
+     */
+    public static double calculateAccuracy(int[] actualLabelIds, int[] predictedLabelIds) {
+        if(actualLabelIds.length != predictedLabelIds.length) {
+            throw new IllegalArgumentException("unequal numbers of labels "
+                    + actualLabelIds.length + ", " + predictedLabelIds.length);
+        }
+
+        int successes = 0;
+        for(int i = 0; i < predictedLabelIds.length; i++) {
+            if(predictedLabelIds[i] == actualLabelIds[i]) {
+                successes++;
+            }
+        }
+        return successes/(double)predictedLabelIds.length;
+    }
+
+    /**
+     * @return true if every predicted classification is for the same image as the actual classification
+     *          at the same index
+     */
+    private static boolean isIndexAligned(List<KeyValue<String,ClassifierImage>> actualClassifications,
+                                          List<KeyValue<String,ClassifierImage>> predictedClassifications) {
+        if(actualClassifications.size() != predictedClassifications.size()) {
+            return false;
+        }
+        for(int i = 0; i < predictedClassifications.size(); i++) {
+            if(!predictedClassifications.get(i).getValue().equals(actualClassifications.get(i).getValue())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the images of a list of labeled images, in the same order
+     */
+    public static List<ClassifierImage> getImages(List<KeyValue<String, ClassifierImage>> labeledImages) {
+        return labeledImages.stream().map(KeyValue::getValue).collect(Collectors.toList());
+    }
+
     /**
      * Removes 1 out of every <code>numFolds</code> images from a list of labeled images,
      * and returns the list of images removed
+     *
+     * The removed images are fold 0 of {@link #getFold(int, int, int)}, in reverse order
      */
     public static List<KeyValue<String, ClassifierImage>> extractValidationSet(
             List<KeyValue<String, ClassifierImage>> labeledTrainingImages, int numFolds) {
@@ -40,4 +103,49 @@ public class Classifiers {
         }
         return labeledValidationImages;
     }
+
+    /**
+     * Copies 1 out of every <code>numFolds</code> images of memory-mapped training batches onto the heap, the same
+     * images in the same order as {@link #extractValidationSet(List, int)} removes from the batches' images loaded as
+     * a list. The batches themselves are left as they are, see
+     * {@link KNNClassifier#trainOutsideValidationSet(List, int)} to train on the other images.
+     *
+     * @param trainingBatches batches of training images, in order
+     * @return the labeled validation images
+     */
+    public static List<KeyValue<String, ClassifierImage>> getValidationSet(List<Cifar10Batch> trainingBatches,
+                                                                          int numFolds) {
+        if(numFolds <= 0) {
+            throw new IllegalArgumentException("invalid number of folds: " + numFolds);
+        }
+        List<KeyValue<String, ClassifierImage>> labeledValidationImages = new ArrayList<>();
+        int batchIndex = trainingBatches.size() - 1;
+        int batchEnd = Cifar10Batch.countImages(trainingBatches);
+        for(int i = batchEnd - 1; i >= 0; i -= numFolds) {
+            // step back to the batch holding image i
+            while(i < batchEnd - trainingBatches.get(batchIndex).size()) {
+                batchEnd -= trainingBatches.get(batchIndex).size();
+                batchIndex--;
+            }
+            Cifar10Batch batch = trainingBatches.get(batchIndex);
+            int index = i - (batchEnd - batch.size());
+            labeledValidationImages.add(
+                    new DefaultKeyValue<>(batch.getClassName(index), batch.getClassifierImage(index)));
+        }
+        return labeledValidationImages;
+    }
+
+    /**
+     * Assigns an image to one of <code>numFolds</code> folds by its index, so that 1 out of every
+     * <code>numFolds</code> images is in each fold. Fold 0 holds the images extracted by
+     * {@link #extractValidationSet(List, int)}.
+     *
+     * @param index index of the image
+     * @param totalImages number of images being split into folds
+     * @param numFolds number of folds
+     * @return fold of the image, from 0 to <code>numFolds-1</code>
+     */
+    public static int getFold(int index, int totalImages, int numFolds) {
+        return (totalImages - 1 - index) % numFolds;
+    }
 }
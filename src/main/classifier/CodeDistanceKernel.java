@@ -0,0 +1,40 @@
+package main.classifier;
+
+/**
+ * Computes the L1 distance between a query image's quantized pixel codes and a training image's codes packed
+ * several to a byte
+ *
+ * Codes of <code>bits</code> bits are packed <code>8 / bits</code> to a byte in planes: bit field p of packed byte i
+ * holds the code of pixel <code>p * packedLength + i</code>. The query image's codes are unpacked, one per byte in
+ * pixel order, so each plane of the query lines up with the packed bytes.
+ */
+public interface CodeDistanceKernel {
+
+    /**
+     * @param queryCodes query image codes, one per byte, at least <code>packedLength * 8 / bits</code> of them
+     * @param packedCodes array holding the packed codes of the training image
+     * @param packedOffset offset of the first packed byte of the training image within <code>packedCodes</code>
+     * @param packedLength number of packed bytes per image
+     * @param bits number of bits per code, which divides 8
+     * @return sum of the absolute differences between the codes
+     */
+    int distance(byte[] queryCodes, byte[] packedCodes, int packedOffset, int packedLength, int bits);
+
+    /**
+     * Computes the distances between a query image's codes and a range of consecutive training images' codes
+     *
+     * @param queryCodes query image codes, one per byte, at least <code>packedLength * 8 / bits</code> of them
+     * @param packedCodes packed codes of the training images, image i starting at <code>i * packedLength</code>
+     * @param packedLength number of packed bytes per image
+     * @param bits number of bits per code, which divides 8
+     * @param from index of the first training image, inclusive
+     * @param to index of the last training image, exclusive
+     * @param distances array the distance to training image i is written to at <code>i - from</code>
+     */
+    default void distances(byte[] queryCodes, byte[] packedCodes, int packedLength, int bits, int from, int to,
+                           int[] distances) {
+        for (int i = from; i < to; i++) {
+            distances[i - from] = distance(queryCodes, packedCodes, i * packedLength, packedLength, bits);
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package main.classifier;
+
+/**
+ * Accuracy of each k-value candidate on each fold of a k-fold cross-validation
+ */
+public class CrossValidationResult {
+
+    private final int[] kValueCandidates;
+
+    /** Accuracy per [fold][k-value candidate] */
+    private final double[][] foldAccuracies;
+
+    CrossValidationResult(int[] kValueCandidates, double[][] foldAccuracies) {
+        this.kValueCandidates = kValueCandidates.clone();
+        this.foldAccuracies = foldAccuracies;
+    }
+
+    public int getNumFolds() {
+        return foldAccuracies.length;
+    }
+
+    public int[] getKValueCandidates() {
+        return kValueCandidates.clone();
+    }
+
+    /**
+     * @return accuracy of the k-value candidate at <code>candidateIndex</code> on one fold
+     */
+    public double getAccuracy(int fold, int candidateIndex) {
+        return foldAccuracies[fold][candidateIndex];
+    }
+
+    /**
+     * @return accuracy of the k-value candidate at <code>candidateIndex</code>, averaged over all folds
+     */
+    public double getMeanAccuracy(int candidateIndex) {
+        double sum = 0.;
+        for (double[] accuracies : foldAccuracies) {
+            sum += accuracies[candidateIndex];
+        }
+        return sum / foldAccuracies.length;
+    }
+
+    /**
+     * @return sample standard deviation over all folds of the accuracy of the k-value candidate
+     *          at <code>candidateIndex</code>
+     */
+    public double getAccuracyStandardDeviation(int candidateIndex) {
+        if (foldAccuracies.length < 2) {
+            return 0.;
+        }
+        double mean = getMeanAccuracy(candidateIndex);
+        double sumOfSquares = 0.;
+        for (double[] accuracies : foldAccuracies) {
+            double deviation = accuracies[candidateIndex] - mean;
+            sumOfSquares += deviation * deviation;
+        }
+        return Math.sqrt(sumOfSquares / (foldAccuracies.length - 1));
+    }
+
+    /**
+     * @return k-value candidate with the highest mean accuracy, the smallest in case of a tie
+     */
+    public int getMaxAccuracyKValue() {
+        int maxAccuracyCandidate = 0;
+        for (int i = 1; i < kValueCandidates.length; i++) {
+            double accuracy = getMeanAccuracy(i);
+            double maxAccuracy = getMeanAccuracy(maxAccuracyCandidate);
+            if (accuracy > maxAccuracy
+                    || (accuracy == maxAccuracy && kValueCandidates[i] < kValueCandidates[maxAccuracyCandidate])) {
+                maxAccuracyCandidate = i;
+            }
+        }
+        return kValueCandidates[maxAccuracyCandidate];
+    }
+}
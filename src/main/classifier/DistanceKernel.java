@@ -0,0 +1,77 @@
+package main.classifier;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Computes the distance between two flat images stored in byte arrays, or the second in a byte buffer such as a
+ * memory-mapped file
+ *
+ * Pixel bytes are single-color intensities in the range 0-255, and are treated as unsigned.
+ */
+public interface DistanceKernel {
+
+    /** Number of bytes compared between checks of the running distance against the threshold */
+    int EARLY_ABANDON_BLOCK_SIZE = 256;
+
+    /**
+     * @param imageA array holding the first image
+     * @param offsetA offset of the first byte of the first image within <code>imageA</code>
+     * @param imageB array holding the second image
+     * @param offsetB offset of the first byte of the second image within <code>imageB</code>
+     * @param length number of bytes in each image
+     * @return distance between the two images
+     */
+    int distance(byte[] imageA, int offsetA, byte[] imageB, int offsetB, int length);
+
+    /**
+     * Calculates the distance between an image in an array and an image read in place from a buffer, without
+     * changing the buffer's position
+     *
+     * @param imageB buffer holding the second image
+     * @param offsetB index of the first byte of the second image within <code>imageB</code>
+     * @see #distance(byte[], int, byte[], int, int)
+     */
+    int distance(byte[] imageA, int offsetA, ByteBuffer imageB, int offsetB, int length);
+
+    /**
+     * @return name of the distance metric calculated, the same for every kernel that calculates identical distances
+     */
+    String getMetricName();
+
+    /**
+     * Calculates the distance between two images, abandoning the calculation early once the running distance
+     * reaches <code>threshold</code>. Bytes are compared in blocks of <code>EARLY_ABANDON_BLOCK_SIZE</code> and the
+     * threshold is only checked between blocks, so each block can still be vectorized.
+     *
+     * @param threshold distance at which the calculation is abandoned
+     * @return distance between the two images if it is less than <code>threshold</code>,
+     *          otherwise some partial distance that is at least <code>threshold</code>
+     */
+    default int distance(byte[] imageA, int offsetA, byte[] imageB, int offsetB, int length, int threshold) {
+        int sum = 0;
+        for (int block = 0; block < length; block += EARLY_ABANDON_BLOCK_SIZE) {
+            int blockLength = Math.min(EARLY_ABANDON_BLOCK_SIZE, length - block);
+            sum += distance(imageA, offsetA + block, imageB, offsetB + block, blockLength);
+            if (sum >= threshold) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Calculates the distance between an image in an array and an image read in place from a buffer, abandoning
+     * the calculation early like {@link #distance(byte[], int, byte[], int, int, int)}
+     */
+    default int distance(byte[] imageA, int offsetA, ByteBuffer imageB, int offsetB, int length, int threshold) {
+        int sum = 0;
+        for (int block = 0; block < length; block += EARLY_ABANDON_BLOCK_SIZE) {
+            int blockLength = Math.min(EARLY_ABANDON_BLOCK_SIZE, length - block);
+            sum += distance(imageA, offsetA + block, imageB, offsetB + block, blockLength);
+            if (sum >= threshold) {
+                return sum;
+            }
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,196 @@
+package main.classifier;
+
+import main.config.Config;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.function.BiPredicate;
+
+public class DistanceKernels {
+
+    private static final String VECTOR_L1_KERNEL_CLASS = "main.classifier.VectorL1DistanceKernel";
+
+    private static final String VECTOR_L2_KERNEL_CLASS = "main.classifier.VectorL2DistanceKernel";
+
+    private static final String VECTOR_DOT_PRODUCT_KERNEL_CLASS = "main.classifier.VectorDotProductKernel";
+
+    private static final String VECTOR_FEATURE_KERNEL_CLASS = "main.classifier.VectorFeatureKernel";
+
+    private static DistanceKernel bestKernel;
+
+    private static DistanceKernel bestL2Kernel;
+
+    private static final String VECTOR_CODE_KERNEL_CLASS = "main.classifier.VectorCodeDistanceKernel";
+
+    private static FeatureKernel bestFeatureKernel;
+
+    private static CodeDistanceKernel bestCodeKernel;
+
+    private static DotProductKernel bestDotProductKernel;
+
+    /**
+     * Selects the fastest kernel supported by the running JVM for the distance metric in
+     * <code>Config.DISTANCE_METRIC</code>
+     */
+    public static DistanceKernel getBestKernel() {
+        return getBestKernel(Config.DISTANCE_METRIC);
+    }
+
+    /**
+     * Selects the fastest kernel for a distance metric supported by the running JVM.
+     * The vectorized kernel is used when the <code>jdk.incubator.vector</code> module is available,
+     * otherwise falls back to the scalar kernel.
+     *
+     * @param metricName "L1" for the sum of absolute differences, or "L2" for the sum of squared differences
+     * @throws IllegalArgumentException if the metric is unknown
+     */
+    public static synchronized DistanceKernel getBestKernel(String metricName) {
+        switch (metricName) {
+            case "L1":
+                if (bestKernel == null) {
+                    bestKernel = loadBest(VECTOR_L1_KERNEL_CLASS, DistanceKernel.class, new ScalarL1DistanceKernel(),
+                            DistanceKernels::matchesScalarKernel);
+                }
+                return bestKernel;
+            case "L2":
+                if (bestL2Kernel == null) {
+                    bestL2Kernel = loadBest(VECTOR_L2_KERNEL_CLASS, DistanceKernel.class, new ScalarL2DistanceKernel(),
+                            DistanceKernels::matchesScalarKernel);
+                }
+                return bestL2Kernel;
+            default:
+                throw new IllegalArgumentException("unknown distance metric: " + metricName);
+        }
+    }
+
+    private static boolean matchesScalarKernel(DistanceKernel vectorKernel, DistanceKernel scalarKernel) {
+        // the odd image size exercises the scalar tail loop
+        byte[] imageA = new byte[Config.RGB_FLAT_IMAGE_SIZE + 3];
+        byte[] imageB = new byte[imageA.length];
+        for (int i = 0; i < imageA.length; i++) {
+            imageA[i] = (byte) (i * 37);
+            imageB[i] = (byte) (255 - i * 11);
+        }
+        int expected = scalarKernel.distance(imageA, 0, imageB, 0, imageA.length);
+        // and reading the second image from a direct buffer, as from a memory-mapped snapshot
+        ByteBuffer bufferB = ByteBuffer.allocateDirect(imageB.length).put(imageB);
+        return vectorKernel.distance(imageA, 0, imageB, 0, imageA.length) == expected
+                && vectorKernel.distance(imageA, 0, bufferB, 0, imageA.length) == expected;
+    }
+
+    /**
+     * Loads a vector kernel by name, so this class still loads when the <code>jdk.incubator.vector</code> module
+     * isn't available, and sanity checks it against the scalar kernel, which also forces vector class loading
+     *
+     * @param vectorKernelClass name of the vector kernel's class
+     * @param kernelType interface both kernels implement
+     * @param scalarKernel kernel used if the vector kernel can't be loaded or is wrong
+     * @param matchesScalar whether the vector kernel, the first argument, calculates the same results as the scalar
+     *                      kernel
+     * @return the vector kernel if it loads and matches the scalar kernel, otherwise the scalar kernel
+     */
+    private static <T> T loadBest(String vectorKernelClass, Class<T> kernelType, T scalarKernel,
+                                  BiPredicate<T, T> matchesScalar) {
+        try {
+            T vectorKernel = kernelType.cast(Class.forName(vectorKernelClass)
+                    .getDeclaredConstructor()
+                    .newInstance());
+            return matchesScalar.test(vectorKernel, scalarKernel) ? vectorKernel : scalarKernel;
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return scalarKernel;
+        }
+    }
+
+    /**
+     * Selects the fastest feature kernel supported by the running JVM, in the same way as
+     * {@link #getBestKernel()}
+     */
+    public static synchronized FeatureKernel getBestFeatureKernel() {
+        if (bestFeatureKernel == null) {
+            bestFeatureKernel = loadBest(VECTOR_FEATURE_KERNEL_CLASS, FeatureKernel.class, new ScalarFeatureKernel(),
+                    DistanceKernels::matchesScalarFeatureKernel);
+        }
+        return bestFeatureKernel;
+    }
+
+    private static boolean matchesScalarFeatureKernel(FeatureKernel vectorKernel, FeatureKernel scalarKernel) {
+        // including the scalar tail loop
+        float[] values = new float[67];
+        float[] expected = new float[values.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = i * 0.37f - 11;
+            expected[i] = 255 - i * 1.3f;
+        }
+        float[] sums = expected.clone();
+        scalarKernel.addScaled(expected, 0, 1.7f, values, 0, values.length);
+        scalarKernel.addSquaredDifferences(expected, 3.1f, values, 0, values.length);
+        vectorKernel.addScaled(sums, 0, 1.7f, values, 0, values.length);
+        vectorKernel.addSquaredDifferences(sums, 3.1f, values, 0, values.length);
+        return Arrays.equals(sums, expected);
+    }
+
+    /**
+     * Selects the fastest quantized code distance kernel supported by the running JVM, in the same way as
+     * {@link #getBestKernel()}
+     */
+    public static synchronized CodeDistanceKernel getBestCodeKernel() {
+        if (bestCodeKernel == null) {
+            bestCodeKernel = loadBest(VECTOR_CODE_KERNEL_CLASS, CodeDistanceKernel.class,
+                    new ScalarCodeDistanceKernel(), DistanceKernels::matchesScalarCodeKernel);
+        }
+        return bestCodeKernel;
+    }
+
+    private static boolean matchesScalarCodeKernel(CodeDistanceKernel vectorKernel, CodeDistanceKernel scalarKernel) {
+        // for every code size, over enough packed bytes to widen the byte sums several times, and an odd length to
+        // exercise the scalar tail loop
+        int packedLength = 64 * 40 + 3;
+        byte[] packedCodes = new byte[packedLength];
+        for (int i = 0; i < packedLength; i++) {
+            packedCodes[i] = (byte) (i * 37);
+        }
+        for (int bits = 1; bits < 8; bits *= 2) {
+            byte[] queryCodes = new byte[packedLength * 8 / bits];
+            for (int i = 0; i < queryCodes.length; i++) {
+                queryCodes[i] = (byte) (((i * 11) >>> 2) & ((1 << bits) - 1));
+            }
+            int expected = scalarKernel.distance(queryCodes, packedCodes, 0, packedLength, bits);
+            if (vectorKernel.distance(queryCodes, packedCodes, 0, packedLength, bits) != expected) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Selects the fastest dot product kernel supported by the running JVM, in the same way as
+     * {@link #getBestKernel()}
+     */
+    public static synchronized DotProductKernel getBestDotProductKernel() {
+        if (bestDotProductKernel == null) {
+            bestDotProductKernel = loadBest(VECTOR_DOT_PRODUCT_KERNEL_CLASS, DotProductKernel.class,
+                    new ScalarDotProductKernel(), DistanceKernels::matchesScalarDotProductKernel);
+        }
+        return bestDotProductKernel;
+    }
+
+    private static boolean matchesScalarDotProductKernel(DotProductKernel vectorKernel,
+                                                         DotProductKernel scalarKernel) {
+        // with odd numbers of query images and images to exercise the unpaired ones, and an odd image size to
+        // exercise the scalar tail loop
+        int imageSize = Config.RGB_FLAT_IMAGE_SIZE + 3;
+        byte[] queries = new byte[3 * imageSize];
+        byte[] images = new byte[5 * imageSize];
+        for (int i = 0; i < images.length; i++) {
+            images[i] = (byte) (255 - i * 11);
+            if (i < queries.length) {
+                queries[i] = (byte) (i * 37);
+            }
+        }
+        int[] expected = new int[3 * 4];
+        int[] products = new int[expected.length];
+        scalarKernel.dotProducts(queries, 3, images, 1, 5, imageSize, expected);
+        vectorKernel.dotProducts(queries, 3, images, 1, 5, imageSize, products);
+        return Arrays.equals(products, expected);
+    }
+}
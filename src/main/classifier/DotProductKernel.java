@@ -0,0 +1,24 @@
+package main.classifier;
+
+/**
+ * Computes the dot product of every pair of a block of query images and a range of packed images, the cross term of
+ * squared Euclidean distances calculated as a matrix multiply
+ *
+ * Pixel bytes are treated as their values minus 128, i.e. as signed bytes with the sign bit flipped. Shifting every
+ * value by the same amount leaves the differences between them, and so the distances, unchanged, while keeping
+ * every dot product of images of up to 131072 bytes within an int.
+ */
+public interface DotProductKernel {
+
+    /**
+     * @param queries query images packed back to back
+     * @param numQueries number of query images
+     * @param images pixel array holding images back to back
+     * @param from index of the first image to multiply, inclusive
+     * @param to index of the last image to multiply, exclusive
+     * @param imageSize number of bytes in each image
+     * @param products array the dot product of query image q and image i is stored to,
+     *                 at <code>q * (to - from) + (i - from)</code>
+     */
+    void dotProducts(byte[] queries, int numQueries, byte[] images, int from, int to, int imageSize, int[] products);
+}
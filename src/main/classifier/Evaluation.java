@@ -0,0 +1,235 @@
+package main.classifier;
+
+import java.util.Arrays;
+
+/**
+ * Accumulates classification results in a single pass, one (actual, predicted) label id pair at a time
+ *
+ * Builds a confusion matrix, from which accuracy and per-class precision and recall are derived. When the nearest
+ * neighbors of each image are recorded as well, also tracks top-k accuracy. Evaluations of separate parts of a data
+ * set, e.g. from different prediction threads, can be merged into one.
+ */
+public class Evaluation {
+
+    private final String[] labelNames;
+
+    /** Count of images per [actual label id][predicted label id] */
+    private final int[][] confusionMatrix;
+
+    /** Count of images per actual label id, including images that couldn't be labeled */
+    private final int[] actualCounts;
+
+    private int totalImages = 0;
+    private int correctImages = 0;
+
+    /**
+     * Count of images per vote rank of their actual label, for images whose neighbors were recorded.
+     * The last entry counts images whose actual label got no votes.
+     */
+    private final int[] actualLabelRankCounts;
+    private int rankedImages = 0;
+
+    private long startNanos = Long.MAX_VALUE;
+    private long endNanos = Long.MIN_VALUE;
+
+    /**
+     * @param labelNames names of the labels, indexed by label id
+     */
+    public Evaluation(String[] labelNames) {
+        this.labelNames = labelNames.clone();
+        this.confusionMatrix = new int[labelNames.length][labelNames.length];
+        this.actualCounts = new int[labelNames.length];
+        this.actualLabelRankCounts = new int[labelNames.length + 1];
+    }
+
+    /**
+     * Records the predicted label of one image
+     *
+     * @param actualLabelId label id the image is known to have, or a negative id if it has an unknown label
+     * @param predictedLabelId label id predicted for the image, or a negative id if it couldn't be labeled
+     */
+    public void record(int actualLabelId, int predictedLabelId) {
+        totalImages++;
+        if (!isLabelId(actualLabelId)) {
+            return;
+        }
+        actualCounts[actualLabelId]++;
+        if (!isLabelId(predictedLabelId)) {
+            return;
+        }
+        confusionMatrix[actualLabelId][predictedLabelId]++;
+        if (actualLabelId == predictedLabelId) {
+            correctImages++;
+        }
+    }
+
+    /**
+     * Records the label of one image predicted by its k closest neighbors,
+     * along with the rank of its actual label among the labels the neighbors voted for
+     *
+     * @param actualLabelId label id the image is known to have, or a negative id if it has an unknown label
+     * @param neighbors closest training images to the image
+     * @param k number of closest neighbors voting
+     */
+    public void record(int actualLabelId, NearestNeighbors neighbors, int k) {
+        record(actualLabelId, neighbors.vote(k));
+
+        int rank = isLabelId(actualLabelId) ? neighbors.getVoteRank(actualLabelId, k) : -1;
+        actualLabelRankCounts[rank < 0 ? labelNames.length : rank]++;
+        rankedImages++;
+    }
+
+    /**
+     * Records the wall-clock time spent predicting the recorded images. Merged evaluations span the earliest start
+     * to the latest end of their parts.
+     */
+    public void recordTiming(long startNanos, long endNanos) {
+        this.startNanos = Math.min(this.startNanos, startNanos);
+        this.endNanos = Math.max(this.endNanos, endNanos);
+    }
+
+    /**
+     * Adds everything recorded by another evaluation over the same labels into this one
+     */
+    public void merge(Evaluation other) {
+        if (!Arrays.equals(labelNames, other.labelNames)) {
+            throw new IllegalArgumentException("can't merge evaluations with different labels");
+        }
+        for (int actual = 0; actual < labelNames.length; actual++) {
+            for (int predicted = 0; predicted < labelNames.length; predicted++) {
+                confusionMatrix[actual][predicted] += other.confusionMatrix[actual][predicted];
+            }
+            actualCounts[actual] += other.actualCounts[actual];
+        }
+        for (int rank = 0; rank < actualLabelRankCounts.length; rank++) {
+            actualLabelRankCounts[rank] += other.actualLabelRankCounts[rank];
+        }
+        totalImages += other.totalImages;
+        correctImages += other.correctImages;
+        rankedImages += other.rankedImages;
+        if (other.startNanos <= other.endNanos) {
+            recordTiming(other.startNanos, other.endNanos);
+        }
+    }
+
+    public int getTotalImages() {
+        return totalImages;
+    }
+
+    /**
+     * @return fraction of images labeled correctly
+     */
+    public double getAccuracy() {
+        return correctImages / (double) totalImages;
+    }
+
+    /**
+     * @return fraction of images predicted as the label that actually have it, or NaN if none were predicted as it
+     */
+    public double getPrecision(int labelId) {
+        int predictedCount = 0;
+        for (int actual = 0; actual < labelNames.length; actual++) {
+            predictedCount += confusionMatrix[actual][labelId];
+        }
+        return confusionMatrix[labelId][labelId] / (double) predictedCount;
+    }
+
+    /**
+     * @return fraction of images that have the label that were predicted as it, or NaN if none have it
+     */
+    public double getRecall(int labelId) {
+        return confusionMatrix[labelId][labelId] / (double) actualCounts[labelId];
+    }
+
+    /**
+     * @return fraction of images whose actual label was among the k labels with the most neighbor votes,
+     *          or NaN if no neighbors were recorded
+     */
+    public double getTopKAccuracy(int k) {
+        int hits = 0;
+        for (int rank = 0; rank < Math.min(k, labelNames.length); rank++) {
+            hits += actualLabelRankCounts[rank];
+        }
+        return hits / (double) rankedImages;
+    }
+
+    /**
+     * @return copy of the count of images per [actual label id][predicted label id]
+     */
+    public int[][] getConfusionMatrix() {
+        int[][] copy = new int[labelNames.length][];
+        for (int i = 0; i < labelNames.length; i++) {
+            copy[i] = confusionMatrix[i].clone();
+        }
+        return copy;
+    }
+
+    /**
+     * @return wall-clock time spent predicting in milliseconds, or 0 if no timing was recorded
+     */
+    public double getElapsedMillis() {
+        return startNanos <= endNanos ? (endNanos - startNanos) / 1e6 : 0.;
+    }
+
+    /**
+     * @return images predicted per second, or NaN if no timing was recorded
+     */
+    public double getThroughput() {
+        return startNanos < endNanos ? totalImages / ((endNanos - startNanos) / 1e9) : Double.NaN;
+    }
+
+    /**
+     * @return multi-line text report of accuracy, timing, per-class metrics and the confusion matrix
+     */
+    public String toReport() {
+        StringBuilder report = new StringBuilder();
+        report.append(String.format("accuracy: %.2f%% (%d/%d images)%n",
+                getAccuracy() * 100, correctImages, totalImages));
+        if (rankedImages > 0) {
+            report.append(String.format("top-2 accuracy: %.2f%%, top-3 accuracy: %.2f%%%n",
+                    getTopKAccuracy(2) * 100, getTopKAccuracy(3) * 100));
+        }
+        if (startNanos <= endNanos) {
+            report.append(String.format("time: %.0f ms, throughput: %.1f images/s%n",
+                    getElapsedMillis(), getThroughput()));
+        }
+
+        // wide enough for "class" and for matrix row headings of label id and name
+        int nameWidth = 5;
+        for (int labelId = 0; labelId < labelNames.length; labelId++) {
+            nameWidth = Math.max(nameWidth, (labelId + " " + labelNames[labelId]).length());
+        }
+
+        report.append(String.format("%n%-" + nameWidth + "s %9s %9s%n", "class", "precision", "recall"));
+        for (int labelId = 0; labelId < labelNames.length; labelId++) {
+            report.append(String.format("%-" + nameWidth + "s %9s %9s%n",
+                    labelNames[labelId],
+                    formatPercentage(getPrecision(labelId)),
+                    formatPercentage(getRecall(labelId))));
+        }
+
+        // rows are actual labels, columns are predicted labels, headed by label id
+        report.append(String.format("%nconfusion matrix (rows actual, columns predicted)%n"));
+        report.append(String.format("%-" + nameWidth + "s", ""));
+        for (int predicted = 0; predicted < labelNames.length; predicted++) {
+            report.append(String.format(" %5d", predicted));
+        }
+        report.append(String.format("%n"));
+        for (int actual = 0; actual < labelNames.length; actual++) {
+            report.append(String.format("%-" + nameWidth + "s", actual + " " + labelNames[actual]));
+            for (int predicted = 0; predicted < labelNames.length; predicted++) {
+                report.append(String.format(" %5d", confusionMatrix[actual][predicted]));
+            }
+            report.append(String.format("%n"));
+        }
+        return report.toString();
+    }
+
+    private static String formatPercentage(double fraction) {
+        return Double.isNaN(fraction) ? "-" : String.format("%.2f%%", fraction * 100);
+    }
+
+    private boolean isLabelId(int labelId) {
+        return labelId >= 0 && labelId < labelNames.length;
+    }
+}
@@ -0,0 +1,24 @@
+package main.classifier;
+
+/**
+ * Element-wise arithmetic on rows of packed float features, used to transform images into features and to
+ * compare features
+ *
+ * Each element is calculated with a separate multiply and add rather than a fused multiply-add,
+ * so that every kernel calculates bitwise identical results.
+ */
+public interface FeatureKernel {
+
+    /**
+     * Adds a scaled row of values to a row of sums:
+     * <code>sums[sumsOffset + j] += scale * values[valuesOffset + j]</code> for every j less than
+     * <code>length</code>
+     */
+    void addScaled(float[] sums, int sumsOffset, float scale, float[] values, int valuesOffset, int length);
+
+    /**
+     * Adds the squared difference between a value and each of a row of values to a row of sums:
+     * <code>sums[j] += (value - values[valuesOffset + j])^2</code> for every j less than <code>length</code>
+     */
+    void addSquaredDifferences(float[] sums, float value, float[] values, int valuesOffset, int length);
+}
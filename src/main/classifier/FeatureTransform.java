@@ -0,0 +1,32 @@
+package main.classifier;
+
+/**
+ * Maps flat images to shorter feature vectors, whose Euclidean distances approximate those between the images
+ *
+ * A transform is fitted to a training set once, and then applied the same way to training and query images.
+ * Fitted transforms can be applied concurrently from several threads.
+ */
+public interface FeatureTransform {
+
+    /**
+     * Fits the transform to a set of training images, replacing whatever it was fitted to before
+     *
+     * @param trainingImages training images whose features will be compared
+     */
+    void fit(PackedTrainingSet trainingImages);
+
+    /**
+     * @return number of features each image is mapped to
+     */
+    int getFeatureSize();
+
+    /**
+     * Maps a flat image to its features
+     *
+     * @param image array holding the flat image
+     * @param offset offset of the first byte of the image within <code>image</code>
+     * @param features array the features are written to
+     * @param featuresOffset offset within <code>features</code> of the first feature written
+     */
+    void transform(byte[] image, int offset, float[] features, int featuresOffset);
+}
@@ -0,0 +1,284 @@
+package main.classifier;
+
+import main.config.Config;
+import main.data.ClassifierImage;
+import main.metrics.Metrics;
+import main.Logger;
+
+import org.apache.commons.collections4.KeyValue;
+import org.apache.commons.collections4.keyvalue.DefaultKeyValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * K-nearest-neighbor classifier whose training images can be added and removed while it predicts
+ *
+ * Training images are kept in an {@link IncrementalTrainingStore}, so adding or removing them never blocks
+ * prediction and never rebuilds the classifier. Each call to {@link #predict(List, int)} searches the training images
+ * as they were when it started, with an exact linear scan, so it predicts the same labels as a {@link KNNClassifier}
+ * with a linear scan trained on those images in the order they were added. A background thread compacts the store
+ * periodically, reclaiming the slots of removed images.
+ */
+public class IncrementalKNNClassifier implements AutoCloseable {
+
+    private final IncrementalTrainingStore trainingImages;
+    private final DistanceKernel distanceKernel;
+    private final double compactionThreshold;
+
+    private final int numThreads;
+    private ForkJoinPool predictionPool;
+    private final ScheduledExecutorService compactor;
+
+    /**
+     * Creates a classifier configured by <code>Config</code>
+     */
+    public IncrementalKNNClassifier() {
+        this(Config.NUM_PREDICTION_THREADS, DistanceKernels.getBestKernel(), Config.INCREMENTAL_SEGMENT_SIZE,
+                Config.INCREMENTAL_COMPACTION_THRESHOLD, Config.INCREMENTAL_COMPACTION_INTERVAL_MILLIS);
+    }
+
+    /**
+     * @param numThreads number of threads used for prediction, 1 to predict on the calling thread
+     * @param distanceKernel kernel used to calculate distances between images
+     * @param segmentSize number of training images per segment of the store
+     * @param compactionThreshold fraction of a segment's training images that must have been removed for it to be
+     *                            compacted
+     * @param compactionIntervalMillis milliseconds between background compactions, 0 to only compact when
+     *                                 {@link #compact()} is called
+     */
+    public IncrementalKNNClassifier(int numThreads, DistanceKernel distanceKernel, int segmentSize,
+                                    double compactionThreshold, long compactionIntervalMillis) {
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("invalid number of threads: " + numThreads);
+        }
+        if (!(compactionThreshold > 0) || compactionIntervalMillis < 0) {
+            throw new IllegalArgumentException("invalid compaction of segments with " + compactionThreshold
+                    + " removed every " + compactionIntervalMillis + " ms");
+        }
+        this.numThreads = numThreads;
+        this.distanceKernel = distanceKernel;
+        this.compactionThreshold = compactionThreshold;
+        this.trainingImages = new IncrementalTrainingStore(Config.RGB_FLAT_IMAGE_SIZE, segmentSize);
+
+        if (compactionIntervalMillis > 0) {
+            compactor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "training store compaction");
+                thread.setDaemon(true);
+                return thread;
+            });
+            compactor.scheduleWithFixedDelay(
+                    this::compact, compactionIntervalMillis, compactionIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            compactor = null;
+        }
+    }
+
+    /**
+     * Adds a labeled training image
+     *
+     * @return id of the image, for removing it
+     */
+    public int add(String label, ClassifierImage image) {
+        return trainingImages.add(
+                label, image.getFlatImageArray(), image.getFlatImageOffset(), image.getFlatImageSize());
+    }
+
+    /**
+     * Adds labeled training images, visible to predictions together
+     *
+     * @return id of each image, in the order of <code>trainingSet</code>
+     */
+    public int[] addAll(List<KeyValue<String,ClassifierImage>> trainingSet) {
+        long startNanos = Metrics.TRAIN.start();
+        String[] labels = new String[trainingSet.size()];
+        byte[][] flatImages = new byte[trainingSet.size()][];
+        int[] offsets = new int[trainingSet.size()];
+        for (int i = 0; i < trainingSet.size(); i++) {
+            ClassifierImage image = trainingSet.get(i).getValue();
+            if (image.getFlatImageSize() != trainingImages.getImageSize()) {
+                throw new ArrayIndexOutOfBoundsException("unequal image sizes " + image.getFlatImageSize()
+                        + ", " + trainingImages.getImageSize());
+            }
+            labels[i] = trainingSet.get(i).getKey();
+            flatImages[i] = image.getFlatImageArray();
+            offsets[i] = image.getFlatImageOffset();
+        }
+        int[] ids = trainingImages.addAll(
+                labels, flatImages, offsets, trainingImages.getImageSize(), trainingSet.size());
+        Metrics.TRAIN.recordSince(startNanos);
+        return ids;
+    }
+
+    /**
+     * Removes a training image, so predictions starting from now on don't see it
+     *
+     * @param id id the image was added with
+     * @return true if the image was removed, false if it had already been removed
+     */
+    public boolean remove(int id) {
+        return trainingImages.remove(id);
+    }
+
+    /**
+     * Removes the training images added longest ago
+     *
+     * @param count maximum number of images to remove
+     * @return number of images removed
+     */
+    public int evictOldest(int count) {
+        return trainingImages.evictOldest(count);
+    }
+
+    /**
+     * Reclaims the slots of removed training images in segments where enough of them were removed
+     */
+    public void compact() {
+        try {
+            int reclaimed = trainingImages.compact(compactionThreshold);
+            if (reclaimed > 0 && Metrics.isEnabled()) {
+                Metrics.counter("compacted_images", "slots of removed training images reclaimed by compaction")
+                        .add(reclaimed);
+            }
+        } catch (RuntimeException e) {
+            // keep compacting on schedule, a failed compaction leaves the store as it was
+            Logger.log("training store compaction failed: " + e);
+        }
+    }
+
+    /**
+     * @return number of training images currently in the classifier
+     */
+    public int size() {
+        return trainingImages.getView().size();
+    }
+
+    /**
+     * @return training images currently in the classifier, unchanged by later additions and removals
+     */
+    public IncrementalTrainingStore.View getTrainingImages() {
+        return trainingImages.getView();
+    }
+
+    /**
+     * Predicts classes for unlabeled images using k-nearest neighbor, against the training images in the classifier
+     * when the call starts
+     *
+     * @param predictImages unlabeled images
+     * @param k number of closest training images to consider
+     * @return images labeled by k-nearest neighbor classification
+     */
+    public List<KeyValue<String,ClassifierImage>> predict(List<ClassifierImage> predictImages, int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("invalid k value: " + k);
+        }
+        for (ClassifierImage image : predictImages) {
+            if (image.getFlatImageSize() != trainingImages.getImageSize()) {
+                throw new ArrayIndexOutOfBoundsException("unequal image sizes " + image.getFlatImageSize()
+                        + ", " + trainingImages.getImageSize());
+            }
+        }
+
+        IncrementalTrainingStore.View view = trainingImages.getView();
+        String[] labels = new String[predictImages.size()];
+        PredictTask task = new PredictTask(view, predictImages, k, labels, 0, predictImages.size());
+        if (numThreads <= 1) {
+            task.compute();
+        } else {
+            getPredictionPool().invoke(task);
+        }
+
+        List<KeyValue<String, ClassifierImage>> predictedImages = new ArrayList<>();
+        for (int i = 0; i < predictImages.size(); i++) {
+            predictedImages.add(new DefaultKeyValue<>(labels[i], predictImages.get(i)));
+        }
+        return predictedImages;
+    }
+
+    private synchronized ForkJoinPool getPredictionPool() {
+        if (predictionPool == null) {
+            predictionPool = new ForkJoinPool(numThreads);
+        }
+        return predictionPool;
+    }
+
+    /**
+     * Stops background compaction and the prediction threads
+     */
+    @Override
+    public synchronized void close() {
+        if (compactor != null) {
+            compactor.shutdown();
+        }
+        if (predictionPool != null) {
+            predictionPool.shutdown();
+        }
+    }
+
+    /**
+     * Predicts labels for a range of images in batches of up to <code>Config.PREDICTION_QUERY_TILE_SIZE</code>,
+     * splitting the range between pool threads
+     */
+    private class PredictTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final IncrementalTrainingStore.View view;
+        private final List<ClassifierImage> predictImages;
+        private final int k;
+        private final String[] labels;
+        private final int from;
+        private final int to;
+
+        PredictTask(IncrementalTrainingStore.View view, List<ClassifierImage> predictImages, int k, String[] labels,
+                    int from, int to) {
+            this.view = view;
+            this.predictImages = predictImages;
+            this.k = k;
+            this.labels = labels;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            int batchSize = Math.max(1, Config.PREDICTION_QUERY_TILE_SIZE);
+            if (numThreads > 1 && to - from > batchSize) {
+                int middle = from + (to - from) / 2;
+                invokeAll(new PredictTask(view, predictImages, k, labels, from, middle),
+                        new PredictTask(view, predictImages, k, labels, middle, to));
+                return;
+            }
+
+            NearestNeighbors[] neighbors = new NearestNeighbors[Math.min(batchSize, to - from)];
+            for (int j = 0; j < neighbors.length; j++) {
+                neighbors[j] = new NearestNeighbors(k);
+            }
+            byte[][] images = new byte[neighbors.length][];
+            int[] offsets = new int[neighbors.length];
+            for (int batchFirst = from; batchFirst < to; batchFirst += neighbors.length) {
+                int count = Math.min(neighbors.length, to - batchFirst);
+                for (int j = 0; j < count; j++) {
+                    ClassifierImage image = predictImages.get(batchFirst + j);
+                    images[j] = image.getFlatImageArray();
+                    offsets[j] = image.getFlatImageOffset();
+                    neighbors[j].clear();
+                }
+                long startNanos = Metrics.QUERY.start();
+                view.search(images, offsets, neighbors, count, distanceKernel, Config.PREDICTION_TRAINING_TILE_SIZE);
+                if (startNanos != 0) {
+                    Metrics.QUERY.record((System.nanoTime() - startNanos) / count, count);
+                    Metrics.QUERIES.add(count);
+                }
+                for (int j = 0; j < count; j++) {
+                    int labelId = neighbors[j].vote(k);
+                    labels[batchFirst + j] = labelId < 0 ? "ERR_NO_LABEL" : view.getLabelName(labelId);
+                }
+            }
+        }
+    }
+}
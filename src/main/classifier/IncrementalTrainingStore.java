@@ -0,0 +1,411 @@
+package main.classifier;
+
+import main.metrics.Metrics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Labeled training images that can be appended to and removed from while other threads search them
+ *
+ * Images are packed into fixed-size segments, each a contiguous pixel array like {@link PackedTrainingSet}. Every
+ * change publishes a new immutable {@link View} of the store through a volatile field, so searches never lock: a
+ * search reads one view and sees the same images throughout, however the store changes in the meantime.
+ *
+ * Appends write into free slots at the end of the last segment, which no published view covers yet, then publish a
+ * view that covers them. Removals tombstone images in a copy of their segment's tombstone bits rather than changing
+ * the segment, so views published earlier still see the removed images. Neither touches the pixels of any image
+ * a published view covers. {@link #compact(double)} reclaims tombstoned slots by copying the live images of segments
+ * with many tombstones into new segments. Old segments are reclaimed by the garbage collector once no search holds
+ * a view of them. Writers, including compaction, are serialized by a lock that searches never take.
+ *
+ * Each image gets an id when it is added, in increasing order, which stays the same when it is moved by compaction.
+ * Searches offer images to {@link NearestNeighbors} by id, so ties in distance are broken in favour of the image
+ * added first, the same as a {@link PackedTrainingSet} holding the live images in the order they were added.
+ */
+public class IncrementalTrainingStore {
+
+    private final int imageSize;
+    private final int segmentSize;
+
+    private volatile View view;
+
+    /** Serializes changes to the store. Searches never take it. */
+    private final Object writeLock = new Object();
+    private int nextId = 0;
+
+    /**
+     * @param imageSize number of bytes in each flat image
+     * @param segmentSize number of images per segment, reclaimed together when a segment is compacted
+     */
+    public IncrementalTrainingStore(int imageSize, int segmentSize) {
+        if (imageSize <= 0) {
+            throw new IllegalArgumentException("invalid image size: " + imageSize);
+        }
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("invalid segment size: " + segmentSize);
+        }
+        this.imageSize = imageSize;
+        this.segmentSize = segmentSize;
+        this.view = new View(new SegmentView[0], new String[0], imageSize);
+    }
+
+    /**
+     * @return the images in the store right now, unchanged by later changes to the store
+     */
+    public View getView() {
+        return view;
+    }
+
+    public int getImageSize() {
+        return imageSize;
+    }
+
+    /**
+     * Appends a labeled flat image
+     *
+     * @param label class name of the image
+     * @param flatImages array holding the image pixels, which are copied into the store
+     * @param offset offset of the first byte of the image within <code>flatImages</code>
+     * @param length number of bytes in the image
+     * @return id of the appended image
+     */
+    public int add(String label, byte[] flatImages, int offset, int length) {
+        return addAll(new String[] {label}, new byte[][] {flatImages}, new int[] {offset}, length, 1)[0];
+    }
+
+    /**
+     * Appends several labeled flat images, published to searches together
+     *
+     * @param labels class name of each image
+     * @param flatImages array holding the pixels of each image, which are copied into the store
+     * @param offsets offset of the first byte of each image within its array
+     * @param length number of bytes in each image
+     * @param count number of images to append
+     * @return id of each appended image, in increasing order
+     */
+    public int[] addAll(String[] labels, byte[][] flatImages, int[] offsets, int length, int count) {
+        if (length != imageSize) {
+            throw new ArrayIndexOutOfBoundsException("unequal image sizes " + length + ", " + imageSize);
+        }
+        int[] ids = new int[count];
+        synchronized (writeLock) {
+            if (nextId > Integer.MAX_VALUE - count) {
+                throw new IllegalStateException("too many images added to the store");
+            }
+            View current = view;
+            List<SegmentView> segments = new ArrayList<>(Arrays.asList(current.segments));
+            String[] labelNames = current.labelNames;
+
+            for (int j = 0; j < count; j++) {
+                SegmentView last = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                if (last == null || last.size == segmentSize) {
+                    last = newSegmentView();
+                    segments.add(last);
+                }
+                int labelId = indexOf(labelNames, labels[j]);
+                if (labelId < 0) {
+                    if (labelNames.length > Short.MAX_VALUE) {
+                        throw new IllegalStateException("too many distinct labels");
+                    }
+                    labelId = labelNames.length;
+                    labelNames = Arrays.copyOf(labelNames, labelNames.length + 1);
+                    labelNames[labelId] = labels[j];
+                }
+
+                // the slot is past the end of every published view of the segment, so no search reads it yet
+                int slot = last.size;
+                Segment segment = last.segment;
+                System.arraycopy(flatImages[j], offsets[j], segment.pixels, slot * imageSize, imageSize);
+                segment.labelIds[slot] = (short) labelId;
+                segment.ids[slot] = nextId;
+                ids[j] = nextId++;
+                segments.set(segments.size() - 1,
+                        new SegmentView(segment, slot + 1, last.tombstones, last.numTombstones));
+            }
+            view = new View(segments.toArray(new SegmentView[0]), labelNames, imageSize);
+        }
+        return ids;
+    }
+
+    /**
+     * Tombstones an image, so searches of views published from now on don't find it
+     *
+     * @param id id of the image
+     * @return true if the image was in the store, false if it was never added or was already removed
+     */
+    public boolean remove(int id) {
+        synchronized (writeLock) {
+            View current = view;
+            int segmentIndex = current.findSegment(id);
+            if (segmentIndex < 0) {
+                return false;
+            }
+            SegmentView segmentView = current.segments[segmentIndex];
+            int slot = Arrays.binarySearch(segmentView.segment.ids, 0, segmentView.size, id);
+            if (slot < 0 || segmentView.isTombstoned(slot)) {
+                return false;
+            }
+            SegmentView[] segments = current.segments.clone();
+            segments[segmentIndex] = segmentView.withTombstones(new int[] {slot}, 1);
+            view = new View(segments, current.labelNames, imageSize);
+            return true;
+        }
+    }
+
+    /**
+     * Tombstones the images added longest ago, e.g. to keep a sliding window of the latest images
+     *
+     * @param count maximum number of images to remove
+     * @return number of images removed, less than <code>count</code> only if the store held fewer images
+     */
+    public int evictOldest(int count) {
+        synchronized (writeLock) {
+            View current = view;
+            SegmentView[] segments = current.segments.clone();
+            int removed = 0;
+            int[] slots = new int[segmentSize];
+            for (int s = 0; s < segments.length && removed < count; s++) {
+                SegmentView segmentView = segments[s];
+                int numSlots = 0;
+                for (int slot = 0; slot < segmentView.size && removed < count; slot++) {
+                    if (!segmentView.isTombstoned(slot)) {
+                        slots[numSlots++] = slot;
+                        removed++;
+                    }
+                }
+                if (numSlots > 0) {
+                    segments[s] = segmentView.withTombstones(slots, numSlots);
+                }
+            }
+            if (removed > 0) {
+                view = new View(segments, current.labelNames, imageSize);
+            }
+            return removed;
+        }
+    }
+
+    /**
+     * Copies the live images of every segment whose fraction of tombstoned images is at least
+     * <code>minTombstoneFraction</code> into new, densely packed segments, keeping the images in the order they
+     * were added. The segment being appended to is left alone until it is full.
+     *
+     * @param minTombstoneFraction fraction of a segment's images that must be tombstoned for it to be compacted,
+     *                             above 0 so that segments without tombstones aren't copied
+     * @return number of tombstoned slots reclaimed
+     */
+    public int compact(double minTombstoneFraction) {
+        if (!(minTombstoneFraction > 0)) {
+            throw new IllegalArgumentException("invalid compaction threshold: " + minTombstoneFraction);
+        }
+        synchronized (writeLock) {
+            View current = view;
+            List<SegmentView> compacted = new ArrayList<>();
+            SegmentView filling = null;
+            int reclaimed = 0;
+            for (int s = 0; s < current.segments.length; s++) {
+                SegmentView segmentView = current.segments[s];
+                boolean appending = s == current.segments.length - 1 && segmentView.size < segmentSize;
+                if (appending || segmentView.numTombstones < minTombstoneFraction * segmentView.size) {
+                    compacted.add(segmentView);
+                    filling = null;
+                    continue;
+                }
+                // runs of compacted segments are packed together in order, so ids stay in increasing order
+                Segment source = segmentView.segment;
+                for (int slot = 0; slot < segmentView.size; slot++) {
+                    if (segmentView.isTombstoned(slot)) {
+                        continue;
+                    }
+                    if (filling == null || filling.size == segmentSize) {
+                        filling = newSegmentView();
+                        compacted.add(filling);
+                    }
+                    Segment target = filling.segment;
+                    System.arraycopy(source.pixels, slot * imageSize, target.pixels, filling.size * imageSize,
+                            imageSize);
+                    target.labelIds[filling.size] = source.labelIds[slot];
+                    target.ids[filling.size] = source.ids[slot];
+                    filling = new SegmentView(target, filling.size + 1, filling.tombstones, 0);
+                    compacted.set(compacted.size() - 1, filling);
+                }
+                reclaimed += segmentView.numTombstones;
+            }
+            if (reclaimed > 0) {
+                view = new View(compacted.toArray(new SegmentView[0]), current.labelNames, imageSize);
+            }
+            return reclaimed;
+        }
+    }
+
+    private SegmentView newSegmentView() {
+        return new SegmentView(new Segment(segmentSize, imageSize), 0, new long[(segmentSize + 63) / 64], 0);
+    }
+
+    private static int indexOf(String[] labelNames, String label) {
+        for (int i = 0; i < labelNames.length; i++) {
+            if (labelNames[i].equals(label)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Pixels, label ids and image ids of up to <code>capacity</code> images. Slots are written once, by a writer,
+     * before any view covering them is published, and never changed afterwards.
+     */
+    private static class Segment {
+        final byte[] pixels;
+        final short[] labelIds;
+        final int[] ids;
+
+        Segment(int capacity, int imageSize) {
+            this.pixels = new byte[Math.multiplyExact(capacity, imageSize)];
+            this.labelIds = new short[capacity];
+            this.ids = new int[capacity];
+        }
+    }
+
+    /**
+     * The first <code>size</code> slots of a segment and which of them are tombstoned, never changed once published
+     */
+    private static class SegmentView {
+        final Segment segment;
+        final int size;
+        final long[] tombstones;
+        final int numTombstones;
+
+        SegmentView(Segment segment, int size, long[] tombstones, int numTombstones) {
+            this.segment = segment;
+            this.size = size;
+            this.tombstones = tombstones;
+            this.numTombstones = numTombstones;
+        }
+
+        boolean isTombstoned(int slot) {
+            return (tombstones[slot >>> 6] & (1L << slot)) != 0;
+        }
+
+        /**
+         * @return a view with some more slots tombstoned, in a copy of the tombstone bits
+         */
+        SegmentView withTombstones(int[] slots, int count) {
+            long[] copy = tombstones.clone();
+            for (int j = 0; j < count; j++) {
+                copy[slots[j] >>> 6] |= 1L << slots[j];
+            }
+            return new SegmentView(segment, size, copy, numTombstones + count);
+        }
+    }
+
+    /**
+     * The images in the store at one point in time, searched without locking while the store changes
+     */
+    public static class View {
+        private final SegmentView[] segments;
+        private final String[] labelNames;
+        private final int imageSize;
+        private final int size;
+
+        private View(SegmentView[] segments, String[] labelNames, int imageSize) {
+            this.segments = segments;
+            this.labelNames = labelNames;
+            this.imageSize = imageSize;
+            int size = 0;
+            for (SegmentView segmentView : segments) {
+                size += segmentView.size - segmentView.numTombstones;
+            }
+            this.size = size;
+        }
+
+        /**
+         * @return number of live images
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return number of segments, including the slots of their tombstoned images
+         */
+        public int getNumSegments() {
+            return segments.length;
+        }
+
+        /**
+         * @return number of tombstoned images not yet reclaimed by compaction
+         */
+        public int getNumTombstones() {
+            int numTombstones = 0;
+            for (SegmentView segmentView : segments) {
+                numTombstones += segmentView.numTombstones;
+            }
+            return numTombstones;
+        }
+
+        public String getLabelName(int labelId) {
+            return labelNames[labelId];
+        }
+
+        /**
+         * Offers every live image to the closest neighbors of each of a batch of query images, tile by tile as in
+         * {@link LinearScanIndex}, abandoning each distance calculation early once the image can no longer be
+         * among the closest. Neighbors are offered by image id.
+         *
+         * @param images array holding each flat query image
+         * @param offsets offset of the first byte of each query image within its array
+         * @param neighbors closest images found so far for each query image
+         * @param count number of query images in the batch
+         * @param distanceKernel kernel used to calculate distances between images
+         * @param trainingTileSize number of images compared to every query image in the batch before moving on
+         */
+        public void search(byte[][] images, int[] offsets, NearestNeighbors[] neighbors, int count,
+                           DistanceKernel distanceKernel, int trainingTileSize) {
+            long evaluations = 0;
+            for (SegmentView segmentView : segments) {
+                Segment segment = segmentView.segment;
+                for (int tileFirst = 0; tileFirst < segmentView.size; tileFirst += trainingTileSize) {
+                    int tileEnd = Math.min(tileFirst + trainingTileSize, segmentView.size);
+                    for (int q = 0; q < count; q++) {
+                        for (int slot = tileFirst; slot < tileEnd; slot++) {
+                            if (segmentView.numTombstones > 0 && segmentView.isTombstoned(slot)) {
+                                continue;
+                            }
+                            int threshold = neighbors[q].getThreshold();
+                            int distance = distanceKernel.distance(images[q], offsets[q],
+                                    segment.pixels, slot * imageSize, imageSize, threshold);
+                            if (distance < threshold) {
+                                neighbors[q].offer(distance, segment.ids[slot], segment.labelIds[slot]);
+                            }
+                        }
+                    }
+                }
+                evaluations += segmentView.size - segmentView.numTombstones;
+            }
+            Metrics.recordDistances(evaluations * count, evaluations * count * imageSize);
+        }
+
+        /**
+         * @param id id of an image
+         * @return index of the segment whose ids span <code>id</code>, or -1 if none does
+         */
+        private int findSegment(int id) {
+            int low = 0;
+            int high = segments.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                SegmentView segmentView = segments[middle];
+                if (segmentView.segment.ids[segmentView.size - 1] < id) {
+                    low = middle + 1;
+                } else if (segmentView.segment.ids[0] > id) {
+                    high = middle - 1;
+                } else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+    }
+}
@@ -1,38 +1,310 @@
 package main.classifier;
 
+import main.cifar10.Cifar10Batch;
+import main.cifar10.Cifar10Record;
+import main.config.Config;
 import main.data.ClassifierImage;
+import main.metrics.Metrics;
 import main.Logger;
 
-import org.apache.commons.collections4.Bag;
 import org.apache.commons.collections4.KeyValue;
-import org.apache.commons.collections4.bag.HashBag;
 import org.apache.commons.collections4.keyvalue.DefaultKeyValue;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
 
-public class KNNClassifier {
+public class KNNClassifier implements AutoCloseable {
 
-    private List<KeyValue<String, byte[]>> classifiedTrainingImages = new ArrayList<>();
+    private final PackedTrainingSet classifiedTrainingImages;
+
+    private final DistanceKernel distanceKernel;
+
+    private final NeighborIndex neighborIndex;
+    /** Number of training images the index was last built over, -1 if it hasn't been built */
+    private int indexedSize = -1;
+
+    private final int numThreads;
+    private ForkJoinPool predictionPool;
+
+    /**
+     * Creates a classifier that predicts using <code>Config.NUM_PREDICTION_THREADS</code> threads
+     */
+    public KNNClassifier() {
+        this(Config.NUM_PREDICTION_THREADS);
+    }
+
+    /**
+     * @param numThreads number of threads used for prediction, 1 to predict on the calling thread
+     */
+    public KNNClassifier(int numThreads) {
+        this(numThreads, DistanceKernels.getBestKernel());
+    }
+
+    /**
+     * @param numThreads number of threads used for prediction, 1 to predict on the calling thread
+     * @param distanceKernel kernel used to calculate distances between images
+     */
+    public KNNClassifier(int numThreads, DistanceKernel distanceKernel) {
+        this(numThreads, distanceKernel, createDefaultNeighborIndex(distanceKernel));
+    }
+
+    /**
+     * @param numThreads number of threads used for prediction, 1 to predict on the calling thread
+     * @param distanceKernel kernel used to calculate distances between images
+     * @param neighborIndex index searched for the closest training images when predicting
+     */
+    public KNNClassifier(int numThreads, DistanceKernel distanceKernel, NeighborIndex neighborIndex) {
+        this(numThreads, distanceKernel, neighborIndex, new PackedTrainingSet(Config.RGB_FLAT_IMAGE_SIZE));
+    }
+
+    /**
+     * @param numThreads number of threads used for prediction, 1 to predict on the calling thread
+     * @param distanceKernel kernel used to calculate distances between images
+     * @param neighborIndex index searched for the closest training images when predicting
+     * @param classifiedTrainingImages training images the classifier starts out with
+     */
+    KNNClassifier(int numThreads, DistanceKernel distanceKernel, NeighborIndex neighborIndex,
+                  PackedTrainingSet classifiedTrainingImages) {
+        if (numThreads <= 0) {
+            throw new IllegalArgumentException("invalid number of threads: " + numThreads);
+        }
+        this.numThreads = numThreads;
+        this.distanceKernel = distanceKernel;
+        this.neighborIndex = neighborIndex;
+        this.classifiedTrainingImages = classifiedTrainingImages;
+    }
+
+    /**
+     * @param distanceKernel kernel the index calculates distances with
+     * @return a scan of images reduced to fewer features if configured in <code>Config</code>, otherwise a scan
+     *          of quantized codes if configured, otherwise a random projection forest if approximate nearest
+     *          neighbors are enabled, otherwise an exact scan of shards if the training images are sharded,
+     *          otherwise an exact matrix multiply for L2 distance or an exact linear scan
+     */
+    static NeighborIndex createDefaultNeighborIndex(DistanceKernel distanceKernel) {
+        if (Config.REDUCED_FEATURE_SIZE > 0) {
+            FeatureTransform featureTransform = Config.REDUCED_FEATURES_PCA
+                    ? new PrincipalComponentsTransform(
+                            Config.REDUCED_FEATURE_SIZE, Config.PCA_SAMPLE_SIZE, Config.FEATURE_TRANSFORM_SEED)
+                    : new RandomProjectionTransform(Config.REDUCED_FEATURE_SIZE, Config.FEATURE_TRANSFORM_SEED);
+            return new ReducedFeatureIndex(featureTransform);
+        }
+        if (Config.QUANTIZED_CODE_BITS > 0) {
+            return new QuantizedIndex(Config.QUANTIZED_CODE_BITS, Config.QUANTIZED_RERANK_CANDIDATES);
+        }
+        if (Config.APPROXIMATE_NEAREST_NEIGHBORS) {
+            return new RandomProjectionForest(Config.RANDOM_PROJECTION_TREES, Config.RANDOM_PROJECTION_LEAF_SIZE,
+                    Config.RANDOM_PROJECTION_SEARCH_CANDIDATES, Config.RANDOM_PROJECTION_SEED);
+        }
+        if (Config.SHARD_WORKER_PORTS.length > 0) {
+            NeighborShard[] shards = new NeighborShard[Config.SHARD_WORKER_PORTS.length];
+            for (int s = 0; s < shards.length; s++) {
+                shards[s] = new RemoteNeighborShard(Config.SHARD_WORKER_PORTS[s]);
+            }
+            return new ShardedNeighborIndex(shards, Config.SHARD_BY_LABEL);
+        }
+        if (Config.SHARD_COUNT > 1) {
+            NeighborShard[] shards = new NeighborShard[Config.SHARD_COUNT];
+            for (int s = 0; s < shards.length; s++) {
+                shards[s] = new LocalNeighborShard();
+            }
+            return new ShardedNeighborIndex(shards, Config.SHARD_BY_LABEL);
+        }
+        if ("L2".equals(distanceKernel.getMetricName()) && Config.L2_MATRIX_MULTIPLY) {
+            return new MatrixMultiplyIndex();
+        }
+        return new LinearScanIndex();
+    }
+
+    /**
+     * Loads a classifier saved by {@link #saveSnapshot(Path, int, String)}, predicting using
+     * <code>Config.NUM_PREDICTION_THREADS</code> threads
+     *
+     * @param path filepath of the snapshot
+     * @return the loaded classifier and its chosen k-value
+     * @throws IOException if the snapshot can't be read or was saved for a different distance metric
+     */
+    public static ModelSnapshot loadSnapshot(Path path) throws IOException {
+        return loadSnapshot(path, Config.NUM_PREDICTION_THREADS, DistanceKernels.getBestKernel());
+    }
+
+    /**
+     * Loads a classifier saved by {@link #saveSnapshot(Path, int, String)}. Only the header of the snapshot is
+     * parsed, the training images are read in place from the mapped file.
+     *
+     * @param path filepath of the snapshot
+     * @param numThreads number of threads used for prediction, 1 to predict on the calling thread
+     * @param distanceKernel kernel used to calculate distances between images
+     * @return the loaded classifier and its chosen k-value
+     * @throws IOException if the snapshot can't be read or was saved for a different distance metric
+     */
+    public static ModelSnapshot loadSnapshot(Path path, int numThreads, DistanceKernel distanceKernel)
+            throws IOException {
+        return ModelSnapshot.load(path, numThreads, distanceKernel);
+    }
+
+    /**
+     * Saves the training images of the classifier along with its chosen k-value and distance metric,
+     * so it can be loaded by {@link #loadSnapshot(Path)} without reading the training data again
+     *
+     * @param path filepath to save the snapshot to
+     * @param kValue k-value chosen for the classifier
+     * @param dataFingerprint describes the data the classifier was trained and tuned on, to check a loaded snapshot
+     *                        is still up to date
+     * @throws IOException
+     */
+    public void saveSnapshot(Path path, int kValue, String dataFingerprint) throws IOException {
+        if (kValue <= 0) {
+            throw new IllegalArgumentException("invalid k value: " + kValue);
+        }
+        ModelSnapshot.save(path, classifiedTrainingImages, kValue, distanceKernel.getMetricName(), dataFingerprint);
+    }
+
+    /**
+     * Loads the classifier saved at <code>Config.MODEL_SNAPSHOT_PATH</code> if it was trained and tuned on the
+     * same data, logging why it wasn't loaded otherwise
+     *
+     * @param dataFingerprint describes the data the classifier should have been trained and tuned on
+     * @return the saved classifier and its chosen k-value, or null if there is none, it is unreadable or out of date
+     */
+    public static ModelSnapshot loadSnapshotIfCurrent(String dataFingerprint) {
+        if (Config.MODEL_SNAPSHOT_PATH == null || !Files.exists(Paths.get(Config.MODEL_SNAPSHOT_PATH))) {
+            return null;
+        }
+        try {
+            long startNanos = System.nanoTime();
+            ModelSnapshot snapshot = loadSnapshot(Paths.get(Config.MODEL_SNAPSHOT_PATH));
+            if (!snapshot.getDataFingerprint().equals(dataFingerprint)) {
+                Logger.log("ignoring out of date classifier saved at " + Config.MODEL_SNAPSHOT_PATH);
+                return null;
+            }
+            Logger.log(String.format("loaded trained classifier from %s in %.0f ms",
+                    Config.MODEL_SNAPSHOT_PATH, (System.nanoTime() - startNanos) / 1e6));
+            return snapshot;
+        } catch (IOException e) {
+            Logger.log("ignoring unreadable classifier saved at " + Config.MODEL_SNAPSHOT_PATH + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Saves the classifier to <code>Config.MODEL_SNAPSHOT_PATH</code> like {@link #saveSnapshot(Path, int, String)},
+     * logging rather than throwing if it can't be saved
+     *
+     * @param kValue k-value chosen for the classifier
+     * @param dataFingerprint describes the data the classifier was trained and tuned on
+     */
+    public void saveSnapshotIfConfigured(int kValue, String dataFingerprint) {
+        if (Config.MODEL_SNAPSHOT_PATH == null) {
+            return;
+        }
+        try {
+            saveSnapshot(Paths.get(Config.MODEL_SNAPSHOT_PATH), kValue, dataFingerprint);
+            Logger.log("saved trained classifier to " + Config.MODEL_SNAPSHOT_PATH);
+        } catch (IOException e) {
+            // the classifier is still usable, it just has to be trained again next run
+            Logger.log("couldn't save trained classifier to " + Config.MODEL_SNAPSHOT_PATH + ": " + e.getMessage());
+        }
+    }
 
     /**
      * "Trains" the k nearest neighbor classifier by adding all the training images to it
      * @param trainingSet
      */
     public void train(List<KeyValue<String,ClassifierImage>> trainingSet) {
+        long startNanos = Metrics.TRAIN.start();
+        classifiedTrainingImages.ensureCapacity(classifiedTrainingImages.size() + trainingSet.size());
         for(KeyValue<String,ClassifierImage> trainingImage : trainingSet) {
-            classifiedTrainingImages.add(
-                    new DefaultKeyValue<>(
-                            trainingImage.getKey(),
-                            trainingImage.getValue().toFlatImage()));
+            ClassifierImage image = trainingImage.getValue();
+            classifiedTrainingImages.add(trainingImage.getKey(),
+                    image.getFlatImageArray(), image.getFlatImageOffset(), image.getFlatImageSize());
+        }
+        Metrics.TRAIN.recordSince(startNanos);
+    }
+
+    /**
+     * "Trains" the k nearest neighbor classifier by copying every image of a memory-mapped CIFAR-10 batch into it,
+     * without creating intermediate images
+     * @param trainingBatch
+     */
+    public void train(Cifar10Batch trainingBatch) {
+        long startNanos = Metrics.TRAIN.start();
+        classifiedTrainingImages.ensureCapacity(classifiedTrainingImages.size() + trainingBatch.size());
+        for(int i = 0; i < trainingBatch.size(); i++) {
+            addTrainingImage(trainingBatch, i);
+        }
+        Metrics.TRAIN.recordSince(startNanos);
+    }
+
+    /**
+     * "Trains" the k nearest neighbor classifier on memory-mapped CIFAR-10 batches like {@link #train(Cifar10Batch)},
+     * except for the images {@link Classifiers#getValidationSet(List, int)} sets aside for validation, so it is
+     * trained on the same images in the same order as on the list {@link Classifiers#extractValidationSet(List, int)}
+     * leaves behind
+     *
+     * @param trainingBatches batches of training images, in order
+     * @param numFolds 1 out of every <code>numFolds</code> images is left out
+     */
+    public void trainOutsideValidationSet(List<Cifar10Batch> trainingBatches, int numFolds) {
+        if (numFolds <= 0) {
+            throw new IllegalArgumentException("invalid number of folds: " + numFolds);
+        }
+        long startNanos = Metrics.TRAIN.start();
+        int totalImages = Cifar10Batch.countImages(trainingBatches);
+        int numValidationImages = (totalImages + numFolds - 1) / numFolds;
+        classifiedTrainingImages.ensureCapacity(classifiedTrainingImages.size() + totalImages - numValidationImages);
+        int index = 0;
+        for(Cifar10Batch trainingBatch : trainingBatches) {
+            for(int i = 0; i < trainingBatch.size(); i++, index++) {
+                if (Classifiers.getFold(index, totalImages, numFolds) != 0) {
+                    addTrainingImage(trainingBatch, i);
+                }
+            }
+        }
+        Metrics.TRAIN.recordSince(startNanos);
+    }
+
+    private void addTrainingImage(Cifar10Batch trainingBatch, int i) {
+        int index = classifiedTrainingImages.addUninitialized(trainingBatch.getClassName(i));
+        trainingBatch.copyFlatImageTo(
+                i, classifiedTrainingImages.getPixels(), classifiedTrainingImages.getImageOffset(index));
+    }
+
+    /**
+     * "Trains" the k nearest neighbor classifier by copying each streamed CIFAR-10 record into it as it arrives,
+     * so records don't have to be loaded up front
+     * @param trainingRecords
+     */
+    public void train(Stream<Cifar10Record> trainingRecords) {
+        long startNanos = Metrics.TRAIN.start();
+        Spliterator<Cifar10Record> spliterator = trainingRecords.spliterator();
+        if (spliterator.hasCharacteristics(Spliterator.SIZED)) {
+            classifiedTrainingImages.ensureCapacity(
+                    Math.toIntExact(classifiedTrainingImages.size() + spliterator.estimateSize()));
         }
+        spliterator.forEachRemaining(trainingRecord -> {
+            int index = classifiedTrainingImages.addUninitialized(trainingRecord.getClassName());
+            trainingRecord.copyFlatImageTo(
+                    classifiedTrainingImages.getPixels(), classifiedTrainingImages.getImageOffset(index));
+        });
+        Metrics.TRAIN.recordSince(startNanos);
     }
 
     /**
      * Picks the k-value for k-nearest-neighbor with the highest accuracy on the labeled validation images,
-     * from an arbitrary list of k value candidates.
+     * from the list of k value candidates in <code>Config.K_VALUE_CANDIDATES</code>.
      *
      * @param labeledValidationImages
      * @param knnClassifier
@@ -41,27 +313,76 @@ public class KNNClassifier {
     public static int findMaxAccuracyKValue(
             List<KeyValue<String, ClassifierImage>> labeledValidationImages,
             KNNClassifier knnClassifier) {
+        return findMaxAccuracyKValue(labeledValidationImages, knnClassifier, Config.K_VALUE_CANDIDATES);
+    }
 
-        // arbitrary list of likely good k-values
-        int kValueCandidates[] = {1,2,3,4,5,6,7,8,9};
+    /**
+     * Picks the k-value for k-nearest-neighbor with the highest accuracy on the labeled validation images.
+     *
+     * The training set is only searched once per validation image, for the largest candidate k-value.
+     * Smaller candidates vote using the closest images at the front of that list.
+     *
+     * @param labeledValidationImages
+     * @param knnClassifier
+     * @param kValueCandidates k-values to pick from
+     * @return k-value with the highest accuracy on validation set
+     */
+    public static int findMaxAccuracyKValue(
+            List<KeyValue<String, ClassifierImage>> labeledValidationImages,
+            KNNClassifier knnClassifier,
+            int[] kValueCandidates) {
+        return findMaxAccuracyKValue(labeledValidationImages, knnClassifier, kValueCandidates, null);
+    }
+
+    /**
+     * Picks the k-value for k-nearest-neighbor with the highest accuracy on the labeled validation images,
+     * voting from cached neighbors of the validation images instead of searching the training set if given.
+     *
+     * @param labeledValidationImages
+     * @param knnClassifier
+     * @param kValueCandidates k-values to pick from
+     * @param validationNeighbors neighbors of the validation images from {@link #getNeighborCache(List, int, String)},
+     *                            holding at least as many neighbors as the largest candidate, or null
+     * @return k-value with the highest accuracy on validation set
+     */
+    public static int findMaxAccuracyKValue(
+            List<KeyValue<String, ClassifierImage>> labeledValidationImages,
+            KNNClassifier knnClassifier,
+            int[] kValueCandidates,
+            NeighborCache validationNeighbors) {
 
         double kAccuracies[] = new double[kValueCandidates.length];
         Arrays.fill(kAccuracies, 0.);
 
+        int maxKValue = 0;
+        for (int k : kValueCandidates) {
+            if (k <= 0) {
+                throw new IllegalArgumentException("invalid k value: " + k);
+            }
+            maxKValue = Math.max(maxKValue, k);
+        }
+
         List<ClassifierImage> validationImages = new ArrayList<>();
         for (KeyValue<String, ClassifierImage> kv : labeledValidationImages) {
             validationImages.add(kv.getValue());
         }
 
+        // vote for every k-value candidate from one search per validation image
+        int[][] predictedLabelIds = new int[kValueCandidates.length][validationImages.size()];
+        knnClassifier.findNearestNeighbors(validationImages, maxKValue, validationNeighbors, (neighbors, imageIndex) -> {
+            for (int i = 0; i < kValueCandidates.length; i++) {
+                predictedLabelIds[i][imageIndex] = neighbors.vote(kValueCandidates[i]);
+            }
+        });
+
+        int[] actualLabelIds = new int[validationImages.size()];
+        for (int j = 0; j < validationImages.size(); j++) {
+            actualLabelIds[j] = knnClassifier.classifiedTrainingImages.getLabelId(labeledValidationImages.get(j).getKey());
+        }
+
         // check the accuracy of k-nearest neighbor on the validation set for each k-value candidate
         for (int i = 0; i < kValueCandidates.length; i++) {
-            int k = kValueCandidates[i];
-            List<KeyValue<String, ClassifierImage>> predictedValidationImages
-                    = knnClassifier.predict(validationImages, k);
-
-            kAccuracies[i] = Classifiers.calculateAccuracy(
-                                    labeledValidationImages,
-                                    predictedValidationImages);
+            kAccuracies[i] = Classifiers.calculateAccuracy(actualLabelIds, predictedLabelIds[i]);
 
             Logger.log("k-value " + kValueCandidates[i] + ": " + kAccuracies[i]*100 + "%");
         }
@@ -89,55 +410,555 @@ public class KNNClassifier {
      * @return images labeled by k-nearest neighbor classification
      */
     public List<KeyValue<String,ClassifierImage>> predict(List<ClassifierImage> predictImages, int k) {
+        String[] labels = new String[predictImages.size()];
+        findNearestNeighbors(predictImages, k,
+                (neighbors, imageIndex) -> labels[imageIndex] = getLabelName(neighbors.vote(k)));
+
+        List<KeyValue<String, ClassifierImage>> testedImages = new ArrayList<>();
+        for (int i = 0; i < predictImages.size(); i++) {
+            testedImages.add(new DefaultKeyValue<>(labels[i], predictImages.get(i)));
+        }
+        return testedImages;
+    }
+
+    /**
+     * Predicts classes for labeled images using k-nearest neighbor and evaluates the predictions against the
+     * known labels in a single pass
+     *
+     * @param labeledImages images with known labels
+     * @param k number of closest training images to consider
+     * @return evaluation of the predictions, including top-k accuracy and timing
+     */
+    public Evaluation evaluate(List<KeyValue<String,ClassifierImage>> labeledImages, int k) {
+        return evaluate(labeledImages, k, null);
+    }
+
+    /**
+     * Predicts classes for labeled images using k-nearest neighbor and evaluates the predictions against the
+     * known labels in a single pass
+     *
+     * @param labeledImages images with known labels
+     * @param k number of closest training images to consider
+     * @param predictedImages list to add the images labeled by k-nearest neighbor classification to,
+     *                        in the same order as <code>labeledImages</code>, or null
+     * @return evaluation of the predictions, including top-k accuracy and timing
+     */
+    public Evaluation evaluate(List<KeyValue<String,ClassifierImage>> labeledImages, int k,
+                               List<KeyValue<String,ClassifierImage>> predictedImages) {
+        return evaluate(labeledImages, k, predictedImages, null);
+    }
+
+    /**
+     * Predicts classes for labeled images using k-nearest neighbor and evaluates the predictions against the
+     * known labels in a single pass, voting from cached neighbors of the images instead of searching the training
+     * set if given
+     *
+     * @param labeledImages images with known labels
+     * @param k number of closest training images to consider
+     * @param predictedImages list to add the images labeled by k-nearest neighbor classification to,
+     *                        in the same order as <code>labeledImages</code>, or null
+     * @param neighborCache neighbors of the images from {@link #getNeighborCache(List, int, String)},
+     *                      holding at least k neighbors, or null
+     * @return evaluation of the predictions, including top-k accuracy and timing
+     */
+    public Evaluation evaluate(List<KeyValue<String,ClassifierImage>> labeledImages, int k,
+                               List<KeyValue<String,ClassifierImage>> predictedImages,
+                               NeighborCache neighborCache) {
+        String[] labelNames = classifiedTrainingImages.getLabelNames();
+
+        List<ClassifierImage> images = new ArrayList<>();
+        int[] actualLabelIds = new int[labeledImages.size()];
+        for (int i = 0; i < labeledImages.size(); i++) {
+            images.add(labeledImages.get(i).getValue());
+            actualLabelIds[i] = classifiedTrainingImages.getLabelId(labeledImages.get(i).getKey());
+        }
+
+        // each prediction thread records into its own partial evaluation, merged once all images are predicted
+        List<Evaluation> partialEvaluations = Collections.synchronizedList(new ArrayList<>());
+        ThreadLocal<Evaluation> threadEvaluation = ThreadLocal.withInitial(() -> {
+            Evaluation partialEvaluation = new Evaluation(labelNames);
+            partialEvaluations.add(partialEvaluation);
+            return partialEvaluation;
+        });
+
+        String[] predictedLabels = new String[images.size()];
+        long startNanos = System.nanoTime();
+        findNearestNeighbors(images, k, neighborCache, (neighbors, imageIndex) -> {
+            threadEvaluation.get().record(actualLabelIds[imageIndex], neighbors, k);
+            predictedLabels[imageIndex] = getLabelName(neighbors.vote(k));
+        });
+        long endNanos = System.nanoTime();
+
+        Evaluation evaluation = new Evaluation(labelNames);
+        for (Evaluation partialEvaluation : partialEvaluations) {
+            evaluation.merge(partialEvaluation);
+        }
+        evaluation.recordTiming(startNanos, endNanos);
+
+        if (predictedImages != null) {
+            for (int i = 0; i < images.size(); i++) {
+                predictedImages.add(new DefaultKeyValue<>(predictedLabels[i], images.get(i)));
+            }
+        }
+        return evaluation;
+    }
+
+    /**
+     * Picks k quantity of the training images closest to each unlabeled image, using the prediction threads
+     *
+     * @param predictImages unlabeled images
+     * @param k number of closest training images to find
+     * @param neighborsConsumer called once per unlabeled image with its closest training images and its index in
+     *                          <code>predictImages</code>. May be called concurrently from several threads, and the
+     *                          neighbors are reused once it returns.
+     */
+    private void findNearestNeighbors(List<ClassifierImage> predictImages, int k,
+                                      ObjIntConsumer<NearestNeighbors> neighborsConsumer) {
         if (k <= 0) {
             throw new IllegalArgumentException("invalid k value: " + k);
         }
 
-        List<KeyValue<String, ClassifierImage>> testedImages = new ArrayList<>();
+        NeighborIndex index = getBuiltNeighborIndex();
+        if (numThreads > 1 && predictImages.size() < numThreads && index instanceof LinearScanIndex) {
+            // too few images to keep every thread busy, so split the training set between threads instead
+            for (int i = 0; i < predictImages.size(); i++) {
+                NeighborSearchTask searchTask = new NeighborSearchTask(
+                        (LinearScanIndex) index, predictImages.get(i), k, 0, classifiedTrainingImages.size());
+                neighborsConsumer.accept(getPredictionPool().invoke(searchTask), i);
+            }
+        } else {
+            findNearestNeighbors(predictImages.size(), k,
+                    (neighbors, from, count) -> findNearestNeighbors(index, predictImages, from, count, neighbors),
+                    neighborsConsumer);
+        }
+    }
+
+    /**
+     * Picks k quantity of the closest training images to each unlabeled image from cached neighbors of the images
+     * if given, otherwise by searching the training set
+     *
+     * @param neighborCache neighbors of <code>predictImages</code> holding at least k neighbors, or null
+     * @see #findNearestNeighbors(List, int, ObjIntConsumer)
+     */
+    private void findNearestNeighbors(List<ClassifierImage> predictImages, int k, NeighborCache neighborCache,
+                                      ObjIntConsumer<NearestNeighbors> neighborsConsumer) {
+        if (neighborCache == null) {
+            findNearestNeighbors(predictImages, k, neighborsConsumer);
+            return;
+        }
+        if (k <= 0) {
+            throw new IllegalArgumentException("invalid k value: " + k);
+        }
+        if (neighborCache.getNumQueries() != predictImages.size()) {
+            throw new IllegalArgumentException("neighbor cache of " + neighborCache.getNumQueries()
+                    + " images can't be used for " + predictImages.size() + " images");
+        }
+        if (neighborCache.getCapacity() < k) {
+            throw new IllegalArgumentException("neighbor cache of " + neighborCache.getCapacity()
+                    + " neighbors per image can't be used for k value " + k);
+        }
 
-        for (ClassifierImage predictImage : predictImages) {
+        // voting from cached neighbors is cheap enough to do on the calling thread
+        NearestNeighbors neighbors = new NearestNeighbors(k);
+        for (int i = 0; i < predictImages.size(); i++) {
+            neighbors.clear();
+            neighborCache.offerTo(i, neighbors, classifiedTrainingImages);
+            neighborsConsumer.accept(neighbors, i);
+        }
+    }
 
-            byte[] flatPredictImage = predictImage.toFlatImage();
+    /**
+     * Runs a nearest neighbor search for each of a number of images, using the prediction threads
+     *
+     * @param numImages number of images to search for
+     * @param k number of closest training images to find
+     * @param neighborsSearch offers the candidate neighbors of the image at an index to a cleared set of neighbors
+     * @param neighborsConsumer called once per image with its closest training images and its index. May be called
+     *                          concurrently from several threads, and the neighbors are reused once it returns.
+     */
+    private void findNearestNeighbors(int numImages, int k,
+                                      ObjIntConsumer<NearestNeighbors> neighborsSearch,
+                                      ObjIntConsumer<NearestNeighbors> neighborsConsumer) {
+        findNearestNeighbors(numImages, k, (neighbors, from, count) -> {
+            for (int j = 0; j < count; j++) {
+                neighborsSearch.accept(neighbors[j], from + j);
+            }
+        }, neighborsConsumer);
+    }
 
-            List<KeyValue<Integer,String>> minDistances = new ArrayList<>();
-            minDistances.add(new DefaultKeyValue<>(Integer.MAX_VALUE, "ERR_NO_CLASS"));
+    /**
+     * Runs a nearest neighbor search for each of a number of images in batches of up to
+     * <code>Config.PREDICTION_QUERY_TILE_SIZE</code> consecutive images, using the prediction threads
+     *
+     * @param numImages number of images to search for
+     * @param k number of closest training images to find
+     * @param neighborsSearch offers the candidate neighbors of each image in a batch to its cleared set of neighbors
+     * @param neighborsConsumer called once per image with its closest training images and its index. May be called
+     *                          concurrently from several threads, and the neighbors are reused once it returns.
+     */
+    private void findNearestNeighbors(int numImages, int k, BatchNeighborSearch neighborsSearch,
+                                      ObjIntConsumer<NearestNeighbors> neighborsConsumer) {
+        if (numThreads <= 1) {
+            findNearestNeighbors(k, neighborsSearch, neighborsConsumer, 0, numImages);
+        } else {
+            // several images per leaf task, so each leaf reuses its neighbors and searches in batches
+            int minBatchSize = Math.max(1, numImages / (numThreads * 4));
+            getPredictionPool().invoke(new BatchNeighborSearchTask(
+                    k, neighborsSearch, neighborsConsumer, minBatchSize, 0, numImages));
+        }
+    }
 
-            // picks k quantity of the images in the training set closest to the unlabeled image
-            for(KeyValue<String,byte[]> trainingImage : classifiedTrainingImages) {
-                int distance = calculateImageDistance(flatPredictImage, trainingImage.getValue());
+    /**
+     * Finds the closest training images to each query image, keeping <code>capacity</code> of them per image so that
+     * any k-value up to <code>capacity</code> can be voted on later without searching the training set again.
+     *
+     * If <code>Config.NEIGHBOR_CACHE_DIRECTORY</code> is set, the neighbors are loaded from there if an earlier run
+     * saved them under the same key with at least the same capacity, and are saved there otherwise. The key is made
+     * from the data fingerprint, the distance metric and the number of training and query images.
+     *
+     * @param queryImages images to find the closest training images to
+     * @param capacity number of closest training images to keep per query image
+     * @param dataFingerprint identifies the training and query images, e.g. from fingerprints of the files they
+     *                        were loaded from and how they were split
+     * @return closest training images to each query image, in the order of <code>queryImages</code>
+     */
+    public NeighborCache getNeighborCache(List<ClassifierImage> queryImages, int capacity, String dataFingerprint) {
+        String key = createNeighborCacheKey("query images", dataFingerprint, queryImages.size())
+                + "; " + neighborIndex;
+        NeighborCache neighborCache = loadNeighborCache(key, capacity);
+        if (neighborCache != null) {
+            return neighborCache;
+        }
+        NeighborCache newNeighborCache = new NeighborCache(key, queryImages.size(), capacity);
+        findNearestNeighbors(queryImages, capacity, (neighbors, i) -> newNeighborCache.put(i, neighbors));
+        saveNeighborCache(newNeighborCache);
+        return newNeighborCache;
+    }
 
-                if(distance < minDistances.get(minDistances.size()-1).getKey()) {
-                    KeyValue<Integer,String> labelledDistance = new DefaultKeyValue<>(distance, trainingImage.getKey());
-                    if(minDistances.size() >= k ) {
-                        minDistances.set(minDistances.size()-1, labelledDistance);
-                    } else {
-                        minDistances.add(labelledDistance);
-                    }
+    /**
+     * Finds the closest other training images to each training image, keeping <code>capacity</code> of them per
+     * image, so that cross-validation with any number of folds can be run from them with
+     * {@link #crossValidate(int, int[], NeighborCache)}. Loaded from and saved to
+     * <code>Config.NEIGHBOR_CACHE_DIRECTORY</code> like {@link #getNeighborCache(List, int, String)}.
+     *
+     * @param capacity number of closest training images to keep per training image
+     * @param dataFingerprint identifies the training images, e.g. from fingerprints of the files they were loaded from
+     * @return closest other training images to each training image, in training set order
+     */
+    public NeighborCache getTrainingNeighborCache(int capacity, String dataFingerprint) {
+        int totalImages = classifiedTrainingImages.size();
+        String key = createNeighborCacheKey("training images", dataFingerprint, totalImages);
+        NeighborCache neighborCache = loadNeighborCache(key, capacity);
+        if (neighborCache != null) {
+            return neighborCache;
+        }
+        NeighborCache newNeighborCache = new NeighborCache(key, totalImages, capacity);
+        // with one fold per image, only the image itself is left out
+        findNearestNeighbors(totalImages, capacity,
+                (neighbors, i) -> findNearestNeighborsOutsideFold(i, totalImages, neighbors, null),
+                (neighbors, i) -> newNeighborCache.put(i, neighbors));
+        saveNeighborCache(newNeighborCache);
+        return newNeighborCache;
+    }
 
-                    minDistances.sort(Comparator.comparing(KeyValue::getKey));
-                }
+    private String createNeighborCacheKey(String queryType, String dataFingerprint, int numQueries) {
+        return queryType + "; " + dataFingerprint
+                + "; " + distanceKernel.getMetricName() + " distance"
+                + "; " + classifiedTrainingImages.size() + " training images"
+                + "; " + numQueries + " query images";
+    }
+
+    /**
+     * @return neighbors saved under the key with at least the capacity, or null if there are none
+     */
+    private NeighborCache loadNeighborCache(String key, int capacity) {
+        if (Config.NEIGHBOR_CACHE_DIRECTORY == null) {
+            return null;
+        }
+        Path path = getNeighborCachePath(key);
+        try {
+            NeighborCache neighborCache = NeighborCache.load(path);
+            if (neighborCache != null && neighborCache.getKey().equals(key) && neighborCache.getCapacity() >= capacity) {
+                Logger.log("loaded cached neighbors from " + path);
+                return neighborCache;
+            }
+        } catch (IOException e) {
+            Logger.log("ignoring unreadable neighbor cache: " + e.getMessage());
+        }
+        return null;
+    }
+
+    private void saveNeighborCache(NeighborCache neighborCache) {
+        if (Config.NEIGHBOR_CACHE_DIRECTORY == null) {
+            return;
+        }
+        Path path = getNeighborCachePath(neighborCache.getKey());
+        try {
+            neighborCache.save(path);
+            Logger.log("saved neighbors to " + path);
+        } catch (IOException e) {
+            // the neighbors are still usable, they just have to be found again next run
+            Logger.log("couldn't save neighbor cache " + path + ": " + e.getMessage());
+        }
+    }
+
+    private static Path getNeighborCachePath(String key) {
+        return Paths.get(Config.NEIGHBOR_CACHE_DIRECTORY, String.format("neighbors-%08x.bin", key.hashCode()));
+    }
+
+    /**
+     * Searches a range of images in batches, reusing one set of neighbors per image in a batch
+     *
+     * @param from index of the first image to search for, inclusive
+     * @param to index of the last image to search for, exclusive
+     * @see #findNearestNeighbors(int, int, BatchNeighborSearch, ObjIntConsumer)
+     */
+    private static void findNearestNeighbors(int k, BatchNeighborSearch neighborsSearch,
+                                             ObjIntConsumer<NearestNeighbors> neighborsConsumer, int from, int to) {
+        NearestNeighbors[] neighbors
+                = new NearestNeighbors[Math.max(1, Math.min(Config.PREDICTION_QUERY_TILE_SIZE, to - from))];
+        for (int j = 0; j < neighbors.length; j++) {
+            neighbors[j] = new NearestNeighbors(k);
+        }
+        for (int batchFirst = from; batchFirst < to; batchFirst += neighbors.length) {
+            int count = Math.min(neighbors.length, to - batchFirst);
+            for (int j = 0; j < count; j++) {
+                neighbors[j].clear();
+            }
+            long startNanos = Metrics.QUERY.start();
+            neighborsSearch.search(neighbors, batchFirst, count);
+            if (startNanos != 0) {
+                Metrics.QUERY.record((System.nanoTime() - startNanos) / count, count);
+                Metrics.QUERIES.add(count);
+            }
+            for (int j = 0; j < count; j++) {
+                neighborsConsumer.accept(neighbors[j], batchFirst + j);
+            }
+        }
+    }
+
+    /**
+     * Searches the neighbor index for the closest training images to a batch of unlabeled images
+     *
+     * @param index index built over the training images
+     * @param predictImages unlabeled images
+     * @param from index of the first unlabeled image in the batch
+     * @param count number of unlabeled images in the batch
+     * @param neighbors closest training images found so far for each unlabeled image in the batch
+     */
+    private void findNearestNeighbors(NeighborIndex index, List<ClassifierImage> predictImages, int from, int count,
+                                      NearestNeighbors[] neighbors) {
+        // read the unlabeled images in place rather than flattening copies of them
+        byte[][] images = new byte[count][];
+        int[] offsets = new int[count];
+        for (int j = 0; j < count; j++) {
+            ClassifierImage predictImage = predictImages.get(from + j);
+            checkImageSize(predictImage);
+            images[j] = predictImage.getFlatImageArray();
+            offsets[j] = predictImage.getFlatImageOffset();
+        }
+        index.search(images, offsets, neighbors, count);
+    }
+
+    private void checkImageSize(ClassifierImage image) {
+        if(image.getFlatImageSize() != classifiedTrainingImages.getImageSize()) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "unequal image sizes " + image.getFlatImageSize()
+                    + ", " + classifiedTrainingImages.getImageSize());
+        }
+    }
+
+    /**
+     * @return the neighbor index, rebuilt first if training images were added since it was last built
+     */
+    private synchronized NeighborIndex getBuiltNeighborIndex() {
+        if (indexedSize != classifiedTrainingImages.size()) {
+            long startNanos = Metrics.BUILD_INDEX.start();
+            neighborIndex.build(classifiedTrainingImages, distanceKernel);
+            Metrics.BUILD_INDEX.recordSince(startNanos);
+            indexedSize = classifiedTrainingImages.size();
+        }
+        return neighborIndex;
+    }
+
+    /**
+     * @return index searched for the closest training images when predicting
+     */
+    public NeighborIndex getNeighborIndex() {
+        return neighborIndex;
+    }
+
+    /**
+     * Evaluates every k-value candidate with k-fold cross-validation over the training images
+     *
+     * Folds are assigned by {@link Classifiers#getFold(int, int, int)} and read in place from the packed training
+     * images. Each training image is classified once, using the largest candidate k-value, against the training
+     * images outside its fold, and every smaller candidate votes from the same neighbors. Images from all folds are
+     * classified concurrently by the prediction threads.
+     *
+     * @param numFolds number of folds, at least 2
+     * @param kValueCandidates k-values to evaluate
+     * @return accuracy of each k-value candidate on each fold
+     */
+    public CrossValidationResult crossValidate(int numFolds, int[] kValueCandidates) {
+        return crossValidate(numFolds, kValueCandidates, null);
+    }
+
+    /**
+     * Evaluates every k-value candidate with k-fold cross-validation over the training images, taking the neighbors
+     * of each image from cached neighbors where possible
+     *
+     * Cached neighbors are closest first, so the closest ones outside an image's fold are the k closest outside it.
+     * The training set is only searched again for images with fewer than k cached neighbors outside their fold.
+     *
+     * @param numFolds number of folds, at least 2
+     * @param kValueCandidates k-values to evaluate
+     * @param trainingNeighbors neighbors from {@link #getTrainingNeighborCache(int, String)}, or null
+     * @return accuracy of each k-value candidate on each fold
+     */
+    public CrossValidationResult crossValidate(int numFolds, int[] kValueCandidates,
+                                               NeighborCache trainingNeighbors) {
+        int totalImages = classifiedTrainingImages.size();
+        if (numFolds < 2 || numFolds > totalImages) {
+            throw new IllegalArgumentException("invalid number of folds " + numFolds
+                    + " for " + totalImages + " training images");
+        }
+        int maxKValue = 0;
+        for (int k : kValueCandidates) {
+            if (k <= 0) {
+                throw new IllegalArgumentException("invalid k value: " + k);
             }
+            maxKValue = Math.max(maxKValue, k);
+        }
+        if (trainingNeighbors != null && trainingNeighbors.getNumQueries() != totalImages) {
+            throw new IllegalArgumentException("neighbor cache of " + trainingNeighbors.getNumQueries()
+                    + " images can't be used for " + totalImages + " training images");
+        }
+
+        int[][] foldSuccesses = new int[numFolds][kValueCandidates.length];
+        int minBatchSize = Math.max(1, totalImages / (numThreads * 4));
+        getPredictionPool().invoke(new CrossValidationTask(numFolds, kValueCandidates, maxKValue,
+                trainingNeighbors, foldSuccesses, minBatchSize, 0, totalImages));
 
-            Bag<String> nearestNeighbors = new HashBag<>();
-            for(KeyValue<Integer,String> kv : minDistances) {
-                nearestNeighbors.add(kv.getValue());
+        int[] foldSizes = new int[numFolds];
+        for (int i = 0; i < totalImages; i++) {
+            foldSizes[Classifiers.getFold(i, totalImages, numFolds)]++;
+        }
+        double[][] foldAccuracies = new double[numFolds][kValueCandidates.length];
+        for (int fold = 0; fold < numFolds; fold++) {
+            for (int i = 0; i < kValueCandidates.length; i++) {
+                foldAccuracies[fold][i] = foldSuccesses[fold][i] / (double) foldSizes[fold];
             }
+        }
+        return new CrossValidationResult(kValueCandidates, foldAccuracies);
+    }
 
-            // pick a label for the unlabeled image
-            // most frequent label for the k closest neighboring images is selected
-            String label = "ERR_NO_LABEL";
-            int maxVotes = 0;
-            for(String vote : nearestNeighbors.uniqueSet()) {
-                int count = nearestNeighbors.getCount(vote);
-                if(count > maxVotes) {
-                    maxVotes = count;
-                    label = vote;
+    /**
+     * Offers every training image outside a fold to the closest neighbors of a training image in that fold
+     *
+     * @param validationIndex index of the training image being classified
+     * @param numFolds number of folds
+     * @param neighbors cleared set of neighbors to offer to
+     * @param trainingNeighbors cached neighbors of every training image to take the neighbors from if there are
+     *                          enough outside the fold, or null to always search the training set
+     */
+    private void findNearestNeighborsOutsideFold(int validationIndex, int numFolds, NearestNeighbors neighbors,
+                                                 NeighborCache trainingNeighbors) {
+        int totalImages = classifiedTrainingImages.size();
+        int validationFold = Classifiers.getFold(validationIndex, totalImages, numFolds);
+
+        if (trainingNeighbors != null) {
+            int count = trainingNeighbors.getNeighborCount(validationIndex);
+            for (int j = 0; j < count && neighbors.size() < neighbors.getCapacity(); j++) {
+                int index = trainingNeighbors.getIndex(validationIndex, j);
+                if (Classifiers.getFold(index, totalImages, numFolds) != validationFold) {
+                    neighbors.offer(trainingNeighbors.getDistance(validationIndex, j),
+                            index, classifiedTrainingImages.getLabelId(index));
                 }
             }
-            testedImages.add(new DefaultKeyValue<>(label, predictImage));
+            // a cache holding fewer neighbors than its capacity holds every other training image
+            if (neighbors.size() == neighbors.getCapacity() || count < trainingNeighbors.getCapacity()) {
+                return;
+            }
+            neighbors.clear();
         }
 
-        return testedImages;
+        byte[] trainingPixels = classifiedTrainingImages.getPixels();
+        int validationOffset = classifiedTrainingImages.getImageOffset(validationIndex);
+        int evaluations = 0;
+        for(int i = 0; i < totalImages; i++) {
+            if(Classifiers.getFold(i, totalImages, numFolds) == validationFold) {
+                continue;
+            }
+            evaluations++;
+            int threshold = neighbors.getThreshold();
+            int distance = calculateImageDistance(
+                    trainingPixels, validationOffset, trainingPixels, classifiedTrainingImages.getImageOffset(i), threshold);
+
+            if(distance < threshold) {
+                neighbors.offer(distance, i, classifiedTrainingImages.getLabelId(i));
+            }
+        }
+        Metrics.recordDistances(evaluations, (long) evaluations * classifiedTrainingImages.getImageSize());
+    }
+
+    /**
+     * @param labelId label id voted for by {@link NearestNeighbors#vote(int)}
+     * @return name of the label, or "ERR_NO_LABEL" if no neighbors voted
+     */
+    private String getLabelName(int labelId) {
+        return labelId < 0 ? "ERR_NO_LABEL" : classifiedTrainingImages.getLabelName(labelId);
+    }
+
+    private synchronized ForkJoinPool getPredictionPool() {
+        if (predictionPool == null) {
+            predictionPool = new ForkJoinPool(numThreads);
+        }
+        return predictionPool;
+    }
+
+    /**
+     * Stops the prediction threads, and closes the neighbor index if it holds resources such as connections to
+     * shard workers
+     *
+     * @throws IOException if the neighbor index can't be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            if (neighborIndex instanceof AutoCloseable) {
+                ((AutoCloseable) neighborIndex).close();
+            }
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new IOException("couldn't close " + neighborIndex, e);
+        } finally {
+            if (predictionPool != null) {
+                predictionPool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * @return number of training images
+     */
+    public int size() {
+        return classifiedTrainingImages.size();
+    }
+
+    /**
+     * @return kernel used to calculate distances between images
+     */
+    public DistanceKernel getDistanceKernel() {
+        return distanceKernel;
+    }
+
+    /**
+     * @return number of threads used for prediction
+     */
+    public int getNumThreads() {
+        return numThreads;
     }
 
     /**
@@ -151,22 +972,178 @@ public class KNNClassifier {
     }
 
     /**
-     * Calculates the sum of the differences between individual single-color pixel values between two flattened images
+     * Calculates the sum of the differences between individual single-color pixel values between a flattened image
+     * and an image packed into the training pixel array
      *
-     * @param flatImageA
-     * @param flatImageB
-     * @return
+     * @param flatImage array holding the flattened image
+     * @param flatImageOffset offset of the first byte of the flattened image within <code>flatImage</code>
+     * @param packedImages pixel array holding images back to back
+     * @param offset offset of the first byte of the compared image within <code>packedImages</code>
+     * @param threshold distance past which the image can't be a nearest neighbor, so the calculation is abandoned
+     * @return the distance if it is less than <code>threshold</code>, otherwise a partial distance of at least
+     *          <code>threshold</code>
      */
-    private int calculateImageDistance(byte[] flatImageA, byte[] flatImageB) {
-        if(flatImageA.length != flatImageB.length) {
+    private int calculateImageDistance(byte[] flatImage, int flatImageOffset,
+                                       byte[] packedImages, int offset, int threshold) {
+        int imageSize = classifiedTrainingImages.getImageSize();
+        if(offset + imageSize > packedImages.length) {
             throw new ArrayIndexOutOfBoundsException(
-                    "unequal image sizes " + flatImageA.length + ", " + flatImageB.length);
+                    "image of size " + imageSize + " at offset " + offset
+                    + " exceeds packed array of size " + packedImages.length);
         }
+        return distanceKernel.distance(flatImage, flatImageOffset, packedImages, offset, imageSize, threshold);
+    }
+
+    /**
+     * Offers the candidate neighbors of each of a batch of consecutive images to their cleared neighbors
+     */
+    private interface BatchNeighborSearch {
+        /**
+         * @param neighbors cleared neighbors of each image in the batch, in order
+         * @param from index of the first image in the batch
+         * @param count number of images in the batch
+         */
+        void search(NearestNeighbors[] neighbors, int from, int count);
+    }
 
-        int sum = 0;
-        for(int i = 0; i < flatImageA.length; i++) {
-            sum += Math.abs(flatImageA[i] - flatImageB[i]);
+    /**
+     * Finds the closest training images for a range of images, splitting the range between pool threads
+     */
+    private class BatchNeighborSearchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int k;
+        private final BatchNeighborSearch neighborsSearch;
+        private final ObjIntConsumer<NearestNeighbors> neighborsConsumer;
+        private final int minBatchSize;
+        private final int from;
+        private final int to;
+
+        BatchNeighborSearchTask(int k, BatchNeighborSearch neighborsSearch,
+                                ObjIntConsumer<NearestNeighbors> neighborsConsumer,
+                                int minBatchSize, int from, int to) {
+            this.k = k;
+            this.neighborsSearch = neighborsSearch;
+            this.neighborsConsumer = neighborsConsumer;
+            this.minBatchSize = minBatchSize;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= minBatchSize) {
+                findNearestNeighbors(k, neighborsSearch, neighborsConsumer, from, to);
+            } else {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BatchNeighborSearchTask(k, neighborsSearch, neighborsConsumer, minBatchSize, from, mid),
+                          new BatchNeighborSearchTask(k, neighborsSearch, neighborsConsumer, minBatchSize, mid, to));
+            }
+        }
+    }
+
+    /**
+     * Finds the closest images to a single unlabeled image within a range of the training set,
+     * splitting the range between pool threads
+     */
+    private class NeighborSearchTask extends RecursiveTask<NearestNeighbors> {
+        private static final long serialVersionUID = 1L;
+
+        private final LinearScanIndex index;
+        private final ClassifierImage predictImage;
+        private final int k;
+        private final int from;
+        private final int to;
+
+        NeighborSearchTask(LinearScanIndex index, ClassifierImage predictImage, int k, int from, int to) {
+            this.index = index;
+            this.predictImage = predictImage;
+            this.k = k;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected NearestNeighbors compute() {
+            int minRangeSize = Math.max(k, classifiedTrainingImages.size() / numThreads);
+            if (to - from <= minRangeSize) {
+                NearestNeighbors neighbors = new NearestNeighbors(k);
+                checkImageSize(predictImage);
+                index.search(predictImage.getFlatImageArray(), predictImage.getFlatImageOffset(), neighbors, from, to);
+                return neighbors;
+            }
+            int mid = (from + to) >>> 1;
+            NeighborSearchTask lowerHalf = new NeighborSearchTask(index, predictImage, k, from, mid);
+            NeighborSearchTask upperHalf = new NeighborSearchTask(index, predictImage, k, mid, to);
+            lowerHalf.fork();
+            NearestNeighbors neighbors = upperHalf.compute();
+            neighbors.offerAll(lowerHalf.join());
+            return neighbors;
+        }
+    }
+
+    /**
+     * Classifies a range of training images against the training images outside their folds,
+     * splitting the range between pool threads
+     */
+    private class CrossValidationTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int numFolds;
+        private final int[] kValueCandidates;
+        private final int maxKValue;
+        private final NeighborCache trainingNeighbors;
+        private final int[][] foldSuccesses;
+        private final int minBatchSize;
+        private final int from;
+        private final int to;
+
+        CrossValidationTask(int numFolds, int[] kValueCandidates, int maxKValue, NeighborCache trainingNeighbors,
+                            int[][] foldSuccesses, int minBatchSize, int from, int to) {
+            this.numFolds = numFolds;
+            this.kValueCandidates = kValueCandidates;
+            this.maxKValue = maxKValue;
+            this.trainingNeighbors = trainingNeighbors;
+            this.foldSuccesses = foldSuccesses;
+            this.minBatchSize = minBatchSize;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > minBatchSize) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new CrossValidationTask(numFolds, kValueCandidates, maxKValue,
+                                trainingNeighbors, foldSuccesses, minBatchSize, from, mid),
+                          new CrossValidationTask(numFolds, kValueCandidates, maxKValue,
+                                trainingNeighbors, foldSuccesses, minBatchSize, mid, to));
+                return;
+            }
+
+            // count successes locally, then add them to the shared counts once for the whole batch
+            int[][] batchSuccesses = new int[numFolds][kValueCandidates.length];
+            NearestNeighbors neighbors = new NearestNeighbors(maxKValue);
+            int totalImages = classifiedTrainingImages.size();
+            for (int i = from; i < to; i++) {
+                neighbors.clear();
+                findNearestNeighborsOutsideFold(i, numFolds, neighbors, trainingNeighbors);
+                int fold = Classifiers.getFold(i, totalImages, numFolds);
+                int actualLabelId = classifiedTrainingImages.getLabelId(i);
+                for (int j = 0; j < kValueCandidates.length; j++) {
+                    if (neighbors.vote(kValueCandidates[j]) == actualLabelId) {
+                        batchSuccesses[fold][j]++;
+                    }
+                }
+            }
+
+            synchronized (foldSuccesses) {
+                for (int fold = 0; fold < numFolds; fold++) {
+                    for (int j = 0; j < kValueCandidates.length; j++) {
+                        foldSuccesses[fold][j] += batchSuccesses[fold][j];
+                    }
+                }
+            }
         }
-        return sum;
     }
-}
\ No newline at end of file
+}
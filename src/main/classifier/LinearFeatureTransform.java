@@ -0,0 +1,92 @@
+package main.classifier;
+
+/**
+ * Feature transform that multiplies each image, as a vector of pixel values, by a fitted matrix and subtracts
+ * a fitted bias from each feature
+ *
+ * The matrix is packed pixel-major into a float array, so transforming an image adds one scaled row of weights per
+ * non-zero pixel to the features, which the feature kernel vectorizes.
+ */
+public abstract class LinearFeatureTransform implements FeatureTransform {
+
+    private final int featureSize;
+
+    private final FeatureKernel featureKernel = DistanceKernels.getBestFeatureKernel();
+
+    private int imageSize = -1;
+
+    /** Weight of pixel i for feature j at <code>weights[i * featureSize + j]</code> */
+    private float[] weights;
+    private float[] biases;
+
+    /**
+     * @param featureSize number of features each image is mapped to
+     */
+    protected LinearFeatureTransform(int featureSize) {
+        if (featureSize <= 0) {
+            throw new IllegalArgumentException("invalid feature size: " + featureSize);
+        }
+        this.featureSize = featureSize;
+    }
+
+    @Override
+    public int getFeatureSize() {
+        return featureSize;
+    }
+
+    /**
+     * @return kernel used for arithmetic on rows of features
+     */
+    protected FeatureKernel getFeatureKernel() {
+        return featureKernel;
+    }
+
+    /**
+     * Sets the fitted matrix and biases
+     *
+     * @param imageSize number of bytes in each flat image
+     * @param weights weight of pixel i for feature j at <code>weights[i * featureSize + j]</code>
+     * @param biases value subtracted from each feature
+     */
+    protected void setProjection(int imageSize, float[] weights, float[] biases) {
+        if (weights.length != Math.multiplyExact(imageSize, featureSize) || biases.length != featureSize) {
+            throw new IllegalArgumentException("projection arrays don't match image size " + imageSize
+                    + " and feature size " + featureSize);
+        }
+        this.imageSize = imageSize;
+        this.weights = weights;
+        this.biases = biases;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the images are too small to be reduced to <code>featureSize</code> features
+     */
+    protected void checkImageSize(int imageSize) {
+        if (featureSize > imageSize) {
+            throw new IllegalArgumentException(
+                    "can't reduce images of size " + imageSize + " to " + featureSize + " features");
+        }
+    }
+
+    @Override
+    public void transform(byte[] image, int offset, float[] features, int featuresOffset) {
+        if (weights == null) {
+            throw new IllegalStateException("feature transform not fitted, fit before transforming");
+        }
+        if (offset < 0 || offset + imageSize > image.length) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "image of size " + imageSize + " at offset " + offset + " out of bounds for length " + image.length);
+        }
+
+        for (int j = 0; j < featureSize; j++) {
+            features[featuresOffset + j] = -biases[j];
+        }
+        for (int i = 0; i < imageSize; i++) {
+            int pixel = image[offset + i] & 0xFF;
+            if (pixel == 0) {
+                continue;
+            }
+            featureKernel.addScaled(features, featuresOffset, pixel, weights, i * featureSize, featureSize);
+        }
+    }
+}
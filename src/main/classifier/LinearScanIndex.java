@@ -0,0 +1,105 @@
+package main.classifier;
+
+import main.config.Config;
+import main.metrics.Metrics;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Exact index that compares the query image to every training image, abandoning each distance calculation early
+ * once the image can no longer be among the closest
+ *
+ * A batch of query images is compared tile by tile: each tile of consecutive training images is compared to every
+ * query image in the batch while it is still in cache, so the training set is read from memory once per batch
+ * rather than once per query image. Each query image still sees the training images in order, so batches find
+ * exactly the same neighbors as separate searches.
+ */
+public class LinearScanIndex implements NeighborIndex {
+
+    private final int trainingTileSize;
+
+    private PackedTrainingSet trainingImages;
+    private DistanceKernel distanceKernel;
+
+    /**
+     * Creates an index comparing tiles of <code>Config.PREDICTION_TRAINING_TILE_SIZE</code> training images
+     */
+    public LinearScanIndex() {
+        this(Config.PREDICTION_TRAINING_TILE_SIZE);
+    }
+
+    /**
+     * @param trainingTileSize number of training images compared to every query image in a batch before moving on,
+     *                         few enough for them and the batch to stay in cache together
+     */
+    public LinearScanIndex(int trainingTileSize) {
+        if (trainingTileSize <= 0) {
+            throw new IllegalArgumentException("invalid training tile size: " + trainingTileSize);
+        }
+        this.trainingTileSize = trainingTileSize;
+    }
+
+    @Override
+    public void build(PackedTrainingSet trainingImages, DistanceKernel distanceKernel) {
+        this.trainingImages = trainingImages;
+        this.distanceKernel = distanceKernel;
+    }
+
+    @Override
+    public void search(byte[] image, int offset, NearestNeighbors neighbors) {
+        search(image, offset, neighbors, 0, trainingImages.size());
+    }
+
+    @Override
+    public void search(byte[][] images, int[] offsets, NearestNeighbors[] neighbors, int count) {
+        for (int tileFirst = 0; tileFirst < trainingImages.size(); tileFirst += trainingTileSize) {
+            int tileEnd = Math.min(tileFirst + trainingTileSize, trainingImages.size());
+            for (int q = 0; q < count; q++) {
+                scan(images[q], offsets[q], neighbors[q], tileFirst, tileEnd);
+            }
+        }
+        Metrics.recordDistances((long) count * trainingImages.size(),
+                (long) count * trainingImages.size() * trainingImages.getImageSize());
+    }
+
+    /**
+     * Offers each image in a range of the training set to the closest neighbors of a query image, so that ranges
+     * can be searched by separate threads and their neighbors merged
+     *
+     * @param from index of the first training image to compare, inclusive
+     * @param to index of the last training image to compare, exclusive
+     * @see #search(byte[], int, NearestNeighbors)
+     */
+    public void search(byte[] image, int offset, NearestNeighbors neighbors, int from, int to) {
+        scan(image, offset, neighbors, from, to);
+        Metrics.recordDistances(to - from, (long) (to - from) * trainingImages.getImageSize());
+    }
+
+    private void scan(byte[] image, int offset, NearestNeighbors neighbors, int from, int to) {
+        int imageSize = trainingImages.getImageSize();
+        // training images loaded from a snapshot are read in place from the mapped file
+        ByteBuffer mappedPixels = trainingImages.getMappedPixels();
+        byte[] trainingPixels = mappedPixels == null ? trainingImages.getPixels() : null;
+        for(int i = from; i < to; i++) {
+            int threshold = neighbors.getThreshold();
+            int trainingOffset = trainingImages.getImageOffset(i);
+            int distance = mappedPixels == null
+                    ? distanceKernel.distance(image, offset, trainingPixels, trainingOffset, imageSize, threshold)
+                    : distanceKernel.distance(image, offset, mappedPixels, trainingOffset, imageSize, threshold);
+
+            if(distance < threshold) {
+                neighbors.offer(distance, i, trainingImages.getLabelId(i));
+            }
+        }
+    }
+
+    @Override
+    public boolean isExact() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "linear scan";
+    }
+}
@@ -0,0 +1,88 @@
+package main.classifier;
+
+/**
+ * A shard of the training images searched in this process, with a linear scan over its images
+ *
+ * Searches run on the calling thread when they are started, so the shards of an index searched from one thread
+ * search one after another. They can be searched concurrently from several threads, and loaded while being searched,
+ * searches already started finishing on the images they started with.
+ */
+public class LocalNeighborShard implements NeighborShard {
+
+    /** Images last loaded, replaced as a whole so a search never sees one load's index with another's indices */
+    private volatile Snapshot snapshot;
+
+    @Override
+    public void load(PackedTrainingSet images, int[] globalIndices, DistanceKernel distanceKernel) {
+        if (globalIndices.length != images.size()) {
+            throw new IllegalArgumentException("shard of " + images.size() + " images given "
+                    + globalIndices.length + " training set indices");
+        }
+        LinearScanIndex index = new LinearScanIndex();
+        index.build(images, distanceKernel);
+        snapshot = new Snapshot(index, globalIndices.clone(), images.getImageSize());
+    }
+
+    /**
+     * @return the images last loaded, to search more than once with the same images
+     * @throws IllegalStateException if the shard hasn't been loaded
+     */
+    Snapshot getSnapshot() {
+        Snapshot snapshot = this.snapshot;
+        if (snapshot == null) {
+            throw new IllegalStateException("shard searched before it was loaded");
+        }
+        return snapshot;
+    }
+
+    @Override
+    public PendingSearch search(byte[][] images, int[] offsets, int count, int k) {
+        PartialNeighbors neighbors = getSnapshot().search(images, offsets, count, k);
+        return () -> neighbors;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return "local shard";
+    }
+
+    /**
+     * Images loaded into the shard together with their indices in the whole training set, never changed once loaded
+     */
+    static final class Snapshot {
+        private final LinearScanIndex index;
+        private final int[] globalIndices;
+        private final int imageSize;
+
+        private Snapshot(LinearScanIndex index, int[] globalIndices, int imageSize) {
+            this.index = index;
+            this.globalIndices = globalIndices;
+            this.imageSize = imageSize;
+        }
+
+        int getImageSize() {
+            return imageSize;
+        }
+
+        /**
+         * Finds the closest images to each of a batch of query images, like {@link NeighborShard#search}
+         */
+        PartialNeighbors search(byte[][] images, int[] offsets, int count, int k) {
+            NearestNeighbors[] neighbors = new NearestNeighbors[count];
+            for (int q = 0; q < count; q++) {
+                neighbors[q] = new NearestNeighbors(k);
+            }
+            index.search(images, offsets, neighbors, count);
+
+            PartialNeighbors partialNeighbors = new PartialNeighbors(count, k);
+            for (int q = 0; q < count; q++) {
+                partialNeighbors.put(q, neighbors[q], globalIndices);
+            }
+            return partialNeighbors;
+        }
+    }
+}
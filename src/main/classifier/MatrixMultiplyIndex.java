@@ -0,0 +1,147 @@
+package main.classifier;
+
+import main.config.Config;
+import main.metrics.Metrics;
+
+/**
+ * Exact index for squared Euclidean (L2) distance, that calculates the distances between a batch of query images and
+ * the training images as ||a||^2 + ||b||^2 - 2(a.b)
+ *
+ * The squared norm of every training image is calculated once when the index is built, and of every query image
+ * once per batch, so the only work left per pair of images is their dot product. Those are calculated for the whole
+ * batch against one tile of training images at a time, a blocked integer matrix multiply that reuses each pixel
+ * value loaded for several products and reads the training set from memory once per batch.
+ *
+ * Every term is an exact int, so the distances are exactly those of {@link ScalarL2DistanceKernel}, and as each
+ * query image still sees the training images in order, exactly the same neighbors are found as by a linear scan.
+ * Unlike a linear scan, no distance calculation is abandoned early.
+ */
+public class MatrixMultiplyIndex implements NeighborIndex {
+
+    private final int trainingTileSize;
+    private final DotProductKernel dotProductKernel = DistanceKernels.getBestDotProductKernel();
+
+    private PackedTrainingSet trainingImages;
+
+    /** Squared norm of each training image, with each pixel value minus 128 */
+    private int[] trainingNorms;
+
+    private final ThreadLocal<SearchScratch> searchScratch = new ThreadLocal<>();
+
+    /**
+     * Creates an index multiplying tiles of <code>Config.PREDICTION_TRAINING_TILE_SIZE</code> training images
+     */
+    public MatrixMultiplyIndex() {
+        this(Config.PREDICTION_TRAINING_TILE_SIZE);
+    }
+
+    /**
+     * @param trainingTileSize number of training images multiplied with every query image in a batch before moving
+     *                         on, few enough for them and the batch to stay in cache together
+     */
+    public MatrixMultiplyIndex(int trainingTileSize) {
+        if (trainingTileSize <= 0) {
+            throw new IllegalArgumentException("invalid training tile size: " + trainingTileSize);
+        }
+        this.trainingTileSize = trainingTileSize;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the kernel doesn't calculate L2 distance
+     */
+    @Override
+    public void build(PackedTrainingSet trainingImages, DistanceKernel distanceKernel) {
+        if (!"L2".equals(distanceKernel.getMetricName())) {
+            throw new IllegalArgumentException(
+                    "matrix multiply index calculates L2 distance, not " + distanceKernel.getMetricName());
+        }
+        this.trainingImages = trainingImages;
+
+        int imageSize = trainingImages.getImageSize();
+        byte[] pixels = trainingImages.getPixels();
+        trainingNorms = new int[trainingImages.size()];
+        for (int i = 0; i < trainingImages.size(); i++) {
+            int offset = trainingImages.getImageOffset(i);
+            trainingNorms[i] = ScalarDotProductKernel.dotProduct(pixels, offset, pixels, offset, imageSize);
+        }
+    }
+
+    @Override
+    public void search(byte[] image, int offset, NearestNeighbors neighbors) {
+        search(new byte[][] {image}, new int[] {offset}, new NearestNeighbors[] {neighbors}, 1);
+    }
+
+    @Override
+    public void search(byte[][] images, int[] offsets, NearestNeighbors[] neighbors, int count) {
+        int size = trainingImages.size();
+        int imageSize = trainingImages.getImageSize();
+        SearchScratch scratch = getSearchScratch(count, imageSize);
+
+        // pack the batch back to back, the layout the training images are multiplied with
+        for (int q = 0; q < count; q++) {
+            System.arraycopy(images[q], offsets[q], scratch.queries, q * imageSize, imageSize);
+            scratch.queryNorms[q] = ScalarDotProductKernel.dotProduct(
+                    scratch.queries, q * imageSize, scratch.queries, q * imageSize, imageSize);
+        }
+
+        byte[] trainingPixels = trainingImages.getPixels();
+        int[] products = scratch.products;
+        for (int tileFirst = 0; tileFirst < size; tileFirst += trainingTileSize) {
+            int tileEnd = Math.min(tileFirst + trainingTileSize, size);
+            int tileLength = tileEnd - tileFirst;
+            dotProductKernel.dotProducts(
+                    scratch.queries, count, trainingPixels, tileFirst, tileEnd, imageSize, products);
+
+            for (int q = 0; q < count; q++) {
+                NearestNeighbors queryNeighbors = neighbors[q];
+                int queryNorm = scratch.queryNorms[q];
+                for (int i = tileFirst; i < tileEnd; i++) {
+                    int distance = queryNorm + trainingNorms[i] - 2 * products[q * tileLength + i - tileFirst];
+                    if (distance < queryNeighbors.getThreshold()) {
+                        queryNeighbors.offer(distance, i, trainingImages.getLabelId(i));
+                    }
+                }
+            }
+        }
+        Metrics.recordDistances((long) count * size, (long) count * size * imageSize);
+    }
+
+    private SearchScratch getSearchScratch(int count, int imageSize) {
+        SearchScratch scratch = searchScratch.get();
+        if (scratch == null || scratch.queryNorms.length < count || scratch.imageSize != imageSize) {
+            scratch = new SearchScratch(count, imageSize, trainingTileSize);
+            searchScratch.set(scratch);
+        }
+        return scratch;
+    }
+
+    @Override
+    public boolean isExact() {
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return "matrix multiply";
+    }
+
+    /**
+     * Per-thread search state, reused between batches of up to the same size
+     */
+    private static class SearchScratch {
+        final int imageSize;
+        /** Query images of the batch packed back to back */
+        final byte[] queries;
+        /** Squared norm of each query image, with each pixel value minus 128 */
+        final int[] queryNorms;
+        /** Dot product of each query image and each training image of the current tile */
+        final int[] products;
+
+        SearchScratch(int batchSize, int imageSize, int trainingTileSize) {
+            this.imageSize = imageSize;
+            this.queries = new byte[Math.multiplyExact(batchSize, imageSize)];
+            this.queryNorms = new int[batchSize];
+            this.products = new int[Math.multiplyExact(batchSize, trainingTileSize)];
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package main.classifier;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A trained k-nearest-neighbor classifier and its chosen k-value, saved to or loaded from a binary file
+ *
+ * The file is laid out so it can be memory-mapped rather than parsed: a header, followed by the label id of every
+ * training image and then the packed training pixels, each section starting on a page boundary. Loading only reads
+ * the header and maps the two sections, which back the classifier's training images in place, so loading takes the
+ * same time however many images were saved and pages of the file are only read as they are searched.
+ *
+ * Header, all big-endian: int magic, int version, int header size, int image size, int number of images,
+ * int k-value, long label ids offset, long pixels offset, then the distance metric name, the data fingerprint and
+ * the number of labels followed by each label name, every string as an int byte length and UTF-8 bytes.
+ * Label ids are shorts, and pixels are in the layout of {@link PackedTrainingSet}.
+ */
+public class ModelSnapshot {
+
+    private static final int MAGIC = 0x4B4E4E53; // "KNNS"
+    private static final int VERSION = 1;
+
+    /** Sections are aligned to this many bytes, so each can be mapped from the start of a page */
+    private static final int SECTION_ALIGNMENT = 4096;
+
+    private final KNNClassifier classifier;
+    private final int kValue;
+    private final String dataFingerprint;
+
+    private ModelSnapshot(KNNClassifier classifier, int kValue, String dataFingerprint) {
+        this.classifier = classifier;
+        this.kValue = kValue;
+        this.dataFingerprint = dataFingerprint;
+    }
+
+    /**
+     * @return classifier trained on the saved training images
+     */
+    public KNNClassifier getClassifier() {
+        return classifier;
+    }
+
+    /**
+     * @return k-value chosen for the classifier
+     */
+    public int getKValue() {
+        return kValue;
+    }
+
+    /**
+     * @return description of the data the classifier was trained and tuned on, as given when it was saved
+     */
+    public String getDataFingerprint() {
+        return dataFingerprint;
+    }
+
+    /**
+     * Writes the training images of a classifier to a file, replacing it only once the whole snapshot is written
+     *
+     * @throws IOException
+     */
+    static void save(Path path, PackedTrainingSet trainingImages, int kValue, String metricName,
+                     String dataFingerprint) throws IOException {
+        int numImages = trainingImages.size();
+        int imageSize = trainingImages.getImageSize();
+
+        // header fields after the section offsets, which depend on the header size
+        ByteArrayOutputStream headerTail = new ByteArrayOutputStream();
+        DataOutputStream headerTailOut = new DataOutputStream(headerTail);
+        putString(headerTailOut, metricName);
+        putString(headerTailOut, dataFingerprint);
+        headerTailOut.writeInt(trainingImages.getNumLabels());
+        for (String labelName : trainingImages.getLabelNames()) {
+            putString(headerTailOut, labelName);
+        }
+
+        int headerSize = (int) align(6 * Integer.BYTES + 2 * Long.BYTES + headerTail.size());
+        long labelIdsOffset = headerSize;
+        long pixelsOffset = align(labelIdsOffset + (long) Short.BYTES * numImages);
+
+        ByteBuffer header = ByteBuffer.allocate(headerSize);
+        header.putInt(MAGIC).putInt(VERSION).putInt(headerSize)
+                .putInt(imageSize).putInt(numImages).putInt(kValue)
+                .putLong(labelIdsOffset).putLong(pixelsOffset)
+                .put(headerTail.toByteArray());
+        header.position(0);
+
+        ByteBuffer labelIds = ByteBuffer.allocate(Short.BYTES * numImages);
+        for (int i = 0; i < numImages; i++) {
+            labelIds.putShort((short) trainingImages.getLabelId(i));
+        }
+        labelIds.flip();
+
+        int pixelsSize = Math.multiplyExact(numImages, imageSize);
+        ByteBuffer mappedPixels = trainingImages.getMappedPixels();
+        ByteBuffer pixels = mappedPixels != null
+                ? mappedPixels.duplicate().position(0).limit(pixelsSize)
+                : ByteBuffer.wrap(trainingImages.getPixels(), 0, pixelsSize);
+
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            write(channel, header, 0);
+            write(channel, labelIds, labelIdsOffset);
+            write(channel, pixels, pixelsOffset);
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot written by {@link #save(Path, PackedTrainingSet, int, String, String)}
+     *
+     * @param numThreads number of threads the loaded classifier predicts with
+     * @param distanceKernel kernel the loaded classifier calculates distances with, which must calculate
+     *                       the metric the snapshot was saved with
+     * @throws IOException if the file can't be read, isn't a snapshot, or was saved with a different metric
+     */
+    static ModelSnapshot load(Path path, int numThreads, DistanceKernel distanceKernel) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            ByteBuffer prefix = ByteBuffer.allocate(3 * Integer.BYTES);
+            if (channel.read(prefix, 0) != prefix.capacity()) {
+                throw new IOException(path + " is not a model snapshot");
+            }
+            prefix.flip();
+            if (prefix.getInt() != MAGIC) {
+                throw new IOException(path + " is not a model snapshot");
+            }
+            int version = prefix.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported model snapshot version " + version + " in " + path);
+            }
+            int headerSize = prefix.getInt();
+            if (headerSize <= prefix.capacity() || headerSize > fileSize) {
+                throw new IOException("model snapshot " + path + " has an invalid header size " + headerSize);
+            }
+
+            try {
+                MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize);
+                header.position(prefix.capacity());
+                int imageSize = header.getInt();
+                int numImages = header.getInt();
+                int kValue = header.getInt();
+                long labelIdsOffset = header.getLong();
+                long pixelsOffset = header.getLong();
+                String metricName = getString(header, path);
+                String dataFingerprint = getString(header, path);
+                int numLabels = header.getInt();
+                if (numLabels < 0) {
+                    throw new IOException("model snapshot " + path + " has an invalid number of labels " + numLabels);
+                }
+                List<String> labelNames = new ArrayList<>();
+                for (int i = 0; i < numLabels; i++) {
+                    labelNames.add(getString(header, path));
+                }
+
+                if (!metricName.equals(distanceKernel.getMetricName())) {
+                    throw new IOException("model snapshot " + path + " was saved for " + metricName
+                            + " distance, but the kernel calculates " + distanceKernel.getMetricName() + " distance");
+                }
+                long pixelsSize = (long) numImages * imageSize;
+                if (imageSize <= 0 || numImages < 0 || kValue <= 0 || pixelsSize > Integer.MAX_VALUE
+                        || labelIdsOffset < headerSize || labelIdsOffset + (long) Short.BYTES * numImages > pixelsOffset
+                        || pixelsOffset + pixelsSize != fileSize) {
+                    throw new IOException("model snapshot " + path + " has the wrong size");
+                }
+
+                // the mappings stay valid once the channel is closed, for as long as the training images use them
+                ShortBuffer labelIds = channel.map(
+                        FileChannel.MapMode.READ_ONLY, labelIdsOffset, (long) Short.BYTES * numImages).asShortBuffer();
+                ByteBuffer pixels = channel.map(FileChannel.MapMode.READ_ONLY, pixelsOffset, pixelsSize);
+
+                PackedTrainingSet trainingImages
+                        = new PackedTrainingSet(imageSize, pixels, labelIds, numImages, labelNames);
+                KNNClassifier classifier = new KNNClassifier(
+                        numThreads, distanceKernel, KNNClassifier.createDefaultNeighborIndex(distanceKernel), trainingImages);
+                return new ModelSnapshot(classifier, kValue, dataFingerprint);
+            } catch (RuntimeException e) {
+                throw new IOException("model snapshot " + path + " is corrupt", e);
+            }
+        }
+    }
+
+    private static String getString(ByteBuffer buffer, Path path) throws IOException {
+        // check the string fits before allocating it from a possibly corrupt header
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("model snapshot " + path + " has an invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void putString(DataOutputStream out, String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + SECTION_ALIGNMENT - 1) / SECTION_ALIGNMENT * SECTION_ALIGNMENT;
+    }
+}
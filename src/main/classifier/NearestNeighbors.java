@@ -0,0 +1,269 @@
+package main.classifier;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the k closest training images seen during a nearest neighbor search
+ *
+ * Neighbors are held in primitive arrays as a bounded max-heap ordered by distance, then by training image index,
+ * so the farthest kept neighbor can be replaced in O(log k) without allocating. Instances are meant to be reused:
+ * call {@link #clear()} before each search, {@link #offer(int, int, int)} every candidate, then {@link #sort()}
+ * to read the neighbors back closest first.
+ */
+public class NearestNeighbors {
+
+    private final int capacity;
+
+    private final int[] distances;
+    private final int[] indices;
+    private final int[] labelIds;
+    private int size = 0;
+    private boolean sorted = false;
+
+    /** Scratch vote counts per label id, grown as needed */
+    private int[] votes = new int[0];
+
+    /**
+     * @param k number of closest neighbors to keep
+     */
+    public NearestNeighbors(int k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("invalid k value: " + k);
+        }
+        this.capacity = k;
+        this.distances = new int[k];
+        this.indices = new int[k];
+        this.labelIds = new int[k];
+    }
+
+    /**
+     * Removes all neighbors, ready for a new search
+     */
+    public void clear() {
+        size = 0;
+        sorted = false;
+    }
+
+    /**
+     * @return distance a candidate has to beat to be kept, <code>Integer.MAX_VALUE</code> until k neighbors are kept
+     */
+    public int getThreshold() {
+        return size < capacity ? Integer.MAX_VALUE : distances[0];
+    }
+
+    /**
+     * Keeps a candidate neighbor if it is among the k closest offered so far.
+     * Ties in distance are broken in favour of the lower training image index.
+     *
+     * @param distance distance from the unlabeled image to the candidate
+     * @param index training image index of the candidate
+     * @param labelId label id of the candidate
+     */
+    public void offer(int distance, int index, int labelId) {
+        if (sorted) {
+            throw new IllegalStateException("neighbors already sorted, clear before offering");
+        }
+        if (size < capacity) {
+            int child = size++;
+            set(child, distance, index, labelId);
+            siftUp(child);
+        } else if (isFarther(distances[0], indices[0], distance, index)) {
+            set(0, distance, index, labelId);
+            siftDown(0, size);
+        }
+    }
+
+    /**
+     * Offers every neighbor kept by another search, e.g. one over a different range of the training set
+     */
+    public void offerAll(NearestNeighbors other) {
+        for (int i = 0; i < other.size; i++) {
+            offer(other.distances[i], other.indices[i], other.labelIds[i]);
+        }
+    }
+
+    /**
+     * Sorts the kept neighbors closest first, in place
+     */
+    public void sort() {
+        if (sorted) {
+            return;
+        }
+        // heapsort: repeatedly move the farthest neighbor to the end of the shrinking heap
+        for (int end = size - 1; end > 0; end--) {
+            swap(0, end);
+            siftDown(0, end);
+        }
+        sorted = true;
+    }
+
+    /**
+     * Picks the most frequent label among the k closest neighbors.
+     * Ties are broken in favour of the label with the closer nearest neighbor.
+     *
+     * @param k number of closest neighbors voting, at most the number kept
+     * @return most frequent label id, or -1 if no neighbors were kept
+     */
+    public int vote(int k) {
+        int voters = tallyVotes(k);
+
+        int label = -1;
+        int maxVotes = 0;
+        for (int i = 0; i < voters; i++) {
+            int count = votes[labelIds[i]];
+            if (count > maxVotes) {
+                maxVotes = count;
+                label = labelIds[i];
+            }
+        }
+        return label;
+    }
+
+    /**
+     * Ranks a label among the labels voted for by the k closest neighbors, using the same ordering as
+     * {@link #vote(int)}: most votes first, ties broken in favour of the label with the closer nearest neighbor.
+     *
+     * @param labelId label id to rank
+     * @param k number of closest neighbors voting, at most the number kept
+     * @return 0 if the label would be voted for, 1 if it would come second and so on,
+     *          or -1 if none of the k closest neighbors have the label
+     */
+    public int getVoteRank(int labelId, int k) {
+        int voters = tallyVotes(k);
+
+        int firstVoter = -1;
+        for (int i = 0; i < voters && firstVoter < 0; i++) {
+            if (labelIds[i] == labelId) {
+                firstVoter = i;
+            }
+        }
+        if (firstVoter < 0) {
+            return -1;
+        }
+
+        // visit each other label once, at its closest neighbor, by negating its count once seen
+        int labelVotes = votes[labelId];
+        int rank = 0;
+        for (int i = 0; i < voters; i++) {
+            int count = votes[labelIds[i]];
+            if (count <= 0) {
+                continue;
+            }
+            if (labelIds[i] != labelId && (count > labelVotes || (count == labelVotes && i < firstVoter))) {
+                rank++;
+            }
+            votes[labelIds[i]] = -count;
+        }
+        return rank;
+    }
+
+    /**
+     * Sorts the neighbors and counts the votes per label id of the k closest into <code>votes</code>
+     *
+     * @return number of neighbors that voted
+     */
+    private int tallyVotes(int k) {
+        sort();
+        int voters = Math.min(k, size);
+
+        int maxLabelId = -1;
+        for (int i = 0; i < voters; i++) {
+            maxLabelId = Math.max(maxLabelId, labelIds[i]);
+        }
+        if (votes.length <= maxLabelId) {
+            votes = new int[maxLabelId + 1];
+        } else {
+            Arrays.fill(votes, 0, maxLabelId + 1, 0);
+        }
+
+        for (int i = 0; i < voters; i++) {
+            votes[labelIds[i]]++;
+        }
+        return voters;
+    }
+
+    /**
+     * @return number of neighbors kept, at most k
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of closest neighbors kept
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return distance to the i-th kept neighbor, closest first once sorted
+     */
+    public int getDistance(int i) {
+        return distances[i];
+    }
+
+    /**
+     * @return training image index of the i-th kept neighbor, closest first once sorted
+     */
+    public int getIndex(int i) {
+        return indices[i];
+    }
+
+    /**
+     * @return label id of the i-th kept neighbor, closest first once sorted
+     */
+    public int getLabelId(int i) {
+        return labelIds[i];
+    }
+
+    private static boolean isFarther(int distanceA, int indexA, int distanceB, int indexB) {
+        return distanceA > distanceB || (distanceA == distanceB && indexA > indexB);
+    }
+
+    private void siftUp(int child) {
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            if (!isFarther(distances[child], indices[child], distances[parent], indices[parent])) {
+                return;
+            }
+            swap(child, parent);
+            child = parent;
+        }
+    }
+
+    private void siftDown(int parent, int heapSize) {
+        while (true) {
+            int farthest = parent;
+            int left = 2 * parent + 1;
+            int right = left + 1;
+            if (left < heapSize
+                    && isFarther(distances[left], indices[left], distances[farthest], indices[farthest])) {
+                farthest = left;
+            }
+            if (right < heapSize
+                    && isFarther(distances[right], indices[right], distances[farthest], indices[farthest])) {
+                farthest = right;
+            }
+            if (farthest == parent) {
+                return;
+            }
+            swap(parent, farthest);
+            parent = farthest;
+        }
+    }
+
+    private void set(int i, int distance, int index, int labelId) {
+        distances[i] = distance;
+        indices[i] = index;
+        labelIds[i] = labelId;
+    }
+
+    private void swap(int i, int j) {
+        int distance = distances[i];
+        int index = indices[i];
+        int labelId = labelIds[i];
+        set(i, distances[j], indices[j], labelIds[j]);
+        set(j, distance, index, labelId);
+    }
+}
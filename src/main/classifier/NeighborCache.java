@@ -0,0 +1,211 @@
+package main.classifier;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The closest training images found for each of a list of query images, kept so that repeated runs with different
+ * k-values or folds can vote from them instead of searching the training set again
+ *
+ * Up to <code>capacity</code> neighbors are kept per query image, closest first, as (distance, training image index)
+ * pairs in flat primitive arrays. Label ids aren't kept, they are looked up in the training set when voting.
+ * A cache is identified by a key describing the data and distance metric it was calculated from, and can be saved
+ * to and loaded from a binary file:
+ *
+ * int magic, int version, int key length, UTF-8 key, int number of query images, int capacity,
+ * then int neighbor count per query image, then distances and training image indices for each query image in turn,
+ * padded to <code>capacity</code>, all big-endian.
+ */
+public class NeighborCache {
+
+    private static final int MAGIC = 0x4B4E4E43; // "KNNC"
+    private static final int VERSION = 1;
+
+    private final String key;
+    private final int numQueries;
+    private final int capacity;
+
+    private final int[] counts;
+    private final int[] distances;
+    private final int[] indices;
+
+    /**
+     * @param key description of the data and distance metric the neighbors are calculated from
+     * @param numQueries number of query images
+     * @param capacity number of closest neighbors kept per query image
+     */
+    NeighborCache(String key, int numQueries, int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("invalid neighbor cache capacity: " + capacity);
+        }
+        this.key = key;
+        this.numQueries = numQueries;
+        this.capacity = capacity;
+        this.counts = new int[numQueries];
+        this.distances = new int[Math.multiplyExact(numQueries, capacity)];
+        this.indices = new int[numQueries * capacity];
+    }
+
+    /**
+     * Keeps the neighbors found for a query image. Query images are stored independently, so neighbors of
+     * different query images can be put concurrently.
+     */
+    void put(int query, NearestNeighbors neighbors) {
+        neighbors.sort();
+        int count = Math.min(neighbors.size(), capacity);
+        int start = query * capacity;
+        for (int j = 0; j < count; j++) {
+            distances[start + j] = neighbors.getDistance(j);
+            indices[start + j] = neighbors.getIndex(j);
+        }
+        counts[query] = count;
+    }
+
+    /**
+     * Offers the cached neighbors of a query image, closest first, until <code>neighbors</code> is full
+     *
+     * @param query index of the query image
+     * @param neighbors neighbors to offer to
+     * @param trainingImages training set the neighbor indices refer to, for their label ids
+     */
+    void offerTo(int query, NearestNeighbors neighbors, PackedTrainingSet trainingImages) {
+        int start = query * capacity;
+        int count = Math.min(counts[query], neighbors.getCapacity());
+        for (int j = 0; j < count; j++) {
+            int index = indices[start + j];
+            neighbors.offer(distances[start + j], index, trainingImages.getLabelId(index));
+        }
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    /**
+     * @return number of query images
+     */
+    public int getNumQueries() {
+        return numQueries;
+    }
+
+    /**
+     * @return number of closest neighbors kept per query image
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return number of neighbors kept for a query image, less than the capacity only if the training set held
+     *          fewer candidates
+     */
+    public int getNeighborCount(int query) {
+        return counts[query];
+    }
+
+    /**
+     * @return distance from a query image to its j-th closest neighbor
+     */
+    public int getDistance(int query, int j) {
+        return distances[getNeighborOffset(query, j)];
+    }
+
+    /**
+     * @return training image index of the j-th closest neighbor of a query image
+     */
+    public int getIndex(int query, int j) {
+        return indices[getNeighborOffset(query, j)];
+    }
+
+    private int getNeighborOffset(int query, int j) {
+        if (j < 0 || j >= counts[query]) {
+            throw new IndexOutOfBoundsException(
+                    "neighbor " + j + " out of bounds for " + counts[query] + " neighbors of query image " + query);
+        }
+        return query * capacity + j;
+    }
+
+    /**
+     * Writes the cache to a file, replacing it only once the whole cache is written
+     *
+     * @throws IOException
+     */
+    public void save(Path path) throws IOException {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        long fileSize = 5L * Integer.BYTES + keyBytes.length
+                + (long) Integer.BYTES * (counts.length + distances.length + indices.length);
+        ByteBuffer buffer = ByteBuffer.allocate(Math.toIntExact(fileSize));
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(keyBytes.length).put(keyBytes)
+                .putInt(numQueries).putInt(capacity);
+        IntBuffer ints = buffer.asIntBuffer();
+        ints.put(counts).put(distances).put(indices);
+        buffer.position(0);
+
+        if (path.getParent() != null) {
+            Files.createDirectories(path.getParent());
+        }
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tempPath, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a cache written by {@link #save(Path)}
+     *
+     * @return the cache, or null if there is no file at <code>path</code>
+     * @throws IOException if the file can't be read or isn't a neighbor cache
+     */
+    public static NeighborCache load(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException(path + " is not a neighbor cache");
+            }
+            int version = buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("unsupported neighbor cache version " + version + " in " + path);
+            }
+            // check the key fits before allocating it from a possibly corrupt header
+            int keyLength = buffer.getInt();
+            if (keyLength < 0 || keyLength > buffer.remaining()) {
+                throw new IOException("neighbor cache " + path + " has an invalid key length " + keyLength);
+            }
+            byte[] keyBytes = new byte[keyLength];
+            buffer.get(keyBytes);
+            int numQueries = buffer.getInt();
+            int capacity = buffer.getInt();
+
+            // and the size before allocating the neighbors
+            IntBuffer ints = buffer.slice().asIntBuffer();
+            if (numQueries < 0 || capacity <= 0 || ints.remaining() != numQueries * (1 + 2L * capacity)) {
+                throw new IOException("neighbor cache " + path + " has the wrong size");
+            }
+            NeighborCache cache = new NeighborCache(
+                    new String(keyBytes, StandardCharsets.UTF_8), numQueries, capacity);
+            ints.get(cache.counts).get(cache.distances).get(cache.indices);
+            for (int count : cache.counts) {
+                if (count < 0 || count > cache.capacity) {
+                    throw new IOException("neighbor cache " + path + " has an invalid neighbor count " + count);
+                }
+            }
+            return cache;
+        } catch (RuntimeException e) {
+            throw new IOException("neighbor cache " + path + " is corrupt", e);
+        }
+    }
+}
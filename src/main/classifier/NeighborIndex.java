@@ -0,0 +1,50 @@
+package main.classifier;
+
+/**
+ * Finds the closest training images to a query image for {@link KNNClassifier}
+ *
+ * An index is built over the classifier's packed training images once they have all been added, and can then be
+ * searched concurrently from several threads. Exact indexes offer every training image that could be among the
+ * closest, approximate indexes only offer likely candidates in exchange for searching faster.
+ */
+public interface NeighborIndex {
+
+    /**
+     * Prepares the index to search a set of training images, replacing whatever it was built over before.
+     * Called again whenever images have been added to the set.
+     *
+     * @param trainingImages training images to search
+     * @param distanceKernel kernel used to calculate distances between images
+     */
+    void build(PackedTrainingSet trainingImages, DistanceKernel distanceKernel);
+
+    /**
+     * Offers the training images that may be among the closest to a query image to its neighbors
+     *
+     * @param image array holding the flat query image
+     * @param offset offset of the first byte of the query image within <code>image</code>
+     * @param neighbors closest training images found so far
+     */
+    void search(byte[] image, int offset, NearestNeighbors neighbors);
+
+    /**
+     * Offers the training images that may be among the closest to each of a batch of query images to its neighbors.
+     * By default each query image is searched in turn, indexes that can share work between the query images of
+     * a batch override this.
+     *
+     * @param images array holding each flat query image
+     * @param offsets offset of the first byte of each query image within its array
+     * @param neighbors closest training images found so far for each query image
+     * @param count number of query images in the batch
+     */
+    default void search(byte[][] images, int[] offsets, NearestNeighbors[] neighbors, int count) {
+        for (int q = 0; q < count; q++) {
+            search(images[q], offsets[q], neighbors[q]);
+        }
+    }
+
+    /**
+     * @return true if searches always find exactly the closest training images
+     */
+    boolean isExact();
+}
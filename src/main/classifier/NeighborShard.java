@@ -0,0 +1,63 @@
+package main.classifier;
+
+import java.io.IOException;
+
+/**
+ * A part of the training images, searched for the closest images to query images independently of the other parts
+ * by {@link ShardedNeighborIndex}
+ *
+ * Searches are split in two so that the shards of an index can all search at once: {@link #search} starts a search,
+ * and the closest images are collected from each shard once every shard has started.
+ */
+public interface NeighborShard extends AutoCloseable {
+
+    /**
+     * Replaces the images the shard searches
+     *
+     * @param images training images in the shard, with the label ids of the whole training set
+     * @param globalIndices index in the whole training set of each image in the shard, in increasing order
+     * @param distanceKernel kernel used to calculate distances between images
+     * @throws IOException if a shard in another process can't be reached
+     */
+    void load(PackedTrainingSet images, int[] globalIndices, DistanceKernel distanceKernel) throws IOException;
+
+    /**
+     * Starts finding the closest images in the shard to each of a batch of query images
+     *
+     * @param images array holding each flat query image
+     * @param offsets offset of the first byte of each query image within its array
+     * @param count number of query images in the batch
+     * @param k number of closest images to find per query image
+     * @return the search, to collect its results from
+     * @throws IOException if a shard in another process can't be reached
+     */
+    PendingSearch search(byte[][] images, int[] offsets, int count, int k) throws IOException;
+
+    /**
+     * Releases the shard's resources, such as its connections to another process
+     *
+     * @throws IOException
+     */
+    @Override
+    void close() throws IOException;
+
+    /**
+     * A search started by {@link #search(byte[][], int[], int, int)}
+     */
+    interface PendingSearch {
+        /**
+         * Waits for the search to finish
+         *
+         * @return closest images to each query image, by index in the whole training set
+         * @throws IOException if a shard in another process failed
+         */
+        PartialNeighbors get() throws IOException;
+
+        /**
+         * Abandons the search without collecting its results, releasing what it holds such as its connection to
+         * another process. Does nothing once {@link #get()} has been called.
+         */
+        default void cancel() {
+        }
+    }
+}
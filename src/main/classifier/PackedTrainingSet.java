@@ -0,0 +1,310 @@
+package main.classifier;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores labeled flat images back to back in a single contiguous pixel array
+ *
+ * Image i occupies bytes [i*imageSize, (i+1)*imageSize) of the pixel array, and its label is stored
+ * as a small numerical id in a parallel array. Label ids index into a dictionary of label names,
+ * so no per-image objects are kept once an image has been added.
+ *
+ * A set loaded from a model snapshot reads its pixels and label ids in place from the memory-mapped file instead,
+ * so loading it takes the same time however many images it holds. Searches read the mapped pixels through
+ * {@link #getMappedPixels()}, and the set is only copied into arrays on the heap the first time something needs
+ * the pixel array or adds an image.
+ */
+public class PackedTrainingSet {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private static final int UNKNOWN_LABEL_ID = -2;
+
+    private final int imageSize;
+
+    private byte[] pixels;
+    private short[] labelIds;
+    private int size = 0;
+
+    /** Pixels read in place from a memory-mapped file, or null once they have been copied into the pixel array */
+    private volatile ByteBuffer mappedPixels;
+    private final ShortBuffer mappedLabelIds;
+
+    private final List<String> labelNames = new ArrayList<>();
+    private final Map<String,Short> labelIdsByName = new HashMap<>();
+
+    /**
+     * @param imageSize number of bytes in each flat image
+     */
+    public PackedTrainingSet(int imageSize) {
+        if (imageSize <= 0) {
+            throw new IllegalArgumentException("invalid image size: " + imageSize);
+        }
+        this.imageSize = imageSize;
+        this.pixels = new byte[INITIAL_CAPACITY * imageSize];
+        this.labelIds = new short[INITIAL_CAPACITY];
+        this.mappedLabelIds = null;
+    }
+
+    /**
+     * Creates a set from images already packed back to back, taking ownership of the arrays
+     *
+     * @param imageSize number of bytes in each flat image
+     * @param pixels packed images, holding at least <code>size</code> images
+     * @param labelIds label id of each image, indexing into <code>labelNames</code>
+     * @param size number of images in the set
+     * @param labelNames names of the labels, indexed by label id
+     */
+    PackedTrainingSet(int imageSize, byte[] pixels, short[] labelIds, int size, List<String> labelNames) {
+        if (imageSize <= 0) {
+            throw new IllegalArgumentException("invalid image size: " + imageSize);
+        }
+        if (size < 0 || labelIds.length < size || pixels.length / imageSize < size) {
+            throw new IllegalArgumentException("arrays too small for " + size + " images of size " + imageSize);
+        }
+        for (int i = 0; i < size; i++) {
+            if (labelIds[i] < 0 || labelIds[i] >= labelNames.size()) {
+                throw new IllegalArgumentException("invalid label id " + labelIds[i] + " of image " + i);
+            }
+        }
+        this.imageSize = imageSize;
+        this.pixels = pixels;
+        this.labelIds = labelIds;
+        this.size = size;
+        this.mappedLabelIds = null;
+        for (String label : labelNames) {
+            getOrCreateLabelId(label);
+        }
+    }
+
+    /**
+     * Creates a set reading its images in place from buffers, such as sections of a memory-mapped file. Nothing is
+     * copied or read until the images are searched, so label ids are only checked once they are read.
+     *
+     * @param imageSize number of bytes in each flat image
+     * @param mappedPixels packed images from index 0, holding at least <code>size</code> images
+     * @param mappedLabelIds label id of each image from index 0, indexing into <code>labelNames</code>
+     * @param size number of images in the set
+     * @param labelNames names of the labels, indexed by label id
+     */
+    PackedTrainingSet(int imageSize, ByteBuffer mappedPixels, ShortBuffer mappedLabelIds, int size,
+                      List<String> labelNames) {
+        if (imageSize <= 0) {
+            throw new IllegalArgumentException("invalid image size: " + imageSize);
+        }
+        if (size < 0 || mappedLabelIds.limit() < size || mappedPixels.limit() / imageSize < size) {
+            throw new IllegalArgumentException("buffers too small for " + size + " images of size " + imageSize);
+        }
+        this.imageSize = imageSize;
+        this.mappedPixels = mappedPixels;
+        this.mappedLabelIds = mappedLabelIds;
+        this.size = size;
+        for (String label : labelNames) {
+            getOrCreateLabelId(label);
+        }
+    }
+
+    /**
+     * Appends a labeled flat image to the end of the set
+     *
+     * @param label class name of the image
+     * @param flatImage image pixels, which are copied into the packed pixel array
+     */
+    public void add(String label, byte[] flatImage) {
+        add(label, flatImage, 0, flatImage.length);
+    }
+
+    /**
+     * Appends a labeled flat image, read from a slice of a larger array, to the end of the set
+     *
+     * @param label class name of the image
+     * @param flatImages array holding the image pixels, which are copied into the packed pixel array
+     * @param offset offset of the first byte of the image within <code>flatImages</code>
+     * @param length number of bytes in the image
+     */
+    public void add(String label, byte[] flatImages, int offset, int length) {
+        if (length != imageSize) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "unequal image sizes " + length + ", " + imageSize);
+        }
+        ensureCapacity(size + 1);
+        System.arraycopy(flatImages, offset, pixels, size * imageSize, imageSize);
+        labelIds[size] = getOrCreateLabelId(label);
+        size++;
+    }
+
+    /**
+     * Appends a labeled image to the end of the set without copying any pixels.
+     * The caller writes the image into the pixel array at <code>getImageOffset(index)</code>.
+     *
+     * @param label class name of the image
+     * @return index of the appended image
+     */
+    public int addUninitialized(String label) {
+        ensureCapacity(size + 1);
+        labelIds[size] = getOrCreateLabelId(label);
+        return size++;
+    }
+
+    /**
+     * Grows the backing arrays so that at least <code>capacity</code> images fit without reallocating
+     */
+    public void ensureCapacity(int capacity) {
+        copyMappedImages();
+        if (capacity <= labelIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, labelIds.length * 2);
+        pixels = Arrays.copyOf(pixels, Math.multiplyExact(newCapacity, imageSize));
+        labelIds = Arrays.copyOf(labelIds, newCapacity);
+    }
+
+    private short getOrCreateLabelId(String label) {
+        Short labelId = labelIdsByName.get(label);
+        if (labelId == null) {
+            if (labelNames.size() > Short.MAX_VALUE) {
+                throw new IllegalStateException("too many distinct labels");
+            }
+            labelId = (short) labelNames.size();
+            labelNames.add(label);
+            labelIdsByName.put(label, labelId);
+        }
+        return labelId;
+    }
+
+    /**
+     * @return number of images in the set
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return number of bytes in each flat image
+     */
+    public int getImageSize() {
+        return imageSize;
+    }
+
+    /**
+     * Backing pixel array. Only the first <code>size()*getImageSize()</code> bytes hold images.
+     * A set reading its images from a mapped file copies them into the array first.
+     */
+    public byte[] getPixels() {
+        if (mappedPixels != null) {
+            copyMappedImages();
+        }
+        return pixels;
+    }
+
+    /**
+     * Buffer the images are read from in place while the set is backed by a memory-mapped file, with each image at
+     * the same offset as in the pixel array. Read it with absolute gets only, as it is shared.
+     *
+     * @return the mapped pixels, or null if the images are in the pixel array
+     */
+    public ByteBuffer getMappedPixels() {
+        return mappedPixels;
+    }
+
+    /**
+     * Copies the image at an index into an array, reading it in place if the set is backed by a mapped file
+     *
+     * @param destination array the image is copied into
+     * @param offset offset within <code>destination</code> the first byte of the image is copied to
+     */
+    public void copyImageTo(int index, byte[] destination, int offset) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException("image " + index + " of " + size);
+        }
+        ByteBuffer mapped = mappedPixels;
+        if (mapped != null) {
+            mapped.get(getImageOffset(index), destination, offset, imageSize);
+        } else {
+            System.arraycopy(pixels, getImageOffset(index), destination, offset, imageSize);
+        }
+    }
+
+    /**
+     * Copies the images of a set backed by a mapped file into arrays on the heap, so they can be written to
+     */
+    private synchronized void copyMappedImages() {
+        ByteBuffer mapped = mappedPixels;
+        if (mapped == null) {
+            return;
+        }
+        byte[] heapPixels = new byte[Math.multiplyExact(size, imageSize)];
+        mapped.get(0, heapPixels);
+        short[] heapLabelIds = new short[size];
+        mappedLabelIds.get(0, heapLabelIds);
+        for (int i = 0; i < size; i++) {
+            checkLabelId(heapLabelIds[i], i);
+        }
+        pixels = heapPixels;
+        labelIds = heapLabelIds;
+        // published last, so any thread that sees no mapped pixels sees the arrays
+        mappedPixels = null;
+    }
+
+    private void checkLabelId(short labelId, int index) {
+        if (labelId < 0 || labelId >= labelNames.size()) {
+            throw new IllegalStateException("invalid label id " + labelId + " of image " + index);
+        }
+    }
+
+    /**
+     * @return offset of the first byte of the image at <code>index</code> within the pixel array
+     */
+    public int getImageOffset(int index) {
+        return index * imageSize;
+    }
+
+    public int getLabelId(int index) {
+        if (mappedPixels != null) {
+            if (index < 0 || index >= size) {
+                throw new ArrayIndexOutOfBoundsException("image " + index + " of " + size);
+            }
+            short labelId = mappedLabelIds.get(index);
+            checkLabelId(labelId, index);
+            return labelId;
+        }
+        return labelIds[index];
+    }
+
+    /**
+     * @return label id of a class name, or -2 if no image in the set has that label.
+     *          Never equal to a label id, or to the -1 voted when there are no neighbors.
+     */
+    public int getLabelId(String label) {
+        Short labelId = labelIdsByName.get(label);
+        return labelId == null ? UNKNOWN_LABEL_ID : labelId;
+    }
+
+    public String getLabel(int index) {
+        return labelNames.get(getLabelId(index));
+    }
+
+    public String getLabelName(int labelId) {
+        return labelNames.get(labelId);
+    }
+
+    /**
+     * @return names of the labels in the set, indexed by label id
+     */
+    public String[] getLabelNames() {
+        return labelNames.toArray(new String[0]);
+    }
+
+    /**
+     * @return number of distinct labels in the set
+     */
+    public int getNumLabels() {
+        return labelNames.size();
+    }
+}
@@ -0,0 +1,150 @@
+package main.classifier;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The closest images found in one shard of the training set for each of a batch of query images, closest first
+ *
+ * Up to <code>capacity</code> neighbors are kept per query image as (distance, training image index, label id)
+ * triples in flat primitive arrays, with indices and label ids of the whole training set, so the neighbors found by
+ * every shard can be merged with {@link #merge(PartialNeighbors[], int, NearestNeighbors)}. They are written to and
+ * read from shards in other processes as: int number of query images, int capacity, then for each query image its
+ * int neighbor count followed by that many distance, index and label id ints, all big-endian.
+ */
+public class PartialNeighbors {
+
+    private final int numQueries;
+    private final int capacity;
+
+    private final int[] counts;
+    private final int[] distances;
+    private final int[] indices;
+    private final int[] labelIds;
+
+    /**
+     * @param numQueries number of query images
+     * @param capacity number of closest neighbors kept per query image
+     */
+    PartialNeighbors(int numQueries, int capacity) {
+        if (numQueries < 0 || capacity <= 0) {
+            throw new IllegalArgumentException(
+                    "invalid partial neighbors of " + numQueries + " query images, capacity " + capacity);
+        }
+        this.numQueries = numQueries;
+        this.capacity = capacity;
+        this.counts = new int[numQueries];
+        this.distances = new int[Math.multiplyExact(numQueries, capacity)];
+        this.indices = new int[numQueries * capacity];
+        this.labelIds = new int[numQueries * capacity];
+    }
+
+    /**
+     * Keeps the neighbors found for a query image
+     *
+     * @param globalIndices index in the whole training set of each image in the shard the neighbors were found in
+     */
+    void put(int query, NearestNeighbors neighbors, int[] globalIndices) {
+        neighbors.sort();
+        int count = Math.min(neighbors.size(), capacity);
+        int start = query * capacity;
+        for (int j = 0; j < count; j++) {
+            distances[start + j] = neighbors.getDistance(j);
+            indices[start + j] = globalIndices[neighbors.getIndex(j)];
+            labelIds[start + j] = neighbors.getLabelId(j);
+        }
+        counts[query] = count;
+    }
+
+    /**
+     * @return number of query images
+     */
+    public int getNumQueries() {
+        return numQueries;
+    }
+
+    /**
+     * Offers the closest neighbors of a query image across shards to <code>neighbors</code>, until it is full, by
+     * merging the neighbors each shard found for it closest first. Ties in distance are taken in order of training
+     * image index, so the merged neighbors don't depend on the order of the shards, and are exactly those a single
+     * search of the whole training set would find.
+     *
+     * @param shards neighbors found by each shard for the same query images
+     * @param query index of the query image
+     * @param neighbors cleared neighbors of the query image
+     */
+    public static void merge(PartialNeighbors[] shards, int query, NearestNeighbors neighbors) {
+        int[] positions = new int[shards.length];
+        for (int merged = 0; merged < neighbors.getCapacity(); merged++) {
+            int closestShard = -1;
+            int closestOffset = -1;
+            for (int s = 0; s < shards.length; s++) {
+                if (positions[s] >= shards[s].counts[query]) {
+                    continue;
+                }
+                int offset = query * shards[s].capacity + positions[s];
+                if (closestShard < 0
+                        || shards[s].distances[offset] < shards[closestShard].distances[closestOffset]
+                        || (shards[s].distances[offset] == shards[closestShard].distances[closestOffset]
+                                && shards[s].indices[offset] < shards[closestShard].indices[closestOffset])) {
+                    closestShard = s;
+                    closestOffset = offset;
+                }
+            }
+            if (closestShard < 0) {
+                break;
+            }
+            PartialNeighbors closest = shards[closestShard];
+            neighbors.offer(closest.distances[closestOffset], closest.indices[closestOffset],
+                    closest.labelIds[closestOffset]);
+            positions[closestShard]++;
+        }
+    }
+
+    /**
+     * Writes the neighbors for a shard's search to be read back by {@link #read(DataInput)}
+     *
+     * @throws IOException
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(numQueries);
+        out.writeInt(capacity);
+        for (int query = 0; query < numQueries; query++) {
+            out.writeInt(counts[query]);
+            for (int j = query * capacity; j < query * capacity + counts[query]; j++) {
+                out.writeInt(distances[j]);
+                out.writeInt(indices[j]);
+                out.writeInt(labelIds[j]);
+            }
+        }
+    }
+
+    /**
+     * Reads neighbors written by {@link #write(DataOutput)}
+     *
+     * @throws IOException if they can't be read or are invalid
+     */
+    static PartialNeighbors read(DataInput in) throws IOException {
+        int numQueries = in.readInt();
+        int capacity = in.readInt();
+        if (numQueries < 0 || capacity <= 0) {
+            throw new IOException("invalid partial neighbors of " + numQueries + " query images, capacity "
+                    + capacity);
+        }
+        PartialNeighbors neighbors = new PartialNeighbors(numQueries, capacity);
+        for (int query = 0; query < numQueries; query++) {
+            int count = in.readInt();
+            if (count < 0 || count > capacity) {
+                throw new IOException("invalid neighbor count " + count + " of query image " + query);
+            }
+            neighbors.counts[query] = count;
+            for (int j = query * capacity; j < query * capacity + count; j++) {
+                neighbors.distances[j] = in.readInt();
+                neighbors.indices[j] = in.readInt();
+                neighbors.labelIds[j] = in.readInt();
+            }
+        }
+        return neighbors;
+    }
+}
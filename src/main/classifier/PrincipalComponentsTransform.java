@@ -0,0 +1,174 @@
+package main.classifier;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Reduces images to their coordinates along the principal components of the training set, the directions in which
+ * the training images vary most
+ *
+ * Components are fitted to an evenly spaced sample of the training images by subspace iteration: starting from
+ * random directions, the directions are repeatedly multiplied by the sample's covariance matrix and orthonormalized,
+ * converging on the span of the top principal components. The covariance matrix is never formed, each iteration
+ * makes one pass over the sample instead. Only the span matters, since Euclidean distances between features don't
+ * change when the components are rotated within it.
+ */
+public class PrincipalComponentsTransform extends LinearFeatureTransform {
+
+    /** Number of passes over the sample, each bringing the directions closer to the top principal components */
+    private static final int SUBSPACE_ITERATIONS = 4;
+
+    private final int sampleSize;
+    private final long seed;
+
+    /**
+     * @param featureSize number of principal components each image is reduced to
+     * @param sampleSize maximum number of training images the components are fitted to
+     * @param seed seed of the random starting directions, so the same components are fitted every time
+     */
+    public PrincipalComponentsTransform(int featureSize, int sampleSize, long seed) {
+        super(featureSize);
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException("invalid principal components sample size: " + sampleSize);
+        }
+        this.sampleSize = sampleSize;
+        this.seed = seed;
+    }
+
+    @Override
+    public void fit(PackedTrainingSet trainingImages) {
+        int imageSize = trainingImages.getImageSize();
+        int featureSize = getFeatureSize();
+        checkImageSize(imageSize);
+        if (trainingImages.size() == 0) {
+            throw new IllegalArgumentException("can't fit principal components without training images");
+        }
+
+        int[] sample = new int[Math.min(sampleSize, trainingImages.size())];
+        for (int r = 0; r < sample.length; r++) {
+            sample[r] = (int) ((long) r * trainingImages.size() / sample.length);
+        }
+        byte[] pixels = trainingImages.getPixels();
+
+        double[] mean = new double[imageSize];
+        for (int index : sample) {
+            int offset = trainingImages.getImageOffset(index);
+            for (int i = 0; i < imageSize; i++) {
+                mean[i] += pixels[offset + i] & 0xFF;
+            }
+        }
+        for (int i = 0; i < imageSize; i++) {
+            mean[i] /= sample.length;
+        }
+
+        // directions are the columns of a pixel-major matrix, direction j of pixel i at [i * featureSize + j]
+        Random random = new Random(seed);
+        float[] directions = new float[Math.multiplyExact(imageSize, featureSize)];
+        for (int i = 0; i < directions.length; i++) {
+            directions[i] = (float) random.nextGaussian();
+        }
+        orthonormalize(directions, imageSize, featureSize);
+
+        FeatureKernel featureKernel = getFeatureKernel();
+        float[] nextDirections = new float[directions.length];
+        float[] coordinates = new float[featureSize];
+        for (int iteration = 0; iteration < SUBSPACE_ITERATIONS; iteration++) {
+            // the projection of the mean onto the directions, subtracted to center each image's coordinates
+            float[] meanCoordinates = project(mean, directions, imageSize, featureSize);
+
+            // nextDirections = centered sample^T * (centered sample * directions), accumulated image by image.
+            // the uncentered sample can be used on the left, as centered coordinates sum to zero over the sample
+            Arrays.fill(nextDirections, 0f);
+            for (int index : sample) {
+                int offset = trainingImages.getImageOffset(index);
+                for (int j = 0; j < featureSize; j++) {
+                    coordinates[j] = -meanCoordinates[j];
+                }
+                for (int i = 0; i < imageSize; i++) {
+                    int pixel = pixels[offset + i] & 0xFF;
+                    if (pixel != 0) {
+                        featureKernel.addScaled(coordinates, 0, pixel, directions, i * featureSize, featureSize);
+                    }
+                }
+                for (int i = 0; i < imageSize; i++) {
+                    int pixel = pixels[offset + i] & 0xFF;
+                    if (pixel != 0) {
+                        featureKernel.addScaled(nextDirections, i * featureSize, pixel, coordinates, 0, featureSize);
+                    }
+                }
+            }
+            float[] swap = directions;
+            directions = nextDirections;
+            nextDirections = swap;
+            orthonormalize(directions, imageSize, featureSize);
+        }
+
+        setProjection(imageSize, directions, project(mean, directions, imageSize, featureSize));
+    }
+
+    /**
+     * @return coordinates of a vector along each direction
+     */
+    private static float[] project(double[] vector, float[] directions, int imageSize, int featureSize) {
+        double[] sums = new double[featureSize];
+        for (int i = 0; i < imageSize; i++) {
+            int row = i * featureSize;
+            for (int j = 0; j < featureSize; j++) {
+                sums[j] += vector[i] * directions[row + j];
+            }
+        }
+        float[] coordinates = new float[featureSize];
+        for (int j = 0; j < featureSize; j++) {
+            coordinates[j] = (float) sums[j];
+        }
+        return coordinates;
+    }
+
+    /**
+     * Makes the directions orthogonal unit vectors spanning the same space, by modified Gram-Schmidt on a
+     * direction-major copy, so each direction is contiguous. A direction that lies in the span of the earlier ones,
+     * e.g. when the sample has fewer images than directions, is zeroed so that its feature is always 0.
+     */
+    private void orthonormalize(float[] directions, int imageSize, int featureSize) {
+        float[] columns = new float[directions.length];
+        for (int i = 0; i < imageSize; i++) {
+            for (int j = 0; j < featureSize; j++) {
+                columns[j * imageSize + i] = directions[i * featureSize + j];
+            }
+        }
+
+        FeatureKernel featureKernel = getFeatureKernel();
+        for (int j = 0; j < featureSize; j++) {
+            int column = j * imageSize;
+            double originalNorm = Math.sqrt(dot(columns, column, column, imageSize));
+            for (int p = 0; p < j; p++) {
+                double projection = dot(columns, column, p * imageSize, imageSize);
+                featureKernel.addScaled(columns, column, (float) -projection, columns, p * imageSize, imageSize);
+            }
+            double norm = Math.sqrt(dot(columns, column, column, imageSize));
+            float scale = norm > 1e-6 * originalNorm ? (float) (1. / norm) : 0f;
+            for (int i = 0; i < imageSize; i++) {
+                columns[column + i] *= scale;
+            }
+        }
+
+        for (int i = 0; i < imageSize; i++) {
+            for (int j = 0; j < featureSize; j++) {
+                directions[i * featureSize + j] = columns[j * imageSize + i];
+            }
+        }
+    }
+
+    private static double dot(float[] values, int offsetA, int offsetB, int length) {
+        double sum = 0.;
+        for (int i = 0; i < length; i++) {
+            sum += values[offsetA + i] * values[offsetB + i];
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return getFeatureSize() + " principal components of up to " + sampleSize + " training images (seed " + seed + ")";
+    }
+}
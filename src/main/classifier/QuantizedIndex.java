@@ -0,0 +1,147 @@
+package main.classifier;
+
+import main.metrics.Metrics;
+
+/**
+ * Approximate index that scans low-bit codes of the training images for candidates, then compares the candidates'
+ * full pixels exactly
+ *
+ * Each pixel value is quantized to its top <code>bits</code> bits, and the codes are packed <code>8 / bits</code>
+ * to a byte, so the scan reads a half or a quarter as many bytes per training image as a linear scan. The
+ * <code>candidates</code> training images whose codes are closest to the query image's codes by L1 distance are
+ * then offered to the query's neighbors by their exact distance, closest candidates first. The exact closest
+ * neighbors are found whenever they are among the candidates.
+ */
+public class QuantizedIndex implements NeighborIndex {
+
+    /** Number of training images whose code distances are calculated per call to the code kernel */
+    private static final int SCAN_BLOCK_SIZE = 256;
+
+    private final int bits;
+    private final int candidates;
+
+    private final CodeDistanceKernel codeKernel = DistanceKernels.getBestCodeKernel();
+
+    private PackedTrainingSet trainingImages;
+    private DistanceKernel distanceKernel;
+
+    /** Number of packed bytes per training image */
+    private int packedLength;
+
+    /** Packed codes of training image i at <code>[i * packedLength, (i + 1) * packedLength)</code> */
+    private byte[] packedCodes;
+
+    private final ThreadLocal<SearchScratch> searchScratch = new ThreadLocal<>();
+
+    /**
+     * @param bits number of bits per pixel code, 1, 2 or 4, fewer for a faster scan that finds fewer of
+     *             the closest images
+     * @param candidates number of training images compared exactly per search, more for better recall
+     */
+    public QuantizedIndex(int bits, int candidates) {
+        if (bits <= 0 || bits >= 8 || 8 % bits != 0) {
+            throw new IllegalArgumentException("invalid number of bits per pixel code: " + bits);
+        }
+        if (candidates <= 0) {
+            throw new IllegalArgumentException("invalid number of rerank candidates: " + candidates);
+        }
+        this.bits = bits;
+        this.candidates = candidates;
+    }
+
+    @Override
+    public void build(PackedTrainingSet trainingImages, DistanceKernel distanceKernel) {
+        this.trainingImages = trainingImages;
+        this.distanceKernel = distanceKernel;
+
+        int imageSize = trainingImages.getImageSize();
+        int codesPerByte = 8 / bits;
+        packedLength = (imageSize + codesPerByte - 1) / codesPerByte;
+        packedCodes = new byte[Math.multiplyExact(trainingImages.size(), packedLength)];
+
+        byte[] pixels = trainingImages.getPixels();
+        for (int index = 0; index < trainingImages.size(); index++) {
+            int offset = trainingImages.getImageOffset(index);
+            int packedStart = index * packedLength;
+            for (int pixel = 0; pixel < imageSize; pixel++) {
+                int plane = pixel / packedLength;
+                int code = quantize(pixels[offset + pixel]);
+                packedCodes[packedStart + pixel - plane * packedLength] |= (byte) (code << (plane * bits));
+            }
+        }
+    }
+
+    private int quantize(byte pixel) {
+        return (pixel & 0xFF) >>> (8 - bits);
+    }
+
+    @Override
+    public void search(byte[] image, int offset, NearestNeighbors neighbors) {
+        SearchScratch scratch = searchScratch.get();
+        int codesLength = packedLength * (8 / bits);
+        if (scratch == null || scratch.queryCodes.length != codesLength) {
+            scratch = new SearchScratch(codesLength, candidates);
+            searchScratch.set(scratch);
+        }
+
+        // unpacked query codes, padded with zeros like the last plane of the packed codes
+        int imageSize = trainingImages.getImageSize();
+        byte[] queryCodes = scratch.queryCodes;
+        for (int pixel = 0; pixel < imageSize; pixel++) {
+            queryCodes[pixel] = (byte) quantize(image[offset + pixel]);
+        }
+
+        NearestNeighbors candidateNeighbors = scratch.candidateNeighbors;
+        candidateNeighbors.clear();
+        int[] codeDistances = scratch.codeDistances;
+        for (int blockFirst = 0; blockFirst < trainingImages.size(); blockFirst += SCAN_BLOCK_SIZE) {
+            int blockEnd = Math.min(blockFirst + SCAN_BLOCK_SIZE, trainingImages.size());
+            codeKernel.distances(queryCodes, packedCodes, packedLength, bits, blockFirst, blockEnd, codeDistances);
+            for (int index = blockFirst; index < blockEnd; index++) {
+                int distance = codeDistances[index - blockFirst];
+                if (distance < candidateNeighbors.getThreshold()) {
+                    candidateNeighbors.offer(distance, index, trainingImages.getLabelId(index));
+                }
+            }
+        }
+
+        // closest candidates first, so later candidates are more often abandoned early
+        candidateNeighbors.sort();
+        byte[] trainingPixels = trainingImages.getPixels();
+        for (int j = 0; j < candidateNeighbors.size(); j++) {
+            int index = candidateNeighbors.getIndex(j);
+            int threshold = neighbors.getThreshold();
+            int distance = distanceKernel.distance(
+                    image, offset, trainingPixels, trainingImages.getImageOffset(index), imageSize, threshold);
+            if (distance < threshold) {
+                neighbors.offer(distance, index, candidateNeighbors.getLabelId(j));
+            }
+        }
+        Metrics.recordDistances(trainingImages.size() + candidateNeighbors.size(),
+                (long) trainingImages.size() * packedLength + (long) candidateNeighbors.size() * imageSize);
+    }
+
+    @Override
+    public boolean isExact() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return bits + "-bit quantized scan for " + candidates + " candidates, reranked exactly";
+    }
+
+    /**
+     * Per-thread search state, reused between searches
+     */
+    private static class SearchScratch {
+        final byte[] queryCodes;
+        final NearestNeighbors candidateNeighbors;
+        final int[] codeDistances = new int[SCAN_BLOCK_SIZE];
+
+        SearchScratch(int codesLength, int candidates) {
+            this.queryCodes = new byte[codesLength];
+            this.candidateNeighbors = new NearestNeighbors(candidates);
+        }
+    }
+}
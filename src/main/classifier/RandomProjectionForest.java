@@ -0,0 +1,316 @@
+package main.classifier;
+
+import main.metrics.Metrics;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Approximate index that searches a forest of random projection trees
+ *
+ * Each tree splits the training images in half at every node by projecting them onto a sparse random direction,
+ * a sum of a few randomly chosen single-color pixel values with random signs, until each leaf holds at most
+ * <code>leafSize</code> images. A search descends all the trees together, visiting leaves in order of how far the
+ * query image falls on the wrong side of the splits leading to them, until <code>searchCandidates</code> distinct
+ * training images have been compared to the query image exactly.
+ *
+ * More trees and more candidates find more of the true closest images, at the cost of slower searches and,
+ * for trees, more memory.
+ */
+public class RandomProjectionForest implements NeighborIndex {
+
+    /** Number of pixel values summed by each split's projection */
+    private static final int PROJECTION_SIZE = 32;
+
+    private final int numTrees;
+    private final int leafSize;
+    private final int searchCandidates;
+    private final long seed;
+
+    private PackedTrainingSet trainingImages;
+    private DistanceKernel distanceKernel;
+
+    /** Root node of each tree */
+    private int[] roots;
+
+    /**
+     * Nodes of every tree. A split node sends images whose projection is less than its threshold to its left
+     * child and the rest to its right child, a leaf node holds <code>leafLengths[node]</code> training image
+     * indices starting at <code>leafStarts[node]</code> in <code>leafIndices</code>.
+     */
+    private int numNodes;
+    private int[] leftChildren;
+    private int[] rightChildren;
+    private int[] thresholds;
+    private int[] leafStarts;
+    private int[] leafLengths;
+
+    /** Pixel offsets, with the sign of their weight in the low bit, of each split node's projection */
+    private int[] projections;
+
+    private int[] leafIndices;
+
+    private final ThreadLocal<SearchScratch> searchScratch = new ThreadLocal<>();
+
+    /**
+     * @param numTrees number of trees, more for better recall
+     * @param leafSize maximum number of training images per leaf
+     * @param searchCandidates number of training images compared exactly per search, more for better recall
+     * @param seed seed of the random projections, so the same forest is built every time
+     */
+    public RandomProjectionForest(int numTrees, int leafSize, int searchCandidates, long seed) {
+        if (numTrees <= 0 || leafSize <= 0 || searchCandidates <= 0) {
+            throw new IllegalArgumentException("invalid random projection forest of " + numTrees + " trees, leaf size "
+                    + leafSize + ", " + searchCandidates + " search candidates");
+        }
+        this.numTrees = numTrees;
+        this.leafSize = leafSize;
+        this.searchCandidates = searchCandidates;
+        this.seed = seed;
+    }
+
+    @Override
+    public void build(PackedTrainingSet trainingImages, DistanceKernel distanceKernel) {
+        this.trainingImages = trainingImages;
+        this.distanceKernel = distanceKernel;
+
+        int size = trainingImages.size();
+        // median splits leave about 2 nodes per half-full leaf, the arrays grow if ties make leaves smaller
+        int expectedNodes = Math.multiplyExact(numTrees, 4 * Math.max(1, size / leafSize));
+        numNodes = 0;
+        leftChildren = new int[expectedNodes];
+        rightChildren = new int[expectedNodes];
+        thresholds = new int[expectedNodes];
+        leafStarts = new int[expectedNodes];
+        leafLengths = new int[expectedNodes];
+        projections = new int[Math.multiplyExact(expectedNodes, PROJECTION_SIZE)];
+        leafIndices = new int[Math.multiplyExact(numTrees, size)];
+        roots = new int[numTrees];
+
+        Random random = new Random(seed);
+        int[] projectionValues = new int[size];
+        for (int tree = 0; tree < numTrees; tree++) {
+            int treeStart = tree * size;
+            for (int i = 0; i < size; i++) {
+                leafIndices[treeStart + i] = i;
+            }
+            roots[tree] = buildNode(random, projectionValues, treeStart, treeStart + size);
+        }
+    }
+
+    /**
+     * Splits a range of <code>leafIndices</code> into a subtree
+     *
+     * @return node at the root of the subtree
+     */
+    private int buildNode(Random random, int[] projectionValues, int from, int to) {
+        int node = newNode();
+        if (to - from > leafSize) {
+            int imageSize = trainingImages.getImageSize();
+            for (int j = 0; j < PROJECTION_SIZE; j++) {
+                projections[node * PROJECTION_SIZE + j] = (random.nextInt(imageSize) << 1) | random.nextInt(2);
+            }
+
+            byte[] pixels = trainingImages.getPixels();
+            for (int i = from; i < to; i++) {
+                projectionValues[i - from] = project(node, pixels, trainingImages.getImageOffset(leafIndices[i]));
+            }
+            int[] sortedValues = Arrays.copyOf(projectionValues, to - from);
+            Arrays.sort(sortedValues);
+            int threshold = sortedValues[(to - from) / 2];
+
+            // partition the range around the median, keeping each side in its original order
+            int[] partitioned = new int[to - from];
+            int left = 0;
+            int right = to - from;
+            for (int i = from; i < to; i++) {
+                if (projectionValues[i - from] < threshold) {
+                    partitioned[left++] = leafIndices[i];
+                }
+            }
+            for (int i = to - 1; i >= from; i--) {
+                if (projectionValues[i - from] >= threshold) {
+                    partitioned[--right] = leafIndices[i];
+                }
+            }
+
+            // a split that leaves one side empty, e.g. when many images project to the same value, can't help
+            if (left > 0 && left < to - from) {
+                System.arraycopy(partitioned, 0, leafIndices, from, to - from);
+                thresholds[node] = threshold;
+                leftChildren[node] = buildNode(random, projectionValues, from, from + left);
+                rightChildren[node] = buildNode(random, projectionValues, from + left, to);
+                return node;
+            }
+        }
+        leftChildren[node] = -1;
+        rightChildren[node] = -1;
+        leafStarts[node] = from;
+        leafLengths[node] = to - from;
+        return node;
+    }
+
+    private int newNode() {
+        if (numNodes == leftChildren.length) {
+            int capacity = numNodes * 2;
+            leftChildren = Arrays.copyOf(leftChildren, capacity);
+            rightChildren = Arrays.copyOf(rightChildren, capacity);
+            thresholds = Arrays.copyOf(thresholds, capacity);
+            leafStarts = Arrays.copyOf(leafStarts, capacity);
+            leafLengths = Arrays.copyOf(leafLengths, capacity);
+            projections = Arrays.copyOf(projections, Math.multiplyExact(capacity, PROJECTION_SIZE));
+        }
+        return numNodes++;
+    }
+
+    private int project(int node, byte[] image, int offset) {
+        int sum = 0;
+        for (int j = node * PROJECTION_SIZE; j < (node + 1) * PROJECTION_SIZE; j++) {
+            int value = image[offset + (projections[j] >>> 1)] & 0xFF;
+            sum += (projections[j] & 1) == 0 ? value : -value;
+        }
+        return sum;
+    }
+
+    @Override
+    public void search(byte[] image, int offset, NearestNeighbors neighbors) {
+        SearchScratch scratch = searchScratch.get();
+        if (scratch == null || scratch.visited.length != trainingImages.size()) {
+            scratch = new SearchScratch(trainingImages.size());
+            searchScratch.set(scratch);
+        }
+        int visitMark = scratch.nextVisitMark();
+
+        // visit leaves in order of the largest margin by which the query image fell on the other side of a split
+        LongMinHeap queue = scratch.queue;
+        queue.clear();
+        for (int root : roots) {
+            queue.push(0, root);
+        }
+
+        int imageSize = trainingImages.getImageSize();
+        byte[] trainingPixels = trainingImages.getPixels();
+        int candidates = 0;
+        while (queue.size() > 0 && candidates < searchCandidates) {
+            long entry = queue.pop();
+            int margin = (int) (entry >>> 32);
+            int node = (int) entry;
+
+            while (leftChildren[node] >= 0) {
+                int difference = project(node, image, offset) - thresholds[node];
+                if (difference < 0) {
+                    queue.push(Math.max(margin, -difference), rightChildren[node]);
+                    node = leftChildren[node];
+                } else {
+                    queue.push(Math.max(margin, difference + 1), leftChildren[node]);
+                    node = rightChildren[node];
+                }
+            }
+
+            for (int i = leafStarts[node]; i < leafStarts[node] + leafLengths[node]; i++) {
+                int index = leafIndices[i];
+                if (scratch.visited[index] == visitMark) {
+                    continue;
+                }
+                scratch.visited[index] = visitMark;
+                candidates++;
+
+                int threshold = neighbors.getThreshold();
+                int distance = distanceKernel.distance(
+                        image, offset, trainingPixels, trainingImages.getImageOffset(index), imageSize, threshold);
+                if (distance < threshold) {
+                    neighbors.offer(distance, index, trainingImages.getLabelId(index));
+                }
+            }
+        }
+        Metrics.recordDistances(candidates, (long) candidates * imageSize);
+    }
+
+    @Override
+    public boolean isExact() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "random projection forest (" + numTrees + " trees, leaf size " + leafSize + ", "
+                + searchCandidates + " search candidates, seed " + seed + ")";
+    }
+
+    /**
+     * Per-thread search state, reused between searches
+     */
+    private static class SearchScratch {
+        /** Mark of the search that last compared each training image */
+        final int[] visited;
+        int visitMark = 0;
+        final LongMinHeap queue = new LongMinHeap();
+
+        SearchScratch(int size) {
+            this.visited = new int[size];
+        }
+
+        int nextVisitMark() {
+            if (++visitMark == 0) {
+                Arrays.fill(visited, 0);
+                visitMark = 1;
+            }
+            return visitMark;
+        }
+    }
+
+    /**
+     * Min-heap of nodes keyed by a non-negative margin, packed into longs so that no objects are allocated
+     */
+    private static class LongMinHeap {
+        private long[] entries = new long[64];
+        private int size = 0;
+
+        void clear() {
+            size = 0;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void push(int margin, int node) {
+            if (size == entries.length) {
+                entries = Arrays.copyOf(entries, size * 2);
+            }
+            long entry = ((long) margin << 32) | node;
+            int child = size++;
+            while (child > 0) {
+                int parent = (child - 1) >>> 1;
+                if (entries[parent] <= entry) {
+                    break;
+                }
+                entries[child] = entries[parent];
+                child = parent;
+            }
+            entries[child] = entry;
+        }
+
+        long pop() {
+            long top = entries[0];
+            long last = entries[--size];
+            int parent = 0;
+            while (true) {
+                int child = 2 * parent + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && entries[child + 1] < entries[child]) {
+                    child++;
+                }
+                if (last <= entries[child]) {
+                    break;
+                }
+                entries[parent] = entries[child];
+                parent = child;
+            }
+            entries[parent] = last;
+            return top;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package main.classifier;
+
+import java.util.Random;
+
+/**
+ * Reduces images by projecting them onto random Gaussian directions
+ *
+ * Each weight is drawn from a normal distribution with variance 1/featureSize, so squared Euclidean distances
+ * between features match those between images on average, without looking at the training set.
+ */
+public class RandomProjectionTransform extends LinearFeatureTransform {
+
+    private final long seed;
+
+    /**
+     * @param featureSize number of features each image is reduced to
+     * @param seed seed of the random directions, so the same projection is drawn every time
+     */
+    public RandomProjectionTransform(int featureSize, long seed) {
+        super(featureSize);
+        this.seed = seed;
+    }
+
+    @Override
+    public void fit(PackedTrainingSet trainingImages) {
+        int imageSize = trainingImages.getImageSize();
+        int featureSize = getFeatureSize();
+        checkImageSize(imageSize);
+
+        Random random = new Random(seed);
+        double scale = 1. / Math.sqrt(featureSize);
+        float[] weights = new float[Math.multiplyExact(imageSize, featureSize)];
+        for (int i = 0; i < weights.length; i++) {
+            weights[i] = (float) (random.nextGaussian() * scale);
+        }
+        setProjection(imageSize, weights, new float[featureSize]);
+    }
+
+    @Override
+    public String toString() {
+        return "random projection to " + getFeatureSize() + " features (seed " + seed + ")";
+    }
+}
@@ -0,0 +1,113 @@
+package main.classifier;
+
+import main.metrics.Metrics;
+
+import java.util.Arrays;
+
+/**
+ * Approximate index that compares images by the features a {@link FeatureTransform} reduces them to, rather than by
+ * their pixels
+ *
+ * The transform is fitted to the training images when the index is built, and every training image is transformed
+ * once into a packed float array. Each query image is transformed the same way and compared to every training image
+ * by the squared Euclidean distance between their features, rounded to the nearest integer.
+ *
+ * Features are packed in blocks of {@link #BLOCK_SIZE} training images, feature-major within each block, so a search
+ * accumulates the distances to a whole block one feature at a time, which the feature kernel vectorizes.
+ */
+public class ReducedFeatureIndex implements NeighborIndex {
+
+    /** Number of training images whose distances are accumulated together */
+    private static final int BLOCK_SIZE = 64;
+
+    private final FeatureTransform featureTransform;
+
+    private final FeatureKernel featureKernel = DistanceKernels.getBestFeatureKernel();
+
+    private PackedTrainingSet trainingImages;
+    private int featureSize;
+
+    /** Feature j of training image i at <code>[((i / BLOCK_SIZE) * featureSize + j) * BLOCK_SIZE + i % BLOCK_SIZE]</code> */
+    private float[] features;
+
+    private final ThreadLocal<SearchScratch> searchScratch = new ThreadLocal<>();
+
+    /**
+     * @param featureTransform transform fitted to the training images, and applied to training and query images
+     */
+    public ReducedFeatureIndex(FeatureTransform featureTransform) {
+        this.featureTransform = featureTransform;
+    }
+
+    @Override
+    public void build(PackedTrainingSet trainingImages, DistanceKernel distanceKernel) {
+        featureTransform.fit(trainingImages);
+        this.trainingImages = trainingImages;
+        this.featureSize = featureTransform.getFeatureSize();
+
+        int numBlocks = (trainingImages.size() + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        features = new float[Math.multiplyExact(numBlocks, Math.multiplyExact(featureSize, BLOCK_SIZE))];
+        float[] imageFeatures = new float[featureSize];
+        byte[] pixels = trainingImages.getPixels();
+        for (int i = 0; i < trainingImages.size(); i++) {
+            featureTransform.transform(pixels, trainingImages.getImageOffset(i), imageFeatures, 0);
+            int blockStart = i / BLOCK_SIZE * featureSize * BLOCK_SIZE + i % BLOCK_SIZE;
+            for (int j = 0; j < featureSize; j++) {
+                features[blockStart + j * BLOCK_SIZE] = imageFeatures[j];
+            }
+        }
+    }
+
+    @Override
+    public void search(byte[] image, int offset, NearestNeighbors neighbors) {
+        SearchScratch scratch = searchScratch.get();
+        if (scratch == null || scratch.queryFeatures.length != featureSize) {
+            scratch = new SearchScratch(featureSize);
+            searchScratch.set(scratch);
+        }
+        float[] queryFeatures = scratch.queryFeatures;
+        float[] distances = scratch.distances;
+        featureTransform.transform(image, offset, queryFeatures, 0);
+
+        for (int blockFirst = 0; blockFirst < trainingImages.size(); blockFirst += BLOCK_SIZE) {
+            int blockStart = blockFirst * featureSize;
+            Arrays.fill(distances, 0f);
+            for (int j = 0; j < featureSize; j++) {
+                featureKernel.addSquaredDifferences(
+                        distances, queryFeatures[j], features, blockStart + j * BLOCK_SIZE, BLOCK_SIZE);
+            }
+
+            int blockSize = Math.min(BLOCK_SIZE, trainingImages.size() - blockFirst);
+            for (int t = 0; t < blockSize; t++) {
+                int distance = Math.round(distances[t]);
+                if (distance < neighbors.getThreshold()) {
+                    int index = blockFirst + t;
+                    neighbors.offer(distance, index, trainingImages.getLabelId(index));
+                }
+            }
+        }
+        Metrics.recordDistances(trainingImages.size(), (long) trainingImages.size() * featureSize * Float.BYTES);
+    }
+
+    @Override
+    public boolean isExact() {
+        return false;
+    }
+
+    @Override
+    public String toString() {
+        return "linear scan of " + featureTransform;
+    }
+
+    /**
+     * Per-thread search state, reused between searches
+     */
+    private static class SearchScratch {
+        final float[] queryFeatures;
+        final float[] distances = new float[BLOCK_SIZE];
+
+        SearchScratch(int featureSize) {
+            this.queryFeatures = new float[featureSize];
+        }
+    }
+}
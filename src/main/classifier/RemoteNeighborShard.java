@@ -0,0 +1,196 @@
+package main.classifier;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * A shard of the training images searched by a {@link ShardWorker} in another process on the same machine, over TCP
+ * on the loopback address
+ *
+ * A search sends the query images to the worker and returns straight away, so the shards of an index all search at
+ * once, each in its own process. Connections are opened as needed and reused, one per search in progress, so the
+ * shard can be searched concurrently from several threads.
+ */
+public class RemoteNeighborShard implements NeighborShard {
+
+    private final int port;
+    private final ConcurrentLinkedQueue<Connection> idleConnections = new ConcurrentLinkedQueue<>();
+    private volatile int imageSize = 0;
+
+    /**
+     * @param port port the worker accepts searches on
+     */
+    public RemoteNeighborShard(int port) {
+        if (port <= 0 || port > 0xFFFF) {
+            throw new IllegalArgumentException("invalid shard worker port: " + port);
+        }
+        this.port = port;
+    }
+
+    @Override
+    public void load(PackedTrainingSet images, int[] globalIndices, DistanceKernel distanceKernel)
+            throws IOException {
+        if (globalIndices.length != images.size()) {
+            throw new IllegalArgumentException("shard of " + images.size() + " images given "
+                    + globalIndices.length + " training set indices");
+        }
+        Connection connection = borrowConnection();
+        try {
+            DataOutputStream out = connection.out;
+            out.writeByte(ShardWorker.LOAD);
+            out.writeUTF(distanceKernel.getMetricName());
+            out.writeInt(images.getImageSize());
+            out.writeInt(images.size());
+            out.writeInt(images.getNumLabels());
+            for (int globalIndex : globalIndices) {
+                out.writeInt(globalIndex);
+            }
+            for (int i = 0; i < images.size(); i++) {
+                out.writeShort(images.getLabelId(i));
+            }
+            out.write(images.getPixels(), 0, images.size() * images.getImageSize());
+            out.flush();
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+
+        readStatus(connection);
+        imageSize = images.getImageSize();
+        idleConnections.add(connection);
+    }
+
+    @Override
+    public PendingSearch search(byte[][] images, int[] offsets, int count, int k) throws IOException {
+        int imageSize = this.imageSize;
+        if (imageSize == 0) {
+            throw new IllegalStateException("shard searched before it was loaded");
+        }
+        Connection connection = borrowConnection();
+        try {
+            DataOutputStream out = connection.out;
+            out.writeByte(ShardWorker.SEARCH);
+            out.writeInt(k);
+            out.writeInt(count);
+            for (int q = 0; q < count; q++) {
+                out.write(images[q], offsets[q], imageSize);
+            }
+            out.flush();
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+
+        return new RemoteSearch(connection, count);
+    }
+
+    private Connection borrowConnection() throws IOException {
+        Connection connection = idleConnections.poll();
+        return connection != null ? connection : new Connection(port);
+    }
+
+    /**
+     * Reads the status of the worker's reply, closing the connection if the worker failed
+     *
+     * @throws IOException if the worker failed or can't be read from
+     */
+    private void readStatus(Connection connection) throws IOException {
+        try {
+            byte status = connection.in.readByte();
+            if (status == ShardWorker.STATUS_FAILED) {
+                throw new IOException("shard worker on port " + port + " failed: " + connection.in.readUTF());
+            } else if (status != ShardWorker.STATUS_OK) {
+                throw new IOException("shard worker on port " + port + " replied with unknown status " + status);
+            }
+        } catch (IOException e) {
+            connection.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Closes every idle connection to the worker, leaving the worker running
+     */
+    @Override
+    public void close() {
+        Connection connection;
+        while ((connection = idleConnections.poll()) != null) {
+            connection.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "shard worker on port " + port;
+    }
+
+    private class RemoteSearch implements PendingSearch {
+        private final Connection connection;
+        private final int count;
+        private boolean collected = false;
+
+        RemoteSearch(Connection connection, int count) {
+            this.connection = connection;
+            this.count = count;
+        }
+
+        @Override
+        public PartialNeighbors get() throws IOException {
+            collected = true;
+            readStatus(connection);
+            PartialNeighbors neighbors;
+            try {
+                neighbors = PartialNeighbors.read(connection.in);
+            } catch (IOException | RuntimeException e) {
+                connection.close();
+                throw e;
+            }
+            if (neighbors.getNumQueries() != count) {
+                connection.close();
+                throw new IOException("shard worker on port " + port + " answered " + neighbors.getNumQueries()
+                        + " of " + count + " query images");
+            }
+            idleConnections.add(connection);
+            return neighbors;
+        }
+
+        /**
+         * Closes the connection rather than returning it to the idle connections, as the worker's reply is still
+         * to be read from it
+         */
+        @Override
+        public void cancel() {
+            if (!collected) {
+                collected = true;
+                connection.close();
+            }
+        }
+    }
+
+    private static class Connection {
+        private final Socket socket;
+        private final DataInputStream in;
+        private final DataOutputStream out;
+
+        Connection(int port) throws IOException {
+            socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            socket.setTcpNoDelay(true);
+            in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        }
+
+        void close() {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // already closing
+            }
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package main.classifier;
+
+/**
+ * Sums the absolute differences between quantized pixel codes in a plain Java loop, one packed byte at a time
+ */
+public class ScalarCodeDistanceKernel implements CodeDistanceKernel {
+
+    @Override
+    public int distance(byte[] queryCodes, byte[] packedCodes, int packedOffset, int packedLength, int bits) {
+        return distanceTail(queryCodes, packedCodes, packedOffset, packedLength, bits, 0);
+    }
+
+    /**
+     * Sums the absolute differences of the codes in the packed bytes from <code>from</code> onwards,
+     * e.g. those left over after a vectorized loop
+     *
+     * @see #distance(byte[], byte[], int, int, int)
+     */
+    int distanceTail(byte[] queryCodes, byte[] packedCodes, int packedOffset, int packedLength, int bits, int from) {
+        int codesPerByte = 8 / bits;
+        int mask = (1 << bits) - 1;
+        int sum = 0;
+        for (int i = from; i < packedLength; i++) {
+            int packed = packedCodes[packedOffset + i] & 0xFF;
+            for (int plane = 0; plane < codesPerByte; plane++) {
+                int code = (packed >>> (plane * bits)) & mask;
+                sum += Math.abs(code - queryCodes[plane * packedLength + i]);
+            }
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
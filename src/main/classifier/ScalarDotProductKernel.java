@@ -0,0 +1,34 @@
+package main.classifier;
+
+/**
+ * Multiplies single-color pixel values one byte at a time
+ */
+public class ScalarDotProductKernel implements DotProductKernel {
+
+    @Override
+    public void dotProducts(byte[] queries, int numQueries, byte[] images, int from, int to, int imageSize,
+                            int[] products) {
+        for (int q = 0; q < numQueries; q++) {
+            for (int i = from; i < to; i++) {
+                products[q * (to - from) + i - from]
+                        = dotProduct(queries, q * imageSize, images, i * imageSize, imageSize);
+            }
+        }
+    }
+
+    /**
+     * @return dot product of two images, with each pixel value minus 128
+     */
+    static int dotProduct(byte[] imageA, int offsetA, byte[] imageB, int offsetB, int length) {
+        int sum = 0;
+        for (int j = 0; j < length; j++) {
+            sum += (byte) (imageA[offsetA + j] ^ 0x80) * (byte) (imageB[offsetB + j] ^ 0x80);
+        }
+        return sum;
+    }
+
+    @Override
+    public String toString() {
+        return "scalar dot product";
+    }
+}
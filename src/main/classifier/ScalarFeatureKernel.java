@@ -0,0 +1,27 @@
+package main.classifier;
+
+/**
+ * Feature arithmetic in plain Java loops, one element at a time
+ */
+public class ScalarFeatureKernel implements FeatureKernel {
+
+    @Override
+    public void addScaled(float[] sums, int sumsOffset, float scale, float[] values, int valuesOffset, int length) {
+        for (int j = 0; j < length; j++) {
+            sums[sumsOffset + j] += scale * values[valuesOffset + j];
+        }
+    }
+
+    @Override
+    public void addSquaredDifferences(float[] sums, float value, float[] values, int valuesOffset, int length) {
+        for (int j = 0; j < length; j++) {
+            float difference = value - values[valuesOffset + j];
+            sums[j] += difference * difference;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
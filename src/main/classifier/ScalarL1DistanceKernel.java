@@ -0,0 +1,37 @@
+package main.classifier;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sums the absolute differences between single-color pixel values, one byte at a time
+ */
+public class ScalarL1DistanceKernel implements DistanceKernel {
+
+    @Override
+    public int distance(byte[] imageA, int offsetA, byte[] imageB, int offsetB, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += Math.abs((imageA[offsetA + i] & 0xFF) - (imageB[offsetB + i] & 0xFF));
+        }
+        return sum;
+    }
+
+    @Override
+    public int distance(byte[] imageA, int offsetA, ByteBuffer imageB, int offsetB, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            sum += Math.abs((imageA[offsetA + i] & 0xFF) - (imageB.get(offsetB + i) & 0xFF));
+        }
+        return sum;
+    }
+
+    @Override
+    public String getMetricName() {
+        return "L1";
+    }
+
+    @Override
+    public String toString() {
+        return "scalar L1";
+    }
+}
@@ -0,0 +1,42 @@
+package main.classifier;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Sums the squared differences between single-color pixel values, one byte at a time
+ *
+ * The sum is the squared Euclidean distance, which orders neighbors the same as the Euclidean distance without
+ * taking a square root, and fits in an int for images of up to 33025 bytes.
+ */
+public class ScalarL2DistanceKernel implements DistanceKernel {
+
+    @Override
+    public int distance(byte[] imageA, int offsetA, byte[] imageB, int offsetB, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            int difference = (imageA[offsetA + i] & 0xFF) - (imageB[offsetB + i] & 0xFF);
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    @Override
+    public int distance(byte[] imageA, int offsetA, ByteBuffer imageB, int offsetB, int length) {
+        int sum = 0;
+        for (int i = 0; i < length; i++) {
+            int difference = (imageA[offsetA + i] & 0xFF) - (imageB.get(offsetB + i) & 0xFF);
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    @Override
+    public String getMetricName() {
+        return "L2";
+    }
+
+    @Override
+    public String toString() {
+        return "scalar L2";
+    }
+}
@@ -0,0 +1,142 @@
+package main.classifier;
+
+import main.server.LoopbackServer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serves one shard of the training images over TCP on the loopback address, searched by a
+ * {@link RemoteNeighborShard} in another process
+ *
+ * Every message is a request type byte followed by its fields, all big-endian, and is answered by a status byte,
+ * {@link #STATUS_OK} followed by the reply or {@link #STATUS_FAILED} followed by a UTF error message:
+ * <ul>
+ *     <li>{@link #LOAD}: UTF metric name, int image size, int number of images, int number of labels, the int
+ *     training set index of each image, the short label id of each image, then the packed pixels of every image.
+ *     Replaces the shard's images for every connection, and is answered with no reply.</li>
+ *     <li>{@link #SEARCH}: int k, int number of query images, then the packed pixels of every query image. Answered
+ *     with the {@link PartialNeighbors} found.</li>
+ * </ul>
+ * A connection may send any number of messages, and is answered in the order they were sent. Each connection is
+ * handled by its own thread, so concurrent searches from several connections run in parallel.
+ */
+public class ShardWorker extends LoopbackServer {
+
+    static final byte LOAD = 1;
+    static final byte SEARCH = 2;
+
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_FAILED = 1;
+
+    private final LocalNeighborShard shard = new LocalNeighborShard();
+
+    /**
+     * Starts accepting connections
+     *
+     * @param port port to listen on, or 0 for any free port
+     * @throws IOException if the port can't be bound
+     */
+    public ShardWorker(int port) throws IOException {
+        super("shard worker");
+        start(port);
+    }
+
+    @Override
+    protected void handleConnection(Socket socket) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        while (true) {
+            int type = in.read();
+            if (type < 0) {
+                break;
+            }
+            if (type == LOAD) {
+                handleLoad(in, out);
+            } else if (type == SEARCH) {
+                handleSearch(in, out);
+            } else {
+                throw new IOException("unknown request type " + type);
+            }
+            out.flush();
+        }
+    }
+
+    private void handleLoad(DataInputStream in, DataOutputStream out) throws IOException {
+        String metricName = in.readUTF();
+        int imageSize = in.readInt();
+        int size = in.readInt();
+        int numLabels = in.readInt();
+        if (imageSize <= 0 || size < 0 || numLabels < 0 || (long) imageSize * size > Integer.MAX_VALUE) {
+            throw new IOException("invalid shard of " + size + " images of size " + imageSize + " with "
+                    + numLabels + " labels");
+        }
+        int[] globalIndices = new int[size];
+        for (int i = 0; i < size; i++) {
+            globalIndices[i] = in.readInt();
+        }
+        short[] labelIds = new short[size];
+        for (int i = 0; i < size; i++) {
+            labelIds[i] = in.readShort();
+        }
+        byte[] pixels = new byte[imageSize * size];
+        in.readFully(pixels);
+
+        try {
+            // label names never leave the worker, the coordinator maps label ids back to its own names
+            List<String> labelNames = new ArrayList<>();
+            for (int labelId = 0; labelId < numLabels; labelId++) {
+                labelNames.add(Integer.toString(labelId));
+            }
+            DistanceKernel distanceKernel = DistanceKernels.getBestKernel(metricName);
+            shard.load(new PackedTrainingSet(imageSize, pixels, labelIds, size, labelNames), globalIndices,
+                    distanceKernel);
+        } catch (RuntimeException e) {
+            out.writeByte(STATUS_FAILED);
+            out.writeUTF("couldn't load shard: " + e.getMessage());
+            return;
+        }
+        out.writeByte(STATUS_OK);
+    }
+
+    private void handleSearch(DataInputStream in, DataOutputStream out) throws IOException {
+        int k = in.readInt();
+        int count = in.readInt();
+        // searches the images loaded when the search arrived, even if another connection loads new ones meanwhile
+        LocalNeighborShard.Snapshot snapshot;
+        try {
+            snapshot = shard.getSnapshot();
+        } catch (IllegalStateException e) {
+            throw new IOException("shard searched before it was loaded");
+        }
+        int imageSize = snapshot.getImageSize();
+        if (count < 0 || (long) imageSize * count > Integer.MAX_VALUE) {
+            throw new IOException("invalid search of " + count + " images of size " + imageSize);
+        }
+        byte[] packedImages = new byte[imageSize * count];
+        in.readFully(packedImages);
+
+        PartialNeighbors neighbors;
+        try {
+            byte[][] images = new byte[count][];
+            int[] offsets = new int[count];
+            for (int q = 0; q < count; q++) {
+                images[q] = packedImages;
+                offsets[q] = q * imageSize;
+            }
+            neighbors = snapshot.search(images, offsets, count, k);
+        } catch (RuntimeException e) {
+            out.writeByte(STATUS_FAILED);
+            out.writeUTF("couldn't search shard: " + e.getMessage());
+            return;
+        }
+        out.writeByte(STATUS_OK);
+        neighbors.write(out);
+    }
+}
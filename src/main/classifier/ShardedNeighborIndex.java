@@ -0,0 +1,153 @@
+package main.classifier;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+
+/**
+ * Exact index that splits the training images into shards, finds the closest images in every shard independently,
+ * and merges them
+ *
+ * Images are assigned to shards either by label, label id modulo the number of shards, so each shard holds whole
+ * classes, or round-robin, so the shards are the same size whatever the classes. Each shard keeps its images in
+ * training set order and scans them exactly for the k closest to every query image of a batch. All shards are sent
+ * the batch before any result is collected, so shards in other processes search at the same time, and the k closest
+ * per shard are then merged closest first, taking ties in order of training image index. The merged neighbors are
+ * exactly those of a linear scan over the whole training set, however the images are sharded.
+ *
+ * Shards in this process search one after another on the calling thread, prediction threads searching different
+ * batches keep them all busy. Shards in worker processes, see {@link RemoteNeighborShard}, search in parallel.
+ * Failures reaching a worker are thrown as {@link UncheckedIOException}.
+ */
+public class ShardedNeighborIndex implements NeighborIndex, AutoCloseable {
+
+    private final NeighborShard[] shards;
+    private final boolean byLabel;
+
+    /**
+     * @param shards shards the training images are split between, loaded whenever the index is built
+     * @param byLabel true to assign images to shards by label, false to assign them round-robin
+     */
+    public ShardedNeighborIndex(NeighborShard[] shards, boolean byLabel) {
+        if (shards.length == 0) {
+            throw new IllegalArgumentException("sharded index needs at least one shard");
+        }
+        this.shards = shards.clone();
+        this.byLabel = byLabel;
+    }
+
+    @Override
+    public void build(PackedTrainingSet trainingImages, DistanceKernel distanceKernel) {
+        int size = trainingImages.size();
+        int imageSize = trainingImages.getImageSize();
+        int[] shardSizes = new int[shards.length];
+        for (int i = 0; i < size; i++) {
+            shardSizes[getShard(trainingImages, i)]++;
+        }
+
+        byte[][] shardPixels = new byte[shards.length][];
+        short[][] shardLabelIds = new short[shards.length][];
+        int[][] shardGlobalIndices = new int[shards.length][];
+        for (int s = 0; s < shards.length; s++) {
+            shardPixels[s] = new byte[shardSizes[s] * imageSize];
+            shardLabelIds[s] = new short[shardSizes[s]];
+            shardGlobalIndices[s] = new int[shardSizes[s]];
+        }
+        int[] filled = new int[shards.length];
+        for (int i = 0; i < size; i++) {
+            int s = getShard(trainingImages, i);
+            int j = filled[s]++;
+            trainingImages.copyImageTo(i, shardPixels[s], j * imageSize);
+            shardLabelIds[s][j] = (short) trainingImages.getLabelId(i);
+            shardGlobalIndices[s][j] = i;
+        }
+
+        try {
+            for (int s = 0; s < shards.length; s++) {
+                // shards keep the training set's label ids, so merged neighbors vote with the same ids
+                PackedTrainingSet shardImages = new PackedTrainingSet(imageSize, shardPixels[s], shardLabelIds[s],
+                        shardSizes[s], Arrays.asList(trainingImages.getLabelNames()));
+                shards[s].load(shardImages, shardGlobalIndices[s], distanceKernel);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("couldn't load training images into shards", e);
+        }
+    }
+
+    private int getShard(PackedTrainingSet trainingImages, int index) {
+        return byLabel ? trainingImages.getLabelId(index) % shards.length : index % shards.length;
+    }
+
+    @Override
+    public void search(byte[] image, int offset, NearestNeighbors neighbors) {
+        search(new byte[][] {image}, new int[] {offset}, new NearestNeighbors[] {neighbors}, 1);
+    }
+
+    @Override
+    public void search(byte[][] images, int[] offsets, NearestNeighbors[] neighbors, int count) {
+        if (count == 0) {
+            return;
+        }
+        int k = 0;
+        for (int q = 0; q < count; q++) {
+            k = Math.max(k, neighbors[q].getCapacity());
+        }
+
+        NeighborShard.PendingSearch[] searches = new NeighborShard.PendingSearch[shards.length];
+        int collected = 0;
+        try {
+            for (int s = 0; s < shards.length; s++) {
+                searches[s] = shards[s].search(images, offsets, count, k);
+            }
+            PartialNeighbors[] shardNeighbors = new PartialNeighbors[shards.length];
+            for (; collected < shards.length; collected++) {
+                shardNeighbors[collected] = searches[collected].get();
+            }
+            for (int q = 0; q < count; q++) {
+                PartialNeighbors.merge(shardNeighbors, q, neighbors[q]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("couldn't search training image shards", e);
+        } finally {
+            // if a shard failed, the searches started on the others still hold their connections
+            for (int s = collected; s < shards.length && searches[s] != null; s++) {
+                searches[s].cancel();
+            }
+        }
+    }
+
+    @Override
+    public boolean isExact() {
+        return true;
+    }
+
+    /**
+     * Closes every shard
+     *
+     * @throws IOException if a shard couldn't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (NeighborShard shard : shards) {
+            try {
+                shard.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    @Override
+    public String toString() {
+        boolean local = true;
+        for (NeighborShard shard : shards) {
+            local &= shard instanceof LocalNeighborShard;
+        }
+        return (local ? "" : "remote ") + "linear scan of " + shards.length + " shards "
+                + (byLabel ? "by label" : "round-robin") + ", merged";
+    }
+}
@@ -0,0 +1,134 @@
+package main.classifier;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Sums the absolute differences between quantized pixel codes using the Java Vector API
+ *
+ * Each packed vector is split into one vector of codes per plane by shifting and masking. Differences are summed in
+ * byte lanes for as many vectors as they can't overflow, and only then widened into int lanes. 2-bit and 4-bit codes
+ * are vectorized, other code sizes fall back to the scalar kernel.
+ *
+ * Requires the <code>jdk.incubator.vector</code> module, e.g. <code>--add-modules jdk.incubator.vector</code>.
+ * Use {@link DistanceKernels#getBestCodeKernel()} to fall back to the scalar kernel when it is unavailable.
+ */
+public class VectorCodeDistanceKernel implements CodeDistanceKernel {
+
+    private static final ScalarCodeDistanceKernel SCALAR_KERNEL = new ScalarCodeDistanceKernel();
+
+    private static final VectorSpecies<Byte> BYTE_SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    /** Int species of the same bit size, so each byte vector widens into 4 int vectors */
+    private static final VectorSpecies<Integer> INT_SPECIES
+            = VectorSpecies.of(int.class, BYTE_SPECIES.vectorShape());
+
+    @Override
+    public int distance(byte[] queryCodes, byte[] packedCodes, int packedOffset, int packedLength, int bits) {
+        if (bits == 4) {
+            return distance4(queryCodes, packedCodes, packedOffset, packedLength);
+        } else if (bits == 2) {
+            return distance2(queryCodes, packedCodes, packedOffset, packedLength);
+        }
+        return SCALAR_KERNEL.distance(queryCodes, packedCodes, packedOffset, packedLength, bits);
+    }
+
+    @Override
+    public void distances(byte[] queryCodes, byte[] packedCodes, int packedLength, int bits, int from, int to,
+                          int[] distances) {
+        // a loop per code size, so every shift is by a constant and each loop is compiled on its own
+        // rather than inlined together into one method too large to optimize
+        if (bits == 4) {
+            distances4(queryCodes, packedCodes, packedLength, from, to, distances);
+        } else if (bits == 2) {
+            distances2(queryCodes, packedCodes, packedLength, from, to, distances);
+        } else {
+            SCALAR_KERNEL.distances(queryCodes, packedCodes, packedLength, bits, from, to, distances);
+        }
+    }
+
+    private static void distances4(byte[] queryCodes, byte[] packedCodes, int packedLength, int from, int to,
+                                   int[] distances) {
+        for (int i = from; i < to; i++) {
+            distances[i - from] = distance4(queryCodes, packedCodes, i * packedLength, packedLength);
+        }
+    }
+
+    private static void distances2(byte[] queryCodes, byte[] packedCodes, int packedLength, int from, int to,
+                                   int[] distances) {
+        for (int i = from; i < to; i++) {
+            distances[i - from] = distance2(queryCodes, packedCodes, i * packedLength, packedLength);
+        }
+    }
+
+    private static int distance4(byte[] queryCodes, byte[] packedCodes, int packedOffset, int packedLength) {
+        IntVector sums = IntVector.zero(INT_SPECIES);
+        int upperBound = BYTE_SPECIES.loopBound(packedLength);
+        int i = 0;
+        while (i < upperBound) {
+            // each packed vector adds at most 2 * 15 per lane
+            ByteVector byteSums = ByteVector.zero(BYTE_SPECIES);
+            for (int chunkEnd = Math.min(upperBound, i + 4 * BYTE_SPECIES.length()); i < chunkEnd;
+                 i += BYTE_SPECIES.length()) {
+                ByteVector packed = ByteVector.fromArray(BYTE_SPECIES, packedCodes, packedOffset + i);
+                byteSums = byteSums
+                        .add(codeDistance(packed, 0, 0x0F, queryCodes, i))
+                        .add(codeDistance(packed, 4, 0x0F, queryCodes, packedLength + i));
+            }
+            sums = addWidened(sums, byteSums);
+        }
+        return sums.reduceLanes(VectorOperators.ADD)
+                + SCALAR_KERNEL.distanceTail(queryCodes, packedCodes, packedOffset, packedLength, 4, i);
+    }
+
+    private static int distance2(byte[] queryCodes, byte[] packedCodes, int packedOffset, int packedLength) {
+        IntVector sums = IntVector.zero(INT_SPECIES);
+        int upperBound = BYTE_SPECIES.loopBound(packedLength);
+        int i = 0;
+        while (i < upperBound) {
+            // each packed vector adds at most 4 * 3 per lane
+            ByteVector byteSums = ByteVector.zero(BYTE_SPECIES);
+            for (int chunkEnd = Math.min(upperBound, i + 10 * BYTE_SPECIES.length()); i < chunkEnd;
+                 i += BYTE_SPECIES.length()) {
+                ByteVector packed = ByteVector.fromArray(BYTE_SPECIES, packedCodes, packedOffset + i);
+                byteSums = byteSums
+                        .add(codeDistance(packed, 0, 0x03, queryCodes, i))
+                        .add(codeDistance(packed, 2, 0x03, queryCodes, packedLength + i))
+                        .add(codeDistance(packed, 4, 0x03, queryCodes, 2 * packedLength + i))
+                        .add(codeDistance(packed, 6, 0x03, queryCodes, 3 * packedLength + i));
+            }
+            sums = addWidened(sums, byteSums);
+        }
+        return sums.reduceLanes(VectorOperators.ADD)
+                + SCALAR_KERNEL.distanceTail(queryCodes, packedCodes, packedOffset, packedLength, 2, i);
+    }
+
+    /**
+     * @return absolute differences between the codes in one bit field of the packed vector and the query codes
+     */
+    private static ByteVector codeDistance(ByteVector packed, int shift, int mask, byte[] queryCodes, int queryOffset) {
+        // shift in int lanes, which every vector instruction set supports, then mask off bits shifted in from
+        // the neighboring bytes
+        ByteVector codes = shift == 0
+                ? packed.lanewise(VectorOperators.AND, (byte) mask)
+                : packed.reinterpretAsInts()
+                        .lanewise(VectorOperators.LSHR, shift)
+                        .reinterpretAsBytes()
+                        .lanewise(VectorOperators.AND, (byte) mask);
+        return codes.sub(ByteVector.fromArray(BYTE_SPECIES, queryCodes, queryOffset)).abs();
+    }
+
+    private static IntVector addWidened(IntVector sums, ByteVector byteSums) {
+        for (int part = 0; part < 4; part++) {
+            sums = sums.add(byteSums.convertShape(VectorOperators.B2I, INT_SPECIES, part));
+        }
+        return sums;
+    }
+
+    @Override
+    public String toString() {
+        return "vector (" + BYTE_SPECIES.vectorBitSize() + "-bit)";
+    }
+}
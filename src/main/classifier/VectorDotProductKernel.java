@@ -0,0 +1,134 @@
+package main.classifier;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteOrder;
+
+/**
+ * Multiplies single-color pixel values using the Java Vector API
+ *
+ * Pixel bytes are loaded four to an int lane and each byte is sign-extended in place by shifting, so every loaded
+ * vector widens into 4 int vectors without converting between vector shapes. Pairs of query images are multiplied
+ * with pairs of images together, so each widened vector is used in two products before it is discarded.
+ *
+ * Requires the <code>jdk.incubator.vector</code> module, e.g. <code>--add-modules jdk.incubator.vector</code>.
+ * Use {@link DistanceKernels#getBestDotProductKernel()} to fall back to the scalar kernel when it is unavailable.
+ */
+public class VectorDotProductKernel implements DotProductKernel {
+
+    private static final VectorSpecies<Integer> INT_SPECIES = IntVector.SPECIES_PREFERRED;
+
+    /** Number of pixel bytes loaded per int vector */
+    private static final int BYTES_PER_VECTOR = INT_SPECIES.vectorByteSize();
+
+    /** Flips the sign bit of every byte, turning unsigned pixel values into signed values minus 128 */
+    private static final int SIGN_BITS = 0x80808080;
+
+    @Override
+    public void dotProducts(byte[] queries, int numQueries, byte[] images, int from, int to, int imageSize,
+                            int[] products) {
+        int numImages = to - from;
+        int q = 0;
+        for (; q + 1 < numQueries; q += 2) {
+            int i = from;
+            for (; i + 1 < to; i += 2) {
+                dotProducts2x2(queries, q * imageSize, images, i * imageSize, imageSize,
+                        products, q * numImages + i - from, numImages);
+            }
+            if (i < to) {
+                products[q * numImages + i - from]
+                        = dotProduct(queries, q * imageSize, images, i * imageSize, imageSize);
+                products[(q + 1) * numImages + i - from]
+                        = dotProduct(queries, (q + 1) * imageSize, images, i * imageSize, imageSize);
+            }
+        }
+        if (q < numQueries) {
+            for (int i = from; i < to; i++) {
+                products[q * numImages + i - from]
+                        = dotProduct(queries, q * imageSize, images, i * imageSize, imageSize);
+            }
+        }
+    }
+
+    /**
+     * Stores the dot products of two consecutive query images and two consecutive images
+     *
+     * @param productsOffset index the product of the first query image and first image is stored at
+     * @param productsStride distance between the products of the first and second query image
+     */
+    private static void dotProducts2x2(byte[] queries, int queryOffset, byte[] images, int imageOffset, int length,
+                                       int[] products, int productsOffset, int productsStride) {
+        IntVector sums00 = IntVector.zero(INT_SPECIES);
+        IntVector sums01 = IntVector.zero(INT_SPECIES);
+        IntVector sums10 = IntVector.zero(INT_SPECIES);
+        IntVector sums11 = IntVector.zero(INT_SPECIES);
+        int j = 0;
+        for (int upperBound = length - BYTES_PER_VECTOR; j <= upperBound; j += BYTES_PER_VECTOR) {
+            IntVector query0 = load(queries, queryOffset + j);
+            IntVector query1 = load(queries, queryOffset + length + j);
+            IntVector image0 = load(images, imageOffset + j);
+            IntVector image1 = load(images, imageOffset + length + j);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                IntVector q0 = signExtend(query0, shift);
+                IntVector q1 = signExtend(query1, shift);
+                IntVector i0 = signExtend(image0, shift);
+                IntVector i1 = signExtend(image1, shift);
+                sums00 = sums00.add(q0.mul(i0));
+                sums01 = sums01.add(q0.mul(i1));
+                sums10 = sums10.add(q1.mul(i0));
+                sums11 = sums11.add(q1.mul(i1));
+            }
+        }
+
+        int sum00 = sums00.reduceLanes(VectorOperators.ADD);
+        int sum01 = sums01.reduceLanes(VectorOperators.ADD);
+        int sum10 = sums10.reduceLanes(VectorOperators.ADD);
+        int sum11 = sums11.reduceLanes(VectorOperators.ADD);
+        int tail = length - j;
+        products[productsOffset] = sum00
+                + ScalarDotProductKernel.dotProduct(queries, queryOffset + j, images, imageOffset + j, tail);
+        products[productsOffset + 1] = sum01
+                + ScalarDotProductKernel.dotProduct(queries, queryOffset + j, images, imageOffset + length + j, tail);
+        products[productsOffset + productsStride] = sum10
+                + ScalarDotProductKernel.dotProduct(queries, queryOffset + length + j, images, imageOffset + j, tail);
+        products[productsOffset + productsStride + 1] = sum11 + ScalarDotProductKernel.dotProduct(
+                queries, queryOffset + length + j, images, imageOffset + length + j, tail);
+    }
+
+    private static int dotProduct(byte[] imageA, int offsetA, byte[] imageB, int offsetB, int length) {
+        IntVector sums = IntVector.zero(INT_SPECIES);
+        int j = 0;
+        for (int upperBound = length - BYTES_PER_VECTOR; j <= upperBound; j += BYTES_PER_VECTOR) {
+            IntVector a = load(imageA, offsetA + j);
+            IntVector b = load(imageB, offsetB + j);
+            for (int shift = 24; shift >= 0; shift -= 8) {
+                sums = sums.add(signExtend(a, shift).mul(signExtend(b, shift)));
+            }
+        }
+        return sums.reduceLanes(VectorOperators.ADD)
+                + ScalarDotProductKernel.dotProduct(imageA, offsetA + j, imageB, offsetB + j, length - j);
+    }
+
+    /**
+     * @return vector of the pixel bytes at an offset, four to a lane, with their sign bits flipped
+     */
+    private static IntVector load(byte[] pixels, int offset) {
+        return IntVector.fromByteArray(INT_SPECIES, pixels, offset, ByteOrder.LITTLE_ENDIAN)
+                .lanewise(VectorOperators.XOR, SIGN_BITS);
+    }
+
+    /**
+     * @param shift 24, 16, 8 or 0 to pick the lowest to highest byte of each lane
+     * @return vector of one signed byte of each lane, sign-extended to an int
+     */
+    private static IntVector signExtend(IntVector bytes, int shift) {
+        return bytes.lanewise(VectorOperators.LSHL, shift).lanewise(VectorOperators.ASHR, 24);
+    }
+
+    @Override
+    public String toString() {
+        return "vector dot product (" + INT_SPECIES.vectorBitSize() + "-bit)";
+    }
+}
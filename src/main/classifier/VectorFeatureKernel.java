@@ -0,0 +1,50 @@
+package main.classifier;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Feature arithmetic using the Java Vector API, a whole vector of elements at a time
+ *
+ * Requires the <code>jdk.incubator.vector</code> module, e.g. <code>--add-modules jdk.incubator.vector</code>.
+ * Use {@link DistanceKernels#getBestFeatureKernel()} to fall back to the scalar kernel when it is unavailable.
+ */
+public class VectorFeatureKernel implements FeatureKernel {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    @Override
+    public void addScaled(float[] sums, int sumsOffset, float scale, float[] values, int valuesOffset, int length) {
+        int j = 0;
+        for (int upperBound = SPECIES.loopBound(length); j < upperBound; j += SPECIES.length()) {
+            FloatVector.fromArray(SPECIES, values, valuesOffset + j)
+                    .mul(scale)
+                    .add(FloatVector.fromArray(SPECIES, sums, sumsOffset + j))
+                    .intoArray(sums, sumsOffset + j);
+        }
+        for (; j < length; j++) {
+            sums[sumsOffset + j] += scale * values[valuesOffset + j];
+        }
+    }
+
+    @Override
+    public void addSquaredDifferences(float[] sums, float value, float[] values, int valuesOffset, int length) {
+        FloatVector broadcastValue = FloatVector.broadcast(SPECIES, value);
+        int j = 0;
+        for (int upperBound = SPECIES.loopBound(length); j < upperBound; j += SPECIES.length()) {
+            FloatVector differences = broadcastValue.sub(FloatVector.fromArray(SPECIES, values, valuesOffset + j));
+            differences.mul(differences)
+                    .add(FloatVector.fromArray(SPECIES, sums, j))
+                    .intoArray(sums, j);
+        }
+        for (; j < length; j++) {
+            float difference = value - values[valuesOffset + j];
+            sums[j] += difference * difference;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "vector (" + SPECIES.vectorBitSize() + "-bit)";
+    }
+}
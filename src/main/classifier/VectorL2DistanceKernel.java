@@ -0,0 +1,88 @@
+package main.classifier;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Sums the squared differences between single-color pixel values using the Java Vector API
+ *
+ * Requires the <code>jdk.incubator.vector</code> module, e.g. <code>--add-modules jdk.incubator.vector</code>.
+ * Use {@link DistanceKernels#getBestKernel(String)} to fall back to the scalar kernel when it is unavailable.
+ */
+public class VectorL2DistanceKernel implements DistanceKernel {
+
+    private static final VectorSpecies<Byte> BYTE_SPECIES = ByteVector.SPECIES_PREFERRED;
+
+    /** Int species of the same bit size, so each byte vector widens into 4 int vectors */
+    private static final VectorSpecies<Integer> INT_SPECIES
+            = VectorSpecies.of(int.class, BYTE_SPECIES.vectorShape());
+
+    /** Flips the sign bit so that signed byte comparison orders bytes as unsigned values */
+    private static final byte UNSIGNED_BIAS = (byte) 0x80;
+
+    @Override
+    public int distance(byte[] imageA, int offsetA, byte[] imageB, int offsetB, int length) {
+        IntVector sums = IntVector.zero(INT_SPECIES);
+        int i = 0;
+        for (int upperBound = BYTE_SPECIES.loopBound(length); i < upperBound; i += BYTE_SPECIES.length()) {
+            sums = accumulate(sums, ByteVector.fromArray(BYTE_SPECIES, imageA, offsetA + i),
+                    ByteVector.fromArray(BYTE_SPECIES, imageB, offsetB + i));
+        }
+
+        int sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            int difference = (imageA[offsetA + i] & 0xFF) - (imageB[offsetB + i] & 0xFF);
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    @Override
+    public int distance(byte[] imageA, int offsetA, ByteBuffer imageB, int offsetB, int length) {
+        IntVector sums = IntVector.zero(INT_SPECIES);
+        int i = 0;
+        for (int upperBound = BYTE_SPECIES.loopBound(length); i < upperBound; i += BYTE_SPECIES.length()) {
+            sums = accumulate(sums, ByteVector.fromArray(BYTE_SPECIES, imageA, offsetA + i),
+                    ByteVector.fromByteBuffer(BYTE_SPECIES, imageB, offsetB + i, ByteOrder.nativeOrder()));
+        }
+
+        int sum = sums.reduceLanes(VectorOperators.ADD);
+        for (; i < length; i++) {
+            int difference = (imageA[offsetA + i] & 0xFF) - (imageB.get(offsetB + i) & 0xFF);
+            sum += difference * difference;
+        }
+        return sum;
+    }
+
+    /**
+     * Adds the squared differences between two byte vectors of pixel values to the int lanes of the running sums
+     */
+    private static IntVector accumulate(IntVector sums, ByteVector pixelsA, ByteVector pixelsB) {
+        ByteVector a = pixelsA.lanewise(VectorOperators.XOR, UNSIGNED_BIAS);
+        ByteVector b = pixelsB.lanewise(VectorOperators.XOR, UNSIGNED_BIAS);
+
+        // |a-b| fits in 8 unsigned bits, and is squared once widened to ints
+        ByteVector absoluteDifferences = a.max(b).sub(a.min(b));
+        for (int part = 0; part < 4; part++) {
+            IntVector widened = ((IntVector) absoluteDifferences.convertShape(
+                    VectorOperators.B2I, INT_SPECIES, part)).lanewise(VectorOperators.AND, 0xFF);
+            sums = sums.add(widened.mul(widened));
+        }
+        return sums;
+    }
+
+    @Override
+    public String getMetricName() {
+        return "L2";
+    }
+
+    @Override
+    public String toString() {
+        return "vector L2 (" + BYTE_SPECIES.vectorBitSize() + "-bit)";
+    }
+}
@@ -36,4 +36,165 @@ public class Config {
 
     /** Total number of single-color pixels in image, with each individual RGB color counted separately */
     public static int RGB_FLAT_IMAGE_SIZE = PER_COLOR_FLAT_IMAGE_SIZE * 3;
+
+
+    /** Number of threads used by the k-nearest-neighbor classifier to predict labels */
+    public static int NUM_PREDICTION_THREADS = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Number of images each prediction thread searches for together, comparing each training image to all of them
+     * in turn so that the training set is read from memory once per batch rather than once per image
+     */
+    public static int PREDICTION_QUERY_TILE_SIZE = 64;
+
+    /**
+     * Number of training images compared to every image in a batch before moving on, few enough for them and
+     * the batch to fit in a core's L2 cache together
+     */
+    public static int PREDICTION_TRAINING_TILE_SIZE = 64;
+
+    /**
+     * Distance metric images are compared by, "L1" for the sum of absolute differences between pixel values,
+     * or "L2" for the sum of squared differences
+     */
+    public static String DISTANCE_METRIC = "L1";
+
+    /**
+     * Whether L2 distances of each batch of images are calculated from the images' squared norms and their dot
+     * products with the training images, multiplied as matrices, instead of comparing the images pixel by pixel.
+     * The matrix multiply can't abandon distance calculations early, so the scan is faster when most of them are.
+     */
+    public static boolean L2_MATRIX_MULTIPLY = true;
+
+    /** Arbitrary list of likely good k-values for k-nearest-neighbor, picked from by validation accuracy */
+    public static int[] K_VALUE_CANDIDATES = {1,2,3,4,5,6,7,8,9};
+
+    /**
+     * Number of folds used to cross-validate k-value candidates on the training set.
+     * 0 to tune k-values on a single validation set held out of training instead.
+     */
+    public static int CROSS_VALIDATION_FOLDS = 0;
+
+    /**
+     * Number of closest training images cached per image when tuning and evaluating,
+     * so any k-value up to it can be voted on without searching the training set again
+     */
+    public static int NEIGHBOR_CACHE_SIZE = 32;
+
+    /**
+     * Directory cached neighbors are saved to and reused from between runs, such as <code>"cache/"</code>,
+     * null to only keep them in memory
+     */
+    public static String NEIGHBOR_CACHE_DIRECTORY = null;
+
+    /**
+     * Whether the k-nearest-neighbor classifier searches a random projection forest for likely neighbors
+     * instead of comparing every training image, trading some accuracy for faster prediction.
+     * Ignored when images are reduced to fewer features or scanned as quantized codes.
+     */
+    public static boolean APPROXIMATE_NEAREST_NEIGHBORS = false;
+
+    /** Number of trees in the random projection forest, more for better recall */
+    public static int RANDOM_PROJECTION_TREES = 8;
+
+    /** Maximum number of training images per leaf of a random projection tree */
+    public static int RANDOM_PROJECTION_LEAF_SIZE = 32;
+
+    /** Number of training images compared exactly per search of the random projection forest */
+    public static int RANDOM_PROJECTION_SEARCH_CANDIDATES = 2000;
+
+    /** Seed of the random projections, so the same forest is built every run */
+    public static long RANDOM_PROJECTION_SEED = 1;
+
+    /**
+     * Number of features each image is reduced to before images are compared, so that far fewer values are compared
+     * per training image, trading some accuracy for faster prediction. 0 to compare raw pixels.
+     */
+    public static int REDUCED_FEATURE_SIZE = 0;
+
+    /** Whether images are reduced to principal components of the training set, otherwise by a random projection */
+    public static boolean REDUCED_FEATURES_PCA = true;
+
+    /** Maximum number of training images the principal components are fitted to */
+    public static int PCA_SAMPLE_SIZE = 5000;
+
+    /** Seed of the random projection, or of the directions principal components are fitted from */
+    public static long FEATURE_TRANSFORM_SEED = 1;
+
+    /**
+     * Number of bits each pixel value is quantized to for a first scan of the training images, 1, 2 or 4,
+     * whose closest candidates are then compared exactly. Scans read fewer bytes, trading some accuracy for
+     * faster prediction. 0 to scan full pixel values. Ignored when images are reduced to fewer features.
+     */
+    public static int QUANTIZED_CODE_BITS = 0;
+
+    /** Number of candidates from the quantized scan compared exactly per search */
+    public static int QUANTIZED_RERANK_CANDIDATES = 200;
+
+    /**
+     * Number of shards the training images are split between, each scanned exactly on its own and their closest
+     * images merged. 0 or 1 to scan the training images as one. Ignored when shard worker ports are given.
+     */
+    public static int SHARD_COUNT = 0;
+
+    /** Whether training images are assigned to shards by label, otherwise round-robin */
+    public static boolean SHARD_BY_LABEL = false;
+
+    /**
+     * Loopback ports of shard worker processes started with <code>RunShardWorker</code>, one shard per worker,
+     * empty to keep shards in this process
+     */
+    public static int[] SHARD_WORKER_PORTS = {};
+
+    /** Number of training images per segment of an incremental classifier's store, the unit compaction copies */
+    public static int INCREMENTAL_SEGMENT_SIZE = 1024;
+
+    /**
+     * Fraction of a segment's training images that must have been removed from an incremental classifier
+     * before the segment is compacted to reclaim their slots
+     */
+    public static double INCREMENTAL_COMPACTION_THRESHOLD = 0.25;
+
+    /** Milliseconds between background compactions of an incremental classifier's store, 0 for none */
+    public static long INCREMENTAL_COMPACTION_INTERVAL_MILLIS = 1000;
+
+    /**
+     * Filepath the trained classifier is saved to and loaded from between runs, such as
+     * <code>"cache/model.bin"</code>, null to always train it. <code>RunClassificationServer</code> serves the
+     * classifier saved here.
+     */
+    public static String MODEL_SNAPSHOT_PATH = null;
+
+    /**
+     * Whether timings and counts of the classifier's work are recorded in <code>main.metrics.Metrics</code>.
+     * Nothing is recorded or timed while disabled.
+     */
+    public static boolean METRICS_ENABLED = false;
+
+    /** Seconds between dumps of the recorded metrics while a run is in progress */
+    public static int METRICS_REPORT_INTERVAL_SECONDS = 10;
+
+    /** Filepath of a CSV file the recorded metrics are appended to, null to dump them to the log instead */
+    public static String METRICS_CSV_PATH = null;
+
+    /**
+     * Port of the loopback address the recorded metrics are served on at <code>/metrics</code> in Prometheus text
+     * format, 0 to not serve them
+     */
+    public static int METRICS_PROMETHEUS_PORT = 0;
+
+    /** Port of the loopback address the classification server accepts images on */
+    public static int SERVER_PORT = 7878;
+
+    /** Maximum number of images the classification server classifies together in one batch */
+    public static int SERVER_MAX_BATCH_SIZE = 64;
+
+    /**
+     * Maximum milliseconds the classification server holds an image back for more images to batch it with,
+     * trading a little latency under light load for fewer passes over the training set under heavy load
+     */
+    public static int SERVER_MAX_BATCH_WAIT_MILLIS = 2;
+
+    /** Seconds between logs of the number of images the classification server served and their latencies */
+    public static int SERVER_REPORT_INTERVAL_SECONDS = 10;
 }
@@ -1,5 +1,6 @@
 package main.data;
 
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -7,53 +8,151 @@ import java.util.Arrays;
  */
 public class ClassifierImage {
     /**
-     * Bitmap image array in format [x][y][rgbColor]
+     * Flat bitmap image array in format [x][y][rgbColor], starting at <code>offset</code>.
+     * May be a slice of a larger array shared with other images.
      */
-    private byte[][][] image;
+    private final byte[] pixels;
+    private final int offset;
 
+    private final int width;
+    private final int height;
+    private final int numColors;
+
+    private int cachedHashCode;
+
+    /**
+     * @param image bitmap image array in format [x][y][rgbColor], copied into a flat array
+     */
     public ClassifierImage(byte[][][] image) {
-        this.image = image;
+        this.width = image.length;
+        this.height = image[0].length;
+        this.numColors = image[0][0].length;
+        this.pixels = new byte[width * height * numColors];
+        this.offset = 0;
+
+        int i = 0;
+        for(byte[][] row : image) {
+            for(byte[] pixel : row) {
+                for(byte colorValue : pixel) {
+                    pixels[i] = colorValue;
+                    ++i;
+                }
+            }
+        }
+    }
+
+    /**
+     * Creates an image backed by a slice of a flat array, without copying it
+     *
+     * @param pixels flat bitmap image array in format [x][y][rgbColor]
+     * @param offset offset of the first byte of the image within <code>pixels</code>
+     * @param width
+     * @param height
+     * @param numColors number of color values per pixel
+     */
+    public ClassifierImage(byte[] pixels, int offset, int width, int height, int numColors) {
+        if (offset < 0 || offset + width * height * numColors > pixels.length) {
+            throw new ArrayIndexOutOfBoundsException(
+                    "image of size " + width * height * numColors + " at offset " + offset
+                    + " exceeds array of size " + pixels.length);
+        }
+        this.pixels = pixels;
+        this.offset = offset;
+        this.width = width;
+        this.height = height;
+        this.numColors = numColors;
     }
 
+    /**
+     * @return a copy of the color values of the pixel at (x, y)
+     */
     public byte[] getPixelAt(int x, int y) {
-        return image[x][y];
+        int pixelStart = offset + (x * height + y) * numColors;
+        return Arrays.copyOfRange(pixels, pixelStart, pixelStart + numColors);
     }
 
     public int getWidth() {
-        return image.length;
+        return width;
     }
 
     public int getHeight() {
-        return image[0].length;
+        return height;
     }
 
     private int getTotalSize() {
-        if(image == null) {
-            return 0;
-        }
-        return (image.length)*(image[0].length)*(image[0][0].length);
+        return width * height * numColors;
     }
 
     /**
      * @return the image as a linear array
      */
     public byte[] toFlatImage() {
-        byte[] flattenedImage = new byte[getTotalSize()];
-        int i = 0;
-        for(byte[][] row : image) {
-            for(byte[] pixel : row) {
-                for(byte colorValue : pixel) {
-                    flattenedImage[i] = colorValue;
-                    ++i;
-                }
-            }
-        }
-        return flattenedImage;
+        return Arrays.copyOfRange(pixels, offset, offset + getTotalSize());
+    }
+
+    /**
+     * @return read-only view of the image as a linear array, without copying it
+     */
+    public ByteBuffer getFlatImageView() {
+        return ByteBuffer.wrap(pixels, offset, getTotalSize()).slice().asReadOnlyBuffer();
+    }
+
+    /**
+     * Array backing the image, for reading the flat image in place without copying it.
+     * The image starts at {@link #getFlatImageOffset()} and must not be modified.
+     */
+    public byte[] getFlatImageArray() {
+        return pixels;
+    }
+
+    /**
+     * @return offset of the first byte of the image within {@link #getFlatImageArray()}
+     */
+    public int getFlatImageOffset() {
+        return offset;
+    }
+
+    /**
+     * @return number of bytes in the flat image
+     */
+    public int getFlatImageSize() {
+        return getTotalSize();
     }
 
+    /**
+     * Images are equal if they have the same dimensions and pixel values
+     */
     @Override
     public boolean equals(Object other) {
-        return (other instanceof ClassifierImage)
-                && (Arrays.equals(image, ((ClassifierImage) other).image));
+        if (this == other) {
+            return true;
+        }
+        if (!(other instanceof ClassifierImage)) {
+            return false;
+        }
+        ClassifierImage otherImage = (ClassifierImage) other;
+        if (width != otherImage.width || height != otherImage.height || numColors != otherImage.numColors) {
+            return false;
+        }
+        if (pixels == otherImage.pixels && offset == otherImage.offset) {
+            return true;
+        }
+        return hashCode() == otherImage.hashCode()
+                && Arrays.equals(pixels, offset, offset + getTotalSize(),
+                                 otherImage.pixels, otherImage.offset, otherImage.offset + getTotalSize());
+    }
+
+    @Override
+    public int hashCode() {
+        // pixels are never modified, so the hash is only calculated once
+        int hash = cachedHashCode;
+        if (hash == 0) {
+            hash = 31 * (31 * width + height) + numColors;
+            for (int i = offset; i < offset + getTotalSize(); i++) {
+                hash = 31 * hash + pixels[i];
+            }
+            cachedHashCode = hash;
+        }
+        return hash;
     }
 }
@@ -0,0 +1,40 @@
+package main.gui;
+
+import main.classifier.Evaluation;
+
+import javax.swing.*;
+import java.awt.*;
+
+/**
+ * Swing GUI frame that displays the evaluation report of a classification run
+ */
+class EvaluationReportView {
+
+    private final Evaluation evaluation;
+
+    private JFrame rootFrame;
+
+
+    EvaluationReportView(Evaluation evaluation) {
+        this.evaluation = evaluation;
+        init();
+    }
+
+
+    private void init() {
+        rootFrame = new JFrame("Evaluation report");
+        rootFrame.setResizable(false);
+
+        JTextArea reportArea = new JTextArea(evaluation.toReport());
+        reportArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+        reportArea.setEditable(false);
+        reportArea.setBorder(BorderFactory.createEmptyBorder(10,10,10,10));
+
+        rootFrame.add(reportArea);
+        rootFrame.pack();
+    }
+
+    void show() {
+        rootFrame.setVisible(true);
+    }
+}
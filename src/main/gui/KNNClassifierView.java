@@ -1,9 +1,14 @@
 package main.gui;
 
 import main.Logger;
+import main.cifar10.Cifar10Batch;
 import main.cifar10.Cifar10BinaryReader;
 import main.classifier.Classifiers;
+import main.classifier.Evaluation;
 import main.classifier.KNNClassifier;
+import main.classifier.ModelSnapshot;
+import main.classifier.NeighborCache;
+import main.config.Config;
 import main.data.ClassifierImage;
 import org.apache.commons.collections4.KeyValue;
 
@@ -11,8 +16,9 @@ import javax.swing.*;
 import java.awt.*;
 import java.awt.event.ActionEvent;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.stream.Collectors;
 
 public class KNNClassifierView {
 
@@ -143,50 +149,77 @@ public class KNNClassifierView {
         try {
             startButton.setEnabled(false);
 
-            // train classifier
-            Logger.log("loading training images...");
-            List<KeyValue<String, ClassifierImage>> labeledTrainingImages = Cifar10BinaryReader.loadTrainingData();
-            Logger.log("loaded " + labeledTrainingImages.size() + " training images");
+            int numFolds = (int) numFoldsSpinner.getValue();
+
+            // the classifier of a previous run is replaced, so stop its prediction threads
+            if (knnClassifier != null) {
+                knnClassifier.close();
+                knnClassifier = null;
+            }
+
+            // neighbors cached by an earlier run on the same data and split are reused, whatever the k-value
+            String dataFingerprint = Cifar10BinaryReader.fingerprintTrainingData() + "; holdout 1/" + numFolds;
+            String modelFingerprint = dataFingerprint + (setKValueButton.isSelected()
+                    ? "; k-value set"
+                    : "; k-value tuned by validation from " + Arrays.toString(Config.K_VALUE_CANDIDATES));
+
+            int kValue;
+            ModelSnapshot snapshot = KNNClassifier.loadSnapshotIfCurrent(modelFingerprint);
+            if (snapshot != null) {
+                knnClassifier = snapshot.getClassifier();
+                kValue = setKValueButton.isSelected() ? (int) kValueSpinner.getValue() : snapshot.getKValue();
+            } else {
+                // train classifier
+                Logger.log("loading training images...");
+                List<Cifar10Batch> trainingBatches = Cifar10BinaryReader.mapTrainingData();
+                int numTrainingImages = Cifar10Batch.countImages(trainingBatches);
+                Logger.log("loaded " + numTrainingImages + " training images");
+
+                List<KeyValue<String, ClassifierImage>> labeledValidationImages
+                        = Classifiers.getValidationSet(trainingBatches, numFolds);
+                Logger.log("extracted " + labeledValidationImages.size() + " validation images "
+                        + "(1/" + numFolds + " of training set)");
+
+
+                Logger.log("training k-nearest-neighbor classifier on "
+                        + (numTrainingImages - labeledValidationImages.size()) + " images...");
+                knnClassifier = new KNNClassifier();
+                knnClassifier.trainOutsideValidationSet(trainingBatches, numFolds);
+                Logger.log("trained k-nearest-neighbor classifier");
+
+                // pick k-value - use preselected value if set, otherwise auto-select
+                kValue = selectKValue(labeledValidationImages, dataFingerprint + "; validation");
+                knnClassifier.saveSnapshotIfConfigured(kValue, modelFingerprint);
+            }
+            Logger.log("using " + knnClassifier.getDistanceKernel() + " distance kernel");
 
             Logger.log("loading test images...");
             List<KeyValue<String, ClassifierImage>> labeledTestImages = Cifar10BinaryReader.loadTestData();
             Logger.log("loaded " + labeledTestImages.size() + " test images");
 
 
-            int numFolds = (int) numFoldsSpinner.getValue();
-            List<KeyValue<String, ClassifierImage>> labeledValidationImages
-                    = Classifiers.extractValidationSet(labeledTrainingImages, numFolds);
-            Logger.log("extracted " + labeledValidationImages.size() + " validation images "
-                    + "(1/" + numFolds + " of training set)");
-
-
-            Logger.log("training k-nearest-neighbor classifier on "
-                    + labeledTrainingImages.size() + " images...");
-            knnClassifier = new KNNClassifier();
-            knnClassifier.train(labeledTrainingImages);
-            Logger.log("trained k-nearest-neighbor classifier");
-
-            // pick k-value - use preselected value if set, otherwise auto-select
-            int kValue = selectKValue(labeledValidationImages);
-
-
-            List<ClassifierImage> unlabeledTestImages
-                    = labeledTestImages.stream().map(KeyValue::getValue).collect(Collectors.toList());
-            Logger.log("classifying " + unlabeledTestImages.size()
+            Logger.log("classifying " + labeledTestImages.size()
                     + " test images using " + kValue + "-nearest-neighbor...");
 
-            // predict labels
-            List<KeyValue<String, ClassifierImage>> predictedLabelTestImages
-                    = knnClassifier.predict(unlabeledTestImages, kValue);
+            // predict labels and evaluate them against the known labels
+            List<KeyValue<String, ClassifierImage>> predictedLabelTestImages = new ArrayList<>();
+            NeighborCache testNeighbors = knnClassifier.getNeighborCache(
+                    Classifiers.getImages(labeledTestImages),
+                    Math.max(Config.NEIGHBOR_CACHE_SIZE, kValue),
+                    dataFingerprint + "; test " + Cifar10BinaryReader.fingerprintTestData());
+            Evaluation evaluation = knnClassifier.evaluate(
+                    labeledTestImages, kValue, predictedLabelTestImages, testNeighbors);
 
 
             Logger.log("done");
-            double accuracy = Classifiers.calculateAccuracy(labeledTestImages, predictedLabelTestImages);
-            String accuracyPercentage = String.format("%.2f", accuracy*100);
+            String accuracyPercentage = String.format("%.2f", evaluation.getAccuracy()*100);
             Logger.log(accuracyPercentage + "% classification accuracy");
 
 
-            // show labelled image results window
+            // show evaluation report and labelled image results windows
+            EvaluationReportView reportView = new EvaluationReportView(evaluation);
+            reportView.show();
+
             PredictedResultsView resultsView
                     = new PredictedResultsView(predictedLabelTestImages, labeledTestImages);
             resultsView.show();
@@ -207,15 +240,22 @@ public class KNNClassifierView {
      * Uses set value if that option is selected, otherwise automatically selects a k-value based on
      * accuracy on the validation set.
      * @param labeledValidationImages
+     * @param validationFingerprint identifies the training and validation images, for caching their neighbors
      * @return
      */
-    private int selectKValue(List<KeyValue<String, ClassifierImage>> labeledValidationImages) {
+    private int selectKValue(List<KeyValue<String, ClassifierImage>> labeledValidationImages,
+                             String validationFingerprint) {
         if(setKValueButton.isSelected()) {
             Logger.log("using set k-value");
             return (int) kValueSpinner.getValue();
         } else {
             Logger.log("automatically selecting k-value from highest accuracy candidate...");
-            return KNNClassifier.findMaxAccuracyKValue(labeledValidationImages, knnClassifier);
+            int neighborCacheSize = Math.max(
+                    Config.NEIGHBOR_CACHE_SIZE, Arrays.stream(Config.K_VALUE_CANDIDATES).max().orElse(1));
+            NeighborCache validationNeighbors = knnClassifier.getNeighborCache(
+                    Classifiers.getImages(labeledValidationImages), neighborCacheSize, validationFingerprint);
+            return KNNClassifier.findMaxAccuracyKValue(
+                    labeledValidationImages, knnClassifier, Config.K_VALUE_CANDIDATES, validationNeighbors);
         }
     }
 
@@ -173,8 +173,10 @@ class PredictedResultsView {
                 false,
                 ColorModel.OPAQUE,
                 DataBuffer.TYPE_BYTE);
-        byte[] flatImage = classifierImage.toFlatImage();
-        DataBuffer dataBuffer = new DataBufferByte(flatImage, flatImage.length);
+        DataBuffer dataBuffer = new DataBufferByte(
+                classifierImage.getFlatImageArray(),
+                classifierImage.getFlatImageSize(),
+                classifierImage.getFlatImageOffset());
         int[] bandOffsets = {0, 1, 2};
         WritableRaster raster = Raster.createInterleavedRaster(
                 dataBuffer,
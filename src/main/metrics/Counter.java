@@ -0,0 +1,42 @@
+package main.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Running total that can be added to concurrently from many threads without contention
+ */
+public class Counter {
+
+    private final String name;
+    private final String help;
+    private final LongAdder total = new LongAdder();
+
+    Counter(String name, String help) {
+        this.name = name;
+        this.help = help;
+    }
+
+    /**
+     * Adds to the total if metrics are enabled
+     */
+    public void add(long amount) {
+        if (Metrics.isEnabled()) {
+            total.add(amount);
+        }
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return description of what is counted
+     */
+    public String getHelp() {
+        return help;
+    }
+
+    public long getTotal() {
+        return total.sum();
+    }
+}
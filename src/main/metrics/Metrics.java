@@ -0,0 +1,210 @@
+package main.metrics;
+
+import main.config.Config;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Registry of the counters and timers the classifier records into, and the instrumentation points recorded
+ *
+ * Metrics are only recorded while <code>Config.METRICS_ENABLED</code> is set. Instrumentation is placed at most once
+ * per query image or batch, never inside distance calculations, and while metrics are disabled every recording
+ * method returns after checking the flag, without reading the clock or allocating, so it costs nothing measurable.
+ *
+ * Metric names are lower case words separated by underscores, durations are recorded in nanoseconds.
+ */
+public class Metrics {
+
+    private static final ConcurrentMap<String, Counter> counters = new ConcurrentHashMap<>();
+    private static final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+
+    /** Time to decode each batch file of images */
+    public static final Timer LOAD_BATCH = timer("load_batch", "time to decode a batch file of images");
+
+    /** Time to add each set of training images to a classifier */
+    public static final Timer TRAIN = timer("train", "time to add a set of training images to a classifier");
+
+    /** Time to build a neighbor index over the training images */
+    public static final Timer BUILD_INDEX = timer("build_index", "time to build a neighbor index");
+
+    /**
+     * Time to search for the closest training images to each query image. Query images searched together in
+     * a batch each take an equal share of the batch's time.
+     */
+    public static final Timer QUERY = timer("query", "time to find the nearest neighbors of a query image");
+
+    /** Number of query images searched for */
+    public static final Counter QUERIES = counter("queries", "query images searched for");
+
+    /** Number of times a query image was compared to a training image, in full or abandoned early */
+    public static final Counter DISTANCE_EVALUATIONS = counter("distance_evaluations",
+            "comparisons of a query image to a training image or its reduced features or codes");
+
+    /**
+     * Number of bytes of training images, reduced features or quantized codes offered for comparison to query images.
+     * Each comparison is counted in full, so comparisons abandoned early count bytes that were never read. The bytes
+     * actually compared are reported by <code>EarlyAbandonBenchmark</code>.
+     */
+    public static final Counter BYTES_OFFERED = counter("bytes_offered",
+            "bytes of training data offered for comparison to query images, including bytes of comparisons "
+                    + "abandoned early before reading them");
+
+    private static final ThreadMXBean THREAD_BEAN = ManagementFactory.getThreadMXBean();
+
+    /**
+     * @return true if metrics are being recorded
+     */
+    public static boolean isEnabled() {
+        return Config.METRICS_ENABLED;
+    }
+
+    /**
+     * @return the counter with a name, registered if it doesn't exist yet
+     */
+    public static Counter counter(String name, String help) {
+        return counters.computeIfAbsent(name, n -> new Counter(n, help));
+    }
+
+    /**
+     * @return the timer with a name, registered if it doesn't exist yet
+     */
+    public static Timer timer(String name, String help) {
+        return timers.computeIfAbsent(name, n -> new Timer(n, help, false));
+    }
+
+    /**
+     * @return every registered counter, sorted by name
+     */
+    public static List<Counter> getCounters() {
+        List<Counter> sorted = new ArrayList<>(counters.values());
+        sorted.sort(Comparator.comparing(Counter::getName));
+        return sorted;
+    }
+
+    /**
+     * @return every registered timer, sorted by name
+     */
+    public static List<Timer> getTimers() {
+        List<Timer> sorted = new ArrayList<>(timers.values());
+        sorted.sort(Comparator.comparing(Timer::getName));
+        return sorted;
+    }
+
+    /**
+     * Records the comparisons made by one search of a neighbor index
+     *
+     * @param evaluations number of query and training image pairs compared
+     * @param bytesOffered number of bytes of training data offered for comparison, each comparison counted in full
+     */
+    public static void recordDistances(long evaluations, long bytesOffered) {
+        if (isEnabled()) {
+            DISTANCE_EVALUATIONS.add(evaluations);
+            BYTES_OFFERED.add(bytesOffered);
+        }
+    }
+
+    /**
+     * Starts timing a phase of a run, such as loading or training, to be closed once the phase is over.
+     * Its time, the garbage collections during it and the bytes allocated by every thread during it are recorded in
+     * the timer <code>phase_[name]</code> and the counters <code>phase_[name]_gc_count</code>,
+     * <code>phase_[name]_gc_millis</code> and <code>phase_[name]_allocated_bytes</code>.
+     *
+     * Allocations are those of threads alive when the phase closes, so bytes allocated by threads that ended during
+     * the phase aren't counted.
+     *
+     * @param name name of the phase
+     * @return the phase, or a phase that records nothing if metrics are disabled
+     */
+    public static Phase startPhase(String name) {
+        return isEnabled() ? new Phase(name) : Phase.DISABLED;
+    }
+
+    /**
+     * A phase of a run being timed, see {@link #startPhase(String)}
+     */
+    public static class Phase implements AutoCloseable {
+
+        private static final Phase DISABLED = new Phase();
+
+        private final String name;
+        private final long startNanos;
+        private final long startGcCount;
+        private final long startGcMillis;
+        private final long startAllocatedBytes;
+
+        private Phase() {
+            this.name = null;
+            this.startNanos = 0;
+            this.startGcCount = 0;
+            this.startGcMillis = 0;
+            this.startAllocatedBytes = 0;
+        }
+
+        private Phase(String name) {
+            this.name = name;
+            this.startGcCount = getGcCount();
+            this.startGcMillis = getGcMillis();
+            this.startAllocatedBytes = getAllocatedBytes();
+            this.startNanos = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            if (name == null) {
+                return;
+            }
+            long nanos = System.nanoTime() - startNanos;
+            timer("phase_" + name, "time spent in the " + name + " phase").record(nanos);
+            counter("phase_" + name + "_gc_count", "garbage collections during the " + name + " phase")
+                    .add(getGcCount() - startGcCount);
+            counter("phase_" + name + "_gc_millis", "milliseconds of garbage collection during the " + name
+                    + " phase").add(getGcMillis() - startGcMillis);
+            long allocatedBytes = getAllocatedBytes();
+            if (allocatedBytes >= 0 && startAllocatedBytes >= 0) {
+                counter("phase_" + name + "_allocated_bytes", "bytes allocated during the " + name + " phase")
+                        .add(Math.max(0, allocatedBytes - startAllocatedBytes));
+            }
+        }
+
+        private static long getGcCount() {
+            long count = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+            }
+            return count;
+        }
+
+        private static long getGcMillis() {
+            long millis = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                millis += Math.max(0, gc.getCollectionTime());
+            }
+            return millis;
+        }
+
+        /**
+         * @return bytes allocated so far by every live thread, or -1 if the JVM can't measure them
+         */
+        private static long getAllocatedBytes() {
+            if (!(THREAD_BEAN instanceof com.sun.management.ThreadMXBean)) {
+                return -1;
+            }
+            com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) THREAD_BEAN;
+            if (!threadBean.isThreadAllocatedMemorySupported() || !threadBean.isThreadAllocatedMemoryEnabled()) {
+                return -1;
+            }
+            long total = 0;
+            for (long allocated : threadBean.getThreadAllocatedBytes(threadBean.getAllThreadIds())) {
+                total += Math.max(0, allocated);
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package main.metrics;
+
+import main.Logger;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dumps every metric periodically, either to the log or as rows appended to a CSV file
+ *
+ * Counters are reported with their total and their rate per second since the previous dump, timers with their
+ * count, mean, 50th, 90th and 99th percentile and maximum in milliseconds. CSV files get one row per metric per dump:
+ *
+ * time,metric,type,count,rate_per_second,mean_ms,p50_ms,p90_ms,p99_ms,max_ms
+ */
+public class MetricsReporter implements AutoCloseable {
+
+    private static final String CSV_HEADER
+            = "time,metric,type,count,rate_per_second,mean_ms,p50_ms,p90_ms,p99_ms,max_ms\n";
+
+    private final Path csvPath;
+    private final ScheduledExecutorService scheduler;
+
+    /** Total of each counter at the previous dump, for its rate */
+    private final Map<String, Long> previousTotals = new HashMap<>();
+    private long previousNanos = System.nanoTime();
+
+    /**
+     * Starts dumping metrics
+     *
+     * @param intervalSeconds seconds between dumps
+     * @param csvPath filepath of the CSV file rows are appended to, or null to dump to the log
+     * @throws IOException if the CSV file can't be created
+     */
+    public MetricsReporter(long intervalSeconds, Path csvPath) throws IOException {
+        if (intervalSeconds <= 0) {
+            throw new IllegalArgumentException("invalid metrics report interval: " + intervalSeconds);
+        }
+        this.csvPath = csvPath;
+        if (csvPath != null && (!Files.exists(csvPath) || Files.size(csvPath) == 0)) {
+            if (csvPath.getParent() != null) {
+                Files.createDirectories(csvPath.getParent());
+            }
+            Files.write(csvPath, CSV_HEADER.getBytes(StandardCharsets.UTF_8));
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::reportQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Dumps every metric now
+     *
+     * @throws IOException if the CSV file can't be written
+     */
+    public synchronized void report() throws IOException {
+        long nanos = System.nanoTime();
+        double seconds = Math.max(1e-9, (nanos - previousNanos) / 1e9);
+        previousNanos = nanos;
+        long time = System.currentTimeMillis();
+
+        StringBuilder rows = new StringBuilder();
+        for (Counter counter : Metrics.getCounters()) {
+            long total = counter.getTotal();
+            double rate = (total - previousTotals.getOrDefault(counter.getName(), 0L)) / seconds;
+            previousTotals.put(counter.getName(), total);
+            if (csvPath != null) {
+                rows.append(String.format("%d,%s,counter,%d,%.1f,,,,,%n", time, counter.getName(), total, rate));
+            } else {
+                rows.append(String.format("%-36s %14d  %14.1f/s%n", counter.getName(), total, rate));
+            }
+        }
+        for (Timer timer : Metrics.getTimers()) {
+            if (csvPath != null) {
+                rows.append(String.format("%d,%s,timer,%d,,%.3f,%.3f,%.3f,%.3f,%.3f%n", time, timer.getName(),
+                        timer.getCount(), timer.getMeanNanos() / 1e6, timer.getQuantileNanos(0.5) / 1e6,
+                        timer.getQuantileNanos(0.9) / 1e6, timer.getQuantileNanos(0.99) / 1e6,
+                        timer.getMaxNanos() / 1e6));
+            } else {
+                rows.append(String.format("%-36s %14d  mean %.3f ms, p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, "
+                                + "max %.3f ms%n", timer.getName(), timer.getCount(), timer.getMeanNanos() / 1e6,
+                        timer.getQuantileNanos(0.5) / 1e6, timer.getQuantileNanos(0.9) / 1e6,
+                        timer.getQuantileNanos(0.99) / 1e6, timer.getMaxNanos() / 1e6));
+            }
+        }
+
+        if (csvPath != null) {
+            Files.write(csvPath, rows.toString().getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        } else {
+            Logger.log("Metrics:\n" + rows);
+        }
+    }
+
+    private void reportQuietly() {
+        try {
+            report();
+        } catch (IOException e) {
+            // a failed dump shouldn't stop later ones, which may succeed once e.g. the disk has space again
+            Logger.log("Couldn't write metrics to " + csvPath + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Stops dumping metrics periodically, after one last dump
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        report();
+    }
+}
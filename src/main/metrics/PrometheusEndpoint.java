@@ -0,0 +1,95 @@
+package main.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves every metric in the Prometheus text exposition format at <code>/metrics</code> on the loopback address
+ *
+ * Each metric is prefixed with <code>knn_</code>. Counters are exposed as counters with a <code>_total</code> suffix,
+ * timers as summaries in seconds with their 50th, 90th and 99th percentiles.
+ */
+public class PrometheusEndpoint implements AutoCloseable {
+
+    private static final String PREFIX = "knn_";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99};
+
+    private final HttpServer server;
+
+    /**
+     * Starts serving metrics
+     *
+     * @param port port to listen on, or 0 for any free port
+     * @throws IOException if the port can't be bound
+     */
+    public PrometheusEndpoint(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/metrics", this::handle);
+        server.start();
+    }
+
+    /**
+     * @return port metrics are served on
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] body = format().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /**
+     * @return every metric in the Prometheus text exposition format
+     */
+    public static String format() {
+        StringBuilder text = new StringBuilder();
+        for (Counter counter : Metrics.getCounters()) {
+            String name = PREFIX + counter.getName() + "_total";
+            text.append("# HELP ").append(name).append(' ').append(escapeHelp(counter.getHelp())).append('\n');
+            text.append("# TYPE ").append(name).append(" counter\n");
+            text.append(name).append(' ').append(counter.getTotal()).append('\n');
+        }
+        for (Timer timer : Metrics.getTimers()) {
+            String name = PREFIX + timer.getName() + "_seconds";
+            text.append("# HELP ").append(name).append(' ').append(escapeHelp(timer.getHelp())).append('\n');
+            text.append("# TYPE ").append(name).append(" summary\n");
+            for (double quantile : QUANTILES) {
+                text.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                        .append(timer.getQuantileNanos(quantile) / 1e9).append('\n');
+            }
+            text.append(name).append("_sum ").append(timer.getTotalNanos() / 1e9).append('\n');
+            text.append(name).append("_count ").append(timer.getCount()).append('\n');
+        }
+        return text.toString();
+    }
+
+    private static String escapeHelp(String help) {
+        return help.replace("\\", "\\\\").replace("\n", "\\n");
+    }
+
+    /**
+     * Stops serving metrics
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,185 @@
+package main.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of durations in nanoseconds, recorded concurrently without locks
+ *
+ * Like HdrHistogram, durations are counted in buckets of logarithmically growing width: durations under
+ * <code>2^SUB_BUCKET_BITS</code> nanoseconds get a bucket each, and every doubling above that is split into
+ * <code>2^SUB_BUCKET_BITS</code> equal buckets. Quantiles are therefore accurate to within about 3% of their value at
+ * any scale, and recording a duration is a single atomic increment of its bucket.
+ */
+public class Timer {
+
+    /** Number of bits of precision kept of each duration */
+    private static final int SUB_BUCKET_BITS = 5;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /** Enough buckets for every non-negative long */
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final String name;
+    private final String help;
+
+    /** Whether durations are recorded even while metrics are disabled */
+    private final boolean alwaysRecorded;
+
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+    /**
+     * Creates a timer that isn't registered in {@link Metrics} and records even while metrics are disabled,
+     * for latencies a component reports on its own
+     */
+    public Timer(String name, String help) {
+        this(name, help, true);
+    }
+
+    Timer(String name, String help, boolean alwaysRecorded) {
+        this.name = name;
+        this.help = help;
+        this.alwaysRecorded = alwaysRecorded;
+    }
+
+    /**
+     * Records a duration if metrics are enabled, or the timer is always recorded
+     *
+     * @param nanos duration in nanoseconds, negative durations are recorded as 0
+     */
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    /**
+     * Records the same duration several times if metrics are enabled or the timer is always recorded, e.g. the
+     * share of a batch's duration taken by each item in it
+     *
+     * @param nanos duration in nanoseconds, negative durations are recorded as 0
+     * @param times number of times to record the duration
+     */
+    public void record(long nanos, int times) {
+        if (!isRecording() || times <= 0) {
+            return;
+        }
+        nanos = Math.max(0, nanos);
+        bucketCounts.addAndGet(getBucket(nanos), times);
+        count.add(times);
+        totalNanos.add(nanos * times);
+        maxNanos.accumulate(nanos);
+    }
+
+    /**
+     * @return time from <code>System.nanoTime()</code> for passing to {@link #recordSince(long)}, or 0 if the timer
+     *          isn't being recorded, so disabled timers don't read the clock
+     */
+    public long start() {
+        return isRecording() ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Records the time passed since a call to {@link #start()}
+     */
+    public void recordSince(long startNanos) {
+        if (isRecording() && startNanos != 0) {
+            record(System.nanoTime() - startNanos);
+        }
+    }
+
+    private static int getBucket(long nanos) {
+        if (nanos < SUB_BUCKET_COUNT) {
+            return (int) nanos;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(nanos);
+        int subBucket = (int) (nanos >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKET_COUNT + subBucket;
+    }
+
+    /**
+     * @return smallest duration counted in a bucket
+     */
+    private static long getBucketStart(int bucket) {
+        if (bucket < SUB_BUCKET_COUNT) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKET_COUNT + SUB_BUCKET_BITS - 1;
+        long subBucket = bucket % SUB_BUCKET_COUNT;
+        return (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+    }
+
+    private boolean isRecording() {
+        return alwaysRecorded || Metrics.isEnabled();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return description of what is timed
+     */
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * @return number of durations recorded
+     */
+    public long getCount() {
+        return count.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public long getMaxNanos() {
+        return maxNanos.get();
+    }
+
+    /**
+     * @return mean duration in nanoseconds, or 0 if none were recorded
+     */
+    public double getMeanNanos() {
+        long count = getCount();
+        return count == 0 ? 0 : getTotalNanos() / (double) count;
+    }
+
+    /**
+     * Estimates a quantile of the recorded durations from the middle of the bucket it falls in. Durations recorded
+     * while the quantile is calculated may or may not be included.
+     *
+     * @param quantile quantile between 0 and 1, e.g. 0.99 for the 99th percentile
+     * @return estimated duration in nanoseconds, or 0 if none were recorded
+     */
+    public long getQuantileNanos(double quantile) {
+        if (quantile < 0 || quantile > 1) {
+            throw new IllegalArgumentException("invalid quantile: " + quantile);
+        }
+        long[] counts = new long[BUCKET_COUNT];
+        long total = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            counts[bucket] = bucketCounts.get(bucket);
+            total += counts[bucket];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = Math.max(1, (long) Math.ceil(quantile * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+            seen += counts[bucket];
+            if (seen >= rank) {
+                long start = getBucketStart(bucket);
+                long end = bucket + 1 < BUCKET_COUNT ? getBucketStart(bucket + 1) : Long.MAX_VALUE;
+                return Math.min(start + (end - start) / 2, getMaxNanos());
+            }
+        }
+        return getMaxNanos();
+    }
+}
@@ -0,0 +1,190 @@
+package main.server;
+
+import main.classifier.KNNClassifier;
+import main.data.ClassifierImage;
+import main.metrics.Metrics;
+import main.metrics.Timer;
+import org.apache.commons.collections4.KeyValue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Classifies images submitted concurrently by coalescing them into batches, so that each pass over the training set
+ * serves many images
+ *
+ * A single batching thread takes the oldest waiting image, then collects more until the batch holds
+ * <code>maxBatchSize</code> images or <code>maxBatchWaitNanos</code> have passed since the oldest was submitted, and
+ * predicts the whole batch with the classifier's prediction threads. Images submitted while a batch is being predicted
+ * queue up for the next one, so batches grow with the load, and under heavy load they are full without waiting.
+ */
+public class BatchingClassifier implements AutoCloseable {
+
+    private static final Timer SERVER_REQUEST = Metrics.timer("server_request",
+            "time from an image reaching the classification server to its label being predicted");
+
+    private final KNNClassifier classifier;
+    private final int kValue;
+    private final int maxBatchSize;
+    private final long maxBatchWaitNanos;
+
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<>();
+    private final Thread batchingThread;
+    private volatile boolean closed = false;
+
+    /** Time from submitting each image to its label being predicted, recorded even while metrics are disabled */
+    private final Timer latency = new Timer("batching_classifier_request",
+            "time from submitting an image to its label being predicted");
+    private final AtomicLong numBatches = new AtomicLong();
+
+    /**
+     * Starts the batching thread
+     *
+     * @param classifier trained classifier to predict with
+     * @param kValue number of closest training images voting on each label
+     * @param maxBatchSize maximum number of images predicted together
+     * @param maxBatchWaitNanos maximum time an image is held back for more images to batch it with
+     */
+    public BatchingClassifier(KNNClassifier classifier, int kValue, int maxBatchSize, long maxBatchWaitNanos) {
+        if (kValue <= 0) {
+            throw new IllegalArgumentException("invalid k value: " + kValue);
+        }
+        if (maxBatchSize <= 0 || maxBatchWaitNanos < 0) {
+            throw new IllegalArgumentException("invalid batches of at most " + maxBatchSize + " images held for "
+                    + maxBatchWaitNanos + " ns");
+        }
+        this.classifier = classifier;
+        this.kValue = kValue;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchWaitNanos = maxBatchWaitNanos;
+
+        batchingThread = new Thread(this::runBatches, "classification batching");
+        batchingThread.setDaemon(true);
+        batchingThread.start();
+    }
+
+    /**
+     * Queues an image for the next batch
+     *
+     * @return label predicted for the image, completed by the batching thread, or failed if the image couldn't be
+     *          classified or the classifier was closed before it was
+     */
+    public CompletableFuture<String> classify(ClassifierImage image) {
+        Request request = new Request(image, System.nanoTime());
+        queue.add(request);
+        if (closed) {
+            // the batching thread may already have failed what was queued when it stopped
+            failQueued();
+        }
+        return request.label;
+    }
+
+    /**
+     * @return time from submitting each image to its label being predicted
+     */
+    public Timer getLatency() {
+        return latency;
+    }
+
+    /**
+     * @return number of batches predicted so far
+     */
+    public long getNumBatches() {
+        return numBatches.get();
+    }
+
+    private void runBatches() {
+        List<Request> batch = new ArrayList<>(maxBatchSize);
+        while (!closed) {
+            try {
+                batch.add(queue.take());
+                long deadline = batch.get(0).submitNanos + maxBatchWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    queue.drainTo(batch, maxBatchSize - batch.size());
+                    long waitNanos = deadline - System.nanoTime();
+                    if (batch.size() == maxBatchSize || waitNanos <= 0) {
+                        break;
+                    }
+                    Request request = queue.poll(waitNanos, TimeUnit.NANOSECONDS);
+                    if (request == null) {
+                        break;
+                    }
+                    batch.add(request);
+                }
+            } catch (InterruptedException e) {
+                fail(batch);
+                break;
+            }
+            predict(batch);
+            batch.clear();
+        }
+        failQueued();
+    }
+
+    private void predict(List<Request> batch) {
+        List<ClassifierImage> images = new ArrayList<>(batch.size());
+        for (Request request : batch) {
+            images.add(request.image);
+        }
+        try {
+            List<KeyValue<String, ClassifierImage>> labeledImages = classifier.predict(images, kValue);
+            numBatches.incrementAndGet();
+            long endNanos = System.nanoTime();
+            for (int i = 0; i < batch.size(); i++) {
+                latency.record(endNanos - batch.get(i).submitNanos);
+                SERVER_REQUEST.record(endNanos - batch.get(i).submitNanos);
+                batch.get(i).label.complete(labeledImages.get(i).getKey());
+            }
+        } catch (RuntimeException e) {
+            for (Request request : batch) {
+                request.label.completeExceptionally(e);
+            }
+        }
+    }
+
+    private void failQueued() {
+        List<Request> queued = new ArrayList<>();
+        queue.drainTo(queued);
+        fail(queued);
+    }
+
+    private static void fail(List<Request> requests) {
+        for (Request request : requests) {
+            request.label.completeExceptionally(new IllegalStateException("batching classifier is closed"));
+        }
+    }
+
+    /**
+     * Stops the batching thread once it finishes its current batch, failing every image still queued
+     */
+    @Override
+    public void close() {
+        closed = true;
+        batchingThread.interrupt();
+        try {
+            batchingThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        failQueued();
+    }
+
+    /**
+     * An image waiting to be classified
+     */
+    private static class Request {
+        final ClassifierImage image;
+        final long submitNanos;
+        final CompletableFuture<String> label = new CompletableFuture<>();
+
+        Request(ClassifierImage image, long submitNanos) {
+            this.image = image;
+            this.submitNanos = submitNanos;
+        }
+    }
+}
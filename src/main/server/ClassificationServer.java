@@ -0,0 +1,119 @@
+package main.server;
+
+import main.Logger;
+import main.cifar10.Cifar10Batch;
+import main.config.Config;
+import main.data.ClassifierImage;
+import main.metrics.Timer;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serves a trained classifier over TCP on the loopback address, classifying images sent by any number of concurrent
+ * connections in shared batches
+ *
+ * A client sends raw images in CIFAR-10 binary layout without the label byte, 1024 bytes red pixels, 1024 bytes green
+ * pixels and 1024 bytes blue pixels each, and the server replies to each image in turn with its predicted label name
+ * followed by a newline. A connection may send any number of images, and is answered in the order they were sent.
+ *
+ * Each connection is handled by its own thread, a virtual thread when the JVM supports them, that blocks until its
+ * image is classified, while a {@link BatchingClassifier} coalesces the images of every connection into batches.
+ * The number of images served and the 50th and 99th percentile of their latencies are logged periodically.
+ */
+public class ClassificationServer extends LoopbackServer {
+
+    private final BatchingClassifier batchingClassifier;
+    private final ScheduledExecutorService reporter;
+
+    /**
+     * Starts accepting connections
+     *
+     * @param batchingClassifier classifies the images received, closed along with the server
+     * @param port port to listen on, or 0 for any free port
+     * @param reportIntervalSeconds seconds between logs of the images served and their latencies
+     * @throws IOException if the port can't be bound
+     */
+    public ClassificationServer(BatchingClassifier batchingClassifier, int port, long reportIntervalSeconds)
+            throws IOException {
+        super("classification server");
+        if (reportIntervalSeconds <= 0) {
+            throw new IllegalArgumentException("invalid server report interval: " + reportIntervalSeconds);
+        }
+        this.batchingClassifier = batchingClassifier;
+        start(port);
+
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "classification server reporter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(this::report, reportIntervalSeconds, reportIntervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Logs the number of images served so far and the percentiles of their latencies
+     */
+    public void report() {
+        Timer latency = batchingClassifier.getLatency();
+        long numBatches = batchingClassifier.getNumBatches();
+        Logger.log(String.format("served %d images in %d batches (%.1f per batch), latency p50 %.3f ms, "
+                        + "p99 %.3f ms, max %.3f ms",
+                latency.getCount(), numBatches, numBatches > 0 ? latency.getCount() / (double) numBatches : 0.,
+                latency.getQuantileNanos(0.5) / 1e6, latency.getQuantileNanos(0.99) / 1e6,
+                latency.getMaxNanos() / 1e6));
+    }
+
+    @Override
+    protected void handleConnection(Socket socket) throws IOException {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+            byte[] received = new byte[Config.RGB_FLAT_IMAGE_SIZE];
+            while (true) {
+                try {
+                    in.readFully(received);
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] flatImage = new byte[Config.RGB_FLAT_IMAGE_SIZE];
+                Cifar10Batch.copyFlatImage(ByteBuffer.wrap(received), 0, flatImage, 0);
+                ClassifierImage image
+                        = new ClassifierImage(flatImage, 0, Config.IMAGE_WIDTH, Config.IMAGE_WIDTH, 3);
+
+                String label = batchingClassifier.classify(image).get();
+                out.write((label + "\n").getBytes(StandardCharsets.UTF_8));
+                // only flush once every image already received is answered, so pipelined replies share packets
+                if (in.available() < received.length) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (ExecutionException e) {
+            Logger.log("classification server couldn't classify an image: " + e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Closes the batching classifier once every connection is closed, and logs a final report
+     */
+    @Override
+    protected void afterClose() {
+        batchingClassifier.close();
+        reporter.shutdown();
+        report();
+    }
+}
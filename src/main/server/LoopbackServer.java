@@ -0,0 +1,164 @@
+package main.server;
+
+import main.Logger;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Server accepting TCP connections on the loopback address, each handled by its own thread, a virtual thread when
+ * the JVM supports them
+ *
+ * Subclasses read and answer the messages of a connection in {@link #handleConnection(Socket)}, and call
+ * {@link #start(int)} from their constructor once they are ready to. Closing the server stops accepting connections
+ * and closes every open connection.
+ */
+public abstract class LoopbackServer implements AutoCloseable {
+
+    private final String name;
+    private final ExecutorService connectionExecutor;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private ServerSocket serverSocket;
+    private Thread acceptThread;
+    private volatile boolean closed = false;
+
+    /**
+     * @param name name of the server, for its threads and logs
+     */
+    protected LoopbackServer(String name) {
+        this.name = name;
+        this.connectionExecutor = createConnectionExecutor(name);
+    }
+
+    /**
+     * Binds the port and starts accepting connections, called by subclasses once they can handle them
+     *
+     * @param port port to listen on, or 0 for any free port
+     * @throws IOException if the port can't be bound
+     */
+    protected final void start(int port) throws IOException {
+        serverSocket = new ServerSocket(port, 0, InetAddress.getLoopbackAddress());
+        acceptThread = new Thread(this::acceptConnections, name);
+        acceptThread.start();
+    }
+
+    /**
+     * @return port connections are accepted on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * Waits until the server is closed
+     *
+     * @throws InterruptedException
+     */
+    public void awaitClose() throws InterruptedException {
+        acceptThread.join();
+    }
+
+    /**
+     * @return an executor starting a virtual thread per connection if the JVM supports them, otherwise one starting
+     *          or reusing a platform thread per connection
+     */
+    private static ExecutorService createConnectionExecutor(String name) {
+        try {
+            // virtual threads are loaded reflectively, so the server still compiles and runs on JVMs without them
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return Executors.newCachedThreadPool(runnable -> {
+                Thread thread = new Thread(runnable, name + " connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void acceptConnections() {
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (!closed) {
+                    Logger.log(name + " stopped accepting connections: " + e.getMessage());
+                }
+                break;
+            }
+            connections.add(socket);
+            if (closed) {
+                closeQuietly(socket);
+                break;
+            }
+            connectionExecutor.execute(() -> serveConnection(socket));
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try (socket) {
+            socket.setTcpNoDelay(true);
+            handleConnection(socket);
+        } catch (SocketException | EOFException e) {
+            // closed by the client, or by the server shutting down
+        } catch (IOException e) {
+            Logger.log(name + " connection failed: " + e.getMessage());
+        } finally {
+            connections.remove(socket);
+        }
+    }
+
+    /**
+     * Reads and answers messages from a connection until the client closes it. The socket is closed afterwards.
+     *
+     * @throws IOException if the connection fails, logged unless it was closed by either end
+     */
+    protected abstract void handleConnection(Socket socket) throws IOException;
+
+    /**
+     * Releases the subclass's own resources once the server has stopped accepting connections and closed every
+     * open connection. Does nothing unless overridden.
+     */
+    protected void afterClose() {
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // already closing
+        }
+    }
+
+    /**
+     * Stops accepting connections and closes every open connection
+     *
+     * @throws IOException if the server socket can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } finally {
+            for (Socket socket : connections) {
+                closeQuietly(socket);
+            }
+            connectionExecutor.shutdown();
+            afterClose();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package main.server;
+
+import main.Logger;
+import main.classifier.KNNClassifier;
+import main.classifier.ModelSnapshot;
+import main.config.Config;
+import main.metrics.PrometheusEndpoint;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.TimeUnit;
+
+public class RunClassificationServer {
+
+    /**
+     * Serves the classifier saved at <code>Config.MODEL_SNAPSHOT_PATH</code> by <code>RunClassifier</code> on
+     * <code>Config.SERVER_PORT</code> until the JVM is stopped
+     *
+     * @throws IOException if the classifier can't be loaded or the port can't be bound
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Logger.setToConsoleLogger();
+
+        if (Config.MODEL_SNAPSHOT_PATH == null) {
+            Logger.log("No trained classifier to serve, set Config.MODEL_SNAPSHOT_PATH and run RunClassifier to "
+                    + "train and save one first");
+            return;
+        }
+        if (!Files.exists(Paths.get(Config.MODEL_SNAPSHOT_PATH))) {
+            Logger.log("No trained classifier saved at " + Config.MODEL_SNAPSHOT_PATH
+                    + ", run RunClassifier to train and save one first");
+            return;
+        }
+        ModelSnapshot snapshot = KNNClassifier.loadSnapshot(Paths.get(Config.MODEL_SNAPSHOT_PATH));
+        try (KNNClassifier knnClassifier = snapshot.getClassifier()) {
+            Logger.log("Loaded trained classifier from " + Config.MODEL_SNAPSHOT_PATH + ", using "
+                    + snapshot.getKValue() + " nearest neighbor with " + knnClassifier.getDistanceKernel()
+                    + " distance kernel");
+
+            BatchingClassifier batchingClassifier = new BatchingClassifier(knnClassifier, snapshot.getKValue(),
+                    Config.SERVER_MAX_BATCH_SIZE, TimeUnit.MILLISECONDS.toNanos(Config.SERVER_MAX_BATCH_WAIT_MILLIS));
+            ClassificationServer server = new ClassificationServer(
+                    batchingClassifier, Config.SERVER_PORT, Config.SERVER_REPORT_INTERVAL_SECONDS);
+            PrometheusEndpoint prometheusEndpoint = Config.METRICS_ENABLED && Config.METRICS_PROMETHEUS_PORT > 0
+                    ? new PrometheusEndpoint(Config.METRICS_PROMETHEUS_PORT)
+                    : null;
+            Thread mainThread = Thread.currentThread();
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    if (prometheusEndpoint != null) {
+                        prometheusEndpoint.close();
+                    }
+                    server.close();
+                    // the JVM halts once the hook returns, so wait for main to close the classifier
+                    mainThread.join();
+                } catch (IOException e) {
+                    Logger.log("Couldn't close the classification server: " + e.getMessage());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }));
+
+            Logger.log("Classifying images on port " + server.getPort() + " in batches of up to "
+                    + Config.SERVER_MAX_BATCH_SIZE + " images, held for up to "
+                    + Config.SERVER_MAX_BATCH_WAIT_MILLIS + " ms");
+            if (prometheusEndpoint != null) {
+                Logger.log("Serving metrics at http://localhost:" + prometheusEndpoint.getPort() + "/metrics");
+            }
+            server.awaitClose();
+        }
+    }
+}
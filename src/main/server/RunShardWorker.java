@@ -0,0 +1,36 @@
+package main.server;
+
+import main.Logger;
+import main.classifier.ShardWorker;
+
+import java.io.IOException;
+
+public class RunShardWorker {
+
+    /**
+     * Serves a shard of the training images on a loopback port until the JVM is stopped, for a classifier configured
+     * with the port in <code>Config.SHARD_WORKER_PORTS</code>
+     *
+     * @param args port to listen on
+     * @throws IOException if the port can't be bound
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        Logger.setToConsoleLogger();
+        if (args.length != 1) {
+            Logger.log("Usage: RunShardWorker <port>");
+            return;
+        }
+
+        ShardWorker worker = new ShardWorker(Integer.parseInt(args[0]));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                worker.close();
+            } catch (IOException e) {
+                Logger.log("Couldn't close the shard worker: " + e.getMessage());
+            }
+        }));
+
+        Logger.log("Serving a training image shard on port " + worker.getPort());
+        worker.awaitClose();
+    }
+}
@@ -0,0 +1,85 @@
+package main.cifar10;
+
+import main.config.Config;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes small CIFAR-10 batch files for tests, and points <code>Config</code> at them until restored
+ */
+public final class Cifar10Fixtures {
+
+    public static final int NUM_CLASSES = 10;
+
+    private static final String[] CLASS_NAMES = {
+            "airplane", "automobile", "bird", "cat", "deer", "dog", "frog", "horse", "ship", "truck"};
+
+    private final String classNamesPath = Config.CLASS_NAMES_PATH;
+    private final List<String> trainingImagesPaths = Config.TRAINING_IMAGES_PATHS;
+    private final String testImagesPath = Config.TEST_IMAGES_PATH;
+
+    private Cifar10Fixtures() {
+    }
+
+    /**
+     * Writes training batches, a test batch and a class names file to a directory, and points <code>Config</code>
+     * at them
+     *
+     * @param batchPixels pixels of every image of each batch, in CIFAR-10 binary layout and packed one after another,
+     *                    the last one the test batch
+     * @param random picks the label of every image
+     * @return the configuration to restore once the test is done
+     * @throws IOException
+     */
+    public static Cifar10Fixtures writeAndConfigure(Path directory, List<byte[]> batchPixels, Random random)
+            throws IOException {
+        Cifar10Fixtures previous = new Cifar10Fixtures();
+        Path classNamesPath = directory.resolve("batches.meta.txt");
+        Files.write(classNamesPath, (String.join("\n", CLASS_NAMES) + "\n").getBytes(StandardCharsets.US_ASCII));
+
+        List<String> paths = new ArrayList<>();
+        for (int batch = 0; batch < batchPixels.size(); batch++) {
+            Path path = directory.resolve(batch < batchPixels.size() - 1
+                    ? "data_batch_" + (batch + 1) + ".bin"
+                    : "test_batch.bin");
+            writeBatch(path, batchPixels.get(batch), random);
+            paths.add(path.toString());
+        }
+
+        Config.CLASS_NAMES_PATH = classNamesPath.toString();
+        Config.TRAINING_IMAGES_PATHS = paths.subList(0, paths.size() - 1);
+        Config.TEST_IMAGES_PATH = paths.get(paths.size() - 1);
+        return previous;
+    }
+
+    /**
+     * Writes a batch file of images with random labels
+     *
+     * @param pixels pixels of every image, in CIFAR-10 binary layout and packed one after another
+     */
+    public static void writeBatch(Path path, byte[] pixels, Random random) throws IOException {
+        int numImages = pixels.length / Config.RGB_FLAT_IMAGE_SIZE;
+        byte[] records = new byte[numImages * (1 + Config.RGB_FLAT_IMAGE_SIZE)];
+        for (int i = 0; i < numImages; i++) {
+            int record = i * (1 + Config.RGB_FLAT_IMAGE_SIZE);
+            records[record] = (byte) random.nextInt(NUM_CLASSES);
+            System.arraycopy(pixels, i * Config.RGB_FLAT_IMAGE_SIZE, records, record + 1, Config.RGB_FLAT_IMAGE_SIZE);
+        }
+        Files.write(path, records);
+    }
+
+    /**
+     * Points <code>Config</code> back at the files it named before the fixtures were written
+     */
+    public void restore() {
+        Config.CLASS_NAMES_PATH = classNamesPath;
+        Config.TRAINING_IMAGES_PATHS = trainingImagesPaths;
+        Config.TEST_IMAGES_PATH = testImagesPath;
+    }
+}
@@ -0,0 +1,146 @@
+package main.cifar10;
+
+import main.config.Config;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that streamed records split evenly and exactly, and that a parallel stream reaches every record of every
+ * batch once
+ */
+class Cifar10RecordSpliteratorTest {
+
+    /** Uneven, so splits fall inside batches and on their boundaries */
+    private static final int[] BATCH_SIZES = {37, 50, 1, 41};
+
+    @TempDir
+    Path directory;
+
+    private int totalRecords;
+    private Cifar10Fixtures previousConfig;
+
+    @BeforeEach
+    void writeBatches() throws IOException {
+        List<byte[]> batchPixels = new ArrayList<>();
+        for (int size : BATCH_SIZES) {
+            // every image starts with its index among all the records, so records can be told apart
+            byte[] pixels = new byte[size * Config.RGB_FLAT_IMAGE_SIZE];
+            for (int i = 0; i < size; i++) {
+                ByteBuffer.wrap(pixels).putInt(i * Config.RGB_FLAT_IMAGE_SIZE, totalRecords++);
+            }
+            batchPixels.add(pixels);
+        }
+        // the last batch is written as the test batch
+        batchPixels.add(new byte[Config.RGB_FLAT_IMAGE_SIZE]);
+        previousConfig = Cifar10Fixtures.writeAndConfigure(directory, batchPixels, new Random(1));
+    }
+
+    @AfterEach
+    void restoreConfig() {
+        previousConfig.restore();
+    }
+
+    @Test
+    void splitsKeepExactSizes() throws IOException {
+        Spliterator<Cifar10Record> spliterator
+                = new Cifar10RecordSpliterator(Config.TRAINING_IMAGES_PATHS, Collections.emptyMap());
+        assertEquals(totalRecords, spliterator.estimateSize());
+        List<Integer> recordIndices = new ArrayList<>();
+        assertSplitsExactly(spliterator, recordIndices);
+        assertEquals(IntStream.range(0, totalRecords).boxed().collect(Collectors.toList()), recordIndices);
+    }
+
+    /**
+     * Splits a spliterator down to single records, checking the size of every split, and adds the indices of the
+     * records it reaches to a list in encounter order
+     */
+    private static void assertSplitsExactly(Spliterator<Cifar10Record> spliterator, List<Integer> recordIndices) {
+        assertTrue(spliterator.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED | Spliterator.ORDERED));
+        long size = spliterator.estimateSize();
+        assertEquals(size, spliterator.getExactSizeIfKnown());
+
+        Spliterator<Cifar10Record> prefix = spliterator.trySplit();
+        if (prefix == null) {
+            assertTrue(size <= 1, "spliterator of " + size + " records didn't split");
+            spliterator.forEachRemaining(record -> recordIndices.add(getRecordIndex(record)));
+            assertEquals(0, spliterator.estimateSize());
+            return;
+        }
+        // splits are halves, the prefix no larger than the rest
+        assertEquals(size / 2, prefix.estimateSize());
+        assertEquals(size - size / 2, spliterator.estimateSize());
+        assertSplitsExactly(prefix, recordIndices);
+        assertSplitsExactly(spliterator, recordIndices);
+    }
+
+    @Test
+    void advancesOneRecordAtATime() throws IOException {
+        Spliterator<Cifar10Record> spliterator
+                = new Cifar10RecordSpliterator(Config.TRAINING_IMAGES_PATHS, Collections.emptyMap());
+        List<Integer> recordIndices = new ArrayList<>();
+        while (spliterator.tryAdvance(record -> recordIndices.add(getRecordIndex(record)))) {
+            assertEquals(totalRecords - recordIndices.size(), spliterator.estimateSize());
+        }
+        assertEquals(IntStream.range(0, totalRecords).boxed().collect(Collectors.toList()), recordIndices);
+        assertNull(spliterator.trySplit());
+    }
+
+    @Test
+    void parallelStreamReachesEveryRecordOnce() throws IOException {
+        Map<Integer, AtomicInteger> timesReached = new ConcurrentHashMap<>();
+        Cifar10BinaryReader.streamTrainingData().parallel().forEach(record ->
+                timesReached.computeIfAbsent(getRecordIndex(record), i -> new AtomicInteger()).incrementAndGet());
+
+        Map<Integer, Integer> expected = new HashMap<>();
+        Map<Integer, Integer> actual = new HashMap<>();
+        for (int i = 0; i < totalRecords; i++) {
+            expected.put(i, 1);
+        }
+        timesReached.forEach((i, times) -> actual.put(i, times.get()));
+        assertEquals(expected, actual);
+
+        // and keeps them in order when asked to
+        assertEquals(IntStream.range(0, totalRecords).boxed().collect(Collectors.toList()),
+                Cifar10BinaryReader.streamTrainingData().parallel()
+                        .map(Cifar10RecordSpliteratorTest::getRecordIndex)
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    void streamedRecordsMatchMappedBatches() throws IOException {
+        List<Cifar10Record> records = Cifar10BinaryReader.streamTrainingData().collect(Collectors.toList());
+        int i = 0;
+        for (Cifar10Batch batch : Cifar10BinaryReader.mapTrainingData()) {
+            for (int j = 0; j < batch.size(); j++, i++) {
+                assertEquals(batch.getClassName(j), records.get(i).getClassName());
+                assertEquals(batch.getImageView(j), records.get(i).getImageView());
+            }
+        }
+        assertEquals(totalRecords, i);
+    }
+
+    private static int getRecordIndex(Cifar10Record record) {
+        return record.getImageView().getInt(0);
+    }
+}
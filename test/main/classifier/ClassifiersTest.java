@@ -0,0 +1,71 @@
+package main.classifier;
+
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.apache.commons.collections4.keyvalue.DefaultKeyValue;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that images are assigned to folds evenly, and that fold 0 is exactly the validation set extracted from
+ * the training images
+ */
+class ClassifiersTest {
+
+    static Stream<Arguments> foldings() {
+        List<Arguments> foldings = new ArrayList<>();
+        for (int totalImages : new int[] {1, 10, 128, 1001}) {
+            for (int numFolds : new int[] {1, 2, 3, 7, 50, 2000}) {
+                foldings.add(Arguments.of(totalImages, numFolds));
+            }
+        }
+        return foldings.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("foldings")
+    void foldsAreEvenAndFoldZeroIsValidationSet(int totalImages, int numFolds) {
+        List<KeyValue<String, ClassifierImage>> labeledImages = new ArrayList<>();
+        for (int i = 0; i < totalImages; i++) {
+            labeledImages.add(new DefaultKeyValue<>("image " + i, null));
+        }
+        List<KeyValue<String, ClassifierImage>> trainingImages = new ArrayList<>(labeledImages);
+        List<KeyValue<String, ClassifierImage>> validationImages
+                = Classifiers.extractValidationSet(trainingImages, numFolds);
+
+        int[] foldSizes = new int[numFolds];
+        List<KeyValue<String, ClassifierImage>> foldZero = new ArrayList<>();
+        List<KeyValue<String, ClassifierImage>> otherFolds = new ArrayList<>();
+        for (int i = 0; i < totalImages; i++) {
+            int fold = Classifiers.getFold(i, totalImages, numFolds);
+            assertTrue(fold >= 0 && fold < numFolds, "fold " + fold + " of image " + i);
+            foldSizes[fold]++;
+            (fold == 0 ? foldZero : otherFolds).add(labeledImages.get(i));
+        }
+
+        // extracted last image first, the rest left in order
+        assertEquals(foldZero.size(), validationImages.size());
+        for (int i = 0; i < foldZero.size(); i++) {
+            assertSame(foldZero.get(foldZero.size() - 1 - i), validationImages.get(i), "validation image " + i);
+        }
+        assertEquals(otherFolds, trainingImages);
+
+        // every image in one fold, fold sizes at most one apart and the larger folds first
+        int foldSizeTotal = 0;
+        for (int fold = 0; fold < numFolds; fold++) {
+            int expectedSize = totalImages / numFolds + (fold < totalImages % numFolds ? 1 : 0);
+            assertEquals(expectedSize, foldSizes[fold], "size of fold " + fold);
+            foldSizeTotal += foldSizes[fold];
+        }
+        assertEquals(totalImages, foldSizeTotal);
+    }
+}
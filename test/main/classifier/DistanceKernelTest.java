@@ -0,0 +1,104 @@
+package main.classifier;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the scalar and vector kernels calculate exactly the distances of a naive calculation over unsigned
+ * bytes, from arrays and from buffers, for lengths that leave a tail past the last full vector, and that abandoning
+ * a distance early only ever happens once it reaches the threshold
+ */
+class DistanceKernelTest {
+
+    /** Empty, shorter than a vector, either side of vector and block multiples, and a whole odd-sized image */
+    private static final int[] LENGTHS = {0, 1, 15, 16, 17, 31, 32, 33, 63, 64, 65, 255, 256, 257, 3072, 3075};
+    /** Offsets of the images within their arrays and buffers, so loads aren't aligned */
+    private static final int OFFSET_A = 3;
+    private static final int OFFSET_B = 5;
+
+    static Stream<Arguments> kernels() {
+        List<Arguments> kernels = new ArrayList<>();
+        for (int length : LENGTHS) {
+            kernels.add(Arguments.of("L1", new ScalarL1DistanceKernel(), length));
+            kernels.add(Arguments.of("L1", new VectorL1DistanceKernel(), length));
+            kernels.add(Arguments.of("L2", new ScalarL2DistanceKernel(), length));
+            kernels.add(Arguments.of("L2", new VectorL2DistanceKernel(), length));
+        }
+        return kernels.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("kernels")
+    void distancesMatchNaiveCalculation(String metric, DistanceKernel kernel, int length) {
+        assertEquals(metric, kernel.getMetricName());
+        Random random = new Random(length);
+        byte[] randomA = new byte[OFFSET_A + length];
+        byte[] randomB = new byte[OFFSET_B + length];
+        random.nextBytes(randomA);
+        random.nextBytes(randomB);
+        // pixels of 128 and above are negative as signed bytes, so the widest differences cross the sign boundary
+        byte[] extremeA = new byte[OFFSET_A + length];
+        byte[] extremeB = new byte[OFFSET_B + length];
+        for (int i = 0; i < length; i++) {
+            extremeA[OFFSET_A + i] = (byte) (i % 2 == 0 ? 255 : 0);
+            extremeB[OFFSET_B + i] = (byte) (i % 2 == 0 ? 0 : 128 + i % 128);
+        }
+
+        assertDistanceMatches(metric, kernel, randomA, randomB, length);
+        assertDistanceMatches(metric, kernel, extremeA, extremeB, length);
+        assertDistanceMatches(metric, kernel, extremeB, extremeA, length);
+    }
+
+    @ParameterizedTest
+    @MethodSource("kernels")
+    void abandonsOnlyOnceThresholdIsReached(String metric, DistanceKernel kernel, int length) {
+        Random random = new Random(length);
+        byte[] imageA = new byte[OFFSET_A + length];
+        byte[] imageB = new byte[OFFSET_B + length];
+        random.nextBytes(imageA);
+        random.nextBytes(imageB);
+        ByteBuffer bufferB = ByteBuffer.allocateDirect(imageB.length).put(imageB);
+        int expected = NaiveNeighbors.distance(metric, imageA, OFFSET_A, imageB, OFFSET_B, length);
+
+        // thresholds reached in the first block, either side of the distance, and never reached
+        for (int threshold : new int[] {0, 1, expected / 2, expected - 1, expected, expected + 1, Integer.MAX_VALUE}) {
+            int fromArray = kernel.distance(imageA, OFFSET_A, imageB, OFFSET_B, length, threshold);
+            int fromBuffer = kernel.distance(imageA, OFFSET_A, bufferB, OFFSET_B, length, threshold);
+            for (int distance : new int[] {fromArray, fromBuffer}) {
+                if (expected < threshold) {
+                    assertEquals(expected, distance, "distance below threshold " + threshold);
+                } else {
+                    assertTrue(distance >= threshold && distance <= expected,
+                            "partial distance " + distance + " for threshold " + threshold + " of " + expected);
+                }
+            }
+        }
+    }
+
+    private static void assertDistanceMatches(String metric, DistanceKernel kernel, byte[] imageA, byte[] imageB,
+                                              int length) {
+        int offsetA = imageA.length - length;
+        int offsetB = imageB.length - length;
+        int expected = NaiveNeighbors.distance(metric, imageA, offsetA, imageB, offsetB, length);
+        assertEquals(expected, kernel.distance(imageA, offsetA, imageB, offsetB, length), "from arrays");
+
+        // read in place from heap and direct buffers, as from a memory-mapped snapshot
+        for (ByteBuffer bufferB : new ByteBuffer[] {
+                ByteBuffer.wrap(imageB), ByteBuffer.allocateDirect(imageB.length).put(imageB)}) {
+            bufferB.position(1);
+            assertEquals(expected, kernel.distance(imageA, offsetA, bufferB, offsetB, length),
+                    "from a " + (bufferB.isDirect() ? "direct" : "heap") + " buffer");
+            assertEquals(1, bufferB.position(), "buffer position");
+        }
+    }
+}
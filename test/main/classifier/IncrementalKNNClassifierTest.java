@@ -0,0 +1,238 @@
+package main.classifier;
+
+import main.config.Config;
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.apache.commons.collections4.keyvalue.DefaultKeyValue;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that an incremental classifier predicts the same labels as a classifier trained from scratch on the images
+ * it holds, and as a naive search, however its images were added, evicted, removed and compacted, including while
+ * another thread changes them
+ */
+class IncrementalKNNClassifierTest {
+
+    private static final int K = 5;
+    private static final int NUM_QUERY_IMAGES = 40;
+    private static final int SEGMENT_SIZE = 16;
+    private static final int NUM_CHANGE_ROUNDS = 30;
+
+    private final Random random = new Random(1);
+    private final List<ClassifierImage> queryImages = createImages(NUM_QUERY_IMAGES);
+
+    /** Images the classifier should hold, in the order they were added */
+    private final List<KeyValue<String, ClassifierImage>> liveImages = new ArrayList<>();
+    private final List<Integer> liveIds = new ArrayList<>();
+
+    @ParameterizedTest
+    @ValueSource(strings = {"L1", "L2"})
+    void predictsLikeRebuiltAfterAdding(String metric) throws IOException {
+        try (IncrementalKNNClassifier classifier = createClassifier(metric)) {
+            add(classifier, createLabeledImages(70));
+            assertPredictsLikeRebuilt(classifier, metric);
+
+            // one at a time, as well as in batches spanning segments
+            for (KeyValue<String, ClassifierImage> labeledImage : createLabeledImages(5)) {
+                liveIds.add(classifier.add(labeledImage.getKey(), labeledImage.getValue()));
+                liveImages.add(labeledImage);
+            }
+            add(classifier, createLabeledImages(40));
+            assertPredictsLikeRebuilt(classifier, metric);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"L1", "L2"})
+    void predictsLikeRebuiltAfterEvicting(String metric) throws IOException {
+        try (IncrementalKNNClassifier classifier = createClassifier(metric)) {
+            add(classifier, createLabeledImages(100));
+            for (int round = 0; round < 3; round++) {
+                assertEquals(25, classifier.evictOldest(25));
+                liveImages.subList(0, 25).clear();
+                liveIds.subList(0, 25).clear();
+                assertPredictsLikeRebuilt(classifier, metric);
+
+                add(classifier, createLabeledImages(25));
+                assertPredictsLikeRebuilt(classifier, metric);
+            }
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"L1", "L2"})
+    void predictsLikeRebuiltAfterCompacting(String metric) throws IOException {
+        try (IncrementalKNNClassifier classifier = createClassifier(metric)) {
+            // whole segments, as the segment being appended to isn't compacted until it is full
+            add(classifier, createLabeledImages(8 * SEGMENT_SIZE));
+            for (int removed = 0; removed < 50; removed++) {
+                int i = random.nextInt(liveIds.size());
+                assertTrue(classifier.remove(liveIds.remove(i)));
+                liveImages.remove(i);
+            }
+            // searched around the tombstones first, then with their slots reclaimed
+            assertPredictsLikeRebuilt(classifier, metric);
+            classifier.compact();
+            assertEquals(0, classifier.getTrainingImages().getNumTombstones());
+            assertPredictsLikeRebuilt(classifier, metric);
+
+            add(classifier, createLabeledImages(30));
+            assertPredictsLikeRebuilt(classifier, metric);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"L1", "L2"})
+    void predictsLikeSomePublishedViewWhileChanging(String metric) throws Exception {
+        try (IncrementalKNNClassifier classifier = createClassifier(metric)) {
+            add(classifier, createLabeledImages(60));
+            // images the classifier held after each change, the first before any change
+            List<List<KeyValue<String, ClassifierImage>>> publishedImages = new CopyOnWriteArrayList<>();
+            publishedImages.add(new ArrayList<>(liveImages));
+            List<List<KeyValue<String, ClassifierImage>>> batches = new ArrayList<>();
+            for (int round = 0; round < NUM_CHANGE_ROUNDS; round++) {
+                batches.add(createLabeledImages(1 + random.nextInt(SEGMENT_SIZE)));
+            }
+
+            AtomicInteger numPredictions = new AtomicInteger();
+            ExecutorService writer = Executors.newSingleThreadExecutor();
+            try {
+                Future<?> changes = writer.submit(() -> {
+                    for (List<KeyValue<String, ClassifierImage>> batch : batches) {
+                        add(classifier, batch);
+                        publishedImages.add(new ArrayList<>(liveImages));
+
+                        int evicted = classifier.evictOldest(batch.size() / 2 + 1);
+                        liveImages.subList(0, evicted).clear();
+                        liveIds.subList(0, evicted).clear();
+                        publishedImages.add(new ArrayList<>(liveImages));
+
+                        // leaves the images as they were, moved into new segments
+                        classifier.compact();
+                        publishedImages.add(new ArrayList<>(liveImages));
+
+                        // interleaves the rounds with predictions, however the threads are scheduled
+                        int predicted = numPredictions.get();
+                        while (numPredictions.get() == predicted) {
+                            Thread.yield();
+                        }
+                    }
+                });
+
+                // a change is recorded once it is published, so each prediction reads the view recorded last when it
+                // started, or a view published since, up to the one after the view recorded last when it returned
+                List<int[]> publishedRanges = new ArrayList<>();
+                List<List<String>> predictedLabels = new ArrayList<>();
+                do {
+                    int first = publishedImages.size() - 1;
+                    List<String> labels = getLabels(classifier.predict(queryImages, K));
+                    publishedRanges.add(new int[] {first, publishedImages.size()});
+                    predictedLabels.add(labels);
+                    numPredictions.incrementAndGet();
+                } while (!changes.isDone());
+                changes.get();
+
+                List<List<String>> expected = new ArrayList<>();
+                for (List<KeyValue<String, ClassifierImage>> images : publishedImages) {
+                    expected.add(predictNaively(images, metric));
+                }
+                for (int i = 0; i < predictedLabels.size(); i++) {
+                    int[] range = publishedRanges.get(i);
+                    List<List<String>> candidates
+                            = expected.subList(range[0], Math.min(range[1] + 1, expected.size()));
+                    assertTrue(candidates.contains(predictedLabels.get(i)), "prediction " + i + " between views "
+                            + range[0] + " and " + range[1] + " matches none of them");
+                }
+            } finally {
+                writer.shutdown();
+            }
+        }
+    }
+
+    private static IncrementalKNNClassifier createClassifier(String metric) {
+        // compacted only when the test asks, with any tombstone enough to compact a segment
+        return new IncrementalKNNClassifier(2, DistanceKernels.getBestKernel(metric), SEGMENT_SIZE, 1e-9, 0);
+    }
+
+    private void add(IncrementalKNNClassifier classifier, List<KeyValue<String, ClassifierImage>> labeledImages) {
+        for (int id : classifier.addAll(labeledImages)) {
+            liveIds.add(id);
+        }
+        liveImages.addAll(labeledImages);
+    }
+
+    private void assertPredictsLikeRebuilt(IncrementalKNNClassifier classifier, String metric) throws IOException {
+        assertEquals(liveImages.size(), classifier.size());
+        List<String> expected = predictNaively(liveImages, metric);
+
+        try (KNNClassifier rebuilt
+                     = new KNNClassifier(1, DistanceKernels.getBestKernel(metric), new LinearScanIndex())) {
+            rebuilt.train(liveImages);
+            assertEquals(expected, getLabels(rebuilt.predict(queryImages, K)));
+        }
+        assertEquals(expected, getLabels(classifier.predict(queryImages, K)));
+    }
+
+    /**
+     * @param trainingImages labeled training images in the order they were added
+     * @return labels of the query images found by a naive search of the training images
+     */
+    private List<String> predictNaively(List<KeyValue<String, ClassifierImage>> trainingImages, String metric) {
+        int imageSize = Config.RGB_FLAT_IMAGE_SIZE;
+        byte[] trainingPixels = new byte[trainingImages.size() * imageSize];
+        List<String> trainingLabels = new ArrayList<>();
+        for (int i = 0; i < trainingImages.size(); i++) {
+            ClassifierImage image = trainingImages.get(i).getValue();
+            System.arraycopy(image.getFlatImageArray(), image.getFlatImageOffset(), trainingPixels, i * imageSize,
+                    imageSize);
+            trainingLabels.add(trainingImages.get(i).getKey());
+        }
+        List<String> labels = new ArrayList<>();
+        for (ClassifierImage queryImage : queryImages) {
+            int[] closest = NaiveNeighbors.findClosest(metric, queryImage.getFlatImageArray(),
+                    queryImage.getFlatImageOffset(), trainingPixels, imageSize, K);
+            labels.add(NaiveNeighbors.vote(closest, trainingLabels));
+        }
+        return labels;
+    }
+
+    private static List<String> getLabels(List<KeyValue<String, ClassifierImage>> labeledImages) {
+        List<String> labels = new ArrayList<>();
+        for (KeyValue<String, ClassifierImage> labeledImage : labeledImages) {
+            labels.add(labeledImage.getKey());
+        }
+        return labels;
+    }
+
+    private List<KeyValue<String, ClassifierImage>> createLabeledImages(int count) {
+        List<KeyValue<String, ClassifierImage>> labeledImages = new ArrayList<>();
+        for (ClassifierImage image : createImages(count)) {
+            labeledImages.add(new DefaultKeyValue<>("label " + random.nextInt(4), image));
+        }
+        return labeledImages;
+    }
+
+    private List<ClassifierImage> createImages(int count) {
+        byte[] pixels = NaiveNeighbors.createTieHeavyImages(random, count, Config.RGB_FLAT_IMAGE_SIZE);
+        List<ClassifierImage> images = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            images.add(new ClassifierImage(
+                    pixels, i * Config.RGB_FLAT_IMAGE_SIZE, Config.IMAGE_WIDTH, Config.IMAGE_WIDTH, 3));
+        }
+        return images;
+    }
+}
@@ -0,0 +1,308 @@
+package main.classifier;
+
+import main.cifar10.Cifar10Batch;
+import main.cifar10.Cifar10BinaryReader;
+import main.cifar10.Cifar10Fixtures;
+import main.config.Config;
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that a classifier predicts the same labels as a naive search however it is trained, whether from images
+ * loaded as a list, straight from memory-mapped batch files or from streamed records, and however many threads it
+ * predicts with and however many images it searches for together. Cross-validation is checked against a naive
+ * search over each fold.
+ */
+class KNNClassifierTest {
+
+    private static final int K = 5;
+    /** Uneven, so validation images fall on either side of the batch boundaries */
+    private static final int[] TRAINING_BATCH_SIZES = {37, 50, 41};
+    private static final int NUM_TEST_IMAGES = 30;
+
+    @TempDir
+    Path directory;
+
+    private final Random random = new Random(1);
+    private Cifar10Fixtures previousConfig;
+
+    @BeforeEach
+    void writeBatches() throws IOException {
+        List<byte[]> batchPixels = new ArrayList<>();
+        for (int size : TRAINING_BATCH_SIZES) {
+            batchPixels.add(NaiveNeighbors.createTieHeavyImages(random, size, Config.RGB_FLAT_IMAGE_SIZE));
+        }
+        batchPixels.add(NaiveNeighbors.createTieHeavyImages(random, NUM_TEST_IMAGES, Config.RGB_FLAT_IMAGE_SIZE));
+        previousConfig = Cifar10Fixtures.writeAndConfigure(directory, batchPixels, random);
+    }
+
+    @AfterEach
+    void restoreConfig() {
+        previousConfig.restore();
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"L1", "L2"})
+    void mappedAndStreamedTrainingPredictLikeListTraining(String metric) throws IOException {
+        List<KeyValue<String, ClassifierImage>> labeledTrainingImages = Cifar10BinaryReader.loadTrainingData();
+        List<ClassifierImage> testImages = Classifiers.getImages(Cifar10BinaryReader.loadTestData());
+
+        try (KNNClassifier listClassifier = createClassifier(metric);
+             KNNClassifier mappedClassifier = createClassifier(metric);
+             KNNClassifier streamedClassifier = createClassifier(metric)) {
+            listClassifier.train(labeledTrainingImages);
+            for (Cifar10Batch trainingBatch : Cifar10BinaryReader.mapTrainingData()) {
+                mappedClassifier.train(trainingBatch);
+            }
+            streamedClassifier.train(Cifar10BinaryReader.streamTrainingData());
+            assertEquals(labeledTrainingImages.size(), streamedClassifier.size());
+
+            List<String> expected = predictNaively(metric, labeledTrainingImages, testImages);
+            assertEquals(expected, getLabels(listClassifier.predict(testImages, K)));
+            assertEquals(expected, getLabels(mappedClassifier.predict(testImages, K)));
+            assertEquals(expected, getLabels(streamedClassifier.predict(testImages, K)));
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, 7, 50, 1000})
+    void mappedHoldoutMatchesListHoldout(int numFolds) throws IOException {
+        List<KeyValue<String, ClassifierImage>> labeledTrainingImages = Cifar10BinaryReader.loadTrainingData();
+        List<KeyValue<String, ClassifierImage>> labeledValidationImages
+                = Classifiers.extractValidationSet(labeledTrainingImages, numFolds);
+        List<Cifar10Batch> trainingBatches = Cifar10BinaryReader.mapTrainingData();
+        List<KeyValue<String, ClassifierImage>> mappedValidationImages
+                = Classifiers.getValidationSet(trainingBatches, numFolds);
+
+        assertEquals(getLabels(labeledValidationImages), getLabels(mappedValidationImages));
+        for (int i = 0; i < labeledValidationImages.size(); i++) {
+            assertArrayEquals(labeledValidationImages.get(i).getValue().toFlatImage(),
+                    mappedValidationImages.get(i).getValue().toFlatImage(), "validation image " + i);
+        }
+
+        try (KNNClassifier listClassifier = createClassifier("L1");
+             KNNClassifier mappedClassifier = createClassifier("L1")) {
+            listClassifier.train(labeledTrainingImages);
+            mappedClassifier.trainOutsideValidationSet(trainingBatches, numFolds);
+
+            List<ClassifierImage> validationImages = Classifiers.getImages(labeledValidationImages);
+            List<String> expected = predictNaively("L1", labeledTrainingImages, validationImages);
+            assertEquals(expected, getLabels(listClassifier.predict(validationImages, K)));
+            assertEquals(expected, getLabels(mappedClassifier.predict(validationImages, K)));
+        }
+    }
+
+    static Stream<Arguments> parallelisms() {
+        List<Arguments> parallelisms = new ArrayList<>();
+        for (String metric : new String[] {"L1", "L2"}) {
+            for (int numThreads : new int[] {2, 3, 4, 8}) {
+                parallelisms.add(Arguments.of(metric, numThreads));
+            }
+        }
+        return parallelisms.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("parallelisms")
+    void parallelPredictionMatchesSerial(String metric, int numThreads) throws IOException {
+        List<KeyValue<String, ClassifierImage>> labeledTrainingImages = Cifar10BinaryReader.loadTrainingData();
+        List<KeyValue<String, ClassifierImage>> labeledTestImages = Cifar10BinaryReader.loadTestData();
+        List<ClassifierImage> testImages = Classifiers.getImages(labeledTestImages);
+        // fewer images than threads, so the training set is split between threads instead of the images
+        List<ClassifierImage> fewTestImages = testImages.subList(0, numThreads - 1);
+
+        try (KNNClassifier serialClassifier = createClassifier(metric);
+             KNNClassifier parallelClassifier = new KNNClassifier(
+                     numThreads, DistanceKernels.getBestKernel(metric), new LinearScanIndex())) {
+            serialClassifier.train(labeledTrainingImages);
+            parallelClassifier.train(labeledTrainingImages);
+
+            List<String> expected = predictNaively(metric, labeledTrainingImages, testImages);
+            assertEquals(expected, getLabels(serialClassifier.predict(testImages, K)));
+            assertEquals(expected, getLabels(parallelClassifier.predict(testImages, K)));
+            assertEquals(expected.subList(0, fewTestImages.size()),
+                    getLabels(parallelClassifier.predict(fewTestImages, K)));
+
+            List<KeyValue<String, ClassifierImage>> serialPredictions = new ArrayList<>();
+            List<KeyValue<String, ClassifierImage>> parallelPredictions = new ArrayList<>();
+            Evaluation serialEvaluation = serialClassifier.evaluate(labeledTestImages, K, serialPredictions);
+            Evaluation parallelEvaluation = parallelClassifier.evaluate(labeledTestImages, K, parallelPredictions);
+            assertEquals(expected, getLabels(serialPredictions));
+            assertEquals(expected, getLabels(parallelPredictions));
+            assertEquals(serialEvaluation.getTotalImages(), parallelEvaluation.getTotalImages());
+            assertArrayEquals(serialEvaluation.getConfusionMatrix(), parallelEvaluation.getConfusionMatrix());
+            for (int k = 1; k <= Cifar10Fixtures.NUM_CLASSES; k++) {
+                assertEquals(serialEvaluation.getTopKAccuracy(k), parallelEvaluation.getTopKAccuracy(k),
+                        "top-" + k + " accuracy");
+            }
+        }
+    }
+
+    static Stream<Arguments> tilings() {
+        List<Arguments> tilings = new ArrayList<>();
+        for (int numThreads : new int[] {1, 3}) {
+            // one image per batch, batches that don't divide the test set, and one batch for every image
+            for (int queryTileSize : new int[] {1, 7, NUM_TEST_IMAGES + 1}) {
+                // tiles that don't divide the training set, and one tile for the whole set
+                for (int trainingTileSize : new int[] {3, 1000}) {
+                    tilings.add(Arguments.of(numThreads, queryTileSize, trainingTileSize));
+                }
+            }
+        }
+        return tilings.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("tilings")
+    void tiledPredictionMatchesSerial(int numThreads, int queryTileSize, int trainingTileSize) throws IOException {
+        List<KeyValue<String, ClassifierImage>> labeledTrainingImages = Cifar10BinaryReader.loadTrainingData();
+        List<ClassifierImage> testImages = Classifiers.getImages(Cifar10BinaryReader.loadTestData());
+
+        int previousQueryTileSize = Config.PREDICTION_QUERY_TILE_SIZE;
+        Config.PREDICTION_QUERY_TILE_SIZE = queryTileSize;
+        try (KNNClassifier serialClassifier = createClassifier("L1");
+             KNNClassifier tiledClassifier = new KNNClassifier(
+                     numThreads, DistanceKernels.getBestKernel("L1"), new LinearScanIndex(trainingTileSize))) {
+            serialClassifier.train(labeledTrainingImages);
+            tiledClassifier.train(labeledTrainingImages);
+
+            List<String> expected = predictNaively("L1", labeledTrainingImages, testImages);
+            assertEquals(expected, getLabels(tiledClassifier.predict(testImages, K)));
+            // one image at a time searches without batching
+            List<String> serialLabels = new ArrayList<>();
+            for (ClassifierImage testImage : testImages) {
+                serialLabels.addAll(getLabels(serialClassifier.predict(List.of(testImage), K)));
+            }
+            assertEquals(expected, serialLabels);
+        } finally {
+            Config.PREDICTION_QUERY_TILE_SIZE = previousQueryTileSize;
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, 5, 64, 128})
+    void crossValidationMatchesNaiveFolds(int numFolds) throws IOException {
+        List<KeyValue<String, ClassifierImage>> labeledTrainingImages = Cifar10BinaryReader.loadTrainingData();
+        int[] kValueCandidates = {1, 3, K};
+        double[][] expected = crossValidateNaively(labeledTrainingImages, numFolds, kValueCandidates);
+
+        try (KNNClassifier serialClassifier = createClassifier("L1");
+             KNNClassifier parallelClassifier = new KNNClassifier(
+                     3, DistanceKernels.getBestKernel("L1"), new LinearScanIndex())) {
+            serialClassifier.train(labeledTrainingImages);
+            parallelClassifier.train(labeledTrainingImages);
+            // cached neighbors too few to hold k outside every fold, so some images are searched for again
+            NeighborCache trainingNeighbors = serialClassifier.getTrainingNeighborCache(K + 1, "test");
+            for (CrossValidationResult result : new CrossValidationResult[] {
+                    serialClassifier.crossValidate(numFolds, kValueCandidates),
+                    parallelClassifier.crossValidate(numFolds, kValueCandidates),
+                    serialClassifier.crossValidate(numFolds, kValueCandidates, trainingNeighbors)}) {
+                assertEquals(numFolds, result.getNumFolds());
+                for (int fold = 0; fold < numFolds; fold++) {
+                    for (int i = 0; i < kValueCandidates.length; i++) {
+                        assertEquals(expected[fold][i], result.getAccuracy(fold, i),
+                                "accuracy of k=" + kValueCandidates[i] + " on fold " + fold);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return accuracy of each k-value on each fold, each image voted for by its closest training images outside
+     *          its fold, found by a naive search
+     */
+    private static double[][] crossValidateNaively(List<KeyValue<String, ClassifierImage>> labeledTrainingImages,
+                                                   int numFolds, int[] kValueCandidates) {
+        int totalImages = labeledTrainingImages.size();
+        List<String> labels = getLabels(labeledTrainingImages);
+        int[][] foldSuccesses = new int[numFolds][kValueCandidates.length];
+        int[] foldSizes = new int[numFolds];
+        for (int i = 0; i < totalImages; i++) {
+            int fold = Classifiers.getFold(i, totalImages, numFolds);
+            foldSizes[fold]++;
+            ClassifierImage image = labeledTrainingImages.get(i).getValue();
+            List<Integer> outsideFold = new ArrayList<>();
+            List<Integer> distances = new ArrayList<>();
+            for (int j = 0; j < totalImages; j++) {
+                if (Classifiers.getFold(j, totalImages, numFolds) != fold) {
+                    ClassifierImage other = labeledTrainingImages.get(j).getValue();
+                    outsideFold.add(j);
+                    distances.add(NaiveNeighbors.distance("L1", image.getFlatImageArray(),
+                            image.getFlatImageOffset(), other.getFlatImageArray(), other.getFlatImageOffset(),
+                            Config.RGB_FLAT_IMAGE_SIZE));
+                }
+            }
+            // sorted by distance, ties in order of index as outsideFold is
+            List<Integer> closest = new ArrayList<>();
+            for (int n = 0; n < outsideFold.size(); n++) {
+                closest.add(n);
+            }
+            closest.sort((a, b) -> Integer.compare(distances.get(a), distances.get(b)));
+            for (int c = 0; c < kValueCandidates.length; c++) {
+                int[] kClosest = closest.stream().limit(kValueCandidates[c]).mapToInt(outsideFold::get).toArray();
+                if (NaiveNeighbors.vote(kClosest, labels).equals(labels.get(i))) {
+                    foldSuccesses[fold][c]++;
+                }
+            }
+        }
+        double[][] foldAccuracies = new double[numFolds][kValueCandidates.length];
+        for (int fold = 0; fold < numFolds; fold++) {
+            for (int c = 0; c < kValueCandidates.length; c++) {
+                foldAccuracies[fold][c] = foldSuccesses[fold][c] / (double) foldSizes[fold];
+            }
+        }
+        return foldAccuracies;
+    }
+
+    private static KNNClassifier createClassifier(String metric) {
+        return new KNNClassifier(1, DistanceKernels.getBestKernel(metric), new LinearScanIndex());
+    }
+
+    /**
+     * @return labels of the query images voted by their k closest training images, found by a naive search
+     */
+    static List<String> predictNaively(String metric, List<KeyValue<String, ClassifierImage>> labeledTrainingImages,
+                                       List<ClassifierImage> queryImages) {
+        int imageSize = Config.RGB_FLAT_IMAGE_SIZE;
+        byte[] trainingPixels = new byte[labeledTrainingImages.size() * imageSize];
+        for (int i = 0; i < labeledTrainingImages.size(); i++) {
+            ClassifierImage image = labeledTrainingImages.get(i).getValue();
+            System.arraycopy(image.getFlatImageArray(), image.getFlatImageOffset(), trainingPixels, i * imageSize,
+                    imageSize);
+        }
+        List<String> trainingLabels = getLabels(labeledTrainingImages);
+        List<String> labels = new ArrayList<>();
+        for (ClassifierImage queryImage : queryImages) {
+            int[] closest = NaiveNeighbors.findClosest(metric, queryImage.getFlatImageArray(),
+                    queryImage.getFlatImageOffset(), trainingPixels, imageSize, K);
+            labels.add(NaiveNeighbors.vote(closest, trainingLabels));
+        }
+        return labels;
+    }
+
+    static List<String> getLabels(List<KeyValue<String, ClassifierImage>> labeledImages) {
+        List<String> labels = new ArrayList<>();
+        for (KeyValue<String, ClassifierImage> labeledImage : labeledImages) {
+            labels.add(labeledImage.getKey());
+        }
+        return labels;
+    }
+}
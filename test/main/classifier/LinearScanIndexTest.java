@@ -0,0 +1,164 @@
+package main.classifier;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Checks that a linear scan finds exactly the neighbors of a naive search however the training set is tiled and
+ * however many query images are searched together, and that abandoning distances early doesn't change them
+ */
+class LinearScanIndexTest {
+
+    private static final int K = 7;
+    /** Odd, so the kernels' tails past their last full vector are searched too */
+    private static final int IMAGE_SIZE = 51;
+    private static final int NUM_TRAINING_IMAGES = 300;
+    private static final int NUM_QUERY_IMAGES = 25;
+
+    private final Random random = new Random(1);
+    private final byte[] trainingPixels
+            = NaiveNeighbors.createTieHeavyImages(random, NUM_TRAINING_IMAGES, IMAGE_SIZE);
+    private final byte[] queryPixels = NaiveNeighbors.createTieHeavyImages(random, NUM_QUERY_IMAGES, IMAGE_SIZE);
+
+    static Stream<Arguments> tilings() {
+        List<Arguments> tilings = new ArrayList<>();
+        for (String metric : new String[] {"L1", "L2"}) {
+            // one image per tile, tiles that don't divide the training set, and one tile for the whole set
+            for (int trainingTileSize : new int[] {1, 7, 64, NUM_TRAINING_IMAGES + 1}) {
+                for (int batchSize : new int[] {1, 4, NUM_QUERY_IMAGES}) {
+                    tilings.add(Arguments.of(metric, trainingTileSize, batchSize));
+                }
+            }
+        }
+        return tilings.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("tilings")
+    void tiledBatchesFindLikeNaiveSearch(String metric, int trainingTileSize, int batchSize) {
+        LinearScanIndex index = new LinearScanIndex(trainingTileSize);
+        index.build(createTrainingSet(trainingPixels, IMAGE_SIZE), DistanceKernels.getBestKernel(metric));
+
+        NearestNeighbors[] neighbors = new NearestNeighbors[NUM_QUERY_IMAGES];
+        for (int from = 0; from < NUM_QUERY_IMAGES; from += batchSize) {
+            int count = Math.min(batchSize, NUM_QUERY_IMAGES - from);
+            byte[][] images = new byte[count][];
+            int[] offsets = new int[count];
+            NearestNeighbors[] batchNeighbors = new NearestNeighbors[count];
+            for (int q = 0; q < count; q++) {
+                images[q] = queryPixels;
+                offsets[q] = (from + q) * IMAGE_SIZE;
+                batchNeighbors[q] = neighbors[from + q] = new NearestNeighbors(K);
+            }
+            index.search(images, offsets, batchNeighbors, count);
+        }
+
+        for (int q = 0; q < NUM_QUERY_IMAGES; q++) {
+            int[] expected = NaiveNeighbors.findClosest(metric, queryPixels, q * IMAGE_SIZE, trainingPixels,
+                    IMAGE_SIZE, K);
+            int[] expectedDistances = new int[K];
+            for (int i = 0; i < K; i++) {
+                expectedDistances[i] = NaiveNeighbors.distance(metric, queryPixels, q * IMAGE_SIZE, trainingPixels,
+                        expected[i] * IMAGE_SIZE, IMAGE_SIZE);
+            }
+            neighbors[q].sort();
+            assertArrayEquals(expected, NaiveNeighbors.getIndices(neighbors[q]), "indices of query image " + q);
+            assertArrayEquals(expectedDistances, NaiveNeighbors.getDistances(neighbors[q]),
+                    "distances of query image " + q);
+        }
+    }
+
+    static Stream<Arguments> earlyAbandonments() {
+        List<Arguments> abandonments = new ArrayList<>();
+        for (String metric : new String[] {"L1", "L2"}) {
+            // images of one block, of whole blocks and of blocks with a partial last block
+            for (int imageSize : new int[] {IMAGE_SIZE, 2 * DistanceKernel.EARLY_ABANDON_BLOCK_SIZE,
+                    3 * DistanceKernel.EARLY_ABANDON_BLOCK_SIZE + 5}) {
+                for (int k : new int[] {1, K, NUM_TRAINING_IMAGES}) {
+                    abandonments.add(Arguments.of(metric, imageSize, k));
+                }
+            }
+        }
+        return abandonments.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("earlyAbandonments")
+    void earlyAbandonKeepsSameNeighbors(String metric, int imageSize, int k) {
+        byte[] pixels = NaiveNeighbors.createTieHeavyImages(random, NUM_TRAINING_IMAGES, imageSize);
+        byte[] query = NaiveNeighbors.createTieHeavyImages(random, 1, imageSize);
+        PackedTrainingSet trainingImages = createTrainingSet(pixels, imageSize);
+        DistanceKernel kernel = DistanceKernels.getBestKernel(metric);
+        LinearScanIndex index = new LinearScanIndex();
+        index.build(trainingImages, kernel);
+        // the same kernel, always calculating whole distances
+        LinearScanIndex unabandonedIndex = new LinearScanIndex();
+        unabandonedIndex.build(trainingImages, new DistanceKernel() {
+            @Override
+            public int distance(byte[] imageA, int offsetA, byte[] imageB, int offsetB, int length) {
+                return kernel.distance(imageA, offsetA, imageB, offsetB, length);
+            }
+
+            @Override
+            public int distance(byte[] imageA, int offsetA, ByteBuffer imageB, int offsetB, int length) {
+                return kernel.distance(imageA, offsetA, imageB, offsetB, length);
+            }
+
+            @Override
+            public int distance(byte[] imageA, int offsetA, byte[] imageB, int offsetB, int length, int threshold) {
+                return distance(imageA, offsetA, imageB, offsetB, length);
+            }
+
+            @Override
+            public int distance(byte[] imageA, int offsetA, ByteBuffer imageB, int offsetB, int length,
+                                int threshold) {
+                return distance(imageA, offsetA, imageB, offsetB, length);
+            }
+
+            @Override
+            public String getMetricName() {
+                return kernel.getMetricName();
+            }
+        });
+
+        NearestNeighbors neighbors = new NearestNeighbors(k);
+        index.search(query, 0, neighbors);
+        NearestNeighbors unabandonedNeighbors = new NearestNeighbors(k);
+        unabandonedIndex.search(query, 0, unabandonedNeighbors);
+        // and over ranges merged afterwards, as threads split the training set
+        NearestNeighbors rangeNeighbors = new NearestNeighbors(k);
+        index.search(query, 0, rangeNeighbors, NUM_TRAINING_IMAGES / 3, NUM_TRAINING_IMAGES);
+        NearestNeighbors lowerRangeNeighbors = new NearestNeighbors(k);
+        index.search(query, 0, lowerRangeNeighbors, 0, NUM_TRAINING_IMAGES / 3);
+        rangeNeighbors.offerAll(lowerRangeNeighbors);
+
+        int[] expected = NaiveNeighbors.findClosest(metric, query, 0, pixels, imageSize, k);
+        int[] expectedDistances = new int[expected.length];
+        for (int i = 0; i < expected.length; i++) {
+            expectedDistances[i] = NaiveNeighbors.distance(metric, query, 0, pixels, expected[i] * imageSize,
+                    imageSize);
+        }
+        for (NearestNeighbors searched : new NearestNeighbors[] {neighbors, unabandonedNeighbors, rangeNeighbors}) {
+            searched.sort();
+            assertArrayEquals(expected, NaiveNeighbors.getIndices(searched), "indices");
+            assertArrayEquals(expectedDistances, NaiveNeighbors.getDistances(searched), "distances");
+        }
+    }
+
+    private PackedTrainingSet createTrainingSet(byte[] pixels, int imageSize) {
+        PackedTrainingSet images = new PackedTrainingSet(imageSize);
+        for (int i = 0; i < pixels.length / imageSize; i++) {
+            images.add("label " + random.nextInt(3), pixels, i * imageSize, imageSize);
+        }
+        return images;
+    }
+}
@@ -0,0 +1,115 @@
+package main.classifier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that the matrix multiply index finds exactly the neighbors and L2 distances of a naive search however the
+ * training set is tiled and however many query images are searched together
+ */
+class MatrixMultiplyIndexTest {
+
+    private static final int K = 7;
+    private static final int NUM_TRAINING_IMAGES = 300;
+    private static final int NUM_QUERY_IMAGES = 25;
+
+    private final Random random = new Random(1);
+
+    static Stream<Arguments> tilings() {
+        List<Arguments> tilings = new ArrayList<>();
+        // odd, so the kernels' tails past their last full vector are multiplied too, and a whole odd-sized image
+        for (int imageSize : new int[] {51, 3075}) {
+            // one image per tile, tiles that don't divide the training set, and one tile for the whole set
+            for (int trainingTileSize : new int[] {1, 7, 64, NUM_TRAINING_IMAGES + 1}) {
+                for (int batchSize : new int[] {1, 4, NUM_QUERY_IMAGES}) {
+                    tilings.add(Arguments.of(imageSize, trainingTileSize, batchSize));
+                }
+            }
+        }
+        return tilings.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("tilings")
+    void findsLikeNaiveSearch(int imageSize, int trainingTileSize, int batchSize) {
+        byte[] trainingPixels = NaiveNeighbors.createTieHeavyImages(random, NUM_TRAINING_IMAGES, imageSize);
+        byte[] queryPixels = NaiveNeighbors.createTieHeavyImages(random, NUM_QUERY_IMAGES, imageSize);
+        // the farthest images possible, so the largest distances are calculated too
+        Arrays.fill(trainingPixels, 0, imageSize, (byte) 0);
+        Arrays.fill(queryPixels, 0, imageSize, (byte) 255);
+        assertFindsLikeNaiveSearch(trainingPixels, queryPixels, imageSize, trainingTileSize, batchSize);
+    }
+
+    @Test
+    void findsLikeNaiveSearchOfRandomImages() {
+        int imageSize = 3075;
+        byte[] trainingPixels = new byte[NUM_TRAINING_IMAGES * imageSize];
+        byte[] queryPixels = new byte[NUM_QUERY_IMAGES * imageSize];
+        random.nextBytes(trainingPixels);
+        random.nextBytes(queryPixels);
+        assertFindsLikeNaiveSearch(trainingPixels, queryPixels, imageSize, 64, NUM_QUERY_IMAGES);
+    }
+
+    @Test
+    void rejectsOtherMetrics() {
+        PackedTrainingSet trainingImages = new PackedTrainingSet(51);
+        assertThrows(IllegalArgumentException.class,
+                () -> new MatrixMultiplyIndex().build(trainingImages, DistanceKernels.getBestKernel("L1")));
+        assertThrows(IllegalArgumentException.class, () -> new MatrixMultiplyIndex(0));
+    }
+
+    private void assertFindsLikeNaiveSearch(byte[] trainingPixels, byte[] queryPixels, int imageSize,
+                                            int trainingTileSize, int batchSize) {
+        PackedTrainingSet trainingImages = new PackedTrainingSet(imageSize);
+        for (int i = 0; i < NUM_TRAINING_IMAGES; i++) {
+            trainingImages.add("label " + random.nextInt(3), trainingPixels, i * imageSize, imageSize);
+        }
+        MatrixMultiplyIndex index = new MatrixMultiplyIndex(trainingTileSize);
+        index.build(trainingImages, DistanceKernels.getBestKernel("L2"));
+
+        NearestNeighbors[] neighbors = new NearestNeighbors[NUM_QUERY_IMAGES];
+        for (int from = 0; from < NUM_QUERY_IMAGES; from += batchSize) {
+            int count = Math.min(batchSize, NUM_QUERY_IMAGES - from);
+            byte[][] images = new byte[count][];
+            int[] offsets = new int[count];
+            NearestNeighbors[] batchNeighbors = new NearestNeighbors[count];
+            for (int q = 0; q < count; q++) {
+                images[q] = queryPixels;
+                offsets[q] = (from + q) * imageSize;
+                batchNeighbors[q] = neighbors[from + q] = new NearestNeighbors(K);
+            }
+            index.search(images, offsets, batchNeighbors, count);
+        }
+
+        for (int q = 0; q < NUM_QUERY_IMAGES; q++) {
+            int offset = q * imageSize;
+            int[] expected = NaiveNeighbors.findClosest("L2", queryPixels, offset, trainingPixels, imageSize, K);
+            int[] expectedDistances = new int[K];
+            for (int i = 0; i < K; i++) {
+                expectedDistances[i] = NaiveNeighbors.distance("L2", queryPixels, offset, trainingPixels,
+                        expected[i] * imageSize, imageSize);
+            }
+            // and each query image on its own, after the scratch space has been sized for a batch
+            NearestNeighbors singleNeighbors = new NearestNeighbors(K);
+            index.search(queryPixels, offset, singleNeighbors);
+
+            for (NearestNeighbors searched : new NearestNeighbors[] {neighbors[q], singleNeighbors}) {
+                searched.sort();
+                assertArrayEquals(expected, NaiveNeighbors.getIndices(searched), "indices of query image " + q);
+                assertArrayEquals(expectedDistances, NaiveNeighbors.getDistances(searched),
+                        "distances of query image " + q);
+            }
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package main.classifier;
+
+import main.config.Config;
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.apache.commons.collections4.keyvalue.DefaultKeyValue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that a saved classifier loads back predicting exactly as it did, that corrupt snapshots and snapshots
+ * saved for another metric are rejected, and that out of date or unreadable snapshots aren't loaded
+ */
+class ModelSnapshotTest {
+
+    private static final int K = 5;
+    private static final int NUM_TRAINING_IMAGES = 60;
+    private static final int NUM_QUERY_IMAGES = 15;
+
+    /** Offsets of the header fields, see {@link ModelSnapshot} */
+    private static final int VERSION_OFFSET = Integer.BYTES;
+    private static final int HEADER_SIZE_OFFSET = 2 * Integer.BYTES;
+    private static final int IMAGE_SIZE_OFFSET = 3 * Integer.BYTES;
+    private static final int NUM_IMAGES_OFFSET = 4 * Integer.BYTES;
+    private static final int K_VALUE_OFFSET = 5 * Integer.BYTES;
+    private static final int LABEL_IDS_OFFSET_OFFSET = 6 * Integer.BYTES;
+    private static final int PIXELS_OFFSET_OFFSET = LABEL_IDS_OFFSET_OFFSET + Long.BYTES;
+    private static final int METRIC_NAME_OFFSET = PIXELS_OFFSET_OFFSET + Long.BYTES;
+
+    @TempDir
+    Path directory;
+
+    private final Random random = new Random(1);
+    private final byte[] trainingPixels
+            = NaiveNeighbors.createTieHeavyImages(random, NUM_TRAINING_IMAGES, Config.RGB_FLAT_IMAGE_SIZE);
+    private final byte[] queryPixels
+            = NaiveNeighbors.createTieHeavyImages(random, NUM_QUERY_IMAGES, Config.RGB_FLAT_IMAGE_SIZE);
+    private final List<KeyValue<String, ClassifierImage>> labeledTrainingImages = new ArrayList<>();
+    private final List<ClassifierImage> queryImages = new ArrayList<>();
+
+    ModelSnapshotTest() {
+        for (int i = 0; i < NUM_TRAINING_IMAGES; i++) {
+            // a label per few images, so some labels are only seen late in the training set
+            labeledTrainingImages.add(new DefaultKeyValue<>("label " + random.nextInt(1 + i / 10),
+                    createImage(trainingPixels, i)));
+        }
+        for (int i = 0; i < NUM_QUERY_IMAGES; i++) {
+            queryImages.add(createImage(queryPixels, i));
+        }
+    }
+
+    static Stream<Arguments> snapshots() {
+        List<Arguments> snapshots = new ArrayList<>();
+        for (String metric : new String[] {"L1", "L2"}) {
+            for (int numThreads : new int[] {1, 3}) {
+                snapshots.add(Arguments.of(metric, numThreads));
+            }
+        }
+        return snapshots.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("snapshots")
+    void loadedClassifierPredictsLikeSaved(String metric, int numThreads) throws IOException {
+        DistanceKernel kernel = DistanceKernels.getBestKernel(metric);
+        Path path = directory.resolve("nested").resolve("model.bin");
+        Path resavedPath = directory.resolve("resaved.bin");
+        try (KNNClassifier classifier = new KNNClassifier(1, kernel, new LinearScanIndex())) {
+            classifier.train(labeledTrainingImages);
+            classifier.saveSnapshot(path, K, "fingerprint");
+            List<String> expected = KNNClassifierTest.getLabels(classifier.predict(queryImages, K));
+
+            ModelSnapshot snapshot = KNNClassifier.loadSnapshot(path, numThreads, kernel);
+            try (KNNClassifier loadedClassifier = snapshot.getClassifier()) {
+                assertEquals(K, snapshot.getKValue());
+                assertEquals("fingerprint", snapshot.getDataFingerprint());
+                assertEquals(NUM_TRAINING_IMAGES, loadedClassifier.size());
+                assertEquals(numThreads, loadedClassifier.getNumThreads());
+                assertEquals(expected, KNNClassifierTest.getLabels(loadedClassifier.predict(queryImages, K)));
+                assertEquals(predictNaively(metric), expected);
+
+                // saving the mapped training images again writes the same file
+                loadedClassifier.saveSnapshot(resavedPath, K, "fingerprint");
+                assertArrayEquals(Files.readAllBytes(path), Files.readAllBytes(resavedPath));
+            }
+        }
+        assertFalse(Files.exists(path.resolveSibling("model.bin.tmp")), "temporary file left behind");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"magic", "version", "small header size", "large header size", "image size",
+            "image count", "k-value", "label ids offset", "pixels offset", "metric name length", "truncated",
+            "extended", "empty"})
+    void rejectsCorruptSnapshots(String corruption) throws IOException {
+        Path path = directory.resolve("model.bin");
+        DistanceKernel kernel = DistanceKernels.getBestKernel("L1");
+        try (KNNClassifier classifier = new KNNClassifier(1, kernel, new LinearScanIndex())) {
+            classifier.train(labeledTrainingImages);
+            classifier.saveSnapshot(path, K, "fingerprint");
+        }
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+        switch (corruption) {
+            case "magic":
+                bytes.putInt(0, 0x12345678);
+                break;
+            case "version":
+                bytes.putInt(VERSION_OFFSET, 2);
+                break;
+            case "small header size":
+                bytes.putInt(HEADER_SIZE_OFFSET, 3 * Integer.BYTES);
+                break;
+            case "large header size":
+                bytes.putInt(HEADER_SIZE_OFFSET, bytes.capacity() + 1);
+                break;
+            case "image size":
+                bytes.putInt(IMAGE_SIZE_OFFSET, 0);
+                break;
+            case "image count":
+                bytes.putInt(NUM_IMAGES_OFFSET, NUM_TRAINING_IMAGES + 1);
+                break;
+            case "k-value":
+                bytes.putInt(K_VALUE_OFFSET, 0);
+                break;
+            case "label ids offset":
+                bytes.putLong(LABEL_IDS_OFFSET_OFFSET, 0);
+                break;
+            case "pixels offset":
+                bytes.putLong(PIXELS_OFFSET_OFFSET, bytes.getLong(PIXELS_OFFSET_OFFSET) - 1);
+                break;
+            case "metric name length":
+                bytes.putInt(METRIC_NAME_OFFSET, Integer.MAX_VALUE);
+                break;
+            case "truncated":
+                bytes.limit(bytes.capacity() - 1);
+                break;
+            case "extended":
+                bytes = ByteBuffer.wrap(Arrays.copyOf(bytes.array(), bytes.capacity() + 1));
+                break;
+            case "empty":
+                bytes.limit(0);
+                break;
+            default:
+                throw new IllegalArgumentException(corruption);
+        }
+        Files.write(path, Arrays.copyOf(bytes.array(), bytes.limit()));
+        assertThrows(IOException.class, () -> KNNClassifier.loadSnapshot(path, 1, kernel));
+    }
+
+    @Test
+    void rejectsSnapshotsForAnotherMetric() throws IOException {
+        Path path = directory.resolve("model.bin");
+        try (KNNClassifier classifier = new KNNClassifier(1, DistanceKernels.getBestKernel("L1"),
+                new LinearScanIndex())) {
+            classifier.train(labeledTrainingImages);
+            classifier.saveSnapshot(path, K, "fingerprint");
+            assertThrows(IllegalArgumentException.class, () -> classifier.saveSnapshot(path, 0, "fingerprint"));
+        }
+        assertThrows(IOException.class,
+                () -> KNNClassifier.loadSnapshot(path, 1, DistanceKernels.getBestKernel("L2")));
+    }
+
+    @Test
+    void onlyLoadsCurrentConfiguredSnapshots() throws IOException {
+        String previousPath = Config.MODEL_SNAPSHOT_PATH;
+        String previousMetric = Config.DISTANCE_METRIC;
+        try (KNNClassifier classifier = new KNNClassifier(1, DistanceKernels.getBestKernel("L1"),
+                new LinearScanIndex())) {
+            classifier.train(labeledTrainingImages);
+            Config.DISTANCE_METRIC = "L1";
+
+            // not configured, so neither saved nor loaded
+            Config.MODEL_SNAPSHOT_PATH = null;
+            classifier.saveSnapshotIfConfigured(K, "fingerprint");
+            assertNull(KNNClassifier.loadSnapshotIfCurrent("fingerprint"));
+
+            Path path = directory.resolve("model.bin");
+            Config.MODEL_SNAPSHOT_PATH = path.toString();
+            assertNull(KNNClassifier.loadSnapshotIfCurrent("fingerprint"));
+            classifier.saveSnapshotIfConfigured(K, "fingerprint");
+            ModelSnapshot snapshot = KNNClassifier.loadSnapshotIfCurrent("fingerprint");
+            assertNotNull(snapshot);
+            snapshot.getClassifier().close();
+            assertNull(KNNClassifier.loadSnapshotIfCurrent("other fingerprint"));
+
+            Files.write(path, new byte[] {1, 2, 3});
+            assertNull(KNNClassifier.loadSnapshotIfCurrent("fingerprint"));
+        } finally {
+            Config.MODEL_SNAPSHOT_PATH = previousPath;
+            Config.DISTANCE_METRIC = previousMetric;
+        }
+    }
+
+    private List<String> predictNaively(String metric) {
+        List<String> trainingLabels = KNNClassifierTest.getLabels(labeledTrainingImages);
+        List<String> labels = new ArrayList<>();
+        for (int q = 0; q < NUM_QUERY_IMAGES; q++) {
+            int[] closest = NaiveNeighbors.findClosest(metric, queryPixels, q * Config.RGB_FLAT_IMAGE_SIZE,
+                    trainingPixels, Config.RGB_FLAT_IMAGE_SIZE, K);
+            labels.add(NaiveNeighbors.vote(closest, trainingLabels));
+        }
+        return labels;
+    }
+
+    private static ClassifierImage createImage(byte[] pixels, int i) {
+        return new ClassifierImage(pixels, i * Config.RGB_FLAT_IMAGE_SIZE, Config.IMAGE_WIDTH, Config.IMAGE_WIDTH, 3);
+    }
+}
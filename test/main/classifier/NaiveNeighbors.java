@@ -0,0 +1,121 @@
+package main.classifier;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+/**
+ * Reference k-nearest-neighbor search that compares a query image to every training image pixel by pixel and sorts
+ * them all, without abandoning distances early, tiling or keeping a heap, to check the classifier's searches against
+ */
+final class NaiveNeighbors {
+
+    /** Pixel values of tie-heavy images, including both ends of the signed and unsigned byte ranges */
+    private static final byte[] PIXEL_VALUES = {0, 1, 127, (byte) 128, (byte) 255};
+
+    private NaiveNeighbors() {
+    }
+
+    /**
+     * Creates images that are mostly copies of a few prototypes with a few pixels changed, so many training images
+     * are the same distance from a query image and the closest are only told apart by their index. Every call
+     * copies the same prototypes for the same image size.
+     *
+     * @param numImages number of images
+     * @param imageSize number of bytes per image
+     * @return every image, packed one after another
+     */
+    static byte[] createTieHeavyImages(Random random, int numImages, int imageSize) {
+        Random prototypeRandom = new Random(imageSize);
+        byte[][] prototypes = new byte[4][imageSize];
+        for (byte[] prototype : prototypes) {
+            for (int i = 0; i < imageSize; i++) {
+                prototype[i] = PIXEL_VALUES[prototypeRandom.nextInt(PIXEL_VALUES.length)];
+            }
+        }
+        byte[] images = new byte[numImages * imageSize];
+        for (int image = 0; image < numImages; image++) {
+            byte[] prototype = prototypes[random.nextInt(prototypes.length)];
+            System.arraycopy(prototype, 0, images, image * imageSize, imageSize);
+            for (int changed = random.nextInt(3); changed > 0; changed--) {
+                images[image * imageSize + random.nextInt(imageSize)]
+                        = PIXEL_VALUES[random.nextInt(PIXEL_VALUES.length)];
+            }
+        }
+        return images;
+    }
+
+    /**
+     * @param metric "L1" for the sum of absolute differences, or "L2" for the sum of squared differences
+     */
+    static int distance(String metric, byte[] imageA, int offsetA, byte[] imageB, int offsetB, int length) {
+        int distance = 0;
+        for (int i = 0; i < length; i++) {
+            int difference = (imageA[offsetA + i] & 0xFF) - (imageB[offsetB + i] & 0xFF);
+            distance += "L1".equals(metric) ? Math.abs(difference) : difference * difference;
+        }
+        return distance;
+    }
+
+    /**
+     * @param trainingImages every training image, packed one after another
+     * @return training set indices of the k closest training images, closest first and ties in order of index
+     */
+    static int[] findClosest(String metric, byte[] query, int queryOffset, byte[] trainingImages, int imageSize,
+                             int k) {
+        int numImages = trainingImages.length / imageSize;
+        int[] distances = new int[numImages];
+        for (int i = 0; i < numImages; i++) {
+            distances[i] = distance(metric, query, queryOffset, trainingImages, i * imageSize, imageSize);
+        }
+        return IntStream.range(0, numImages).boxed()
+                .sorted(Comparator.<Integer>comparingInt(i -> distances[i]).thenComparingInt(i -> i))
+                .limit(k)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * Picks the most frequent label among the closest training images, ties broken in favour of the label with
+     * the closer nearest image, like {@link NearestNeighbors#vote(int)}
+     *
+     * @param closest indices of the closest training images, closest first
+     * @param labels label of every training image
+     */
+    static String vote(int[] closest, List<String> labels) {
+        String label = null;
+        long maxVotes = 0;
+        for (int i : closest) {
+            long votes = Arrays.stream(closest).filter(j -> labels.get(j).equals(labels.get(i))).count();
+            if (votes > maxVotes) {
+                maxVotes = votes;
+                label = labels.get(i);
+            }
+        }
+        return label;
+    }
+
+    /**
+     * @return training set index of every neighbor, in the order they are held
+     */
+    static int[] getIndices(NearestNeighbors neighbors) {
+        int[] indices = new int[neighbors.size()];
+        for (int i = 0; i < indices.length; i++) {
+            indices[i] = neighbors.getIndex(i);
+        }
+        return indices;
+    }
+
+    /**
+     * @return distance of every neighbor, in the order they are held
+     */
+    static int[] getDistances(NearestNeighbors neighbors) {
+        int[] distances = new int[neighbors.size()];
+        for (int i = 0; i < distances.length; i++) {
+            distances[i] = neighbors.getDistance(i);
+        }
+        return distances;
+    }
+}
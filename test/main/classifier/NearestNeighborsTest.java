@@ -0,0 +1,170 @@
+package main.classifier;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that the bounded heap keeps exactly the k closest candidates, ties in order of index, whatever order they
+ * are offered in, and votes and ranks labels like a naive count over them
+ */
+class NearestNeighborsTest {
+
+    private static final int NUM_CANDIDATES = 100;
+    /** Few distances, so most candidates tie with others */
+    private static final int NUM_DISTANCES = 5;
+    private static final int NUM_LABELS = 4;
+
+    private final int[] distances = new int[NUM_CANDIDATES];
+    private final int[] labelIds = new int[NUM_CANDIDATES];
+
+    NearestNeighborsTest() {
+        Random random = new Random(1);
+        for (int i = 0; i < NUM_CANDIDATES; i++) {
+            distances[i] = random.nextInt(NUM_DISTANCES);
+            labelIds[i] = random.nextInt(NUM_LABELS);
+        }
+    }
+
+    static Stream<Arguments> offerOrders() {
+        List<Arguments> orders = new ArrayList<>();
+        for (int k : new int[] {1, 2, 3, 7, 64, NUM_CANDIDATES, NUM_CANDIDATES + 1}) {
+            for (String order : new String[] {"ascending", "descending", "shuffled"}) {
+                orders.add(Arguments.of(k, order));
+            }
+        }
+        return orders.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("offerOrders")
+    void keepsClosestInOrderOfDistanceThenIndex(int k, String order) {
+        List<Integer> offered = getOfferOrder(order);
+        NearestNeighbors neighbors = new NearestNeighbors(k);
+        for (int n = 0; n < offered.size(); n++) {
+            int i = offered.get(n);
+            neighbors.offer(distances[i], i, labelIds[i]);
+            // the threshold is the farthest of the k closest offered so far, once there are k of them
+            int[] closestSoFar = getClosest(offered.subList(0, n + 1), k);
+            assertEquals(closestSoFar.length < k ? Integer.MAX_VALUE : distances[closestSoFar[k - 1]],
+                    neighbors.getThreshold(), "threshold after offering " + (n + 1));
+        }
+        assertEquals(k, neighbors.getCapacity());
+        assertKeepsClosest(neighbors, getClosest(offered, k));
+
+        for (int voters = 1; voters <= Math.min(k, NUM_CANDIDATES); voters++) {
+            List<Integer> expectedRanks = rankLabelsNaively(getClosest(offered, voters));
+            assertEquals(expectedRanks.get(0).intValue(), neighbors.vote(voters), "vote of " + voters);
+            for (int labelId = 0; labelId < NUM_LABELS; labelId++) {
+                assertEquals(expectedRanks.indexOf(labelId), neighbors.getVoteRank(labelId, voters),
+                        "rank of label " + labelId + " among " + voters);
+            }
+        }
+
+        // cleared neighbors are reused for a search in a different order
+        neighbors.clear();
+        assertEquals(0, neighbors.size());
+        assertEquals(Integer.MAX_VALUE, neighbors.getThreshold());
+        List<Integer> reversed = new ArrayList<>(offered);
+        Collections.reverse(reversed);
+        for (int i : reversed) {
+            neighbors.offer(distances[i], i, labelIds[i]);
+        }
+        assertKeepsClosest(neighbors, getClosest(offered, k));
+    }
+
+    @ParameterizedTest
+    @MethodSource("offerOrders")
+    void mergedRangesKeepClosestOfWhole(int k, String order) {
+        List<Integer> offered = getOfferOrder(order);
+        // ranges split unevenly, as threads split the training set
+        NearestNeighbors lower = new NearestNeighbors(k);
+        NearestNeighbors upper = new NearestNeighbors(k);
+        int split = NUM_CANDIDATES / 3;
+        for (int n = 0; n < offered.size(); n++) {
+            int i = offered.get(n);
+            (n < split ? lower : upper).offer(distances[i], i, labelIds[i]);
+        }
+        upper.offerAll(lower);
+        assertKeepsClosest(upper, getClosest(offered, k));
+    }
+
+    @Test
+    void rejectsOffersOnceSortedAndVotesNothingWhenEmpty() {
+        NearestNeighbors neighbors = new NearestNeighbors(3);
+        neighbors.offer(1, 0, 0);
+        neighbors.sort();
+        assertThrows(IllegalStateException.class, () -> neighbors.offer(0, 1, 0));
+        assertThrows(IllegalArgumentException.class, () -> new NearestNeighbors(0));
+        assertEquals(-1, new NearestNeighbors(3).vote(3));
+    }
+
+    private List<Integer> getOfferOrder(String order) {
+        List<Integer> offered = IntStream.range(0, NUM_CANDIDATES).boxed().collect(Collectors.toList());
+        if ("descending".equals(order)) {
+            Collections.reverse(offered);
+        } else if ("shuffled".equals(order)) {
+            Collections.shuffle(offered, new Random(2));
+        }
+        return offered;
+    }
+
+    /**
+     * @return the k closest of the offered candidates, sorted by distance then index
+     */
+    private int[] getClosest(List<Integer> offered, int k) {
+        return offered.stream()
+                .sorted(Comparator.<Integer>comparingInt(i -> distances[i]).thenComparingInt(i -> i))
+                .limit(k)
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /**
+     * @return label ids voted for by the closest candidates, most votes first and ties in order of the labels'
+     *          closest candidate
+     */
+    private List<Integer> rankLabelsNaively(int[] closest) {
+        Map<Integer, Integer> votes = new LinkedHashMap<>();
+        for (int i : closest) {
+            votes.merge(labelIds[i], 1, Integer::sum);
+        }
+        List<Integer> labels = new ArrayList<>(votes.keySet());
+        // stable, so labels with as many votes stay in order of their closest candidate
+        labels.sort(Comparator.comparingInt(labelId -> -votes.get(labelId)));
+        return labels;
+    }
+
+    private void assertKeepsClosest(NearestNeighbors neighbors, int[] expected) {
+        neighbors.sort();
+        int[] expectedDistances = new int[expected.length];
+        int[] expectedLabelIds = new int[expected.length];
+        int[] actualLabelIds = new int[neighbors.size()];
+        for (int i = 0; i < expected.length; i++) {
+            expectedDistances[i] = distances[expected[i]];
+            expectedLabelIds[i] = labelIds[expected[i]];
+        }
+        for (int i = 0; i < neighbors.size(); i++) {
+            actualLabelIds[i] = neighbors.getLabelId(i);
+        }
+        assertArrayEquals(expected, NaiveNeighbors.getIndices(neighbors), "indices");
+        assertArrayEquals(expectedDistances, NaiveNeighbors.getDistances(neighbors), "distances");
+        assertArrayEquals(expectedLabelIds, actualLabelIds, "label ids");
+    }
+}
@@ -0,0 +1,216 @@
+package main.classifier;
+
+import main.config.Config;
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.apache.commons.collections4.keyvalue.DefaultKeyValue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Checks that saved neighbors load back exactly, that corrupt files are rejected, and that the classifier only
+ * reuses saved neighbors calculated from the same data and metric with enough neighbors per image
+ */
+class NeighborCacheTest {
+
+    private static final int NUM_TRAINING_IMAGES = 40;
+    private static final int NUM_QUERY_IMAGES = 12;
+    /** Offset of the query count in a file with the key used here */
+    private static final int NUM_QUERIES_OFFSET = 3 * Integer.BYTES + "test key".length();
+
+    @TempDir
+    Path directory;
+
+    private final Random random = new Random(1);
+
+    static Stream<Arguments> cacheSizes() {
+        List<Arguments> sizes = new ArrayList<>();
+        for (int numQueries : new int[] {0, 1, NUM_QUERY_IMAGES}) {
+            for (int capacity : new int[] {1, 5}) {
+                sizes.add(Arguments.of(numQueries, capacity));
+            }
+        }
+        return sizes.stream();
+    }
+
+    @ParameterizedTest
+    @MethodSource("cacheSizes")
+    void savedNeighborsLoadBackExactly(int numQueries, int capacity) throws IOException {
+        NeighborCache cache = createCache(numQueries, capacity);
+        Path path = directory.resolve("nested").resolve("neighbors.bin");
+        cache.save(path);
+        NeighborCache loaded = NeighborCache.load(path);
+
+        assertEquals(cache.getKey(), loaded.getKey());
+        assertEquals(numQueries, loaded.getNumQueries());
+        assertEquals(capacity, loaded.getCapacity());
+        for (int query = 0; query < numQueries; query++) {
+            assertEquals(cache.getNeighborCount(query), loaded.getNeighborCount(query), "count of " + query);
+            for (int j = 0; j < cache.getNeighborCount(query); j++) {
+                assertEquals(cache.getDistance(query, j), loaded.getDistance(query, j));
+                assertEquals(cache.getIndex(query, j), loaded.getIndex(query, j));
+            }
+        }
+        assertEquals(List.of(path.getFileName()),
+                Files.list(path.getParent()).map(Path::getFileName).collect(Collectors.toList()),
+                "temporary file left behind");
+        assertNull(NeighborCache.load(directory.resolve("missing.bin")));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"magic", "version", "key length", "query count", "capacity", "neighbor count",
+            "truncated", "extended", "empty"})
+    void rejectsCorruptFiles(String corruption) throws IOException {
+        Path path = directory.resolve("neighbors.bin");
+        createCache(NUM_QUERY_IMAGES, 5).save(path);
+        ByteBuffer bytes = ByteBuffer.wrap(Files.readAllBytes(path));
+        int countsOffset = NUM_QUERIES_OFFSET + 2 * Integer.BYTES;
+        switch (corruption) {
+            case "magic":
+                bytes.putInt(0, 0x12345678);
+                break;
+            case "version":
+                bytes.putInt(Integer.BYTES, 2);
+                break;
+            case "key length":
+                bytes.putInt(2 * Integer.BYTES, Integer.MAX_VALUE);
+                break;
+            case "query count":
+                bytes.putInt(NUM_QUERIES_OFFSET, -1);
+                break;
+            case "capacity":
+                bytes.putInt(NUM_QUERIES_OFFSET + Integer.BYTES, 0);
+                break;
+            case "neighbor count":
+                bytes.putInt(countsOffset, 6);
+                break;
+            case "truncated":
+                bytes.limit(bytes.capacity() - 1);
+                break;
+            case "extended":
+                bytes = ByteBuffer.wrap(Arrays.copyOf(bytes.array(), bytes.capacity() + Integer.BYTES));
+                break;
+            case "empty":
+                bytes.limit(0);
+                break;
+            default:
+                throw new IllegalArgumentException(corruption);
+        }
+        Files.write(path, Arrays.copyOf(bytes.array(), bytes.limit()));
+        assertThrows(IOException.class, () -> NeighborCache.load(path));
+    }
+
+    @Test
+    void classifierOnlyReusesMatchingNeighbors() throws IOException {
+        byte[] trainingPixels = NaiveNeighbors.createTieHeavyImages(random, NUM_TRAINING_IMAGES,
+                Config.RGB_FLAT_IMAGE_SIZE);
+        byte[] queryPixels = NaiveNeighbors.createTieHeavyImages(random, NUM_QUERY_IMAGES, Config.RGB_FLAT_IMAGE_SIZE);
+        List<KeyValue<String, ClassifierImage>> labeledTrainingImages = new ArrayList<>();
+        for (int i = 0; i < NUM_TRAINING_IMAGES; i++) {
+            labeledTrainingImages.add(
+                    new DefaultKeyValue<>("label " + random.nextInt(3), createImage(trainingPixels, i)));
+        }
+        List<ClassifierImage> queryImages = new ArrayList<>();
+        for (int i = 0; i < NUM_QUERY_IMAGES; i++) {
+            queryImages.add(createImage(queryPixels, i));
+        }
+
+        String previousDirectory = Config.NEIGHBOR_CACHE_DIRECTORY;
+        Config.NEIGHBOR_CACHE_DIRECTORY = directory.toString();
+        try (KNNClassifier l1Classifier = new KNNClassifier(1, DistanceKernels.getBestKernel("L1"),
+                     new LinearScanIndex());
+             KNNClassifier l2Classifier = new KNNClassifier(1, DistanceKernels.getBestKernel("L2"),
+                     new LinearScanIndex())) {
+            l1Classifier.train(labeledTrainingImages);
+            l2Classifier.train(labeledTrainingImages);
+
+            assertFindsNaiveNeighbors("L1", l1Classifier.getNeighborCache(queryImages, 3, "data"),
+                    trainingPixels, queryPixels, 3);
+            // reused
+            assertFindsNaiveNeighbors("L1", l1Classifier.getNeighborCache(queryImages, 2, "data"),
+                    trainingPixels, queryPixels, 3);
+            // too few neighbors per image, other data, another metric, fewer query images
+            assertFindsNaiveNeighbors("L1", l1Classifier.getNeighborCache(queryImages, 4, "data"),
+                    trainingPixels, queryPixels, 4);
+            assertFindsNaiveNeighbors("L1", l1Classifier.getNeighborCache(queryImages, 4, "other data"),
+                    trainingPixels, queryPixels, 4);
+            assertFindsNaiveNeighbors("L2", l2Classifier.getNeighborCache(queryImages, 4, "data"),
+                    trainingPixels, queryPixels, 4);
+            assertEquals(NUM_QUERY_IMAGES - 1, l1Classifier.getNeighborCache(
+                    queryImages.subList(1, NUM_QUERY_IMAGES), 4, "data").getNumQueries());
+
+            // saved neighbors under another key, and corrupt ones, are searched for again. More neighbors per image
+            // replaced the fewer saved under the same key.
+            List<Path> paths = Files.list(directory).collect(Collectors.toList());
+            assertEquals(4, paths.size());
+            for (Path path : paths) {
+                createCache(NUM_QUERY_IMAGES, 4).save(path);
+            }
+            assertFindsNaiveNeighbors("L1", l1Classifier.getNeighborCache(queryImages, 4, "data"),
+                    trainingPixels, queryPixels, 4);
+            for (Path path : paths) {
+                Files.write(path, new byte[] {1, 2, 3});
+            }
+            assertFindsNaiveNeighbors("L2", l2Classifier.getNeighborCache(queryImages, 4, "data"),
+                    trainingPixels, queryPixels, 4);
+        } finally {
+            Config.NEIGHBOR_CACHE_DIRECTORY = previousDirectory;
+        }
+    }
+
+    private static void assertFindsNaiveNeighbors(String metric, NeighborCache cache, byte[] trainingPixels,
+                                                  byte[] queryPixels, int capacity) {
+        assertEquals(NUM_QUERY_IMAGES, cache.getNumQueries());
+        assertEquals(capacity, cache.getCapacity());
+        for (int query = 0; query < NUM_QUERY_IMAGES; query++) {
+            int offset = query * Config.RGB_FLAT_IMAGE_SIZE;
+            int[] expected = NaiveNeighbors.findClosest(metric, queryPixels, offset, trainingPixels,
+                    Config.RGB_FLAT_IMAGE_SIZE, capacity);
+            assertEquals(expected.length, cache.getNeighborCount(query));
+            for (int j = 0; j < expected.length; j++) {
+                assertEquals(expected[j], cache.getIndex(query, j), "neighbor " + j + " of query image " + query);
+                assertEquals(NaiveNeighbors.distance(metric, queryPixels, offset, trainingPixels,
+                        expected[j] * Config.RGB_FLAT_IMAGE_SIZE, Config.RGB_FLAT_IMAGE_SIZE),
+                        cache.getDistance(query, j));
+            }
+        }
+    }
+
+    /**
+     * @return cache with random neighbors, fewer than the capacity for some query images
+     */
+    private NeighborCache createCache(int numQueries, int capacity) {
+        NeighborCache cache = new NeighborCache("test key", numQueries, capacity);
+        for (int query = 0; query < numQueries; query++) {
+            NearestNeighbors neighbors = new NearestNeighbors(capacity);
+            for (int j = random.nextInt(capacity + 1); j > 0; j--) {
+                neighbors.offer(random.nextInt(1000), random.nextInt(NUM_TRAINING_IMAGES), 0);
+            }
+            cache.put(query, neighbors);
+        }
+        return cache;
+    }
+
+    private static ClassifierImage createImage(byte[] pixels, int i) {
+        return new ClassifierImage(pixels, i * Config.RGB_FLAT_IMAGE_SIZE, Config.IMAGE_WIDTH, Config.IMAGE_WIDTH, 3);
+    }
+}
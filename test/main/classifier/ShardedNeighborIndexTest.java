@@ -0,0 +1,123 @@
+package main.classifier;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+
+/**
+ * Checks that a sharded index finds exactly the neighbors of a linear scan over the whole training set, and of a
+ * naive search, however the images are split between shards in this process or in shard workers
+ */
+class ShardedNeighborIndexTest {
+
+    private static final int K = 7;
+    /** Odd, so the kernels' tails past their last full vector are searched too */
+    private static final int IMAGE_SIZE = 51;
+    private static final int NUM_TRAINING_IMAGES = 300;
+    private static final int NUM_QUERY_IMAGES = 25;
+    /** Fewer than the most shards, so some shards by label are left empty */
+    private static final int NUM_LABELS = 3;
+
+    private final Random random = new Random(1);
+    private final byte[] trainingPixels
+            = NaiveNeighbors.createTieHeavyImages(random, NUM_TRAINING_IMAGES, IMAGE_SIZE);
+    private final byte[] queryPixels = NaiveNeighbors.createTieHeavyImages(random, NUM_QUERY_IMAGES, IMAGE_SIZE);
+    private final PackedTrainingSet trainingImages = createTrainingSet();
+
+    static Stream<Arguments> localShardings() {
+        List<Arguments> shardings = new ArrayList<>();
+        for (String metric : new String[] {"L1", "L2"}) {
+            for (int numShards = 1; numShards <= 4; numShards++) {
+                shardings.add(Arguments.of(metric, numShards, false));
+                shardings.add(Arguments.of(metric, numShards, true));
+            }
+        }
+        return shardings.stream();
+    }
+
+    static Stream<Arguments> remoteShardings() {
+        return Stream.of(Arguments.of("L1", false), Arguments.of("L1", true),
+                Arguments.of("L2", false), Arguments.of("L2", true));
+    }
+
+    @ParameterizedTest
+    @MethodSource("localShardings")
+    void localShardsFindLikeLinearScan(String metric, int numShards, boolean byLabel) throws IOException {
+        NeighborShard[] shards = new NeighborShard[numShards];
+        for (int s = 0; s < numShards; s++) {
+            shards[s] = new LocalNeighborShard();
+        }
+        try (ShardedNeighborIndex index = new ShardedNeighborIndex(shards, byLabel)) {
+            assertFindsLikeLinearScan(index, metric);
+        }
+    }
+
+    @ParameterizedTest
+    @MethodSource("remoteShardings")
+    void remoteShardsFindLikeLinearScan(String metric, boolean byLabel) throws IOException {
+        try (ShardWorker workerA = new ShardWorker(0);
+             ShardWorker workerB = new ShardWorker(0);
+             ShardedNeighborIndex index = new ShardedNeighborIndex(new NeighborShard[] {
+                     new RemoteNeighborShard(workerA.getPort()), new RemoteNeighborShard(workerB.getPort())},
+                     byLabel)) {
+            assertFindsLikeLinearScan(index, metric);
+        }
+    }
+
+    private void assertFindsLikeLinearScan(ShardedNeighborIndex index, String metric) {
+        DistanceKernel kernel = DistanceKernels.getBestKernel(metric);
+        index.build(trainingImages, kernel);
+        LinearScanIndex linearScan = new LinearScanIndex();
+        linearScan.build(trainingImages, kernel);
+
+        // one batch of every query image, as the classifier searches, and each query image on its own
+        byte[][] images = new byte[NUM_QUERY_IMAGES][];
+        int[] offsets = new int[NUM_QUERY_IMAGES];
+        NearestNeighbors[] batchNeighbors = new NearestNeighbors[NUM_QUERY_IMAGES];
+        for (int q = 0; q < NUM_QUERY_IMAGES; q++) {
+            images[q] = queryPixels;
+            offsets[q] = q * IMAGE_SIZE;
+            batchNeighbors[q] = new NearestNeighbors(K);
+        }
+        index.search(images, offsets, batchNeighbors, NUM_QUERY_IMAGES);
+
+        for (int q = 0; q < NUM_QUERY_IMAGES; q++) {
+            int[] expected = NaiveNeighbors.findClosest(metric, queryPixels, offsets[q], trainingPixels, IMAGE_SIZE,
+                    K);
+            int[] expectedDistances = new int[K];
+            for (int i = 0; i < K; i++) {
+                expectedDistances[i] = NaiveNeighbors.distance(metric, queryPixels, offsets[q], trainingPixels,
+                        expected[i] * IMAGE_SIZE, IMAGE_SIZE);
+            }
+
+            NearestNeighbors singleNeighbors = new NearestNeighbors(K);
+            index.search(queryPixels, offsets[q], singleNeighbors);
+            NearestNeighbors linearScanNeighbors = new NearestNeighbors(K);
+            linearScan.search(queryPixels, offsets[q], linearScanNeighbors);
+
+            for (NearestNeighbors neighbors
+                    : new NearestNeighbors[] {batchNeighbors[q], singleNeighbors, linearScanNeighbors}) {
+                neighbors.sort();
+                assertArrayEquals(expected, NaiveNeighbors.getIndices(neighbors), "indices of query image " + q);
+                assertArrayEquals(expectedDistances, NaiveNeighbors.getDistances(neighbors),
+                        "distances of query image " + q);
+            }
+        }
+    }
+
+    private PackedTrainingSet createTrainingSet() {
+        PackedTrainingSet images = new PackedTrainingSet(IMAGE_SIZE);
+        for (int i = 0; i < NUM_TRAINING_IMAGES; i++) {
+            images.add("label " + random.nextInt(NUM_LABELS), trainingPixels, i * IMAGE_SIZE, IMAGE_SIZE);
+        }
+        return images;
+    }
+}
@@ -0,0 +1,132 @@
+package main.server;
+
+import main.cifar10.Cifar10Batch;
+import main.classifier.DistanceKernels;
+import main.classifier.KNNClassifier;
+import main.config.Config;
+import main.data.ClassifierImage;
+import org.apache.commons.collections4.KeyValue;
+import org.apache.commons.collections4.keyvalue.DefaultKeyValue;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Checks that the classification server answers every image sent over concurrent connections with exactly the label
+ * the classifier predicts for it, however the images are batched together
+ */
+class ClassificationServerTest {
+
+    private static final int K = 5;
+    private static final int NUM_TRAINING_IMAGES = 300;
+    private static final int NUM_QUERY_IMAGES = 120;
+    private static final int NUM_CLIENTS = 6;
+
+    private final Random random = new Random(1);
+
+    @ParameterizedTest
+    @CsvSource({"1, 0", "4, 1", "16, 5", "64, 2"})
+    void answersEveryConnectionLikeClassifier(int maxBatchSize, int maxBatchWaitMillis) throws Exception {
+        List<KeyValue<String, ClassifierImage>> labeledTrainingImages = new ArrayList<>();
+        for (int i = 0; i < NUM_TRAINING_IMAGES; i++) {
+            labeledTrainingImages.add(new DefaultKeyValue<>("label " + random.nextInt(4), toClassifierImage(
+                    createRecordPixels())));
+        }
+        byte[][] queryRecords = new byte[NUM_QUERY_IMAGES][];
+        List<ClassifierImage> queryImages = new ArrayList<>();
+        for (int i = 0; i < NUM_QUERY_IMAGES; i++) {
+            queryRecords[i] = createRecordPixels();
+            queryImages.add(toClassifierImage(queryRecords[i]));
+        }
+
+        try (KNNClassifier classifier = new KNNClassifier(2, DistanceKernels.getBestKernel())) {
+            classifier.train(labeledTrainingImages);
+            List<String> expected = new ArrayList<>();
+            for (KeyValue<String, ClassifierImage> prediction : classifier.predict(queryImages, K)) {
+                expected.add(prediction.getKey());
+            }
+
+            BatchingClassifier batchingClassifier = new BatchingClassifier(
+                    classifier, K, maxBatchSize, TimeUnit.MILLISECONDS.toNanos(maxBatchWaitMillis));
+            List<String> labels = new ArrayList<>();
+            ExecutorService clients = Executors.newFixedThreadPool(NUM_CLIENTS);
+            try (ClassificationServer server = new ClassificationServer(batchingClassifier, 0, 3600)) {
+                List<Future<List<String>>> results = new ArrayList<>();
+                for (int client = 0; client < NUM_CLIENTS; client++) {
+                    int from = client * NUM_QUERY_IMAGES / NUM_CLIENTS;
+                    int to = (client + 1) * NUM_QUERY_IMAGES / NUM_CLIENTS;
+                    // the first client sends all its images before reading any label
+                    boolean pipelined = client == 0;
+                    results.add(clients.submit(() -> sendImages(server.getPort(), queryRecords, from, to, pipelined)));
+                }
+                for (Future<List<String>> result : results) {
+                    labels.addAll(result.get());
+                }
+            } finally {
+                clients.shutdown();
+            }
+            assertEquals(expected, labels);
+        }
+    }
+
+    /**
+     * Sends images over a new connection, and reads the label of each
+     *
+     * @param from index of the first image to send, inclusive
+     * @param to index of the last image to send, exclusive
+     * @param pipelined whether to send every image before reading any label, or wait for each label in turn
+     * @return labels received, in the order the images were sent
+     */
+    private static List<String> sendImages(int port, byte[][] records, int from, int to, boolean pipelined)
+            throws IOException {
+        List<String> labels = new ArrayList<>();
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream out = socket.getOutputStream();
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            for (int i = from; i < to; i++) {
+                out.write(records[i]);
+                out.flush();
+                if (!pipelined) {
+                    labels.add(in.readLine());
+                }
+            }
+            while (labels.size() < to - from) {
+                labels.add(in.readLine());
+            }
+        }
+        return labels;
+    }
+
+    /**
+     * @return random pixels of an image in CIFAR-10 binary layout, as a client sends them
+     */
+    private byte[] createRecordPixels() {
+        byte[] pixels = new byte[Config.RGB_FLAT_IMAGE_SIZE];
+        random.nextBytes(pixels);
+        return pixels;
+    }
+
+    private static ClassifierImage toClassifierImage(byte[] recordPixels) {
+        byte[] flatImage = new byte[Config.RGB_FLAT_IMAGE_SIZE];
+        Cifar10Batch.copyFlatImage(ByteBuffer.wrap(recordPixels), 0, flatImage, 0);
+        return new ClassifierImage(flatImage, 0, Config.IMAGE_WIDTH, Config.IMAGE_WIDTH, 3);
+    }
+}